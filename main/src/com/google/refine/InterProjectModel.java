@@ -33,29 +33,129 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.refine.browsing.RowVisitor;
+import com.google.refine.browsing.util.ChunkedScanner;
+import com.google.refine.browsing.util.ChunkedScanner.ChunkTask;
 import com.google.refine.expr.ExpressionUtils;
 import com.google.refine.expr.HasFieldsListImpl;
 import com.google.refine.expr.WrappedRow;
 import com.google.refine.model.Column;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
+import com.google.refine.preference.PreferenceStore;
 
+/**
+ * Joins between the rows of two projects on the values of a column of each, as used
+ * by cross(), kept in a cache bounded by the memory they take.
+ *
+ * A join numbers the distinct values of the column of the first project and lists,
+ * for each, the indices of the rows of the second project holding it, all in one int
+ * array. When the second project is not loaded, its rows are streamed from disk and
+ * only those which match are kept, rather than loading the whole project. The project
+ * is only loaded if the record of one of those rows is asked for.
+ */
 public class InterProjectModel {
+    final static Logger logger = LoggerFactory.getLogger("inter-project-model");
+
+    /**
+     * Preference holding the number of megabytes joins may take in the cache. The
+     * join last computed is kept whatever its size.
+     */
+    static final public String CACHE_MEGABYTES_PREFERENCE = "crossJoin.cacheMegabytes";
+    static final public int DEFAULT_CACHE_MEGABYTES = 256;
+
+    // rough sizes, in bytes, of a map entry and of an object's header
+    static final protected int ENTRY_BYTES = 48;
+    static final protected int OBJECT_BYTES = 16;
+
     static public class ProjectJoin {
         final public long   fromProjectID;
         final public String fromProjectColumnName;
         final public long   toProjectID;
         final public String toProjectColumnName;
         
-        final public Map<Object, List<Integer>> valueToRowIndices = 
-            new HashMap<Object, List<Integer>>();
+        // the distinct values of the first project's column, numbered
+        protected Map<Object, Integer> _valueIds = new HashMap<Object, Integer>();
+        // the rows holding value v are _rowIndices[_starts[v]] to _rowIndices[_starts[v + 1] - 1]
+        protected int[]     _starts = new int[1];
+        protected int[]     _rowIndices = new int[0];
+        
+        // when the second project was not loaded: the project without its rows, and the
+        // rows matched, in the same order as _rowIndices
+        protected Project   _detachedProject;
+        protected Row[]     _rows;
+        
+        protected long      _memorySize;
+        
+        /**
+         * The rows of the second project holding each value of the first project's
+         * column, as a read-only view.
+         * 
+         * @deprecated use {@link #getRowIndices(Object)}
+         */
+        @Deprecated
+        final public Map<Object, List<Integer>> valueToRowIndices = new AbstractMap<Object, List<Integer>>() {
+            @Override
+            public boolean containsKey(Object value) {
+                return _valueIds.containsKey(value);
+            }
+            
+            @Override
+            public List<Integer> get(Object value) {
+                Integer id = _valueIds.get(value);
+                return id != null ? getRowIndexList(id) : null;
+            }
+            
+            @Override
+            public int size() {
+                return _valueIds.size();
+            }
+            
+            @Override
+            public Set<Entry<Object, List<Integer>>> entrySet() {
+                return new AbstractSet<Entry<Object, List<Integer>>>() {
+                    @Override
+                    public Iterator<Entry<Object, List<Integer>>> iterator() {
+                        final Iterator<Entry<Object, Integer>> ids = _valueIds.entrySet().iterator();
+                        return new Iterator<Entry<Object, List<Integer>>>() {
+                            @Override
+                            public boolean hasNext() {
+                                return ids.hasNext();
+                            }
+                            
+                            @Override
+                            public Entry<Object, List<Integer>> next() {
+                                Entry<Object, Integer> e = ids.next();
+                                return new SimpleImmutableEntry<Object, List<Integer>>(
+                                    e.getKey(), getRowIndexList(e.getValue()));
+                            }
+                        };
+                    }
+                    
+                    @Override
+                    public int size() {
+                        return _valueIds.size();
+                    }
+                };
+            }
+        };
         
         ProjectJoin(
             long   fromProjectID,
@@ -69,14 +169,40 @@ public class InterProjectModel {
             this.toProjectColumnName = toProjectColumnName;
         }
         
+        /**
+         * @return the indices of the rows of the second project holding the given value,
+         *      or null if the first project does not hold it
+         */
+        public int[] getRowIndices(Object value) {
+            Integer id = ExpressionUtils.isNonBlankData(value) ? _valueIds.get(value) : null;
+            if (id == null) {
+                return null;
+            }
+            return Arrays.copyOfRange(_rowIndices, _starts[id], _starts[id + 1]);
+        }
+        
+        protected List<Integer> getRowIndexList(int id) {
+            List<Integer> rowIndices = new ArrayList<Integer>(_starts[id + 1] - _starts[id]);
+            for (int k = _starts[id]; k < _starts[id + 1]; k++) {
+                rowIndices.add(_rowIndices[k]);
+            }
+            return Collections.unmodifiableList(rowIndices);
+        }
+        
         public HasFieldsListImpl getRows(Object value) {
-            if (ExpressionUtils.isNonBlankData(value) && valueToRowIndices.containsKey(value)) {
-                Project toProject = ProjectManager.singleton.getProject(toProjectID);
+            Integer id = ExpressionUtils.isNonBlankData(value) ? _valueIds.get(value) : null;
+            if (id != null) {
+                Project toProject = _detachedProject != null ? 
+                    _detachedProject : ProjectManager.singleton.getProject(toProjectID);
                 if (toProject != null) {
                     HasFieldsListImpl rows = new HasFieldsListImpl();
-                    for (Integer r : valueToRowIndices.get(value)) {
-                        Row row = toProject.rows.get(r);
-                        rows.add(new WrappedRow(toProject, r, row));
+                    for (int k = _starts[id]; k < _starts[id + 1]; k++) {
+                        int r = _rowIndices[k];
+                        if (_rows != null) {
+                            rows.add(new DetachedRow(toProject, r, _rows[k]));
+                        } else {
+                            rows.add(new WrappedRow(toProject, r, toProject.rows.get(r)));
+                        }
                     }
                     
                     return rows;
@@ -84,12 +210,70 @@ public class InterProjectModel {
             }
             return null;
         }
+        
+        /**
+         * A row read from disk. Its record spans rows which were not kept, so it is
+         * looked up in the second project, loading it.
+         */
+        protected class DetachedRow extends WrappedRow {
+            protected DetachedRow(Project project, int rowIndex, Row row) {
+                super(project, rowIndex, row);
+            }
+            
+            @Override
+            public Object getField(String name, Properties bindings) {
+                if ("record".equals(name)) {
+                    Project toProject = ProjectManager.singleton.getProject(toProjectID);
+                    if (toProject == null || rowIndex >= toProject.rows.size()) {
+                        return null;
+                    }
+                    return new WrappedRow(toProject, rowIndex, toProject.rows.get(rowIndex)).getField(name, bindings);
+                }
+                return super.getField(name, bindings);
+            }
+        }
+        
+        /**
+         * @return true if the rows of the second project were read from disk
+         */
+        public boolean isDetached() {
+            return _detachedProject != null;
+        }
+        
+        /**
+         * @return an estimate of the number of bytes the join takes
+         */
+        public long getMemorySize() {
+            return _memorySize;
+        }
+        
+        protected void estimateMemorySize() {
+            long size = OBJECT_BYTES * 4;
+            for (Object value : _valueIds.keySet()) {
+                size += ENTRY_BYTES + OBJECT_BYTES;
+                if (value instanceof String) {
+                    size += OBJECT_BYTES + 2L * ((String) value).length();
+                }
+            }
+            size += 4L * (_starts.length + _rowIndices.length);
+            if (_rows != null) {
+                for (Row row : _rows) {
+                    size += OBJECT_BYTES * 2 + (8L + ENTRY_BYTES) * row.cells.size();
+                }
+            }
+            _memorySize = size;
+        }
     }
     
-    protected Map<String, ProjectJoin> _joins = new HashMap<String, ProjectJoin>();
+    // least recently used first
+    protected Map<String, ProjectJoin> _joins = new LinkedHashMap<String, ProjectJoin>(16, 0.75f, true);
+    protected long _cachedBytes;
+    protected long _hits;
+    protected long _misses;
+    protected long _evictions;
     
     /**
-     * Compute the ProjectJoin based on combination key, return the cached one from the HashMap if already computed
+     * Compute the ProjectJoin based on combination key, return the cached one if already computed
      * 
      * @param fromProject
      * @param fromColumn
@@ -99,22 +283,36 @@ public class InterProjectModel {
      */
     public ProjectJoin getJoin(String fromProject, String fromColumn, String toProject, String toColumn) {
         String key = fromProject + ";" + fromColumn + ";" + toProject + ";" + toColumn;
-        if (!_joins.containsKey(key)) {
-            ProjectJoin join = new ProjectJoin(
-                ProjectManager.singleton.getProjectID(fromProject), 
-                fromColumn, 
-                ProjectManager.singleton.getProjectID(toProject), 
-                toColumn
-            );
-            
-            computeJoin(join);
-            
-            synchronized (_joins) {
-                _joins.put(key, join);
+        synchronized (_joins) {
+            ProjectJoin join = _joins.get(key);
+            if (join != null) {
+                _hits++;
+                return join;
             }
+            _misses++;
         }
         
-        return _joins.get(key);
+        ProjectJoin join = new ProjectJoin(
+            ProjectManager.singleton.getProjectID(fromProject), 
+            fromColumn, 
+            ProjectManager.singleton.getProjectID(toProject), 
+            toColumn
+        );
+        
+        computeJoin(join);
+        join.estimateMemorySize();
+        
+        synchronized (_joins) {
+            ProjectJoin existing = _joins.get(key);
+            if (existing != null) {
+                // computed meanwhile by another thread
+                return existing;
+            }
+            _joins.put(key, join);
+            _cachedBytes += join.getMemorySize();
+            evict(getCacheLimit(), join);
+        }
+        return join;
     }
     
     public void flushJoinsInvolvingProject(long projectID) {
@@ -123,6 +321,7 @@ public class InterProjectModel {
                 Entry<String, ProjectJoin> entry = it.next();
                 ProjectJoin join = entry.getValue();
                 if (join.fromProjectID == projectID || join.toProjectID == projectID) {
+                    _cachedBytes -= join.getMemorySize();
                     it.remove();
                 }
             }
@@ -136,44 +335,231 @@ public class InterProjectModel {
                 ProjectJoin join = entry.getValue();
                 if (join.fromProjectID == projectID && join.fromProjectColumnName.equals(columnName) || 
                         join.toProjectID == projectID && join.toProjectColumnName.equals(columnName)) {
+                    _cachedBytes -= join.getMemorySize();
                     it.remove();
                 }
             }
         }
     }
+    
+    public int getCachedJoinCount() {
+        synchronized (_joins) {
+            return _joins.size();
+        }
+    }
+    
+    /**
+     * @return an estimate of the number of bytes the cached joins take
+     */
+    public long getCachedBytes() {
+        synchronized (_joins) {
+            return _cachedBytes;
+        }
+    }
+    
+    public long getHitCount() {
+        synchronized (_joins) {
+            return _hits;
+        }
+    }
+    
+    public long getMissCount() {
+        synchronized (_joins) {
+            return _misses;
+        }
+    }
+    
+    public long getEvictionCount() {
+        synchronized (_joins) {
+            return _evictions;
+        }
+    }
+    
+    /**
+     * @return the number of bytes cached joins may take
+     */
+    static public long getCacheLimit() {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        Object v = ps != null ? ps.get(CACHE_MEGABYTES_PREFERENCE) : null;
+        long megabytes = DEFAULT_CACHE_MEGABYTES;
+        if (v != null) {
+            try {
+                megabytes = Math.max(0, Long.parseLong(v.toString()));
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        return megabytes * 1024 * 1024;
+    }
+    
+    /**
+     * Drop the least recently used joins, but the given one, until the cache fits
+     * in the given number of bytes.
+     */
+    protected void evict(long limit, ProjectJoin keep) {
+        for (Iterator<ProjectJoin> it = _joins.values().iterator(); _cachedBytes > limit && it.hasNext();) {
+            ProjectJoin join = it.next();
+            if (join != keep) {
+                _cachedBytes -= join.getMemorySize();
+                _evictions++;
+                it.remove();
+            }
+        }
+    }
 
-    protected void computeJoin(ProjectJoin join) {
+    protected void computeJoin(final ProjectJoin join) {
         if (join.fromProjectID < 0 || join.toProjectID < 0) {
             return;
         }
         
         Project fromProject = ProjectManager.singleton.getProject(join.fromProjectID);
-        Project toProject = ProjectManager.singleton.getProject(join.toProjectID);
-        if (fromProject == null || toProject == null) {
+        if (fromProject == null) {
             return;
         }
-        
         Column fromColumn = fromProject.columnModel.getColumnByName(join.fromProjectColumnName);
-        Column toColumn = toProject.columnModel.getColumnByName(join.toProjectColumnName);
-        if (fromColumn == null || toColumn == null) {
+        if (fromColumn == null) {
             return;
         }
         
+        int fromCellIndex = fromColumn.getCellIndex();
         for (Row fromRow : fromProject.rows) {
-            Object value = fromRow.getCellValue(fromColumn.getCellIndex());
-            if (ExpressionUtils.isNonBlankData(value) && !join.valueToRowIndices.containsKey(value)) {
-                join.valueToRowIndices.put(value, new ArrayList<Integer>());
+            Object value = fromRow.getCellValue(fromCellIndex);
+            if (ExpressionUtils.isNonBlankData(value) && !join._valueIds.containsKey(value)) {
+                join._valueIds.put(value, join._valueIds.size());
             }
         }
         
-        int count = toProject.rows.size();
-        for (int r = 0; r < count; r++) {
-            Row toRow = toProject.rows.get(r);
+        if (!ProjectManager.singleton.isProjectLoaded(join.toProjectID) && scanJoin(join)) {
+            return;
+        }
+        
+        Project toProject = ProjectManager.singleton.getProject(join.toProjectID);
+        if (toProject == null) {
+            return;
+        }
+        Column toColumn = toProject.columnModel.getColumnByName(join.toProjectColumnName);
+        if (toColumn == null) {
+            return;
+        }
+        
+        int[] valueIds = findValueIds(join, toProject, toColumn.getCellIndex());
+        fillPostings(join, valueIds, valueIds.length);
+    }
+    
+    /**
+     * @return the id of the value each row of the given project holds, or -1
+     */
+    protected int[] findValueIds(final ProjectJoin join, final Project toProject, final int cellIndex) {
+        final int count = toProject.rows.size();
+        final int[] valueIds = new int[count];
+        ChunkTask<Void> task = new ChunkTask<Void>() {
+            @Override
+            public Void scan(int from, int to) {
+                for (int r = from; r < to; r++) {
+                    Object value = toProject.rows.get(r).getCellValue(cellIndex);
+                    Integer id = ExpressionUtils.isNonBlankData(value) ? join._valueIds.get(value) : null;
+                    valueIds[r] = id != null ? id : -1;
+                }
+                return null;
+            }
+        };
+        
+        int parallelism = ChunkedScanner.getDefaultParallelism();
+        if (ChunkedScanner.shouldSplit(count, parallelism)) {
+            ChunkedScanner.scan(count, parallelism, task);
+        } else {
+            task.scan(0, count);
+        }
+        return valueIds;
+    }
+    
+    /**
+     * Read the rows of the second project from disk, keeping those which match.
+     * 
+     * @return false if they could not be read this way
+     */
+    protected boolean scanJoin(final ProjectJoin join) {
+        final List<Integer> valueIds = new ArrayList<Integer>();
+        final List<Integer> rowIndices = new ArrayList<Integer>();
+        final List<Row> rows = new ArrayList<Row>();
+        RowVisitor visitor = new RowVisitor() {
+            int _cellIndex = -2;
+            
+            @Override
+            public void start(Project project) {
+            }
+            
+            @Override
+            public boolean visit(Project project, int rowIndex, Row row) {
+                if (_cellIndex == -2) {
+                    Column column = project.columnModel.getColumnByName(join.toProjectColumnName);
+                    _cellIndex = column != null ? column.getCellIndex() : -1;
+                }
+                Object value = _cellIndex >= 0 ? row.getCellValue(_cellIndex) : null;
+                Integer id = ExpressionUtils.isNonBlankData(value) ? join._valueIds.get(value) : null;
+                if (id != null) {
+                    valueIds.add(id);
+                    rowIndices.add(rowIndex);
+                    rows.add(row);
+                }
+                return false;
+            }
             
-            Object value = toRow.getCellValue(toColumn.getCellIndex());
-            if (ExpressionUtils.isNonBlankData(value) && join.valueToRowIndices.containsKey(value)) {
-                join.valueToRowIndices.get(value).add(r);
+            @Override
+            public void end(Project project) {
+            }
+        };
+        
+        Project toProject = ProjectManager.singleton.scanProject(join.toProjectID, visitor);
+        if (toProject == null) {
+            return false;
+        }
+        
+        int count = valueIds.size();
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = valueIds.get(i);
+        }
+        fillPostings(join, ids, count);
+        
+        // the postings list positions among the rows kept: turn them into row indices
+        Row[] sortedRows = new Row[count];
+        for (int k = 0; k < count; k++) {
+            int i = join._rowIndices[k];
+            sortedRows[k] = rows.get(i);
+            join._rowIndices[k] = rowIndices.get(i);
+        }
+        join._rows = sortedRows;
+        join._detachedProject = toProject;
+        
+        logger.info("Joined {} rows of project {} read from disk", count, join.toProjectID);
+        return true;
+    }
+    
+    /**
+     * Fill the postings of the join, given the value id held by each of a sequence of
+     * rows, or -1: rows are listed by their position in that sequence.
+     */
+    protected void fillPostings(ProjectJoin join, int[] valueIds, int count) {
+        int[] starts = new int[join._valueIds.size() + 1];
+        for (int i = 0; i < count; i++) {
+            if (valueIds[i] >= 0) {
+                starts[valueIds[i] + 1]++;
+            }
+        }
+        for (int v = 0; v < join._valueIds.size(); v++) {
+            starts[v + 1] += starts[v];
+        }
+        
+        int[] rowIndices = new int[starts[starts.length - 1]];
+        int[] filled = Arrays.copyOf(starts, starts.length - 1);
+        for (int i = 0; i < count; i++) {
+            if (valueIds[i] >= 0) {
+                rowIndices[filled[valueIds[i]]++] = i;
             }
         }
+        join._starts = starts;
+        join._rowIndices = rowIndices;
     }
 }
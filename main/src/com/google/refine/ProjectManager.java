@@ -54,6 +54,7 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.refine.browsing.RowVisitor;
 import com.google.refine.history.HistoryEntryManager;
 import com.google.refine.model.Project;
 import com.google.refine.model.medadata.IMetadata;
@@ -513,6 +514,27 @@ public abstract class ProjectManager {
         }
     }
 
+    /**
+     * @return true if the project of the given id is loaded in memory
+     */
+    public boolean isProjectLoaded(long id) {
+        synchronized (this) {
+            return _projects.containsKey(id);
+        }
+    }
+
+    /**
+     * Reads the rows of a project from the data store without loading it, handing
+     * them to the given visitor, whose start and end methods are not called.
+     * @param id
+     *     the id of the project
+     * @return
+     *     the project without its rows, or null if its rows can't be read this way
+     */
+    public Project scanProject(long id, RowVisitor visitor) {
+        return null;
+    }
+
     /**
      * Gets the preference store
      * @return
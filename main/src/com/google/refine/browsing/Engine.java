@@ -33,6 +33,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.browsing;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
@@ -49,8 +50,10 @@ import com.google.refine.browsing.facets.RangeFacet;
 import com.google.refine.browsing.facets.ScatterplotFacet;
 import com.google.refine.browsing.facets.TextSearchFacet;
 import com.google.refine.browsing.facets.TimeRangeFacet;
+import com.google.refine.browsing.util.ChunkedScanner;
 import com.google.refine.browsing.util.ConjunctiveFilteredRecords;
 import com.google.refine.browsing.util.ConjunctiveFilteredRows;
+import com.google.refine.browsing.util.FacetFilterMasks;
 import com.google.refine.browsing.util.FilteredRecordsAsFilteredRows;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
@@ -72,6 +75,8 @@ public class Engine implements Jsonizable {
     protected Project _project;
     protected List<Facet> _facets = new LinkedList<Facet>();
     protected Mode _mode = Mode.RowBased;
+    protected int _parallelism;
+    protected boolean _singlePassFilters = true;
 
     static public String modeToString(Mode mode) {
         return mode == Mode.RowBased ? MODE_ROW_BASED : MODE_RECORD_BASED;
@@ -82,6 +87,7 @@ public class Engine implements Jsonizable {
 
     public Engine(Project project) {
         _project  = project;
+        _parallelism = ChunkedScanner.getDefaultParallelism();
     }
 
     public Mode getMode() {
@@ -91,6 +97,28 @@ public class Engine implements Jsonizable {
         _mode = mode;
     }
 
+    public boolean isSinglePassFilters() {
+        return _singlePassFilters;
+    }
+    /**
+     * @param singlePass true to have {@link #computeFacets()} evaluate all facet
+     *      filters in one pass instead of once per facet
+     */
+    public void setSinglePassFilters(boolean singlePass) {
+        _singlePassFilters = singlePass;
+    }
+
+    public int getParallelism() {
+        return _parallelism;
+    }
+    /**
+     * @param parallelism number of threads used to evaluate filters and facets,
+     *      1 to scan on the calling thread only
+     */
+    public void setParallelism(int parallelism) {
+        _parallelism = Math.max(1, parallelism);
+    }
+
     public FilteredRows getAllRows() {
         return new FilteredRows() {
             @Override
@@ -121,6 +149,7 @@ public class Engine implements Jsonizable {
             return new FilteredRecordsAsFilteredRows(getFilteredRecords(except));
         } else if (_mode == Mode.RowBased) {
             ConjunctiveFilteredRows cfr = new ConjunctiveFilteredRows();
+            cfr.setParallelism(_parallelism);
             for (Facet facet : _facets) {
                 if (facet != except) {
                     RowFilter rowFilter = facet.getRowFilter(_project);
@@ -159,6 +188,7 @@ public class Engine implements Jsonizable {
     public FilteredRecords getFilteredRecords(Facet except) {
         if (_mode == Mode.RecordBased) {
             ConjunctiveFilteredRecords cfr = new ConjunctiveFilteredRecords();
+            cfr.setParallelism(_parallelism);
             for (Facet facet : _facets) {
                 if (facet != except) {
                     RecordFilter recordFilter = facet.getRecordFilter(_project);
@@ -216,6 +246,10 @@ public class Engine implements Jsonizable {
     }
 
     public void computeFacets() throws JSONException {
+        if (_singlePassFilters) {
+            computeFacetsWithFilterMasks();
+            return;
+        }
         if (_mode == Mode.RowBased) {
             for (Facet facet : _facets) {
                 FilteredRows filteredRows = getFilteredRows(facet);
@@ -233,6 +267,49 @@ public class Engine implements Jsonizable {
         }
     }
 
+    /**
+     * Evaluate every facet's filter once per row (or record), then compute each
+     * facet's choices over the rows that pass all the other facets' filters.
+     */
+    protected void computeFacetsWithFilterMasks() {
+        int[] filterIndices = new int[_facets.size()];
+        if (_mode == Mode.RowBased) {
+            List<RowFilter> filters = new ArrayList<RowFilter>();
+            int i = 0;
+            for (Facet facet : _facets) {
+                RowFilter rowFilter = facet.getRowFilter(_project);
+                filterIndices[i++] = rowFilter != null ? filters.size() : -1;
+                if (rowFilter != null) {
+                    filters.add(rowFilter);
+                }
+            }
+
+            FacetFilterMasks masks = FacetFilterMasks.computeForRows(_project, filters, _parallelism);
+            i = 0;
+            for (Facet facet : _facets) {
+                facet.computeChoices(_project, masks.getFilteredRows(filterIndices[i++], _parallelism));
+            }
+        } else if (_mode == Mode.RecordBased) {
+            List<RecordFilter> filters = new ArrayList<RecordFilter>();
+            int i = 0;
+            for (Facet facet : _facets) {
+                RecordFilter recordFilter = facet.getRecordFilter(_project);
+                filterIndices[i++] = recordFilter != null ? filters.size() : -1;
+                if (recordFilter != null) {
+                    filters.add(recordFilter);
+                }
+            }
+
+            FacetFilterMasks masks = FacetFilterMasks.computeForRecords(_project, filters, _parallelism);
+            i = 0;
+            for (Facet facet : _facets) {
+                facet.computeChoices(_project, masks.getFilteredRecords(filterIndices[i++], _parallelism));
+            }
+        } else {
+            throw new InternalError("Unknown mode.");
+        }
+    }
+
     @Override
     public void write(JSONWriter writer, Properties options)
     throws JSONException {
@@ -35,6 +35,7 @@ package com.google.refine.browsing.facets;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.json.JSONArray;
@@ -52,6 +53,8 @@ import com.google.refine.browsing.filters.AllRowsRecordFilter;
 import com.google.refine.browsing.filters.AnyRowRecordFilter;
 import com.google.refine.browsing.filters.ExpressionEqualRowFilter;
 import com.google.refine.browsing.util.ExpressionNominalValueGrouper;
+import com.google.refine.browsing.util.ExpressionValueCache;
+import com.google.refine.browsing.util.NominalValueRowIndex;
 import com.google.refine.expr.Evaluable;
 import com.google.refine.expr.MetaParser;
 import com.google.refine.expr.ParsingException;
@@ -87,6 +90,8 @@ public class ListFacet implements Facet {
      * Computed results
      */
     protected List<NominalFacetChoice> _choices = new LinkedList<NominalFacetChoice>();
+    protected int _choiceCount;
+    protected boolean _tooManyChoices; // the grouper stopped at the limit: neither the choices nor their count are known
     protected int _blankCount;
     protected int _errorCount;
     
@@ -105,9 +110,14 @@ public class ListFacet implements Facet {
         
         if (_errorMessage != null) {
             writer.key("error"); writer.value(_errorMessage);
-        } else if (_choices.size() > getLimit()) {
+        } else if (_tooManyChoices || _choiceCount > getLimit()) {
             writer.key("error"); writer.value("Too many choices");
-            writer.key("choiceCount"); writer.value(_choices.size());
+            writer.key("choiceCountLimit"); writer.value(getLimit());
+            if (_tooManyChoices) {
+                writer.key("moreThanLimit"); writer.value(true);
+            } else {
+                writer.key("choiceCount"); writer.value(_choiceCount);
+            }
         } else {
             writer.key("choices"); writer.array();
             for (NominalFacetChoice choice : _choices) {
@@ -202,19 +212,39 @@ public class ListFacet implements Facet {
 
     @Override
     public RowFilter getRowFilter(Project project) {
-        return 
-            _eval == null || 
+        if (_eval == null || 
             _errorMessage != null ||
-            (_selection.size() == 0 && !_selectBlank && !_selectError) ? 
-                null :
-                new ExpressionEqualRowFilter(
+            (_selection.size() == 0 && !_selectBlank && !_selectError)) {
+            return null;
+        }
+        
+        Object[] matches = createMatches();
+        if (NominalValueRowIndex.isIndexable(_expression, _cellIndex)) {
+            Column column = project.columnModel.getColumnByCellIndex(_cellIndex);
+            NominalValueRowIndex index = column == null ? null :
+                NominalValueRowIndex.getIndex(project, column, _expression, _eval);
+            if (index != null) {
+                return new ExpressionEqualRowFilter(
                     _eval, 
                     _columnName,
                     _cellIndex, 
-                    createMatches(), 
+                    matches, 
                     _selectBlank, 
                     _selectError,
-                    _invert);
+                    _invert,
+                    index.getMatchedRows(matches, _selectBlank, _selectError),
+                    index.getRowCount());
+            }
+        }
+        
+        return new ExpressionEqualRowFilter(
+            _eval, 
+            _columnName,
+            _cellIndex, 
+            matches, 
+            _selectBlank, 
+            _selectError,
+            _invert);
     }
     
     @Override
@@ -230,7 +260,8 @@ public class ListFacet implements Facet {
     public void computeChoices(Project project, FilteredRows filteredRows) {
         if (_eval != null && _errorMessage == null) {
             ExpressionNominalValueGrouper grouper = 
-                new ExpressionNominalValueGrouper(_eval, _columnName, _cellIndex);
+                new ExpressionNominalValueGrouper(_eval, _columnName, _cellIndex,
+                    ExpressionValueCache.getCache(project, _cellIndex, _expression), getLimit());
             
             filteredRows.accept(project, grouper);
             
@@ -242,7 +273,8 @@ public class ListFacet implements Facet {
     public void computeChoices(Project project, FilteredRecords filteredRecords) {
         if (_eval != null && _errorMessage == null) {
             ExpressionNominalValueGrouper grouper = 
-                new ExpressionNominalValueGrouper(_eval, _columnName, _cellIndex);
+                new ExpressionNominalValueGrouper(_eval, _columnName, _cellIndex,
+                    ExpressionValueCache.getCache(project, _cellIndex, _expression), getLimit());
             
             filteredRecords.accept(project, grouper);
             
@@ -252,13 +284,22 @@ public class ListFacet implements Facet {
     
     protected void postProcessGrouper(ExpressionNominalValueGrouper grouper) {
         _choices.clear();
-        _choices.addAll(grouper.choices.values());
+        _blankCount = grouper.blankCount;
+        _errorCount = grouper.errorCount;
+        _tooManyChoices = grouper.hasTooManyChoices();
+        if (_tooManyChoices) {
+            // the grouper stopped early, so none of its counts are complete
+            return;
+        }
+        
+        Map<String, NominalFacetChoice> choices = grouper.getChoices();
+        _choices.addAll(choices.values());
         
         for (NominalFacetChoice choice : _selection) {
             String valueString = choice.decoratedValue.value.toString();
             
-            if (grouper.choices.containsKey(valueString)) {
-                grouper.choices.get(valueString).selected = true;
+            if (choices.containsKey(valueString)) {
+                choices.get(valueString).selected = true;
             } else {
                 /*
                  *  A selected choice can have zero count if it is selected together
@@ -274,9 +315,7 @@ public class ListFacet implements Facet {
                 _choices.add(choice);
             }
         }
-        
-        _blankCount = grouper.blankCount;
-        _errorCount = grouper.errorCount;
+        _choiceCount = _choices.size();
     }
     
     protected Object[] createMatches() {
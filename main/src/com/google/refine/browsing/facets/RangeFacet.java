@@ -46,6 +46,7 @@ import com.google.refine.browsing.RowFilter;
 import com.google.refine.browsing.filters.AnyRowRecordFilter;
 import com.google.refine.browsing.filters.ExpressionNumberComparisonRowFilter;
 import com.google.refine.browsing.util.ExpressionBasedRowEvaluable;
+import com.google.refine.browsing.util.ExpressionValueCache;
 import com.google.refine.browsing.util.ExpressionNumericValueBinner;
 import com.google.refine.browsing.util.NumericBinIndex;
 import com.google.refine.browsing.util.NumericBinRecordIndex;
@@ -267,7 +268,8 @@ public class RangeFacet implements Facet {
     }
     
     protected RowEvaluable getRowEvaluable(Project project) {
-        return new ExpressionBasedRowEvaluable(_columnName, _cellIndex, _eval);
+        return new ExpressionBasedRowEvaluable(_columnName, _cellIndex, _eval,
+            ExpressionValueCache.getCache(project, _cellIndex, _expression));
     }
     
     protected void retrieveDataFromBaseBinIndex(NumericBinIndex index) {
@@ -58,6 +58,7 @@ import com.google.refine.browsing.RowFilter;
 import com.google.refine.browsing.filters.AnyRowRecordFilter;
 import com.google.refine.browsing.filters.DualExpressionsNumberComparisonRowFilter;
 import com.google.refine.browsing.util.ExpressionBasedRowEvaluable;
+import com.google.refine.browsing.util.ExpressionValueCache;
 import com.google.refine.browsing.util.NumericBinIndex;
 import com.google.refine.browsing.util.NumericBinRecordIndex;
 import com.google.refine.browsing.util.NumericBinRowIndex;
@@ -294,7 +295,10 @@ public class ScatterplotFacet implements Facet {
             eval_y != null && errorMessage_y == null) 
         {
             return new DualExpressionsNumberComparisonRowFilter(
-                    eval_x, columnName_x, columnIndex_x, eval_y, columnName_y, columnIndex_y) {
+                    eval_x, columnName_x, columnIndex_x,
+                    ExpressionValueCache.getCache(project, columnIndex_x, expression_x),
+                    eval_y, columnName_y, columnIndex_y,
+                    ExpressionValueCache.getCache(project, columnIndex_y, expression_y)) {
                 
                 double from_x_pixels = from_x * l;
                 double to_x_pixels = to_x * l;
@@ -428,9 +432,12 @@ public class ScatterplotFacet implements Facet {
         }
         NumericBinIndex index = (NumericBinIndex) column.getPrecompute(key);
         if (index == null) {
+            ExpressionBasedRowEvaluable rowEvaluable = new ExpressionBasedRowEvaluable(
+                    column.getName(), column.getCellIndex(), eval,
+                    ExpressionValueCache.getCache(project, column.getCellIndex(), expression));
             index = "row-based".equals(mode) ? 
-                    new NumericBinRowIndex(project, new ExpressionBasedRowEvaluable(column.getName(), column.getCellIndex(), eval)) :
-                        new NumericBinRecordIndex(project, new ExpressionBasedRowEvaluable(column.getName(), column.getCellIndex(), eval));
+                    new NumericBinRowIndex(project, rowEvaluable) :
+                        new NumericBinRecordIndex(project, rowEvaluable);
 
                     column.setPrecompute(key, index);
         }
@@ -37,6 +37,7 @@ import java.util.Collection;
 import java.util.Properties;
 
 import com.google.refine.browsing.RowFilter;
+import com.google.refine.browsing.util.ExpressionValueCache;
 import com.google.refine.expr.Evaluable;
 import com.google.refine.expr.ExpressionUtils;
 import com.google.refine.model.Cell;
@@ -55,6 +56,8 @@ abstract public class DualExpressionsNumberComparisonRowFilter implements RowFil
     final protected Evaluable  _y_evaluable;
     final protected String     _y_columnName;
     final protected int        _y_cellIndex;
+    final protected ExpressionValueCache _x_cache; // may be null
+    final protected ExpressionValueCache _y_cache; // may be null
         
     public DualExpressionsNumberComparisonRowFilter (
         Evaluable x_evaluable,
@@ -63,26 +66,34 @@ abstract public class DualExpressionsNumberComparisonRowFilter implements RowFil
         Evaluable y_evaluable,
         String y_columnName,
         int y_cellIndex
+    ) {
+        this(x_evaluable, x_columnName, x_cellIndex, null, y_evaluable, y_columnName, y_cellIndex, null);
+    }
+    
+    public DualExpressionsNumberComparisonRowFilter (
+        Evaluable x_evaluable,
+        String x_columnName,
+        int x_cellIndex,
+        ExpressionValueCache x_cache,
+        Evaluable y_evaluable,
+        String y_columnName,
+        int y_cellIndex,
+        ExpressionValueCache y_cache
     ) {
         _x_evaluable = x_evaluable;
         _x_columnName = x_columnName;
         _x_cellIndex = x_cellIndex;
+        _x_cache = x_cache;
         _y_evaluable = y_evaluable;
         _y_columnName = y_columnName;
         _y_cellIndex = y_cellIndex;
+        _y_cache = y_cache;
     }
 
     @Override
     public boolean filterRow(Project project, int rowIndex, Row row) {
-        Cell x_cell = _x_cellIndex < 0 ? null : row.getCell(_x_cellIndex);
-        Properties x_bindings = ExpressionUtils.createBindings(project);
-        ExpressionUtils.bind(x_bindings, row, rowIndex, _x_columnName, x_cell);
-        Object x_value = _x_evaluable.evaluate(x_bindings);
-        
-        Cell y_cell = _y_cellIndex < 0 ? null : row.getCell(_y_cellIndex);
-        Properties y_bindings = ExpressionUtils.createBindings(project);
-        ExpressionUtils.bind(y_bindings, row, rowIndex, _y_columnName, y_cell);
-        Object y_value = _y_evaluable.evaluate(y_bindings);
+        Object x_value = evaluate(project, rowIndex, row, _x_evaluable, _x_columnName, _x_cellIndex, _x_cache);
+        Object y_value = evaluate(project, rowIndex, row, _y_evaluable, _y_columnName, _y_cellIndex, _y_cache);
 
         if (x_value != null && y_value != null) {
             if (x_value.getClass().isArray() || y_value.getClass().isArray()) {
@@ -95,6 +106,25 @@ abstract public class DualExpressionsNumberComparisonRowFilter implements RowFil
         return checkValue(x_value,y_value);
     }
         
+    protected Object evaluate(Project project, int rowIndex, Row row,
+            Evaluable evaluable, String columnName, int cellIndex, ExpressionValueCache cache) {
+        if (cache != null) {
+            Object value = cache.get(rowIndex);
+            if (value != ExpressionValueCache.NOT_CACHED) {
+                return value;
+            }
+        }
+        
+        Cell cell = cellIndex < 0 ? null : row.getCell(cellIndex);
+        Properties bindings = ExpressionUtils.createBindings(project);
+        ExpressionUtils.bind(bindings, row, rowIndex, columnName, cell);
+        Object value = evaluable.evaluate(bindings);
+        if (cache != null) {
+            cache.put(rowIndex, value);
+        }
+        return value;
+    }
+        
     protected boolean checkValue(Object vx, Object vy) {
         if (ExpressionUtils.isError(vx) || ExpressionUtils.isError(vy)) {
             return false;
@@ -33,6 +33,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.browsing.filters;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Properties;
 
@@ -64,6 +65,9 @@ public class ExpressionEqualRowFilter implements RowFilter {
     final protected boolean         _selectError;
     final protected boolean         _invert;
     
+    final protected BitSet          _matchedRows; // precomputed matches of the first _indexedRowCount rows, if any
+    final protected int             _indexedRowCount;
+    
     public ExpressionEqualRowFilter(
         Evaluable evaluable,
         String columnName,
@@ -72,6 +76,25 @@ public class ExpressionEqualRowFilter implements RowFilter {
         boolean selectBlank, 
         boolean selectError,
         boolean invert
+    ) {
+        this(evaluable, columnName, cellIndex, matches, selectBlank, selectError, invert, null, 0);
+    }
+    
+    /**
+     * @param matchedRows the rows known to match, as looked up in a
+     *      {@link com.google.refine.browsing.util.NominalValueRowIndex}, or null
+     * @param indexedRowCount the number of rows covered by matchedRows
+     */
+    public ExpressionEqualRowFilter(
+        Evaluable evaluable,
+        String columnName,
+        int cellIndex, 
+        Object[] matches, 
+        boolean selectBlank, 
+        boolean selectError,
+        boolean invert,
+        BitSet matchedRows,
+        int indexedRowCount
     ) {
         _evaluable = evaluable;
         _columnName = columnName;
@@ -80,10 +103,15 @@ public class ExpressionEqualRowFilter implements RowFilter {
         _selectBlank = selectBlank;
         _selectError = selectError;
         _invert = invert;
+        _matchedRows = matchedRows;
+        _indexedRowCount = indexedRowCount;
     }
 
     @Override
     public boolean filterRow(Project project, int rowIndex, Row row) {
+        if (_matchedRows != null && rowIndex < _indexedRowCount) {
+            return _matchedRows.get(rowIndex) != _invert;
+        }
         return _invert ?
                 internalInvertedFilterRow(project, rowIndex, row) :
                 internalFilterRow(project, rowIndex, row);
@@ -0,0 +1,168 @@
+package com.google.refine.browsing.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.preference.PreferenceStore;
+
+/**
+ * Splits a scan over a range of row or record indices into contiguous chunks and
+ * processes them on a shared pool of worker threads. Results are returned in chunk
+ * order so that callers can combine them deterministically.
+ */
+public class ChunkedScanner {
+    /**
+     * Preference holding the number of threads used to evaluate filters and facets.
+     * 1, the default, keeps the scan on the calling thread.
+     */
+    static final public String PARALLELISM_PREFERENCE = "browsing.parallelism";
+
+    /**
+     * Ranges smaller than this are never split, since the hand-off costs more
+     * than it saves.
+     */
+    static final public int MIN_CHUNK_SIZE = 4096;
+
+    static private ExecutorService s_executor;
+
+    public interface ChunkTask<T> {
+        /**
+         * Process indices from (inclusive) to (exclusive).
+         */
+        public T scan(int from, int to);
+    }
+
+    /**
+     * The results of a partial visitor over one chunk.
+     */
+    static public class PartialResult {
+        final public MergeableVisitor visitor;
+        public boolean aborted;
+
+        public PartialResult(MergeableVisitor visitor) {
+            this.visitor = visitor;
+        }
+    }
+
+    /**
+     * The indices of one chunk that matched the filters, relative to the chunk start.
+     */
+    static public class MatchedRange {
+        final public int from;
+        final public BitSet matched;
+
+        public MatchedRange(int from, int to) {
+            this.from = from;
+            this.matched = new BitSet(to - from);
+        }
+    }
+
+    static public int getDefaultParallelism() {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        Object v = ps != null ? ps.get(PARALLELISM_PREFERENCE) : null;
+        if (v != null) {
+            if (v instanceof Number) {
+                return Math.max(1, ((Number) v).intValue());
+            } else {
+                try {
+                    return Math.max(1, Integer.parseInt(v.toString()));
+                } catch (NumberFormatException e) {
+                    // ignore
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @return true if a range of the given size is worth scanning in parallel
+     */
+    static public boolean shouldSplit(int count, int parallelism) {
+        return parallelism > 1 && count >= 2 * MIN_CHUNK_SIZE;
+    }
+
+    /**
+     * Scan [0, count) in chunks using up to parallelism threads.
+     *
+     * @return one result per chunk, in index order
+     */
+    static public <T> List<T> scan(int count, int parallelism, final ChunkTask<T> task) {
+        // a few chunks per thread so that uneven chunks don't leave threads idle
+        int chunkCount = Math.max(1, Math.min(parallelism * 4, count / MIN_CHUNK_SIZE));
+        final int chunkSize = (count + chunkCount - 1) / chunkCount;
+        final int total = count;
+        final int chunks = (count + chunkSize - 1) / chunkSize;
+
+        final List<T> results = new ArrayList<T>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            results.add(null);
+        }
+
+        final AtomicInteger nextChunk = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                    int from = chunk * chunkSize;
+                    int to = Math.min(total, from + chunkSize);
+                    T result = task.scan(from, to);
+                    synchronized (results) {
+                        results.set(chunk, result);
+                    }
+                }
+            }
+        };
+
+        ExecutorService executor = getExecutor();
+        int workers = Math.min(parallelism, chunks);
+        List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+        for (int i = 1; i < workers; i++) {
+            futures.add(executor.submit(worker));
+        }
+        worker.run(); // the calling thread takes its share too
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+        synchronized (results) {
+            return results;
+        }
+    }
+
+    static synchronized protected ExecutorService getExecutor() {
+        if (s_executor == null) {
+            s_executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                final AtomicInteger _count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "browsing-scan-" + _count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return s_executor;
+    }
+}
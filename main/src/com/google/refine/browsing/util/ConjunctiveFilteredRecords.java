@@ -33,6 +33,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.browsing.util;
 
+import java.util.BitSet;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -47,17 +48,35 @@ import com.google.refine.model.Record;
  */
 public class ConjunctiveFilteredRecords implements FilteredRecords {
     final protected List<RecordFilter> _recordFilters = new LinkedList<RecordFilter>();
+    protected int _parallelism = 1;
     
     public void add(RecordFilter recordFilter) {
         _recordFilters.add(recordFilter);
     }
     
+    /**
+     * @param parallelism number of threads to evaluate filters and, when the visitor
+     *      is a {@link MergeableVisitor}, the visitor itself on
+     */
+    public void setParallelism(int parallelism) {
+        _parallelism = parallelism;
+    }
+    
     @Override
     public void accept(Project project, RecordVisitor visitor) {
         try {
             visitor.start(project);
 
             int c = project.recordModel.getRecordCount();
+            if (ChunkedScanner.shouldSplit(c, _parallelism)) {
+                if (visitor instanceof MergeableVisitor) {
+                    acceptMergeable(project, visitor);
+                } else {
+                    acceptWithMatchedRecords(project, visitor);
+                }
+                return;
+            }
+            
             for (int r = 0; r < c; r++) {
                 Record record = project.recordModel.getRecord(r);
                 if (matchRecord(project, record)) {
@@ -71,6 +90,63 @@ public class ConjunctiveFilteredRecords implements FilteredRecords {
         }
     }
     
+    protected void acceptMergeable(final Project project, RecordVisitor visitor) {
+        final MergeableVisitor mergeable = (MergeableVisitor) visitor;
+        List<ChunkedScanner.PartialResult> partials = ChunkedScanner.scan(
+            project.recordModel.getRecordCount(), _parallelism,
+            new ChunkedScanner.ChunkTask<ChunkedScanner.PartialResult>() {
+                @Override
+                public ChunkedScanner.PartialResult scan(int from, int to) {
+                    ChunkedScanner.PartialResult result =
+                        new ChunkedScanner.PartialResult(mergeable.createPartial());
+                    RecordVisitor partialVisitor = (RecordVisitor) result.visitor;
+                    for (int r = from; r < to; r++) {
+                        Record record = project.recordModel.getRecord(r);
+                        if (matchRecord(project, record)) {
+                            if (partialVisitor.visit(project, record)) {
+                                result.aborted = true;
+                                break;
+                            }
+                        }
+                    }
+                    return result;
+                }
+            });
+        
+        for (ChunkedScanner.PartialResult partial : partials) {
+            mergeable.merge(partial.visitor);
+            if (partial.aborted) {
+                break;
+            }
+        }
+    }
+    
+    protected void acceptWithMatchedRecords(final Project project, RecordVisitor visitor) {
+        List<ChunkedScanner.MatchedRange> ranges = ChunkedScanner.scan(
+            project.recordModel.getRecordCount(), _parallelism,
+            new ChunkedScanner.ChunkTask<ChunkedScanner.MatchedRange>() {
+                @Override
+                public ChunkedScanner.MatchedRange scan(int from, int to) {
+                    ChunkedScanner.MatchedRange range = new ChunkedScanner.MatchedRange(from, to);
+                    for (int r = from; r < to; r++) {
+                        if (matchRecord(project, project.recordModel.getRecord(r))) {
+                            range.matched.set(r - from);
+                        }
+                    }
+                    return range;
+                }
+            });
+        
+        for (ChunkedScanner.MatchedRange range : ranges) {
+            BitSet matched = range.matched;
+            for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+                if (visitor.visit(project, project.recordModel.getRecord(range.from + i))) {
+                    return;
+                }
+            }
+        }
+    }
+    
     protected boolean matchRecord(Project project, Record record) {
         for (RecordFilter recordFilter : _recordFilters) {
             if (!recordFilter.filterRecord(project, record)) {
@@ -33,6 +33,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.browsing.util;
 
+import java.util.BitSet;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -48,17 +49,35 @@ import com.google.refine.model.Row;
  */
 public class ConjunctiveFilteredRows implements FilteredRows {
     final protected List<RowFilter> _rowFilters = new LinkedList<RowFilter>();
+    protected int _parallelism = 1;
     
     public void add(RowFilter rowFilter) {
         _rowFilters.add(rowFilter);
     }
     
+    /**
+     * @param parallelism number of threads to evaluate filters and, when the visitor
+     *      is a {@link MergeableVisitor}, the visitor itself on
+     */
+    public void setParallelism(int parallelism) {
+        _parallelism = parallelism;
+    }
+    
     @Override
     public void accept(Project project, RowVisitor visitor) {
         try {
             visitor.start(project);
 
             int c = project.rows.size();
+            if (ChunkedScanner.shouldSplit(c, _parallelism)) {
+                if (visitor instanceof MergeableVisitor) {
+                    acceptMergeable(project, visitor);
+                } else {
+                    acceptWithMatchedRows(project, visitor);
+                }
+                return;
+            }
+            
             for (int rowIndex = 0; rowIndex < c; rowIndex++) {
                 Row row = project.rows.get(rowIndex);
                 if (matchRow(project, rowIndex, row)) {
@@ -72,6 +91,69 @@ public class ConjunctiveFilteredRows implements FilteredRows {
         }
     }
     
+    /**
+     * Filter and visit each chunk with its own partial visitor, then merge the
+     * partials in row order. A partial that aborts drops the chunks after it.
+     */
+    protected void acceptMergeable(final Project project, RowVisitor visitor) {
+        final MergeableVisitor mergeable = (MergeableVisitor) visitor;
+        List<ChunkedScanner.PartialResult> partials = ChunkedScanner.scan(project.rows.size(), _parallelism,
+            new ChunkedScanner.ChunkTask<ChunkedScanner.PartialResult>() {
+                @Override
+                public ChunkedScanner.PartialResult scan(int from, int to) {
+                    ChunkedScanner.PartialResult result = new ChunkedScanner.PartialResult(mergeable.createPartial());
+                    RowVisitor partialVisitor = (RowVisitor) result.visitor;
+                    for (int rowIndex = from; rowIndex < to; rowIndex++) {
+                        Row row = project.rows.get(rowIndex);
+                        if (matchRow(project, rowIndex, row)) {
+                            if (visitRow(project, partialVisitor, rowIndex, row)) {
+                                result.aborted = true;
+                                break;
+                            }
+                        }
+                    }
+                    return result;
+                }
+            });
+        
+        for (ChunkedScanner.PartialResult partial : partials) {
+            mergeable.merge(partial.visitor);
+            if (partial.aborted) {
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Evaluate the filters on all chunks in parallel, then visit the matching
+     * rows in order on the calling thread.
+     */
+    protected void acceptWithMatchedRows(final Project project, RowVisitor visitor) {
+        List<ChunkedScanner.MatchedRange> ranges = ChunkedScanner.scan(project.rows.size(), _parallelism,
+            new ChunkedScanner.ChunkTask<ChunkedScanner.MatchedRange>() {
+                @Override
+                public ChunkedScanner.MatchedRange scan(int from, int to) {
+                    ChunkedScanner.MatchedRange range = new ChunkedScanner.MatchedRange(from, to);
+                    for (int rowIndex = from; rowIndex < to; rowIndex++) {
+                        if (matchRow(project, rowIndex, project.rows.get(rowIndex))) {
+                            range.matched.set(rowIndex - from);
+                        }
+                    }
+                    return range;
+                }
+            });
+        
+        for (ChunkedScanner.MatchedRange range : ranges) {
+            BitSet matched = range.matched;
+            for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+                int rowIndex = range.from + i;
+                if (visitRow(project, visitor, rowIndex, project.rows.get(rowIndex))) {
+                    return;
+                }
+            }
+        }
+    }
+    
     protected boolean visitRow(Project project, RowVisitor visitor, int rowIndex, Row row) {
         return visitor.visit(project, rowIndex, row);
     }
@@ -45,23 +45,42 @@ public class ExpressionBasedRowEvaluable implements RowEvaluable {
     final protected String         _columnName;
     final protected int            _cellIndex;
     final protected Evaluable      _eval;
+    final protected ExpressionValueCache _cache; // may be null
     
     public ExpressionBasedRowEvaluable(
         String columnName, int cellIndex, Evaluable eval) {
     
+        this(columnName, cellIndex, eval, null);
+    }
+    
+    public ExpressionBasedRowEvaluable(
+        String columnName, int cellIndex, Evaluable eval, ExpressionValueCache cache) {
+    
         _columnName = columnName;
         _cellIndex = cellIndex;
         _eval = eval;
+        _cache = cache;
     }
 
     @Override
     public Object eval(
             Project project, int rowIndex, Row row, Properties bindings) {
         
+        if (_cache != null) {
+            Object value = _cache.get(rowIndex);
+            if (value != ExpressionValueCache.NOT_CACHED) {
+                return value;
+            }
+        }
+        
         Cell cell = row.getCell(_cellIndex);
 
         ExpressionUtils.bind(bindings, row, rowIndex, _columnName, cell);
         
-        return _eval.evaluate(bindings);
+        Object value = _eval.evaluate(bindings);
+        if (_cache != null) {
+            _cache.put(rowIndex, value);
+        }
+        return value;
     }
 }
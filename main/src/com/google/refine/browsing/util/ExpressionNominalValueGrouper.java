@@ -33,8 +33,11 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.browsing.util;
 
+import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -50,33 +53,29 @@ import com.google.refine.model.Cell;
 import com.google.refine.model.Project;
 import com.google.refine.model.Record;
 import com.google.refine.model.Row;
-import com.google.refine.util.StringUtils;
 
 /**
  * Visit matched rows or records and group them into facet choices based on the values computed
  * from a given expression.
+ * 
+ * Values are counted in a {@link NominalValueCounts} table, and facet choices are only made
+ * by {@link #getChoices()}. The grouper can be given a maximum number of choices, beyond which
+ * it stops visiting and only reports that there are too many.
  */
-public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor {
-    static public class IndexedNominalFacetChoice extends NominalFacetChoice {
-        int _latestIndex;
-
-        public IndexedNominalFacetChoice(DecoratedValue decoratedValue, int latestIndex) {
-            super(decoratedValue);
-            _latestIndex = latestIndex;
-        }
-    }
-
+public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor, MergeableVisitor {
     /*
      * Configuration
      */
     final protected Evaluable   _evaluable;
     final protected String      _columnName;
     final protected int         _cellIndex;
+    final protected ExpressionValueCache _cache; // may be null
+    final protected int         _maxChoices;
 
     /*
      * Computed results
      */
-    final public Map<Object, IndexedNominalFacetChoice> choices = new HashMap<Object, IndexedNominalFacetChoice>();
+    protected NominalValueCounts counts;
     public int blankCount = 0;
     public int errorCount = 0;
 
@@ -85,11 +84,61 @@ public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor
      */
     protected boolean hasBlank;
     protected boolean hasError;
+    protected Properties bindings; // reused from row to row
+    protected DateFormat dateFormat;
 
     public ExpressionNominalValueGrouper(Evaluable evaluable, String columnName, int cellIndex) {
+        this(evaluable, columnName, cellIndex, null);
+    }
+
+    public ExpressionNominalValueGrouper(
+            Evaluable evaluable, String columnName, int cellIndex, ExpressionValueCache cache) {
+        this(evaluable, columnName, cellIndex, cache, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxChoices number of distinct values beyond which the grouper stops
+     */
+    public ExpressionNominalValueGrouper(
+            Evaluable evaluable, String columnName, int cellIndex, ExpressionValueCache cache, int maxChoices) {
         _evaluable = evaluable;
         _columnName = columnName;
         _cellIndex = cellIndex;
+        _cache = cache;
+        _maxChoices = maxChoices;
+        counts = new NominalValueCounts(maxChoices);
+    }
+
+    /**
+     * @return true if there are more choices than the maximum, in which case the
+     *      counts are incomplete
+     */
+    public boolean hasTooManyChoices() {
+        return counts.isOverflowed();
+    }
+
+    /**
+     * @return the number of choices, or a number greater than the maximum if there
+     *      are too many
+     */
+    public int getChoiceCount() {
+        return counts.size();
+    }
+
+    /**
+     * @return the choices, keyed by the string form of their values
+     */
+    public Map<String, NominalFacetChoice> getChoices() {
+        Map<String, NominalFacetChoice> choices = new HashMap<String, NominalFacetChoice>();
+        for (int slot = 0; slot < counts.getSlotCount(); slot++) {
+            String key = counts.getKey(slot);
+            if (key != null) {
+                NominalFacetChoice choice = new NominalFacetChoice(new DecoratedValue(counts.getValue(slot), key));
+                choice.count = counts.getCount(slot);
+                choices.put(key, choice);
+            }
+        }
+        return choices;
     }
 
     @Override
@@ -107,7 +156,7 @@ public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor
         hasError = false;
         hasBlank = false;
 
-        Properties bindings = ExpressionUtils.createBindings(project);
+        Properties bindings = getBindings(project);
 
         visitRow(project, rowIndex, row, bindings, rowIndex);
 
@@ -118,7 +167,7 @@ public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor
             blankCount++;
         }
 
-        return false;
+        return counts.isOverflowed();
     }
 
     @Override
@@ -126,7 +175,7 @@ public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor
         hasError = false;
         hasBlank = false;
 
-        Properties bindings = ExpressionUtils.createBindings(project);
+        Properties bindings = getBindings(project);
 
         for (int r = record.fromRowIndex; r < record.toRowIndex; r++) {
             Row row = project.rows.get(r);
@@ -140,7 +189,27 @@ public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor
             blankCount++;
         }
 
-        return false;
+        return counts.isOverflowed();
+    }
+
+    protected Properties getBindings(Project project) {
+        if (bindings == null) {
+            bindings = ExpressionUtils.createBindings(project);
+        }
+        return bindings;
+    }
+
+    @Override
+    public MergeableVisitor createPartial() {
+        return new ExpressionNominalValueGrouper(_evaluable, _columnName, _cellIndex, _cache, _maxChoices);
+    }
+
+    @Override
+    public void merge(MergeableVisitor partial) {
+        ExpressionNominalValueGrouper other = (ExpressionNominalValueGrouper) partial;
+        counts.merge(other.counts);
+        blankCount += other.blankCount;
+        errorCount += other.errorCount;
     }
 
     protected void visitRow(Project project, int rowIndex, Row row, Properties bindings, int index) {
@@ -164,34 +233,29 @@ public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor
     }
 
     protected Object evalRow(Project project, int rowIndex, Row row, Properties bindings) {
+        if (_cache != null) {
+            Object value = _cache.get(rowIndex);
+            if (value != ExpressionValueCache.NOT_CACHED) {
+                return value;
+            }
+        }
+
         Cell cell = _cellIndex < 0 ? null : row.getCell(_cellIndex);
 
         ExpressionUtils.bind(bindings, row, rowIndex, _columnName, cell);
 
-        return _evaluable.evaluate(bindings);
+        Object value = _evaluable.evaluate(bindings);
+        if (_cache != null) {
+            _cache.put(rowIndex, value);
+        }
+        return value;
     }
 
     protected void processValue(Object value, int index) {
         if (ExpressionUtils.isError(value)) {
             hasError = true;
         } else if (ExpressionUtils.isNonBlankData(value)) {
-            String valueString = StringUtils.toString(value);
-            IndexedNominalFacetChoice facetChoice = choices.get(valueString);
-
-            if (facetChoice != null) {
-                if (facetChoice._latestIndex < index) {
-                    facetChoice._latestIndex = index;
-                    facetChoice.count++;
-                }
-            } else {
-                String label = valueString;
-                DecoratedValue dValue = new DecoratedValue(value, label);
-                IndexedNominalFacetChoice choice = 
-                    new IndexedNominalFacetChoice(dValue, index);
-
-                choice.count = 1;
-                choices.put(valueString, choice);
-            }
+            counts.add(toString(value), value, index);
         } else {
             hasBlank = true;
         }
@@ -237,10 +301,26 @@ public class ExpressionNominalValueGrouper implements RowVisitor, RecordVisitor
         if (ExpressionUtils.isError(choiceValue)) {
             return errorCount;
         } else if (ExpressionUtils.isNonBlankData(choiceValue)) {
-            IndexedNominalFacetChoice choice = choices.get(StringUtils.toString(choiceValue));
-            return choice != null ? choice.count : 0;
+            return counts.getCount(toString(choiceValue));
         } else {
             return blankCount;
         }
     }
+
+    /**
+     * Same as {@link com.google.refine.util.StringUtils#toString(Object)}, but with a
+     * date format made once per grouper.
+     */
+    protected String toString(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        } else if (value instanceof Calendar || value instanceof Date) {
+            if (dateFormat == null) {
+                dateFormat = DateFormat.getDateInstance();
+            }
+            return dateFormat.format(value instanceof Date ? ((Date) value) : ((Calendar) value).getTime());
+        } else {
+            return value.toString();
+        }
+    }
 }
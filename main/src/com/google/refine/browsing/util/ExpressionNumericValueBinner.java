@@ -47,7 +47,7 @@ import com.google.refine.model.Row;
  * Visit matched rows or records and slot them into bins based on the numbers computed
  * from a given expression.
  */
-public class ExpressionNumericValueBinner implements RowVisitor, RecordVisitor {
+public class ExpressionNumericValueBinner implements RowVisitor, RecordVisitor, MergeableVisitor {
     /*
      * Configuration
      */
@@ -70,6 +70,7 @@ public class ExpressionNumericValueBinner implements RowVisitor, RecordVisitor {
     protected boolean hasBlank;
     protected boolean hasNumeric;
     protected boolean hasNonNumeric;
+    protected Properties bindings; // reused from row to row
     
     public ExpressionNumericValueBinner(RowEvaluable rowEvaluable, NumericBinIndex index) {
         _rowEvaluable = rowEvaluable;
@@ -91,7 +92,7 @@ public class ExpressionNumericValueBinner implements RowVisitor, RecordVisitor {
     public boolean visit(Project project, int rowIndex, Row row) {
         resetFlags();
         
-        Properties bindings = ExpressionUtils.createBindings(project);
+        Properties bindings = getBindings(project);
         processRow(project, rowIndex, row, bindings);
         
         updateCounts();
@@ -103,7 +104,7 @@ public class ExpressionNumericValueBinner implements RowVisitor, RecordVisitor {
     public boolean visit(Project project, Record record) {
         resetFlags();
         
-        Properties bindings = ExpressionUtils.createBindings(project);
+        Properties bindings = getBindings(project);
         for (int r = record.fromRowIndex; r < record.toRowIndex; r++) {
             processRow(project, r, project.rows.get(r), bindings);
         }
@@ -113,6 +114,30 @@ public class ExpressionNumericValueBinner implements RowVisitor, RecordVisitor {
         return false;
     }
     
+    protected Properties getBindings(Project project) {
+        if (bindings == null) {
+            bindings = ExpressionUtils.createBindings(project);
+        }
+        return bindings;
+    }
+    
+    @Override
+    public MergeableVisitor createPartial() {
+        return new ExpressionNumericValueBinner(_rowEvaluable, _index);
+    }
+    
+    @Override
+    public void merge(MergeableVisitor partial) {
+        ExpressionNumericValueBinner other = (ExpressionNumericValueBinner) partial;
+        for (int b = 0; b < bins.length; b++) {
+            bins[b] += other.bins[b];
+        }
+        numericCount += other.numericCount;
+        nonNumericCount += other.nonNumericCount;
+        blankCount += other.blankCount;
+        errorCount += other.errorCount;
+    }
+    
     protected void resetFlags() {
         hasError = false;
         hasBlank = false;
@@ -49,7 +49,7 @@ import com.google.refine.model.Row;
  * Visit matched rows or records and slot them into bins based on the date computed
  * from a given expression.
  */
-public class ExpressionTimeValueBinner implements RowVisitor, RecordVisitor {
+public class ExpressionTimeValueBinner implements RowVisitor, RecordVisitor, MergeableVisitor {
 
     /*
      * Configuration
@@ -73,6 +73,7 @@ public class ExpressionTimeValueBinner implements RowVisitor, RecordVisitor {
     protected boolean hasBlank;
     protected boolean hasTime;
     protected boolean hasNonTime;
+    protected Properties bindings; // reused from row to row
     
     public ExpressionTimeValueBinner(RowEvaluable rowEvaluable, TimeBinIndex index) {
         _rowEvaluable = rowEvaluable;
@@ -94,7 +95,7 @@ public class ExpressionTimeValueBinner implements RowVisitor, RecordVisitor {
     public boolean visit(Project project, int rowIndex, Row row) {
         resetFlags();
         
-        Properties bindings = ExpressionUtils.createBindings(project);
+        Properties bindings = getBindings(project);
         processRow(project, rowIndex, row, bindings);
         
         updateCounts();
@@ -106,7 +107,7 @@ public class ExpressionTimeValueBinner implements RowVisitor, RecordVisitor {
     public boolean visit(Project project, Record record) {
         resetFlags();
         
-        Properties bindings = ExpressionUtils.createBindings(project);
+        Properties bindings = getBindings(project);
         for (int r = record.fromRowIndex; r < record.toRowIndex; r++) {
             processRow(project, r, project.rows.get(r), bindings);
         }
@@ -116,6 +117,30 @@ public class ExpressionTimeValueBinner implements RowVisitor, RecordVisitor {
         return false;
     }
     
+    protected Properties getBindings(Project project) {
+        if (bindings == null) {
+            bindings = ExpressionUtils.createBindings(project);
+        }
+        return bindings;
+    }
+    
+    @Override
+    public MergeableVisitor createPartial() {
+        return new ExpressionTimeValueBinner(_rowEvaluable, _index);
+    }
+    
+    @Override
+    public void merge(MergeableVisitor partial) {
+        ExpressionTimeValueBinner other = (ExpressionTimeValueBinner) partial;
+        for (int b = 0; b < bins.length; b++) {
+            bins[b] += other.bins[b];
+        }
+        timeCount += other.timeCount;
+        nonTimeCount += other.nonTimeCount;
+        blankCount += other.blankCount;
+        errorCount += other.errorCount;
+    }
+    
     protected void resetFlags() {
         hasError = false;
         hasBlank = false;
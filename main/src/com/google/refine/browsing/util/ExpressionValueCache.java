@@ -0,0 +1,240 @@
+package com.google.refine.browsing.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.preference.PreferenceStore;
+
+/**
+ * The values an expression yields on each row of a project, based on a particular
+ * column. Facets, their filters and their base bin indexes all evaluate the same
+ * expressions over and over as the user interacts with them, so they look values up
+ * here before evaluating.
+ *
+ * A cache is kept in the column's precompute cache under the expression, so it is
+ * shared by all facets using that expression on that column and is discarded along
+ * with the column's other precomputes whenever its cells or the rows change. For that
+ * reason only GREL expressions that depend on nothing but the base cell are cached.
+ *
+ * All caches together hold at most a number of values set by the
+ * "browsing.expressionCache.maxEntries" preference, one per row of each cache. When a
+ * new cache would go beyond it, the least recently retrieved caches are evicted: they
+ * drop their values and are replaced the next time they are asked for. A project with
+ * more rows than the whole budget gets caches of only its first rows, up to the budget;
+ * the values of the other rows are evaluated every time.
+ */
+public class ExpressionValueCache {
+    static final public String PRECOMPUTE_KEY_PREFIX = "expression-values:";
+
+    static final public String MAX_ENTRIES_PREFERENCE = "browsing.expressionCache.maxEntries";
+    static final public int DEFAULT_MAX_ENTRIES = 4000000;
+
+    /**
+     * Returned by {@link #get(int)} for rows whose value has not been cached yet.
+     */
+    static final public Object NOT_CACHED = new Object();
+
+    static final protected Object NULL = new Object(); // a cached null value
+
+    /*
+     * The live caches in the order they were last retrieved, with their sizes. Caches
+     * are only weakly referenced: those whose column precomputes were cleared are
+     * dropped from here once collected.
+     */
+    static final protected Map<WeakReference<ExpressionValueCache>, Integer> s_caches =
+            new LinkedHashMap<WeakReference<ExpressionValueCache>, Integer>(16, 0.75f, true);
+    static protected long s_cachedEntries;
+
+    final protected int                                     _size;
+    final protected int                                     _capacity;
+    final protected WeakReference<ExpressionValueCache>     _reference;
+    volatile protected AtomicReferenceArray<Object>         _values;
+
+    final protected LongAdder _hits = new LongAdder();
+    final protected LongAdder _misses = new LongAdder();
+
+    /**
+     * @return true if the values of an expression on the given column only change
+     *      when the column's precomputes are cleared
+     */
+    static public boolean isCacheable(String expression, int cellIndex) {
+        // the values an index can be built from are exactly those which can be cached
+        return NominalValueRowIndex.isIndexable(expression, cellIndex);
+    }
+
+    /**
+     * Retrieve the cache of the given expression on the given column, creating it
+     * if needed.
+     *
+     * @return the cache, or null if the expression's values cannot be cached
+     */
+    static public ExpressionValueCache getCache(Project project, int cellIndex, String expression) {
+        if (!isCacheable(expression, cellIndex)) {
+            return null;
+        }
+        Column column = project.columnModel.getColumnByCellIndex(cellIndex);
+        if (column == null) {
+            return null;
+        }
+
+        String key = PRECOMPUTE_KEY_PREFIX + expression;
+        synchronized (column) {
+            Object o = column.getPrecompute(key);
+            if (o instanceof ExpressionValueCache) {
+                ExpressionValueCache cache = (ExpressionValueCache) o;
+                if (cache.size() == project.rows.size() && !cache.isEvicted()) {
+                    touch(cache);
+                    return cache;
+                }
+            }
+
+            int rowCount = project.rows.size();
+            int capacity = (int) Math.min(rowCount, getMaxEntries());
+            if (capacity <= 0 && rowCount > 0) {
+                return null;
+            }
+            ExpressionValueCache cache = new ExpressionValueCache(rowCount, capacity);
+            register(cache);
+            column.setPrecompute(key, cache);
+            return cache;
+        }
+    }
+
+    static public int getMaxEntries() {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        Object v = ps != null ? ps.get(MAX_ENTRIES_PREFERENCE) : null;
+        if (v != null) {
+            if (v instanceof Number) {
+                return ((Number) v).intValue();
+            } else {
+                try {
+                    return Integer.parseInt(v.toString());
+                } catch (NumberFormatException e) {
+                    // ignore
+                }
+            }
+        }
+        return DEFAULT_MAX_ENTRIES;
+    }
+
+    /**
+     * @return the number of values all live caches can hold together
+     */
+    synchronized static public long getCachedEntryCount() {
+        purge();
+        return s_cachedEntries;
+    }
+
+    synchronized static protected void touch(ExpressionValueCache cache) {
+        s_caches.get(cache._reference);
+    }
+
+    /**
+     * Account for a new cache, evicting the least recently retrieved ones to make room.
+     */
+    synchronized static protected void register(ExpressionValueCache cache) {
+        purge();
+        long maxEntries = getMaxEntries();
+
+        Iterator<Map.Entry<WeakReference<ExpressionValueCache>, Integer>> i = s_caches.entrySet().iterator();
+        while (s_cachedEntries + cache.getCapacity() > maxEntries && i.hasNext()) {
+            Map.Entry<WeakReference<ExpressionValueCache>, Integer> entry = i.next();
+            ExpressionValueCache evicted = entry.getKey().get();
+            if (evicted != null) {
+                evicted._values = null;
+            }
+            s_cachedEntries -= entry.getValue();
+            i.remove();
+        }
+
+        s_caches.put(cache._reference, cache.getCapacity());
+        s_cachedEntries += cache.getCapacity();
+    }
+
+    /**
+     * Stop accounting for caches which have been collected.
+     */
+    static protected void purge() {
+        Iterator<Map.Entry<WeakReference<ExpressionValueCache>, Integer>> i = s_caches.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<WeakReference<ExpressionValueCache>, Integer> entry = i.next();
+            if (entry.getKey().get() == null) {
+                s_cachedEntries -= entry.getValue();
+                i.remove();
+            }
+        }
+    }
+
+    public ExpressionValueCache(int rowCount) {
+        this(rowCount, rowCount);
+    }
+
+    /**
+     * @param capacity number of rows, from the first, whose values can be cached
+     */
+    public ExpressionValueCache(int rowCount, int capacity) {
+        _size = rowCount;
+        _capacity = capacity;
+        _reference = new WeakReference<ExpressionValueCache>(this);
+        _values = new AtomicReferenceArray<Object>(capacity);
+    }
+
+    /**
+     * @return number of rows of the project the cache was made for
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return number of rows whose values can be cached, which is less than the size
+     *      of caches made for projects with more rows than the whole budget
+     */
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * @return true if the cache dropped its values to make room for other caches
+     */
+    public boolean isEvicted() {
+        return _values == null;
+    }
+
+    public long getHitCount() {
+        return _hits.sum();
+    }
+
+    public long getMissCount() {
+        return _misses.sum();
+    }
+
+    /**
+     * @return the cached value of the given row, or {@link #NOT_CACHED}
+     */
+    public Object get(int rowIndex) {
+        AtomicReferenceArray<Object> values = _values;
+        Object value = values != null && rowIndex < values.length() ? values.get(rowIndex) : null;
+        if (value == null) {
+            _misses.increment();
+            return NOT_CACHED;
+        }
+        _hits.increment();
+        return value == NULL ? null : value;
+    }
+
+    public void put(int rowIndex, Object value) {
+        AtomicReferenceArray<Object> values = _values;
+        if (values != null && rowIndex < values.length()) {
+            values.lazySet(rowIndex, value == null ? NULL : value);
+        }
+    }
+}
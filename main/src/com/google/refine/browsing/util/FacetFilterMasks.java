@@ -0,0 +1,246 @@
+package com.google.refine.browsing.util;
+
+import java.util.BitSet;
+import java.util.List;
+
+import com.google.refine.browsing.FilteredRecords;
+import com.google.refine.browsing.FilteredRows;
+import com.google.refine.browsing.RecordFilter;
+import com.google.refine.browsing.RecordVisitor;
+import com.google.refine.browsing.RowFilter;
+import com.google.refine.browsing.RowVisitor;
+import com.google.refine.model.Project;
+import com.google.refine.model.Record;
+
+/**
+ * Evaluates the filters of all facets in a single pass over the rows (or records)
+ * and remembers, for each one, whether it passes every filter or fails exactly one
+ * of them. A facet's choices are computed over the rows that pass all filters except
+ * its own, which are then read from these masks instead of re-evaluating the other
+ * facets' filters once per facet.
+ *
+ * Rows failing two or more filters are not visible to any facet, so their remaining
+ * filters are not evaluated at all.
+ */
+public class FacetFilterMasks {
+    final protected int         _count;
+    final protected BitSet      _passAll;
+    final protected BitSet[]    _failOnly; // per filter: indices failing that filter and no other
+
+    protected FacetFilterMasks(int count, int filterCount) {
+        _count = count;
+        _passAll = new BitSet(count);
+        _failOnly = new BitSet[filterCount];
+        for (int i = 0; i < filterCount; i++) {
+            _failOnly[i] = new BitSet();
+        }
+    }
+
+    protected interface IndexFilter {
+        public boolean match(int filterIndex, int index);
+    }
+
+    static public FacetFilterMasks computeForRows(
+            final Project project, final List<RowFilter> filters, int parallelism) {
+        return compute(project.rows.size(), filters.size(), parallelism, new IndexFilter() {
+            @Override
+            public boolean match(int filterIndex, int rowIndex) {
+                return filters.get(filterIndex).filterRow(project, rowIndex, project.rows.get(rowIndex));
+            }
+        });
+    }
+
+    static public FacetFilterMasks computeForRecords(
+            final Project project, final List<RecordFilter> filters, int parallelism) {
+        return compute(project.recordModel.getRecordCount(), filters.size(), parallelism, new IndexFilter() {
+            @Override
+            public boolean match(int filterIndex, int recordIndex) {
+                return filters.get(filterIndex).filterRecord(project, project.recordModel.getRecord(recordIndex));
+            }
+        });
+    }
+
+    static protected FacetFilterMasks compute(
+            int count, final int filterCount, int parallelism, final IndexFilter filter) {
+        final FacetFilterMasks masks = new FacetFilterMasks(count, filterCount);
+        if (ChunkedScanner.shouldSplit(count, parallelism)) {
+            List<FacetFilterMasks> partials = ChunkedScanner.scan(count, parallelism,
+                new ChunkedScanner.ChunkTask<FacetFilterMasks>() {
+                    @Override
+                    public FacetFilterMasks scan(int from, int to) {
+                        FacetFilterMasks partial = new FacetFilterMasks(to, filterCount);
+                        partial.fill(from, to, filter);
+                        return partial;
+                    }
+                });
+            for (FacetFilterMasks partial : partials) {
+                masks._passAll.or(partial._passAll);
+                for (int i = 0; i < filterCount; i++) {
+                    masks._failOnly[i].or(partial._failOnly[i]);
+                }
+            }
+        } else {
+            masks.fill(0, count, filter);
+        }
+        return masks;
+    }
+
+    protected void fill(int from, int to, IndexFilter filter) {
+        int filterCount = _failOnly.length;
+        for (int index = from; index < to; index++) {
+            int failed = -1;
+            boolean visible = true;
+            for (int f = 0; f < filterCount; f++) {
+                if (!filter.match(f, index)) {
+                    if (failed >= 0) {
+                        visible = false;
+                        break;
+                    }
+                    failed = f;
+                }
+            }
+            if (visible) {
+                if (failed < 0) {
+                    _passAll.set(index);
+                } else {
+                    _failOnly[failed].set(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param filterIndex index of the filter to ignore, or -1 to require all filters
+     * @return indices of rows or records passing every filter except the given one
+     */
+    public BitSet getMatches(int filterIndex) {
+        if (filterIndex < 0) {
+            return _passAll;
+        }
+        BitSet matches = (BitSet) _passAll.clone();
+        matches.or(_failOnly[filterIndex]);
+        return matches;
+    }
+
+    public FilteredRows getFilteredRows(int filterIndex, int parallelism) {
+        return new MaskedFilteredRows(getMatches(filterIndex), _count, parallelism);
+    }
+
+    public FilteredRecords getFilteredRecords(int filterIndex, int parallelism) {
+        return new MaskedFilteredRecords(getMatches(filterIndex), _count, parallelism);
+    }
+
+    /**
+     * Split the set bits of a mask into chunks so that mergeable visitors can
+     * visit them in parallel.
+     */
+    static protected List<ChunkedScanner.PartialResult> visitInParallel(
+            final BitSet matches, int count, int parallelism,
+            final MergeableVisitor mergeable, final IndexVisitor visitor) {
+        return ChunkedScanner.scan(count, parallelism, new ChunkedScanner.ChunkTask<ChunkedScanner.PartialResult>() {
+            @Override
+            public ChunkedScanner.PartialResult scan(int from, int to) {
+                ChunkedScanner.PartialResult result = new ChunkedScanner.PartialResult(mergeable.createPartial());
+                for (int i = matches.nextSetBit(from); i >= 0 && i < to; i = matches.nextSetBit(i + 1)) {
+                    if (visitor.visit(result.visitor, i)) {
+                        result.aborted = true;
+                        break;
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    static protected void mergeInOrder(MergeableVisitor mergeable, List<ChunkedScanner.PartialResult> partials) {
+        for (ChunkedScanner.PartialResult partial : partials) {
+            mergeable.merge(partial.visitor);
+            if (partial.aborted) {
+                break;
+            }
+        }
+    }
+
+    protected interface IndexVisitor {
+        public boolean visit(Object visitor, int index);
+    }
+
+    static protected class MaskedFilteredRows implements FilteredRows {
+        final BitSet    _matches;
+        final int       _count;
+        final int       _parallelism;
+
+        MaskedFilteredRows(BitSet matches, int count, int parallelism) {
+            _matches = matches;
+            _count = count;
+            _parallelism = parallelism;
+        }
+
+        @Override
+        public void accept(final Project project, RowVisitor visitor) {
+            try {
+                visitor.start(project);
+
+                if (visitor instanceof MergeableVisitor && ChunkedScanner.shouldSplit(_count, _parallelism)) {
+                    MergeableVisitor mergeable = (MergeableVisitor) visitor;
+                    mergeInOrder(mergeable, visitInParallel(_matches, _count, _parallelism, mergeable,
+                        new IndexVisitor() {
+                            @Override
+                            public boolean visit(Object partial, int rowIndex) {
+                                return ((RowVisitor) partial).visit(project, rowIndex, project.rows.get(rowIndex));
+                            }
+                        }));
+                    return;
+                }
+
+                for (int rowIndex = _matches.nextSetBit(0); rowIndex >= 0; rowIndex = _matches.nextSetBit(rowIndex + 1)) {
+                    if (visitor.visit(project, rowIndex, project.rows.get(rowIndex))) {
+                        break;
+                    }
+                }
+            } finally {
+                visitor.end(project);
+            }
+        }
+    }
+
+    static protected class MaskedFilteredRecords implements FilteredRecords {
+        final BitSet    _matches;
+        final int       _count;
+        final int       _parallelism;
+
+        MaskedFilteredRecords(BitSet matches, int count, int parallelism) {
+            _matches = matches;
+            _count = count;
+            _parallelism = parallelism;
+        }
+
+        @Override
+        public void accept(final Project project, RecordVisitor visitor) {
+            try {
+                visitor.start(project);
+
+                if (visitor instanceof MergeableVisitor && ChunkedScanner.shouldSplit(_count, _parallelism)) {
+                    MergeableVisitor mergeable = (MergeableVisitor) visitor;
+                    mergeInOrder(mergeable, visitInParallel(_matches, _count, _parallelism, mergeable,
+                        new IndexVisitor() {
+                            @Override
+                            public boolean visit(Object partial, int recordIndex) {
+                                Record record = project.recordModel.getRecord(recordIndex);
+                                return ((RecordVisitor) partial).visit(project, record);
+                            }
+                        }));
+                    return;
+                }
+
+                for (int r = _matches.nextSetBit(0); r >= 0; r = _matches.nextSetBit(r + 1)) {
+                    if (visitor.visit(project, project.recordModel.getRecord(r))) {
+                        break;
+                    }
+                }
+            } finally {
+                visitor.end(project);
+            }
+        }
+    }
+}
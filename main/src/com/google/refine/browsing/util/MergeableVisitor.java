@@ -0,0 +1,21 @@
+package com.google.refine.browsing.util;
+
+/**
+ * A row or record visitor that only accumulates results, so that a scan can be split
+ * into disjoint ranges visited by independent partial visitors whose results are
+ * combined afterwards.
+ */
+public interface MergeableVisitor {
+    /**
+     * @return a new visitor with the same configuration as this one and empty results
+     */
+    public MergeableVisitor createPartial();
+
+    /**
+     * Add the results of a partial visitor created by {@link #createPartial()} to this
+     * visitor's results. Partials are merged in the order of the ranges they covered.
+     *
+     * @param partial
+     */
+    public void merge(MergeableVisitor partial);
+}
@@ -0,0 +1,177 @@
+package com.google.refine.browsing.util;
+
+/**
+ * Counts of distinct values keyed by their string forms, in an open-addressing hash
+ * table of parallel arrays rather than a map of objects per value, up to a maximum
+ * number of distinct values.
+ *
+ * Each value is counted at most once per row or record index: values are counted
+ * again only when seen at a greater index than the one they were last counted at.
+ * Each distinct value keeps the first string and value it was seen with.
+ *
+ * Once more distinct values than the maximum are seen, the counts are overflowed:
+ * further values are no longer counted, and the counts should not be used but for
+ * telling that there are too many values.
+ */
+public class NominalValueCounts {
+    static final protected int INITIAL_CAPACITY = 64;
+
+    final protected int _maxSize;
+
+    protected String[]  _keys;
+    protected Object[]  _values;
+    protected int[]     _counts;
+    protected int[]     _latestIndices;
+    protected int       _size;
+    protected boolean   _overflowed;
+
+    /**
+     * @param maxSize the number of distinct values beyond which counting stops
+     */
+    public NominalValueCounts(int maxSize) {
+        _maxSize = maxSize;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return the number of distinct values counted, more than the maximum if the
+     *      counts are overflowed
+     */
+    public int size() {
+        return _size;
+    }
+
+    public boolean isOverflowed() {
+        return _overflowed;
+    }
+
+    /**
+     * Count a value seen at the given index.
+     *
+     * @param key the string form of the value
+     * @return false if the counts are overflowed
+     */
+    public boolean add(String key, Object value, int index) {
+        if (_overflowed) {
+            return false;
+        }
+        int slot = findSlot(key);
+        if (_keys[slot] != null) {
+            if (_latestIndices[slot] < index) {
+                _latestIndices[slot] = index;
+                _counts[slot]++;
+            }
+            return true;
+        }
+        if (_size == _maxSize) {
+            _size++;
+            _overflowed = true;
+            return false;
+        }
+        insert(slot, key, value, 1, index);
+        return true;
+    }
+
+    /**
+     * @return the count of the value of the given string form, 0 if it was not seen
+     */
+    public int getCount(String key) {
+        int slot = findSlot(key);
+        return _keys[slot] != null ? _counts[slot] : 0;
+    }
+
+    /**
+     * Add the counts of another table, of values seen at other indices.
+     */
+    public void merge(NominalValueCounts other) {
+        if (other._overflowed) {
+            _overflowed = true;
+            _size = Math.max(_size, other._size);
+        }
+        for (int s = 0; s < other._keys.length && !_overflowed; s++) {
+            String key = other._keys[s];
+            if (key == null) {
+                continue;
+            }
+            int slot = findSlot(key);
+            if (_keys[slot] != null) {
+                _counts[slot] += other._counts[s];
+                _latestIndices[slot] = Math.max(_latestIndices[slot], other._latestIndices[s]);
+            } else if (_size == _maxSize) {
+                _size++;
+                _overflowed = true;
+            } else {
+                insert(slot, key, other._values[s], other._counts[s], other._latestIndices[s]);
+            }
+        }
+    }
+
+    /**
+     * @return the number of slots, some of which are empty, to iterate over with
+     *      {@link #getKey(int)}, {@link #getValue(int)} and {@link #getCount(int)}
+     */
+    public int getSlotCount() {
+        return _keys.length;
+    }
+
+    /**
+     * @return the string form of the value in the given slot, or null if it is empty
+     */
+    public String getKey(int slot) {
+        return _keys[slot];
+    }
+
+    public Object getValue(int slot) {
+        return _values[slot];
+    }
+
+    public int getCount(int slot) {
+        return _counts[slot];
+    }
+
+    protected int findSlot(String key) {
+        int mask = _keys.length - 1;
+        int h = key.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (_keys[slot] != null && !_keys[slot].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    protected void insert(int slot, String key, Object value, int count, int index) {
+        _keys[slot] = key;
+        _values[slot] = value;
+        _counts[slot] = count;
+        _latestIndices[slot] = index;
+        _size++;
+        if (_size * 2 > _keys.length) {
+            rehash();
+        }
+    }
+
+    protected void allocate(int capacity) {
+        _keys = new String[capacity];
+        _values = new Object[capacity];
+        _counts = new int[capacity];
+        _latestIndices = new int[capacity];
+    }
+
+    protected void rehash() {
+        String[] keys = _keys;
+        Object[] values = _values;
+        int[] counts = _counts;
+        int[] latestIndices = _latestIndices;
+
+        allocate(keys.length * 2);
+        for (int s = 0; s < keys.length; s++) {
+            if (keys[s] != null) {
+                int slot = findSlot(keys[s]);
+                _keys[slot] = keys[s];
+                _values[slot] = values[s];
+                _counts[slot] = counts[s];
+                _latestIndices[slot] = latestIndices[s];
+            }
+        }
+    }
+}
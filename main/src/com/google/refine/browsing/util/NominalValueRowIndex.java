@@ -0,0 +1,351 @@
+package com.google.refine.browsing.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.expr.Evaluable;
+import com.google.refine.expr.ExpressionUtils;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.model.columnar.ColumnarRowStore;
+import com.google.refine.preference.PreferenceStore;
+
+/**
+ * An inverted index from the values an expression yields on a column to the rows
+ * yielding them. It lets a list facet turn its selection into the set of matching
+ * rows by combining a few row sets instead of evaluating the expression on every row
+ * each time the filter is applied.
+ *
+ * The index is kept in the column's precompute cache, so any change to the column's
+ * cells or to the order of rows discards it. For that reason only GREL expressions
+ * that depend on nothing but the base cell are indexed.
+ *
+ * An expression yielding more distinct values than a maximum, such as one over a
+ * column of identifiers, is not indexed: its index is left empty and marked as
+ * overflowed, and filters evaluate the expression instead.
+ */
+public class NominalValueRowIndex {
+    static final public String PRECOMPUTE_KEY_PREFIX = "nominal-row-index:";
+
+    static final public String MAX_VALUES_PREFERENCE = "browsing.nominalIndex.maxValues";
+    static final public int DEFAULT_MAX_VALUES = 10000;
+
+    /*
+     * Identifiers through which a GREL expression can depend on something other
+     * than the base cell: other cells of the row, row flags, the row's position,
+     * the column's name, other projects, the project's metadata or the current time.
+     */
+    static final protected Pattern s_nonCellDependency = Pattern.compile(
+        "\\b(row|rowIndex|cells|record|columnName|cross|facetCount|reinterpret|now)\\b");
+    static final protected Pattern s_languagePrefix = Pattern.compile("[a-z]+");
+
+    /**
+     * The rows of one value, kept as a sorted array of row indices while the value
+     * is rare and as a bit set once the array would take more space than the bits.
+     */
+    static protected class RowSet {
+        int[]   rows = new int[2];
+        int     size;
+        BitSet  bits;
+
+        void add(int rowIndex) {
+            if (bits != null) {
+                bits.set(rowIndex);
+                return;
+            }
+            if (size > 0 && rows[size - 1] == rowIndex) {
+                return;
+            }
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = rowIndex;
+        }
+
+        void compact(int rowCount) {
+            if (bits == null && size > rowCount / 32) {
+                bits = new BitSet(rowCount);
+                for (int i = 0; i < size; i++) {
+                    bits.set(rows[i]);
+                }
+                rows = null;
+            } else if (rows != null && rows.length > size) {
+                rows = Arrays.copyOf(rows, size);
+            }
+        }
+
+        void clear() {
+            rows = new int[0];
+            size = 0;
+            bits = null;
+        }
+
+        void addTo(BitSet target) {
+            if (bits != null) {
+                target.or(bits);
+            } else {
+                for (int i = 0; i < size; i++) {
+                    target.set(rows[i]);
+                }
+            }
+        }
+    }
+
+    final protected int                     _rowCount;
+    final protected int                     _maxValues;
+    protected boolean                       _overflowed;
+    final protected Map<Object, RowSet>     _valueRows = new HashMap<Object, RowSet>();
+    final protected RowSet                  _blankRows = new RowSet();
+    final protected RowSet                  _errorRows = new RowSet();
+
+    /**
+     * @return true if the rows matching an expression on the given column can be
+     *      looked up in an index that survives as long as the column's precomputes
+     */
+    static public boolean isIndexable(String expression, int cellIndex) {
+        if (cellIndex < 0) {
+            return false;
+        }
+        int colon = expression.indexOf(':');
+        if (colon >= 0) {
+            String language = expression.substring(0, colon).toLowerCase();
+            // other languages may not be loaded yet, so go by the shape of the prefix
+            if (!"grel".equals(language) && !"gel".equals(language) &&
+                    s_languagePrefix.matcher(language).matches()) {
+                return false;
+            }
+        }
+        return !s_nonCellDependency.matcher(expression).find();
+    }
+
+    /**
+     * @return the number of distinct values beyond which an expression's values are
+     *      not indexed, from the "browsing.nominalIndex.maxValues" preference
+     */
+    static public int getMaxValues() {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        Object v = ps != null ? ps.get(MAX_VALUES_PREFERENCE) : null;
+        if (v != null) {
+            if (v instanceof Number) {
+                return ((Number) v).intValue();
+            } else {
+                try {
+                    return Integer.parseInt(v.toString());
+                } catch (NumberFormatException e) {
+                    // ignore
+                }
+            }
+        }
+        return DEFAULT_MAX_VALUES;
+    }
+
+    /**
+     * Retrieve the index of the given expression from the column's precompute cache,
+     * building it if needed.
+     *
+     * @return the index, or null if the expression yields too many distinct values
+     *      for an index to be worth its memory
+     */
+    static public NominalValueRowIndex getIndex(
+            Project project, Column column, String expression, Evaluable evaluable) {
+        String key = PRECOMPUTE_KEY_PREFIX + expression;
+        Object o = column.getPrecompute(key);
+        NominalValueRowIndex index;
+        if (o instanceof NominalValueRowIndex && ((NominalValueRowIndex) o)._rowCount == project.rows.size()) {
+            index = (NominalValueRowIndex) o;
+        } else {
+            int maxValues = getMaxValues();
+            if (isIdentity(expression) && project.rows instanceof ColumnarRowStore) {
+                index = new NominalValueRowIndex((ColumnarRowStore) project.rows, column.getCellIndex(), maxValues);
+            } else {
+                index = new NominalValueRowIndex(project, column, evaluable,
+                    ExpressionValueCache.getCache(project, column.getCellIndex(), expression), maxValues);
+            }
+            // an overflowed index is kept too, empty, so that it is not built again
+            column.setPrecompute(key, index);
+        }
+        return index.isOverflowed() ? null : index;
+    }
+
+    /**
+     * @param cache values of the expression already computed, or null
+     * @param maxValues number of distinct values beyond which indexing is given up
+     */
+    public NominalValueRowIndex(Project project, Column column, Evaluable evaluable,
+            ExpressionValueCache cache, int maxValues) {
+        _rowCount = project.rows.size();
+        _maxValues = maxValues;
+
+        String columnName = column.getName();
+        int cellIndex = column.getCellIndex();
+        Properties bindings = ExpressionUtils.createBindings(project);
+
+        for (int r = 0; r < _rowCount && !_overflowed; r++) {
+            Object value = cache != null ? cache.get(r) : ExpressionValueCache.NOT_CACHED;
+            if (value == ExpressionValueCache.NOT_CACHED) {
+                Row row = project.rows.get(r);
+                Cell cell = row.getCell(cellIndex);
+
+                ExpressionUtils.bind(bindings, row, r, columnName, cell);
+                value = evaluable.evaluate(bindings);
+                if (cache != null) {
+                    cache.put(r, value);
+                }
+            }
+            indexValue(value, r);
+        }
+        compact();
+    }
+
+    /**
+     * Index the cell values of a column as they are, scanning the column rather than
+     * evaluating an expression on each row.
+     */
+    public NominalValueRowIndex(ColumnarRowStore rows, int cellIndex, int maxValues) {
+        _rowCount = rows.size();
+        _maxValues = maxValues;
+
+        rows.scanColumn(cellIndex, new ColumnarRowStore.CellValueVisitor() {
+            @Override
+            public boolean visit(int rowIndex, Serializable value) {
+                indexValue(value, rowIndex);
+                return _overflowed;
+            }
+        });
+        compact();
+    }
+
+    static protected boolean isIdentity(String expression) {
+        return "value".equals(expression) || "grel:value".equals(expression);
+    }
+
+    protected void compact() {
+        if (_overflowed) {
+            _valueRows.clear();
+            _blankRows.clear();
+            _errorRows.clear();
+            return;
+        }
+        for (RowSet rowSet : _valueRows.values()) {
+            rowSet.compact(_rowCount);
+        }
+        _blankRows.compact(_rowCount);
+        _errorRows.compact(_rowCount);
+    }
+
+    protected void indexValue(Object value, int rowIndex) {
+        if (value != null) {
+            if (value.getClass().isArray()) {
+                Object[] a = (Object[]) value;
+                for (Object v : a) {
+                    indexSingleValue(v, rowIndex);
+                }
+                return;
+            } else if (value instanceof Collection<?>) {
+                for (Object v : ExpressionUtils.toObjectCollection(value)) {
+                    indexSingleValue(v, rowIndex);
+                }
+                return;
+            } else if (value instanceof JSONArray) {
+                JSONArray a = (JSONArray) value;
+                int l = a.length();
+
+                for (int i = 0; i < l; i++) {
+                    try {
+                        indexSingleValue(a.get(i), rowIndex);
+                    } catch (JSONException e) {
+                        // ignore
+                    }
+                }
+                return;
+            } // else, fall through
+        }
+
+        indexSingleValue(value, rowIndex);
+    }
+
+    protected void indexSingleValue(Object v, int rowIndex) {
+        if (ExpressionUtils.isError(v)) {
+            _errorRows.add(rowIndex);
+        } else if (ExpressionUtils.isNonBlankData(v)) {
+            Object key = toKey(v);
+            RowSet rowSet = _valueRows.get(key);
+            if (rowSet == null) {
+                if (_valueRows.size() >= _maxValues) {
+                    _overflowed = true;
+                    return;
+                }
+                rowSet = new RowSet();
+                _valueRows.put(key, rowSet);
+            }
+            rowSet.add(rowIndex);
+        } else {
+            _blankRows.add(rowIndex);
+        }
+    }
+
+    /**
+     * Numbers are compared by their double values when filtering, so they are
+     * indexed that way too.
+     */
+    static protected Object toKey(Object v) {
+        if (v instanceof Number) {
+            double d = ((Number) v).doubleValue();
+            return d == 0 ? 0.0d : d;
+        }
+        return v;
+    }
+
+    public int getRowCount() {
+        return _rowCount;
+    }
+
+    public int getValueCount() {
+        return _valueRows.size();
+    }
+
+    /**
+     * @return true if the expression yielded more distinct values than the index
+     *      would hold, in which case the index is empty
+     */
+    public boolean isOverflowed() {
+        return _overflowed;
+    }
+
+    /**
+     * @return the indices of rows yielding at least one of the given values, or a
+     *      blank or error value if those are selected
+     */
+    public BitSet getMatchedRows(Object[] matches, boolean selectBlank, boolean selectError) {
+        BitSet matched = new BitSet(_rowCount);
+        for (Object match : matches) {
+            if (match == null) {
+                continue;
+            }
+            RowSet rowSet = _valueRows.get(toKey(match));
+            if (rowSet != null) {
+                rowSet.addTo(matched);
+            }
+        }
+        if (selectBlank) {
+            _blankRows.addTo(matched);
+        }
+        if (selectError) {
+            _errorRows.addTo(matched);
+        }
+        return matched;
+    }
+}
@@ -36,17 +36,56 @@ package com.google.refine.clustering;
 import org.json.JSONObject;
 
 import com.google.refine.Jsonizable;
+import com.google.refine.ProjectManager;
 import com.google.refine.browsing.Engine;
 import com.google.refine.model.Column;
 import com.google.refine.model.Project;
+import com.google.refine.preference.PreferenceStore;
 
 public abstract class Clusterer implements Jsonizable {
 
+    /**
+     * Preference holding the number of threads computing clusters.
+     */
+    static final public String PARALLELISM_PREFERENCE = "clustering.parallelism";
+
     protected Project _project;
     protected int _colindex;
     protected JSONObject _config;
+    protected volatile int _progress; // out of 100
+    protected volatile boolean _canceled;
 
     public abstract void computeClusters(Engine engine);
+
+    /**
+     * @return the number of threads computing clusters, from the preference or
+     *      else the number of processors
+     */
+    static public int getParallelism() {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        Object v = ps != null ? ps.get(PARALLELISM_PREFERENCE) : null;
+        if (v != null) {
+            try {
+                return Math.max(1, Integer.parseInt(v.toString()));
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getProgress() {
+        return _progress;
+    }
+
+    /**
+     * Ask {@link #computeClusters(Engine)} to stop early. Clusterers which support
+     * it leave no clusters.
+     */
+    public void cancel() {
+        _canceled = true;
+    }
     
     public void initializeFromJSON(Project project, JSONObject o) throws Exception {
         _project = project;
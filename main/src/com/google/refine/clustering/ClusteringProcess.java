@@ -0,0 +1,143 @@
+package com.google.refine.clustering;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+import com.google.refine.browsing.Engine;
+import com.google.refine.process.LongRunningProcess;
+
+/**
+ * Computes clusters on a thread of its own, so that the clustering dialog can follow
+ * progress and cancel clusterers which take long, rather than waiting on one request.
+ *
+ * Clustering changes nothing in the project, so these processes are not queued with
+ * the project's operations: they are kept here, by id, until their clusters are
+ * fetched, they are canceled, or nobody has asked about them for a while.
+ */
+public class ClusteringProcess extends LongRunningProcess implements Runnable {
+    static final public long EXPIRY_MILLIS = 10 * 60 * 1000;
+
+    static final protected Map<Integer, ClusteringProcess> s_processes = new HashMap<Integer, ClusteringProcess>();
+
+    final protected Clusterer   _clusterer;
+    final protected Engine      _engine;
+    protected Exception         _exception;
+    protected volatile long     _lastAccess = System.currentTimeMillis();
+
+    /**
+     * Start computing the clusters of the given clusterer, already initialized.
+     */
+    static public ClusteringProcess start(Clusterer clusterer, Engine engine) {
+        ClusteringProcess process = new ClusteringProcess(clusterer, engine);
+        synchronized (s_processes) {
+            expire();
+            s_processes.put(process.getId(), process);
+        }
+        process.startPerforming(null);
+        return process;
+    }
+
+    /**
+     * @return the process of the given id, or null if it is unknown or has expired
+     */
+    static public ClusteringProcess get(int id) {
+        synchronized (s_processes) {
+            expire();
+            ClusteringProcess process = s_processes.get(id);
+            if (process != null) {
+                process._lastAccess = System.currentTimeMillis();
+            }
+            return process;
+        }
+    }
+
+    static protected void expire() {
+        long now = System.currentTimeMillis();
+        List<ClusteringProcess> expired = new ArrayList<ClusteringProcess>();
+        Iterator<ClusteringProcess> i = s_processes.values().iterator();
+        while (i.hasNext()) {
+            ClusteringProcess process = i.next();
+            if (now - process._lastAccess > EXPIRY_MILLIS) {
+                expired.add(process);
+                i.remove();
+            }
+        }
+        for (ClusteringProcess process : expired) {
+            process.cancel();
+        }
+    }
+
+    protected ClusteringProcess(Clusterer clusterer, Engine engine) {
+        super("Compute clusters");
+        _clusterer = clusterer;
+        _engine = engine;
+    }
+
+    public int getId() {
+        return hashCode();
+    }
+
+    public Clusterer getClusterer() {
+        return _clusterer;
+    }
+
+    /**
+     * @return the exception computing clusters failed with, or null
+     */
+    public Exception getException() {
+        return _exception;
+    }
+
+    /**
+     * Wait for the clusters for up to the given time. Once they are computed, the
+     * process is forgotten.
+     *
+     * @return true if the clusters are computed
+     */
+    public boolean await(long millis) throws InterruptedException {
+        _thread.join(millis);
+        if (isDone()) {
+            synchronized (s_processes) {
+                s_processes.remove(getId());
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void cancel() {
+        _clusterer.cancel();
+        super.cancel();
+        synchronized (s_processes) {
+            s_processes.remove(getId());
+        }
+    }
+
+    @Override
+    public void write(JSONWriter writer, Properties options) throws JSONException {
+        _progress = _clusterer.getProgress();
+        super.write(writer, options);
+    }
+
+    @Override
+    protected Runnable getRunnable() {
+        return this;
+    }
+
+    @Override
+    public void run() {
+        try {
+            _clusterer.computeClusters(_engine);
+        } catch (Exception e) {
+            _exception = e;
+        }
+    }
+}
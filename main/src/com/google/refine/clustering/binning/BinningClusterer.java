@@ -35,6 +35,7 @@ package com.google.refine.clustering.binning;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -53,6 +54,8 @@ import org.slf4j.LoggerFactory;
 import com.google.refine.browsing.Engine;
 import com.google.refine.browsing.FilteredRows;
 import com.google.refine.browsing.RowVisitor;
+import com.google.refine.browsing.util.ChunkedScanner;
+import com.google.refine.browsing.util.ChunkedScanner.ChunkTask;
 import com.google.refine.clustering.Clusterer;
 import com.google.refine.model.Cell;
 import com.google.refine.model.Project;
@@ -78,13 +81,18 @@ public class BinningClusterer extends Clusterer {
         _keyers.put("cologne-phonetic", new ColognePhoneticKeyer());
     }
 
+    /**
+     * Collects the distinct values of the column with their number of occurrences,
+     * so that each value is keyed once however many rows hold it. Keys are then
+     * computed in parallel over the distinct values.
+     */
     class BinningRowVisitor implements RowVisitor {
 
         Keyer _keyer;
         Object[] _params;
         JSONObject _config;
         
-        Map<String,Map<String,Integer>> _map = new HashMap<String,Map<String,Integer>>();
+        Map<String,int[]> _counts = new HashMap<String,int[]>();
         
         public BinningRowVisitor(Keyer k, JSONObject o) {
             _keyer = k;
@@ -117,25 +125,82 @@ public class BinningClusterer extends Clusterer {
             if (cell != null && cell.value != null) {
                 Object v = cell.value;
                 String s = (v instanceof String) ? ((String) v) : v.toString();
-                String key = _keyer.key(s,_params);
-                if (_map.containsKey(key)) {
-                    Map<String,Integer> m = _map.get(key);
-                    if (m.containsKey(s)) {
-                        m.put(s, m.get(s) + 1);
-                    } else {
-                        m.put(s,1);
-                    }
+                int[] count = _counts.get(s);
+                if (count == null) {
+                    _counts.put(s, new int[] { 1 });
                 } else {
-                    Map<String,Integer> m = new TreeMap<String,Integer>();
-                    m.put(s,1);
-                    _map.put(key, m);
+                    count[0]++;
                 }
             }
             return false;
         }
         
-        public Map<String,Map<String,Integer>> getMap() {
-            return _map;
+        /**
+         * @return the values sharing their key with some other value, grouped by key,
+         *      with their number of occurrences
+         */
+        public List<Map<String,Integer>> getClusters(int parallelism) {
+            int n = _counts.size();
+            final String[] values = new String[n];
+            int[] counts = new int[n];
+            int i = 0;
+            for (Entry<String,int[]> e : _counts.entrySet()) {
+                values[i] = e.getKey();
+                counts[i] = e.getValue()[0];
+                i++;
+            }
+
+            final String[] keys = new String[n];
+            ChunkTask<Void> task = new ChunkTask<Void>() {
+                @Override
+                public Void scan(int from, int to) {
+                    for (int j = from; j < to; j++) {
+                        keys[j] = _keyer.key(values[j], _params);
+                    }
+                    return null;
+                }
+            };
+            if (ChunkedScanner.shouldSplit(n, parallelism)) {
+                ChunkedScanner.scan(n, parallelism, task);
+            } else {
+                task.scan(0, n);
+            }
+
+            // number the keys, then list the values of each key contiguously
+            Map<String,Integer> keyIds = new HashMap<String,Integer>();
+            int[] keyOf = new int[n];
+            for (int j = 0; j < n; j++) {
+                Integer id = keyIds.get(keys[j]);
+                if (id == null) {
+                    id = keyIds.size();
+                    keyIds.put(keys[j], id);
+                }
+                keyOf[j] = id;
+            }
+            int[] starts = new int[keyIds.size() + 1];
+            for (int j = 0; j < n; j++) {
+                starts[keyOf[j] + 1]++;
+            }
+            for (int k = 0; k < keyIds.size(); k++) {
+                starts[k + 1] += starts[k];
+            }
+            int[] members = new int[n];
+            int[] filled = Arrays.copyOf(starts, keyIds.size());
+            for (int j = 0; j < n; j++) {
+                members[filled[keyOf[j]]++] = j;
+            }
+
+            List<Map<String,Integer>> clusters = new ArrayList<Map<String,Integer>>();
+            for (int k = 0; k < keyIds.size(); k++) {
+                if (starts[k + 1] - starts[k] > 1) {
+                    Map<String,Integer> m = new TreeMap<String,Integer>();
+                    for (int j = starts[k]; j < starts[k + 1]; j++) {
+                        m.put(values[members[j]], counts[members[j]]);
+                    }
+                    clusters.add(m);
+                }
+            }
+            return clusters;
         }
     }
             
@@ -181,8 +246,7 @@ public class BinningClusterer extends Clusterer {
         FilteredRows filteredRows = engine.getAllFilteredRows();
         filteredRows.accept(_project, visitor);
      
-        Map<String,Map<String,Integer>> map = visitor.getMap();
-        _clusters = new ArrayList<Map<String,Integer>>(map.values());
+        _clusters = visitor.getClusters(getParallelism());
         Collections.sort(_clusters, new SizeComparator());
     }
     
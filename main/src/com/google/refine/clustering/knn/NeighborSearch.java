@@ -0,0 +1,235 @@
+package com.google.refine.clustering.knn;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.google.refine.browsing.util.ChunkedScanner;
+import com.google.refine.browsing.util.ChunkedScanner.ChunkTask;
+
+import edu.mit.simile.vicino.distances.Distance;
+import edu.mit.simile.vicino.distances.LevenshteinDistance;
+
+/**
+ * Finds which of a set of distinct values lie within a radius of each other, comparing
+ * only values which share an n-gram, as vicino's NGramClusterer does, but without
+ * comparing a pair once per n-gram they share.
+ *
+ * Each value is compared with the later values sharing one of its n-grams, counting
+ * along the way how many n-grams they share. For the edit distance, pairs whose lengths
+ * or numbers of shared n-grams rule out a distance within the radius are skipped without
+ * computing it: each edit changes the length by at most one and removes at most n of
+ * the n-grams of a string. Values are split into chunks compared in parallel.
+ *
+ * Like vicino's, each cluster holds a value and its neighbours, and clusters holding
+ * the same values are only returned once.
+ */
+public class NeighborSearch {
+    static final protected Pattern punctctrl = Pattern.compile("\\p{Cntrl}|\\p{Punct}");
+    static final protected Pattern whitespace = Pattern.compile("\\p{Space}+");
+
+    /**
+     * Lets the caller follow progress and stop the search.
+     */
+    public interface Listener {
+        public void onProgress(int done, int total);
+
+        public boolean isCanceled();
+    }
+
+    final protected Distance    _distance;
+    final protected double      _radius;
+    final protected int         _ngramSize;
+    final protected int         _parallelism;
+    final protected boolean     _editDistance;
+
+    public NeighborSearch(Distance distance, double radius, int ngramSize, int parallelism) {
+        _distance = distance;
+        _radius = radius;
+        _ngramSize = Math.max(1, ngramSize);
+        _parallelism = Math.max(1, parallelism);
+        _editDistance = distance instanceof LevenshteinDistance;
+    }
+
+    /**
+     * @return the n-grams blocking is done on, as vicino computes them: those of the
+     *      value without punctuation, control characters and spaces, in lower case
+     */
+    public String[] getNgrams(String value) {
+        String s = value.trim();
+        s = punctctrl.matcher(s).replaceAll("");
+        s = whitespace.matcher(s).replaceAll("");
+        s = s.toLowerCase();
+
+        Set<String> ngrams = new LinkedHashSet<String>();
+        for (int i = 0; i + _ngramSize <= s.length(); i++) {
+            ngrams.add(s.substring(i, i + _ngramSize));
+        }
+        return ngrams.toArray(new String[ngrams.size()]);
+    }
+
+    /**
+     * @param values distinct values
+     * @return the clusters of values, largest first, or null if the listener
+     *      canceled the search
+     */
+    public List<Set<Serializable>> findClusters(final String[] values, final Listener listener) {
+        final int n = values.length;
+
+        // number the n-grams and list the values holding each, in increasing order
+        final int[][] ngramsOf = new int[n][];
+        Map<String, Integer> ngramIds = new HashMap<String, Integer>();
+        int[] blockSizes = new int[16];
+        for (int i = 0; i < n; i++) {
+            String[] ngrams = getNgrams(values[i]);
+            int[] ids = new int[ngrams.length];
+            for (int g = 0; g < ngrams.length; g++) {
+                Integer id = ngramIds.get(ngrams[g]);
+                if (id == null) {
+                    id = ngramIds.size();
+                    ngramIds.put(ngrams[g], id);
+                    if (id == blockSizes.length) {
+                        blockSizes = Arrays.copyOf(blockSizes, id * 2);
+                    }
+                }
+                ids[g] = id;
+                blockSizes[id]++;
+            }
+            ngramsOf[i] = ids;
+        }
+        final int[][] blocks = new int[ngramIds.size()][];
+        for (int b = 0; b < blocks.length; b++) {
+            blocks[b] = new int[blockSizes[b]];
+            blockSizes[b] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int id : ngramsOf[i]) {
+                blocks[id][blockSizes[id]++] = i;
+            }
+        }
+
+        final AtomicInteger done = new AtomicInteger();
+        ChunkTask<long[]> task = new ChunkTask<long[]>() {
+            @Override
+            public long[] scan(int from, int to) {
+                int[] shared = new int[n];
+                int[] touched = new int[n];
+                long[] pairs = new long[16];
+                int pairCount = 0;
+
+                for (int i = from; i < to; i++) {
+                    if (listener.isCanceled()) {
+                        return null;
+                    }
+
+                    int touchedCount = 0;
+                    for (int id : ngramsOf[i]) {
+                        int[] block = blocks[id];
+                        for (int k = block.length - 1; k >= 0 && block[k] > i; k--) {
+                            int j = block[k];
+                            if (shared[j]++ == 0) {
+                                touched[touchedCount++] = j;
+                            }
+                        }
+                    }
+
+                    for (int t = 0; t < touchedCount; t++) {
+                        int j = touched[t];
+                        int count = shared[j];
+                        shared[j] = 0;
+                        if (!mayBeNeighbors(values[i], values[j], ngramsOf[i].length, ngramsOf[j].length, count)) {
+                            continue;
+                        }
+                        if (_distance.d(values[i], values[j]) <= _radius) {
+                            if (pairCount == pairs.length) {
+                                pairs = Arrays.copyOf(pairs, pairCount * 2);
+                            }
+                            pairs[pairCount++] = ((long) i << 32) | j;
+                        }
+                    }
+                    listener.onProgress(done.incrementAndGet(), n);
+                }
+                return Arrays.copyOf(pairs, pairCount);
+            }
+        };
+
+        List<long[]> results;
+        if (ChunkedScanner.shouldSplit(n, _parallelism)) {
+            results = ChunkedScanner.scan(n, _parallelism, task);
+        } else {
+            results = Collections.singletonList(task.scan(0, n));
+        }
+        if (listener.isCanceled() || results.contains(null)) {
+            return null;
+        }
+
+        return makeClusters(values, results);
+    }
+
+    /**
+     * @return false if the given values are known to be further apart than the radius
+     */
+    protected boolean mayBeNeighbors(String a, String b, int ngramsOfA, int ngramsOfB, int sharedNgrams) {
+        if (!_editDistance) {
+            return true;
+        }
+        int edits = (int) Math.floor(_radius);
+        return Math.abs(a.length() - b.length()) <= edits &&
+            sharedNgrams >= Math.max(ngramsOfA, ngramsOfB) - edits * _ngramSize;
+    }
+
+    protected List<Set<Serializable>> makeClusters(String[] values, List<long[]> results) {
+        int n = values.length;
+        int[] degrees = new int[n + 1];
+        for (long[] pairs : results) {
+            for (long pair : pairs) {
+                degrees[(int) (pair >>> 32) + 1]++;
+                degrees[(int) pair + 1]++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            degrees[i + 1] += degrees[i];
+        }
+        int[] neighbors = new int[degrees[n]];
+        int[] filled = Arrays.copyOf(degrees, n);
+        for (long[] pairs : results) {
+            for (long pair : pairs) {
+                int i = (int) (pair >>> 32);
+                int j = (int) pair;
+                neighbors[filled[i]++] = j;
+                neighbors[filled[j]++] = i;
+            }
+        }
+
+        Set<Set<Serializable>> clusters = new LinkedHashSet<Set<Serializable>>();
+        for (int i = 0; i < n; i++) {
+            if (degrees[i + 1] > degrees[i]) {
+                Set<Serializable> cluster = new TreeSet<Serializable>();
+                cluster.add(values[i]);
+                for (int k = degrees[i]; k < degrees[i + 1]; k++) {
+                    cluster.add(values[neighbors[k]]);
+                }
+                clusters.add(cluster);
+            }
+        }
+
+        List<Set<Serializable>> list = new ArrayList<Set<Serializable>>(clusters);
+        Collections.sort(list, new Comparator<Set<Serializable>>() {
+            @Override
+            public int compare(Set<Serializable> o1, Set<Serializable> o2) {
+                return o2.size() - o1.size();
+            }
+        });
+        return list;
+    }
+}
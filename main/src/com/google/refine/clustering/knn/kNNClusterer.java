@@ -38,7 +38,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -59,8 +58,6 @@ import com.google.refine.model.Cell;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
 
-import edu.mit.simile.vicino.clustering.NGramClusterer;
-import edu.mit.simile.vicino.clustering.VPTreeClusterer;
 import edu.mit.simile.vicino.distances.BZip2Distance;
 import edu.mit.simile.vicino.distances.Distance;
 import edu.mit.simile.vicino.distances.GZipDistance;
@@ -79,7 +76,7 @@ public class kNNClusterer extends Clusterer {
 
     List<Set<Serializable>> _clusters;
 
-    Map<Serializable, Integer> _counts = new HashMap<Serializable, Integer>();
+    Map<String, int[]> _counts = new HashMap<String, int[]>();
 
     final static Logger logger = LoggerFactory.getLogger("kNN_clusterer");
     
@@ -94,24 +91,11 @@ public class kNNClusterer extends Clusterer {
         _distances.put("ppm", new PPMDistance());
     }
 
-    class VPTreeClusteringRowVisitor implements RowVisitor {
-
-        Distance _distance;
-        JSONObject _config;
-        VPTreeClusterer _clusterer;
-        double _radius = 1.0f;
-        
-        public VPTreeClusteringRowVisitor(Distance d, JSONObject o) {
-            _distance = d;
-            _config = o;
-            _clusterer = new VPTreeClusterer(_distance);
-            try {
-                JSONObject params = o.getJSONObject("params");
-                _radius = params.getDouble("radius");
-            } catch (JSONException e) {
-                //Refine.warn("No parameters found, using defaults");
-            }
-        }
+    /**
+     * Counts the distinct values of the column, which are then compared with
+     * each other by a {@link NeighborSearch}.
+     */
+    class CountingRowVisitor implements RowVisitor {
         
         @Override
         public void start(Project project) {
@@ -129,67 +113,15 @@ public class kNNClusterer extends Clusterer {
             if (cell != null && cell.value != null) {
                 Object v = cell.value;
                 String s = (v instanceof String) ? ((String) v) : v.toString();
-                _clusterer.populate(s);
-                count(s);
-            }
-            return false;
-        }
-        
-        public List<Set<Serializable>> getClusters() {
-            return _clusterer.getClusters(_radius);
-        }
-    }
-
-    class BlockingClusteringRowVisitor implements RowVisitor {
-
-        Distance _distance;
-        JSONObject _config;
-        double _radius = 1.0d;
-        int _blockingNgramSize = 6;
-        HashSet<String> _data;
-        NGramClusterer _clusterer;
-        
-        public BlockingClusteringRowVisitor(Distance d, JSONObject o) {
-            _distance = d;
-            _config = o;
-            _data = new HashSet<String>();
-            try {
-                JSONObject params = o.getJSONObject("params");
-                _radius = params.getDouble("radius");
-                logger.debug("Use radius: {}", _radius);
-                _blockingNgramSize = params.getInt("blocking-ngram-size");
-                logger.debug("Use blocking ngram size: {}",_blockingNgramSize);
-            } catch (JSONException e) {
-                logger.debug("No parameters found, using defaults");
-            }
-            _clusterer = new NGramClusterer(_distance, _blockingNgramSize);
-        }
-        
-        @Override
-        public void start(Project project) {
-            // nothing to do
-        }
-
-        @Override
-        public void end(Project project) {
-            // nothing to do
-        }
-        
-        @Override
-        public boolean visit(Project project, int rowIndex, Row row) {
-            Cell cell = row.getCell(_colindex);
-            if (cell != null && cell.value != null) {
-                Object v = cell.value;
-                String s = (v instanceof String) ? ((String) v) : v.toString().intern();
-                _clusterer.populate(s);
-                count(s);
+                int[] count = _counts.get(s);
+                if (count == null) {
+                    _counts.put(s, new int[] { 1 });
+                } else {
+                    count[0]++;
+                }
             }
             return false;
         }
-        
-        public List<Set<Serializable>> getClusters() {
-            return _clusterer.getClusters(_radius);
-        }
     }
         
     @Override
@@ -200,12 +132,38 @@ public class kNNClusterer extends Clusterer {
 
     @Override
     public void computeClusters(Engine engine) {
-        //VPTreeClusteringRowVisitor visitor = new VPTreeClusteringRowVisitor(_distance,_config);
-        BlockingClusteringRowVisitor visitor = new BlockingClusteringRowVisitor(_distance,_config);
+        double radius = 1.0d;
+        int blockingNgramSize = 6;
+        try {
+            JSONObject params = _config.getJSONObject("params");
+            radius = params.getDouble("radius");
+            logger.debug("Use radius: {}", radius);
+            blockingNgramSize = params.getInt("blocking-ngram-size");
+            logger.debug("Use blocking ngram size: {}", blockingNgramSize);
+        } catch (JSONException e) {
+            logger.debug("No parameters found, using defaults");
+        }
+
         FilteredRows filteredRows = engine.getAllFilteredRows();
-        filteredRows.accept(_project, visitor);
-     
-        _clusters = visitor.getClusters();
+        filteredRows.accept(_project, new CountingRowVisitor());
+
+        NeighborSearch search = new NeighborSearch(_distance, radius, blockingNgramSize, getParallelism());
+        _clusters = search.findClusters(
+            _counts.keySet().toArray(new String[_counts.size()]),
+            new NeighborSearch.Listener() {
+                @Override
+                public void onProgress(int done, int total) {
+                    _progress = done * 100 / total;
+                }
+
+                @Override
+                public boolean isCanceled() {
+                    return _canceled;
+                }
+            });
+        if (_clusters == null) {
+            _clusters = new ArrayList<Set<Serializable>>();
+        }
     }
 
     public static class ValuesComparator implements Comparator<Entry<Serializable,Integer>>, Serializable {
@@ -223,7 +181,7 @@ public class kNNClusterer extends Clusterer {
             if (m.size() > 1) {
                 Map<Serializable,Integer> internal_counts = new HashMap<Serializable,Integer>();
                 for (Serializable s : m) {
-                    internal_counts.put(s,_counts.get(s));
+                    internal_counts.put(s,_counts.get(s)[0]);
                 }
                 List<Entry<Serializable,Integer>> values = new ArrayList<Entry<Serializable,Integer>>(internal_counts.entrySet());
                 Collections.sort(values, new ValuesComparator());
@@ -239,12 +197,4 @@ public class kNNClusterer extends Clusterer {
         }
         writer.endArray();
     }
-    
-    private void count(Serializable s) {
-        if (_counts.containsKey(s)) {
-            _counts.put(s, _counts.get(s) + 1);
-        } else {
-            _counts.put(s, 1);
-        }
-    }
 }
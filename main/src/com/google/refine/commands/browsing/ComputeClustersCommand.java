@@ -45,40 +45,74 @@ import org.slf4j.LoggerFactory;
 
 import com.google.refine.browsing.Engine;
 import com.google.refine.clustering.Clusterer;
+import com.google.refine.clustering.ClusteringProcess;
 import com.google.refine.clustering.binning.BinningClusterer;
 import com.google.refine.clustering.knn.kNNClusterer;
 import com.google.refine.commands.Command;
 import com.google.refine.model.Project;
 
+/**
+ * Computes clusters of the values of a column. Clusterers which take longer than
+ * {@link #WAIT_MILLIS} are left running in a {@link ClusteringProcess}: the response
+ * then holds the id of the process and its progress, and the client asks again with
+ * that id, either to wait for the clusters a little longer or to cancel the process.
+ */
 public class ComputeClustersCommand extends Command {
 
     final static Logger logger = LoggerFactory.getLogger("compute-clusters_command");
 
+    static final public long WAIT_MILLIS = 2000;
+
     @Override
     public void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
         
         try {
             long start = System.currentTimeMillis();
-            Project project = getProject(request);
-            Engine engine = getEngine(request, project);
-            JSONObject clusterer_conf = getJsonParameter(request,"clusterer");
-
-            Clusterer clusterer = null;
-            String type = clusterer_conf.has("type") ? clusterer_conf.getString("type") : "binning";
-            
-            if ("knn".equals(type)) {
-                clusterer = new kNNClusterer();
-            } else  {
-                clusterer = new BinningClusterer();
-            }
+            ClusteringProcess process;
+            String processId = request.getParameter("processId");
+            if (processId != null) {
+                process = ClusteringProcess.get(Integer.parseInt(processId));
+                if (process == null) {
+                    respond(response, "{ \"code\" : \"error\", \"message\" : \"No such clustering process\" }");
+                    return;
+                }
+                if ("true".equals(request.getParameter("cancel"))) {
+                    process.cancel();
+                    respond(response, "{ \"code\" : \"ok\" }");
+                    return;
+                }
+            } else {
+                Project project = getProject(request);
+                Engine engine = getEngine(request, project);
+                JSONObject clusterer_conf = getJsonParameter(request,"clusterer");
+
+                Clusterer clusterer = null;
+                String type = clusterer_conf.has("type") ? clusterer_conf.getString("type") : "binning";
+                
+                if ("knn".equals(type)) {
+                    clusterer = new kNNClusterer();
+                } else  {
+                    clusterer = new BinningClusterer();
+                }
+                    
+                clusterer.initializeFromJSON(project, clusterer_conf);
                 
-            clusterer.initializeFromJSON(project, clusterer_conf);
-            
-            clusterer.computeClusters(engine);
-            
-            respondJSON(response, clusterer);
-            logger.info("computed clusters [{},{}] in {}ms", new Object[] { type, clusterer_conf.getString("function"), Long.toString(System.currentTimeMillis() - start) });
+                process = ClusteringProcess.start(clusterer, engine);
+            }
+
+            if (!process.await(WAIT_MILLIS)) {
+                JSONObject o = new JSONObject();
+                o.put("code", "pending");
+                o.put("processId", process.getId());
+                o.put("progress", process.getClusterer().getProgress());
+                respondJSONObject(response, o);
+            } else if (process.getException() != null) {
+                respondException(response, process.getException());
+            } else {
+                respondJSON(response, process.getClusterer());
+                logger.info("computed clusters in {}ms", Long.toString(System.currentTimeMillis() - start));
+            }
         } catch (Exception e) {
             respondException(response, e);
         }
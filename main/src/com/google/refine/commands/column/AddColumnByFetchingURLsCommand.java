@@ -56,6 +56,7 @@ public class AddColumnByFetchingURLsCommand extends EngineDependentCommand {
         int delay = Integer.parseInt(request.getParameter("delay"));
         String onError = request.getParameter("onError");
         boolean cacheResponses = Boolean.parseBoolean(request.getParameter("cacheResponses"));
+        boolean persistResponses = Boolean.parseBoolean(request.getParameter("persistResponses"));
         JSONArray httpHeadersJson = new JSONArray(request.getParameter("httpHeaders"));
 
         return new ColumnAdditionByFetchingURLsOperation(
@@ -67,6 +68,7 @@ public class AddColumnByFetchingURLsCommand extends EngineDependentCommand {
             columnInsertIndex,
             delay,
             cacheResponses,
+            persistResponses,
             httpHeadersJson
         );
     }
@@ -57,8 +57,7 @@ import com.google.refine.importing.ImportingManager;
 import com.google.refine.model.Project;
 import com.google.refine.model.Record;
 import com.google.refine.model.Row;
-import com.google.refine.sorting.SortingRecordVisitor;
-import com.google.refine.sorting.SortingRowVisitor;
+import com.google.refine.sorting.SortedOrderCache;
 import com.google.refine.util.ParsingUtilities;
 import com.google.refine.util.Pool;
 
@@ -128,41 +127,42 @@ public class GetRowsCommand extends Command {
             } catch (JSONException e) {
             }
 
+            // Sorting is expensive, so when paging through a sorted view the sorted
+            // order is kept and each page is sliced out of it.
+            int[] sortedOrder = null;
+            if (sortingJson != null) {
+                sortedOrder = SortedOrderCache.getOrder(
+                    project, engine, request.getParameter("engine"), sortingJson);
+            }
+
             if (engine.getMode() == Mode.RowBased) {
-                FilteredRows filteredRows = engine.getAllFilteredRows();
-                RowVisitor visitor = rwv;
-                
-                if (sortingJson != null) {
-                    SortingRowVisitor srv = new SortingRowVisitor(visitor);
-                    
-                    srv.initializeFromJSON(project, sortingJson);
-                    if (srv.hasCriteria()) {
-                        visitor = srv;
-                    }
-                }
-                
                 jsonWriter.key("mode"); jsonWriter.value("row-based");
                 jsonWriter.key("rows"); jsonWriter.array();
-                filteredRows.accept(project, visitor);
+                if (sortedOrder != null) {
+                    for (int i = start; i < Math.min(sortedOrder.length, start + limit); i++) {
+                        int rowIndex = sortedOrder[i];
+                        rwv.internalVisit(project, rowIndex, project.rows.get(rowIndex));
+                    }
+                    rwv.total = sortedOrder.length;
+                } else {
+                    FilteredRows filteredRows = engine.getAllFilteredRows();
+                    filteredRows.accept(project, rwv);
+                }
                 jsonWriter.endArray();
                 jsonWriter.key("filtered"); jsonWriter.value(rwv.total);
                 jsonWriter.key("total"); jsonWriter.value(project.rows.size());
             } else {
-                FilteredRecords filteredRecords = engine.getFilteredRecords();
-                RecordVisitor visitor = rwv;
-                
-                if (sortingJson != null) {
-                    SortingRecordVisitor srv = new SortingRecordVisitor(visitor);
-                    
-                    srv.initializeFromJSON(project, sortingJson);
-                    if (srv.hasCriteria()) {
-                        visitor = srv;
-                    }
-                }
-                
                 jsonWriter.key("mode"); jsonWriter.value("record-based");
                 jsonWriter.key("rows"); jsonWriter.array();
-                filteredRecords.accept(project, visitor);
+                if (sortedOrder != null) {
+                    for (int i = start; i < Math.min(sortedOrder.length, start + limit); i++) {
+                        rwv.internalVisit(project, project.recordModel.getRecord(sortedOrder[i]));
+                    }
+                    rwv.total = sortedOrder.length;
+                } else {
+                    FilteredRecords filteredRecords = engine.getFilteredRecords();
+                    filteredRecords.accept(project, rwv);
+                }
                 jsonWriter.endArray();
                 jsonWriter.key("filtered"); jsonWriter.value(rwv.total);
                 jsonWriter.key("total"); jsonWriter.value(project.recordModel.getRecordCount());
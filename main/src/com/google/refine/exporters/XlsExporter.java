@@ -42,13 +42,14 @@ import java.util.Properties;
 
 import org.apache.poi.hssf.usermodel.HSSFHyperlink;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.WorkbookUtil;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.json.JSONObject;
 
 import com.google.refine.ProjectManager;
@@ -56,6 +57,12 @@ import com.google.refine.browsing.Engine;
 import com.google.refine.model.Project;
 
 public class XlsExporter implements StreamExporter {
+    /**
+     * Number of rows of an .xlsx file kept in memory, older ones being flushed to a
+     * temporary file until the workbook is written out.
+     */
+    static final public int XLSX_ROW_WINDOW = 100;
+    
     final private boolean xml;
     
     public XlsExporter(boolean xml) {
@@ -71,11 +78,19 @@ public class XlsExporter implements StreamExporter {
     public void export(final Project project, Properties params, Engine engine,
             OutputStream outputStream) throws IOException {
 
-        final Workbook wb = xml ? new XSSFWorkbook() : new HSSFWorkbook();
+        final SpreadsheetVersion version = xml ? SpreadsheetVersion.EXCEL2007 : SpreadsheetVersion.EXCEL97;
+        final Workbook wb;
+        if (xml) {
+            SXSSFWorkbook sxssf = new SXSSFWorkbook(XLSX_ROW_WINDOW);
+            sxssf.setCompressTempFiles(true);
+            wb = sxssf;
+        } else {
+            wb = new HSSFWorkbook();
+        }
         
+        final int[] rowCount = new int[] { 0 };
         TabularSerializer serializer = new TabularSerializer() {
             Sheet s;
-            int rowCount = 0;
             CellStyle dateStyle;
             
             @Override
@@ -96,11 +111,14 @@ public class XlsExporter implements StreamExporter {
 
             @Override
             public void addRow(List<CellData> cells, boolean isHeader) {
-                Row r = s.createRow(rowCount++);
+                if (rowCount[0] >= version.getMaxRows()) {
+                    throw new TooManyRowsException(); // stops the export at once
+                }
+                Row r = s.createRow(rowCount[0]++);
                 
                 for (int i = 0; i < cells.size(); i++) {
                     Cell c = r.createCell(i);
-                    if (i == 255 && cells.size() > 256) {
+                    if (i == version.getLastColumnIndex() && cells.size() > version.getMaxColumns()) {
                         c.setCellValue("ERROR: TOO MANY COLUMNS");
                         break;
                     } else {
@@ -139,11 +157,26 @@ public class XlsExporter implements StreamExporter {
             }
         };
         
-        CustomizableTabularExporterUtilities.exportRows(
-                project, engine, params, serializer);
-        
-        wb.write(outputStream);
-        outputStream.flush();
+        try {
+            try {
+                CustomizableTabularExporterUtilities.exportRows(
+                        project, engine, params, serializer);
+            } catch (TooManyRowsException e) {
+                throw new IOException("Cannot export more than " + version.getMaxRows() + " rows to " +
+                    (xml ? "an .xlsx" : "an .xls") + " file" + (xml ? "" : ": export to .xlsx instead"));
+            }
+            
+            wb.write(outputStream);
+            outputStream.flush();
+        } finally {
+            if (wb instanceof SXSSFWorkbook) {
+                // delete the temporary files of rows
+                ((SXSSFWorkbook) wb).dispose();
+            }
+        }
+    }
+    
+    static private class TooManyRowsException extends RuntimeException {
+        private static final long serialVersionUID = 4398233473447012538L;
     }
-
 }
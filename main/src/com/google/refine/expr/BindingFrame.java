@@ -0,0 +1,296 @@
+package com.google.refine.expr;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+
+/**
+ * Variable bindings for evaluating expressions, as created by
+ * {@link ExpressionUtils#createBindings(Project)}.
+ *
+ * The standard variables live in fixed slots rather than in the underlying hash table,
+ * and the wrappers for "row", "cells", "cell" and "recon" are only created when an
+ * expression reads them, so binding a frame to the next row allocates nothing. Binders
+ * can register extra slots for the variables they add with {@link #registerSlot(String)}.
+ * Any other variable, such as the loop variables of forEach, is kept in an unsynchronized
+ * map: a frame belongs to the thread that evaluates with it.
+ *
+ * It is still a Properties so that it can be passed wherever bindings are expected.
+ */
+public class BindingFrame extends Properties {
+    private static final long serialVersionUID = -2187235384539713062L;
+
+    static final public int VALUE = 0;
+    static final public int CELL = 1;
+    static final public int CELLS = 2;
+    static final public int ROW = 3;
+    static final public int ROW_INDEX = 4;
+    static final public int COLUMN_NAME = 5;
+    static final public int PROJECT = 6;
+    static final public int RECON = 7;
+    static final public int TRUE = 8;
+    static final public int FALSE = 9;
+    static final public int PI = 10;
+
+    static final private String[] s_standardNames = {
+        "value", "cell", "cells", "row", "rowIndex", "columnName", "project", "recon", "true", "false", "PI"
+    };
+
+    static final private byte ABSENT = 0;
+    static final private byte PRESENT = 1;
+    static final private byte LAZY = 2;
+
+    /*
+     * Copied on write, so that lookups need no locking.
+     */
+    static private volatile Map<String, Integer> s_slots;
+    static private volatile String[] s_slotNames = s_standardNames;
+    static {
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        for (int i = 0; i < s_standardNames.length; i++) {
+            slots.put(s_standardNames[i], i);
+        }
+        s_slots = slots;
+    }
+
+    /**
+     * Give a variable its own slot in all frames, so that it is read and written without
+     * a hash table lookup. Registering the same name twice returns the same slot.
+     *
+     * @return the slot index of the variable
+     */
+    static synchronized public int registerSlot(String name) {
+        Integer slot = s_slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        Map<String, Integer> slots = new HashMap<String, Integer>(s_slots);
+        String[] names = new String[s_slotNames.length + 1];
+        System.arraycopy(s_slotNames, 0, names, 0, s_slotNames.length);
+        names[s_slotNames.length] = name;
+        slots.put(name, s_slotNames.length);
+
+        s_slotNames = names;
+        s_slots = slots;
+        return names.length - 1;
+    }
+
+    /**
+     * @return the slot index of the given variable, or -1 if it has none
+     */
+    static public int getSlot(String name) {
+        Integer slot = s_slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    protected Object[]              _values;
+    protected byte[]                _states;
+    protected Map<Object, Object>   _others;
+
+    /*
+     * What the lazy slots are computed from
+     */
+    protected Row       _row;
+    protected int       _rowIndex;
+    protected String    _columnName;
+    protected Cell      _cell;
+
+    public BindingFrame(Project project) {
+        int slotCount = s_slotNames.length;
+        _values = new Object[slotCount];
+        _states = new byte[slotCount];
+
+        setSlot(PROJECT, project);
+        setSlot(TRUE, true);
+        setSlot(FALSE, false);
+        setSlot(PI, Math.PI);
+    }
+
+    /**
+     * Bind the standard variables to the given row and cell, as
+     * {@link ExpressionUtils#bind(Properties, Row, int, String, Cell)} does.
+     */
+    public void bindRow(Row row, int rowIndex, String columnName, Cell cell) {
+        _row = row;
+        _rowIndex = rowIndex;
+        _cell = cell;
+
+        _states[ROW_INDEX] = LAZY;
+        _states[ROW] = LAZY;
+        _states[CELLS] = LAZY;
+
+        _columnName = columnName;
+        if (columnName != null) {
+            setSlot(COLUMN_NAME, columnName);
+        }
+
+        if (cell == null) {
+            _states[CELL] = ABSENT;
+            _states[RECON] = ABSENT;
+            _states[VALUE] = ABSENT;
+        } else {
+            _states[CELL] = LAZY;
+            _states[RECON] = LAZY;
+            setSlot(VALUE, cell.value);
+        }
+    }
+
+    public Object getSlotValue(int slot) {
+        if (slot >= _states.length) {
+            return null;
+        }
+        switch (_states[slot]) {
+        case PRESENT:
+            return _values[slot];
+        case LAZY:
+            Object value = computeSlot(slot);
+            setSlot(slot, value);
+            return value;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Set or, given null, remove the variable in the given slot.
+     */
+    public void setSlot(int slot, Object value) {
+        if (slot >= _states.length) {
+            int slotCount = s_slotNames.length;
+            Object[] values = new Object[slotCount];
+            byte[] states = new byte[slotCount];
+            System.arraycopy(_values, 0, values, 0, _values.length);
+            System.arraycopy(_states, 0, states, 0, _states.length);
+            _values = values;
+            _states = states;
+        }
+        _values[slot] = value;
+        _states[slot] = value != null ? PRESENT : ABSENT;
+    }
+
+    protected Object computeSlot(int slot) {
+        Project project = (Project) getSlotValue(PROJECT);
+        switch (slot) {
+        case ROW_INDEX:
+            return _rowIndex;
+        case ROW:
+            return new WrappedRow(project, _rowIndex, _row);
+        case CELLS:
+            return new CellTuple(project, _row);
+        case CELL:
+            return new WrappedCell(project, _columnName, _cell);
+        case RECON:
+            return _cell.recon;
+        default:
+            return null;
+        }
+    }
+
+    @Override
+    public Object get(Object key) {
+        Integer slot = key instanceof String ? s_slots.get(key) : null;
+        if (slot != null) {
+            return getSlotValue(slot);
+        }
+        return _others != null ? _others.get(key) : null;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        if (value == null) {
+            throw new NullPointerException(); // same as any other hash table
+        }
+        Integer slot = key instanceof String ? s_slots.get(key) : null;
+        if (slot != null) {
+            Object old = getSlotValue(slot);
+            setSlot(slot, value);
+            return old;
+        }
+        if (_others == null) {
+            _others = new HashMap<Object, Object>();
+        }
+        return _others.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        Integer slot = key instanceof String ? s_slots.get(key) : null;
+        if (slot != null) {
+            Object old = getSlotValue(slot);
+            setSlot(slot, null);
+            return old;
+        }
+        return _others != null ? _others.remove(key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public String getProperty(String key) {
+        Object value = get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * @return a copy of all bound variables, with lazy ones computed
+     */
+    protected Hashtable<Object, Object> snapshot() {
+        Hashtable<Object, Object> table = new Hashtable<Object, Object>();
+        String[] names = s_slotNames;
+        for (int i = 0; i < _states.length; i++) {
+            Object value = getSlotValue(i);
+            if (value != null) {
+                table.put(names[i], value);
+            }
+        }
+        if (_others != null) {
+            table.putAll(_others);
+        }
+        return table;
+    }
+
+    @Override
+    public int size() {
+        return snapshot().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Set<Object> keySet() {
+        return Collections.unmodifiableSet(snapshot().keySet());
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        return Collections.unmodifiableSet(snapshot().entrySet());
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return Collections.unmodifiableCollection(snapshot().values());
+    }
+
+    @Override
+    public synchronized Object clone() {
+        BindingFrame frame = (BindingFrame) super.clone();
+        frame._values = _values.clone();
+        frame._states = _states.clone();
+        frame._others = _others != null ? new HashMap<Object, Object>(_others) : null;
+        return frame;
+    }
+}
@@ -58,13 +58,7 @@ public class ExpressionUtils {
     }
 
     static public Properties createBindings(Project project) {
-        Properties bindings = new Properties();
-
-        bindings.put("true", true);
-        bindings.put("false", false);
-        bindings.put("PI", Math.PI);
-
-        bindings.put("project", project);
+        Properties bindings = new BindingFrame(project);
 
         for (Binder binder : s_binders) {
             binder.initializeBindings(bindings, project);
@@ -74,6 +68,14 @@ public class ExpressionUtils {
     }
 
     static public void bind(Properties bindings, Row row, int rowIndex, String columnName, Cell cell) {
+        if (bindings instanceof BindingFrame) {
+            ((BindingFrame) bindings).bindRow(row, rowIndex, columnName, cell);
+            for (Binder binder : s_binders) {
+                binder.bind(bindings, row, rowIndex, columnName, cell);
+            }
+            return;
+        }
+
         Project project = (Project) bindings.get("project");
 
         bindings.put("rowIndex", rowIndex);
@@ -87,8 +89,14 @@ public class ExpressionUtils {
         if (cell == null) {
             bindings.remove("cell");
             bindings.remove("value");
+            bindings.remove("recon");
         } else {
             bindings.put("cell", new WrappedCell(project, columnName, cell));
+            if (cell.recon == null) {
+                bindings.remove("recon");
+            } else {
+                bindings.put("recon", cell.recon);
+            }
             if (cell.value == null) {
                 bindings.remove("value");
             } else {
@@ -42,6 +42,7 @@ import java.util.Set;
 import clojure.lang.IFn;
 import clojure.lang.RT;
 
+import com.google.refine.grel.GrelCompiler;
 import com.google.refine.grel.Parser;
 
 abstract public class MetaParser {
@@ -170,7 +171,8 @@ abstract public class MetaParser {
     
     static protected Evaluable parseGREL(String s) throws ParsingException {
         Parser parser = new Parser(s);
+        Evaluable evaluable = parser.getExpression();
         
-        return parser.getExpression();
+        return GrelCompiler.isEnabled() ? GrelCompiler.compile(evaluable) : evaluable;
     }
 }
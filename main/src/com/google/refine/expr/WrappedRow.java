@@ -59,9 +59,10 @@ public class WrappedRow implements HasFields {
         } else if ("index".equals(name)) {
             return rowIndex;
         } else if ("record".equals(name)) {
-            int rowIndex = (Integer) bindings.get("rowIndex");
+            // the row's own index: rows of other projects, from cross(), are not the row being evaluated
+            Record record = project.recordModel.getRecordOfRow(rowIndex);
             
-            return new WrappedRecord(project.recordModel.getRecordOfRow(rowIndex));
+            return record != null ? new WrappedRecord(record) : null;
         } else if ("columnNames".equals(name)) {
             Project project = (Project) bindings.get("project");
             
@@ -40,6 +40,7 @@ import org.json.JSONWriter;
 
 import com.google.refine.expr.EvalError;
 import com.google.refine.grel.Function;
+import com.google.refine.util.NumericText;
 
 public class ToNumber implements Function {
 
@@ -51,15 +52,8 @@ public class ToNumber implements Function {
             } else {
                 String s = args[0].toString().trim();
                 if (s.length() > 0) {
-                    try {
-                        return Long.parseLong(s);
-                    } catch (NumberFormatException e) {
-                    }
-                    try {
-                        return Double.parseDouble(s);
-                    } catch (NumberFormatException e) {
-                        return new EvalError("Cannot parse to number");
-                    }
+                    Number n = NumericText.parseNumber(s);
+                    return n != null ? n : new EvalError("Cannot parse to number");
                 }
             }
         }
@@ -0,0 +1,93 @@
+package com.google.refine.grel;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.expr.BindingFrame;
+import com.google.refine.expr.Evaluable;
+import com.google.refine.grel.ast.BinaryOperatorCallExpr;
+import com.google.refine.grel.ast.ControlCallExpr;
+import com.google.refine.grel.ast.FieldAccessorExpr;
+import com.google.refine.grel.ast.FunctionCallExpr;
+import com.google.refine.grel.ast.OperatorCallExpr;
+import com.google.refine.grel.ast.SlotVariableExpr;
+import com.google.refine.grel.ast.VariableExpr;
+import com.google.refine.preference.PreferenceStore;
+
+/**
+ * Rewrites a parsed GREL expression tree into an equivalent tree of specialized
+ * nodes that do less work per evaluation, such as operator calls whose operator
+ * is resolved up front and whose operands are not collected into an array.
+ *
+ * Nodes are only replaced when a faster equivalent exists. Variables with a slot in
+ * {@link BindingFrame} are read from that slot directly; they remain variables, since
+ * controls such as forEach rely on that.
+ */
+public class GrelCompiler {
+    /**
+     * Preference to turn the compiler off and evaluate parsed trees as they are.
+     */
+    static final public String COMPILE_PREFERENCE = "grel.compile";
+
+    static public boolean isEnabled() {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        Object v = ps != null ? ps.get(COMPILE_PREFERENCE) : null;
+        if (v instanceof Boolean) {
+            return (Boolean) v;
+        } else if (v != null) {
+            return !"false".equalsIgnoreCase(v.toString());
+        }
+        return true;
+    }
+
+    /**
+     * @param evaluable a tree produced by the GREL {@link Parser}
+     * @return an equivalent tree, which is the given one if nothing could be specialized
+     */
+    static public Evaluable compile(Evaluable evaluable) {
+        if (evaluable instanceof OperatorCallExpr) {
+            OperatorCallExpr expr = (OperatorCallExpr) evaluable;
+            Evaluable[] args = expr.getArgs();
+            Evaluable[] compiledArgs = compileAll(args);
+            if (compiledArgs.length == 2 && !(expr instanceof BinaryOperatorCallExpr && compiledArgs == args)) {
+                return new BinaryOperatorCallExpr(compiledArgs[0], compiledArgs[1], expr.getOperator());
+            }
+            return compiledArgs == args ? expr : new OperatorCallExpr(compiledArgs, expr.getOperator());
+        } else if (evaluable instanceof FunctionCallExpr) {
+            FunctionCallExpr expr = (FunctionCallExpr) evaluable;
+            Evaluable[] args = expr.getArgs();
+            Evaluable[] compiledArgs = compileAll(args);
+            return compiledArgs == args ? expr : new FunctionCallExpr(compiledArgs, expr.getFunction());
+        } else if (evaluable instanceof ControlCallExpr) {
+            ControlCallExpr expr = (ControlCallExpr) evaluable;
+            Evaluable[] args = expr.getArgs();
+            Evaluable[] compiledArgs = compileAll(args);
+            return compiledArgs == args ? expr : new ControlCallExpr(compiledArgs, expr.getControl());
+        } else if (evaluable instanceof FieldAccessorExpr) {
+            FieldAccessorExpr expr = (FieldAccessorExpr) evaluable;
+            Evaluable inner = compile(expr.getInner());
+            return inner == expr.getInner() ? expr : new FieldAccessorExpr(inner, expr.getFieldName());
+        } else if (evaluable instanceof VariableExpr && !(evaluable instanceof SlotVariableExpr)) {
+            String name = ((VariableExpr) evaluable).getName();
+            int slot = BindingFrame.getSlot(name);
+            return slot < 0 ? evaluable : new SlotVariableExpr(name, slot);
+        }
+        return evaluable;
+    }
+
+    /**
+     * @return the compiled arguments, or the given array itself if none changed
+     */
+    static protected Evaluable[] compileAll(Evaluable[] args) {
+        Evaluable[] compiledArgs = args;
+        for (int i = 0; i < args.length; i++) {
+            Evaluable compiled = compile(args[i]);
+            if (compiled != args[i]) {
+                if (compiledArgs == args) {
+                    compiledArgs = args.clone();
+                }
+                compiledArgs[i] = compiled;
+            }
+        }
+        return compiledArgs;
+    }
+}
@@ -0,0 +1,121 @@
+package com.google.refine.grel.ast;
+
+import java.util.Properties;
+
+import com.google.refine.expr.Evaluable;
+import com.google.refine.expr.ExpressionUtils;
+
+/**
+ * A two-operand operator call whose operator has been resolved once, when the
+ * expression was compiled, rather than by comparing operator strings on every
+ * evaluation. It gives the same results as {@link OperatorCallExpr}.
+ */
+public class BinaryOperatorCallExpr extends OperatorCallExpr {
+    static public enum Operator {
+        ADD("+"),
+        SUBTRACT("-"),
+        MULTIPLY("*"),
+        DIVIDE("/"),
+        MODULO("%"),
+        GREATER(">"),
+        GREATER_OR_EQUAL(">="),
+        LESS("<"),
+        LESS_OR_EQUAL("<="),
+        EQUAL("=="),
+        NOT_EQUAL("!="),
+        OTHER(null);
+
+        final public String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        static public Operator fromSymbol(String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol != null && operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            return OTHER;
+        }
+    }
+
+    final protected Evaluable   _left;
+    final protected Evaluable   _right;
+    final protected Operator    _operator;
+
+    public BinaryOperatorCallExpr(Evaluable left, Evaluable right, String op) {
+        super(new Evaluable[] { left, right }, op);
+        _left = left;
+        _right = right;
+        _operator = Operator.fromSymbol(op);
+    }
+
+    @Override
+    public Object evaluate(Properties bindings) {
+        Object a = _left.evaluate(bindings);
+        if (ExpressionUtils.isError(a)) {
+            return a;
+        }
+        Object b = _right.evaluate(bindings);
+        if (ExpressionUtils.isError(b)) {
+            return b;
+        }
+
+        if (a != null && b != null) {
+            if ((a instanceof Long || a instanceof Integer) && (b instanceof Long || b instanceof Integer)) {
+                long n1 = ((Number) a).longValue();
+                long n2 = ((Number) b).longValue();
+
+                switch (_operator) {
+                case ADD:               return n1 + n2;
+                case SUBTRACT:          return n1 - n2;
+                case MULTIPLY:          return n1 * n2;
+                case DIVIDE:            return n1 / n2;
+                case MODULO:            return n1 % n2;
+                case GREATER:           return n1 > n2;
+                case GREATER_OR_EQUAL:  return n1 >= n2;
+                case LESS:              return n1 < n2;
+                case LESS_OR_EQUAL:     return n1 <= n2;
+                case EQUAL:             return n1 == n2;
+                case NOT_EQUAL:         return n1 != n2;
+                default:                break;
+                }
+            } else if (a instanceof Number && b instanceof Number) {
+                double n1 = ((Number) a).doubleValue();
+                double n2 = ((Number) b).doubleValue();
+
+                switch (_operator) {
+                case ADD:               return n1 + n2;
+                case SUBTRACT:          return n1 - n2;
+                case MULTIPLY:          return n1 * n2;
+                case DIVIDE:            return n1 / n2;
+                case MODULO:            return n1 % n2;
+                case GREATER:           return n1 > n2;
+                case GREATER_OR_EQUAL:  return n1 >= n2;
+                case LESS:              return n1 < n2;
+                case LESS_OR_EQUAL:     return n1 <= n2;
+                case EQUAL:             return n1 == n2;
+                case NOT_EQUAL:         return n1 != n2;
+                default:                break;
+                }
+            }
+
+            if (_operator == Operator.ADD) {
+                return a.toString() + b.toString();
+            }
+        }
+
+        if (_operator == Operator.EQUAL) {
+            return a != null ? a.equals(b) : b == null;
+        } else if (_operator == Operator.NOT_EQUAL) {
+            return a != null ? !a.equals(b) : b != null;
+        }
+        return null;
+    }
+
+    public Operator getResolvedOperator() {
+        return _operator;
+    }
+}
@@ -73,4 +73,12 @@ public class ControlCallExpr implements Evaluable {
         
         return _control.getClass().getSimpleName() + "(" + sb.toString() + ")";
     }
+    
+    public Evaluable[] getArgs() {
+        return _args;
+    }
+    
+    public Control getControl() {
+        return _control;
+    }
 }
@@ -81,4 +81,12 @@ public class FieldAccessorExpr implements Evaluable {
     public String toString() {
         return _inner.toString() + "." + _fieldName;
     }
+    
+    public Evaluable getInner() {
+        return _inner;
+    }
+    
+    public String getFieldName() {
+        return _fieldName;
+    }
 }
@@ -85,4 +85,12 @@ public class FunctionCallExpr implements Evaluable {
         
         return _function.getClass().getSimpleName() + "(" + sb.toString() + ")";
     }
+    
+    public Evaluable[] getArgs() {
+        return _args;
+    }
+    
+    public Function getFunction() {
+        return _function;
+    }
 }
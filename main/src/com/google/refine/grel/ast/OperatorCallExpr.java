@@ -160,4 +160,12 @@ public class OperatorCallExpr implements Evaluable {
     private boolean isIntegral(Object n) {
         return n instanceof Long || n instanceof Integer;
     }
+
+    public Evaluable[] getArgs() {
+        return _args;
+    }
+
+    public String getOperator() {
+        return _op;
+    }
 }
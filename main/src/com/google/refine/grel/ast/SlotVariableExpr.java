@@ -0,0 +1,25 @@
+package com.google.refine.grel.ast;
+
+import java.util.Properties;
+
+import com.google.refine.expr.BindingFrame;
+
+/**
+ * A variable whose slot in a {@link BindingFrame} has been looked up once, when the
+ * expression was compiled, so that evaluating it does not go through a hash table.
+ */
+public class SlotVariableExpr extends VariableExpr {
+    final protected int _slot;
+
+    public SlotVariableExpr(String name, int slot) {
+        super(name);
+        _slot = slot;
+    }
+
+    @Override
+    public Object evaluate(Properties bindings) {
+        return bindings instanceof BindingFrame ?
+                ((BindingFrame) bindings).getSlotValue(_slot) :
+                bindings.get(_name);
+    }
+}
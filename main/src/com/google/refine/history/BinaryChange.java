@@ -0,0 +1,17 @@
+package com.google.refine.history;
+
+import java.io.IOException;
+
+import com.google.refine.util.BinaryCellOutput;
+
+/**
+ * A change that can also be saved in a compact binary form, much smaller and faster
+ * to read back than its text form when it holds many cells or rows.
+ *
+ * A class implementing this interface must also declare a static method
+ * loadBinary(BinaryCellInput, Pool) reading the change back. Subclasses which do not
+ * declare their own are saved as text.
+ */
+public interface BinaryChange extends Change {
+    public void saveBinary(BinaryCellOutput out) throws IOException;
+}
@@ -33,6 +33,8 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.history;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -53,6 +55,8 @@ import com.google.refine.Jsonizable;
 import com.google.refine.ProjectManager;
 import com.google.refine.RefineServlet;
 import com.google.refine.model.Project;
+import com.google.refine.util.BinaryCellInput;
+import com.google.refine.util.BinaryCellOutput;
 import com.google.refine.util.Pool;
 
 /**
@@ -107,6 +111,53 @@ public class History implements Jsonizable {
         change.save(writer, options);
     }
 
+    static final public int BINARY_CHANGE_VERSION = 1;
+    static final protected int BINARY_CHANGE_MAGIC = 0x52434847; // "RCHG"
+
+    /**
+     * @return true if the change can be written by
+     *      {@link #writeOneBinaryChange(OutputStream, BinaryChange, Pool)} and read back
+     */
+    static public boolean canWriteBinary(Change change) {
+        if (!(change instanceof BinaryChange)) {
+            return false;
+        }
+        try {
+            Method load = change.getClass().getMethod("loadBinary", BinaryCellInput.class, Pool.class);
+            return load.getDeclaringClass() == change.getClass();
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    static public void writeOneBinaryChange(OutputStream out, BinaryChange change, Pool pool) throws IOException {
+        BinaryCellOutput output = new BinaryCellOutput(new BufferedOutputStream(out, 65536), pool);
+        output.writeInt(BINARY_CHANGE_MAGIC);
+        output.writeVarInt(BINARY_CHANGE_VERSION);
+        output.writeUTF8(change.getClass().getName());
+
+        change.saveBinary(output);
+        output.flush();
+    }
+
+    static public Change readOneBinaryChange(InputStream in, Pool pool) throws Exception {
+        BinaryCellInput input = new BinaryCellInput(new BufferedInputStream(in, 65536), pool);
+        if (input.readInt() != BINARY_CHANGE_MAGIC) {
+            throw new IOException("Not a binary change");
+        }
+        int version = input.readVarInt();
+        if (version > BINARY_CHANGE_VERSION) {
+            throw new IOException("Change was saved in binary format version " + version +
+                ", newer than the supported version " + BINARY_CHANGE_VERSION);
+        }
+
+        Class<? extends Change> klass = getChangeClass(input.readUTF8());
+
+        Method load = klass.getMethod("loadBinary", BinaryCellInput.class, Pool.class);
+
+        return (Change) load.invoke(null, input, pool);
+    }
+
     @SuppressWarnings("unchecked")
     static public Class<? extends Change> getChangeClass(String className) throws ClassNotFoundException {
         return (Class<? extends Change>) RefineServlet.getClass(className);
@@ -115,6 +166,7 @@ public class History implements Jsonizable {
     protected long               _projectID;
     protected List<HistoryEntry> _pastEntries;   // done changes, can be undone
     protected List<HistoryEntry> _futureEntries; // undone changes, can be redone
+    volatile protected long      _version;       // bumped under the lock whenever the project's data changes
 
     public History(Project project) {
         _projectID = project.id;
@@ -155,9 +207,19 @@ public class History implements Jsonizable {
     }
 
     protected void setModified() {
+        _version++;
         ProjectManager.singleton.getProjectMetadata(_projectID).updateModified();
     }
 
+    /**
+     * @return a number that changes each time a change is applied, undone or redone,
+     *      so that derived data can tell whether it is still up to date. Read without
+     *      the lock, so that checking it does not wait for a save to finish.
+     */
+    public long getVersion() {
+        return _version;
+    }
+
     synchronized public List<HistoryEntry> getLastPastEntries(int count) {
         if (count <= 0) {
             return new LinkedList<HistoryEntry>(_pastEntries);
@@ -147,6 +147,8 @@ public class HistoryEntry implements Jsonizable {
 
                 throw new RuntimeException("Failed to apply change", e);
             }
+
+            project.modifiedRows.record(getChange());
         }
     }
 
@@ -155,6 +157,7 @@ public class HistoryEntry implements Jsonizable {
             _manager.loadChange(this);
         }
         getChange().revert(project);
+        project.modifiedRows.record(getChange());
     }
 
     static public HistoryEntry load(Project project, String s) throws Exception {
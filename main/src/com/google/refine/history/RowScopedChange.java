@@ -0,0 +1,16 @@
+package com.google.refine.history;
+
+/**
+ * A change that only modifies existing rows in place: it adds, removes or reorders
+ * no rows, and modifies nothing shared between rows, such as recon objects. Knowing
+ * which rows such a change touched lets the project be saved incrementally.
+ *
+ * Changes that do not implement this interface are assumed to affect every row.
+ */
+public interface RowScopedChange extends Change {
+    /**
+     * @return the indices of the rows modified by applying or reverting this change,
+     *      or null if they cannot be told
+     */
+    public int[] getModifiedRows();
+}
@@ -0,0 +1,310 @@
+package com.google.refine.importers;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.LineNumberReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import au.com.bytecode.opencsv.CSVParser;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.expr.ExpressionUtils;
+import com.google.refine.importers.TabularImportingParserBase.CellMakingTableDataReader;
+import com.google.refine.model.Cell;
+import com.google.refine.preference.PreferenceStore;
+
+/**
+ * Reads the rows of a separated file in chunks parsed in parallel, handing them out
+ * in order, for {@link TabularImportingParserBase#readTable}.
+ *
+ * The text is cut into chunks of whole records on the calling thread: a line ends a
+ * record unless it leaves a quoted value open, which, as CSVParser treats every quote
+ * but doubled ones as opening or closing a quoted value, is when it leaves an odd number
+ * of quotes open since the start of the record. Chunks are then parsed by the same code
+ * as single lines are, on a pool of threads, a few chunks ahead of the rows handed out.
+ * Values of data rows, that is after the lines to ignore and the header lines, are made
+ * into cells, their types guessed if asked to, on those threads as well.
+ *
+ * Until readTable sets the cell options, all rows are taken as data rows.
+ */
+public class ChunkedSeparatorReader implements CellMakingTableDataReader {
+    /**
+     * Preference holding the number of threads parsing separated files. 1, the
+     * default, parses them line by line on the importing thread.
+     */
+    static final public String PARALLELISM_PREFERENCE = "importing.parallelism";
+
+    /**
+     * Number of characters read at once, and so the usual size of a chunk.
+     */
+    static final public int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Number of characters read at once when only the first rows are wanted.
+     */
+    static final public int LIMITED_CHUNK_SIZE = 1 << 16;
+
+    static private ExecutorService s_executor;
+
+    final protected Reader      _reader;
+    final protected String      _separator;
+    final protected boolean     _processQuotes;
+    final protected boolean     _strictQuotes;
+    final protected int         _maxChunksAhead;
+    protected int               _firstDataRecord;
+    protected boolean           _guessCellValueTypes;
+
+    protected char[]    _buffer;
+    protected int       _length;
+    protected boolean   _eof;
+    protected int       _recordCount; // records in the chunks cut so far
+
+    final protected Deque<Future<List<List<Object>>>> _pending = new ArrayDeque<Future<List<List<Object>>>>();
+    protected List<List<Object>> _rows;
+    protected int _nextRow;
+
+    /**
+     * @param chunkSize number of characters read at once
+     * @param maxChunksAhead number of chunks cut ahead of the rows handed out, and so
+     *      parsed at once
+     */
+    public ChunkedSeparatorReader(Reader reader, String separator, boolean processQuotes, boolean strictQuotes,
+            int chunkSize, int maxChunksAhead) {
+        _reader = reader;
+        _separator = separator;
+        _processQuotes = processQuotes;
+        _strictQuotes = strictQuotes;
+        _maxChunksAhead = Math.max(1, maxChunksAhead);
+        _buffer = new char[Math.max(16, chunkSize)];
+    }
+
+    static public int getDefaultParallelism() {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        Object v = ps != null ? ps.get(PARALLELISM_PREFERENCE) : null;
+        if (v != null) {
+            try {
+                return Math.max(1, Integer.parseInt(v.toString()));
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        return 1;
+    }
+
+    @Override
+    public void setCellOptions(int firstDataRow, boolean guessCellValueTypes) {
+        _firstDataRecord = firstDataRow;
+        _guessCellValueTypes = guessCellValueTypes;
+    }
+
+    @Override
+    public List<Object> getNextRowOfCells() throws IOException {
+        while (_rows == null || _nextRow >= _rows.size()) {
+            _rows = null;
+            fill();
+            Future<List<List<Object>>> future = _pending.poll();
+            if (future == null) {
+                return null;
+            }
+            _rows = getRows(future);
+            _nextRow = 0;
+        }
+        return _rows.get(_nextRow++);
+    }
+
+    /**
+     * Stop parsing the chunks not handed out yet.
+     */
+    public void close() {
+        for (Future<List<List<Object>>> future : _pending) {
+            future.cancel(true);
+        }
+        _pending.clear();
+    }
+
+    /**
+     * Cut and submit chunks until enough are in flight. A file held in one chunk
+     * is parsed on the calling thread.
+     */
+    protected void fill() throws IOException {
+        while (_pending.size() < _maxChunksAhead) {
+            final String text = nextChunk();
+            if (text == null) {
+                return;
+            }
+            final int firstRecord = _recordCount;
+            FutureTask<List<List<Object>>> task = new FutureTask<List<List<Object>>>(
+                new Callable<List<List<Object>>>() {
+                    @Override
+                    public List<List<Object>> call() throws Exception {
+                        return parseChunk(text, firstRecord);
+                    }
+                });
+            _recordCount += countRecords(text);
+            _pending.add(task);
+
+            if (_eof && _length == 0 && _pending.size() == 1) {
+                task.run();
+            } else {
+                getExecutor().execute(task);
+            }
+        }
+    }
+
+    /**
+     * @return the next records, up to the end of the one last ending in the buffer,
+     *      or null at the end of the text
+     */
+    protected String nextChunk() throws IOException {
+        while (true) {
+            while (!_eof && _length < _buffer.length) {
+                int n = _reader.read(_buffer, _length, _buffer.length - _length);
+                if (n < 0) {
+                    _eof = true;
+                } else {
+                    _length += n;
+                }
+            }
+            if (_length == 0) {
+                return null;
+            }
+
+            int end = _eof ? _length : findLastRecordEnd();
+            if (end > 0) {
+                String text = new String(_buffer, 0, end);
+                System.arraycopy(_buffer, end, _buffer, 0, _length - end);
+                _length -= end;
+                return text;
+            }
+            // a single record longer than the buffer
+            _buffer = Arrays.copyOf(_buffer, _buffer.length * 2);
+        }
+    }
+
+    /**
+     * @return the index after the last record ending in the buffer, or 0
+     */
+    protected int findLastRecordEnd() {
+        int end = 0;
+        boolean inQuotes = false;
+        for (int i = 0; i < _length; i++) {
+            char c = _buffer[i];
+            if (c == CSVParser.DEFAULT_QUOTE_CHARACTER && _processQuotes) {
+                inQuotes = !inQuotes;
+            } else if (!inQuotes && (c == '\n' || c == '\r')) {
+                if (c == '\r') {
+                    if (i + 1 == _length) {
+                        break; // this may be half of a \r\n
+                    } else if (_buffer[i + 1] == '\n') {
+                        i++;
+                    }
+                }
+                end = i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return the number of records in a chunk, as cut by {@link #nextChunk()}
+     */
+    protected int countRecords(String text) {
+        int count = 0;
+        boolean inQuotes = false;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == CSVParser.DEFAULT_QUOTE_CHARACTER && _processQuotes) {
+                inQuotes = !inQuotes;
+            } else if (!inQuotes && (c == '\n' || c == '\r')) {
+                if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                count++;
+            }
+        }
+        char last = text.charAt(length - 1);
+        if (inQuotes || (last != '\n' && last != '\r')) {
+            count++; // the last record of the text is not terminated
+        }
+        return count;
+    }
+
+    protected List<List<Object>> parseChunk(String text, int firstRecord) throws IOException {
+        CSVParser parser = SeparatorBasedImporter.createParser(_separator, _processQuotes, _strictQuotes);
+        LineNumberReader lnReader = new LineNumberReader(new StringReader(text));
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+
+        String line;
+        while ((line = lnReader.readLine()) != null) {
+            List<Object> cells = SeparatorBasedImporter.getCells(line, parser, lnReader);
+            if (firstRecord + rows.size() >= _firstDataRecord) {
+                makeCells(cells);
+            }
+            rows.add(cells);
+        }
+        return rows;
+    }
+
+    /**
+     * Replace non-blank values with cells, as readTable would.
+     */
+    protected void makeCells(List<Object> cells) {
+        for (int c = 0; c < cells.size(); c++) {
+            Object value = cells.get(c);
+            if (ExpressionUtils.isNonBlankData(value)) {
+                String s = (String) value;
+                cells.set(c, new Cell(_guessCellValueTypes ? ImporterUtilities.parseCellValue(s) : s, null));
+            }
+        }
+    }
+
+    protected List<List<Object>> getRows(Future<List<List<Object>>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            close();
+            throw new InterruptedIOException("Interrupted while parsing");
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    static synchronized protected ExecutorService getExecutor() {
+        if (s_executor == null) {
+            s_executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                final AtomicInteger _count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "separator-import-" + _count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return s_executor;
+    }
+}
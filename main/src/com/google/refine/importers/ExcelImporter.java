@@ -44,22 +44,28 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.poi.POIXMLDocument;
 import org.apache.poi.POIXMLException;
 import org.apache.poi.common.usermodel.Hyperlink;
 import org.apache.poi.hssf.usermodel.HSSFDateUtil;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.refine.importers.ImporterUtilities.MultiFileReadingProgress;
 import com.google.refine.importing.ImportingJob;
 import com.google.refine.importing.ImportingUtilities;
 import com.google.refine.model.Cell;
@@ -88,33 +94,32 @@ public class ExcelImporter extends TabularImportingParserBase {
             for (int index = 0;index < fileRecords.size();index++) {
                 JSONObject fileRecord = fileRecords.get(index);
                 File file = ImportingUtilities.getFile(job, fileRecord);
-                InputStream is = new FileInputStream(file);
 
-                if (!is.markSupported()) {
-                  is = new PushbackInputStream(is, 8);
+                if (isOOXML(file)) {
+                    // only the list of sheets and their dimensions are read
+                    OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
+                    try {
+                        StreamingXlsxReader reader = new StreamingXlsxReader(pkg);
+                        for (int i = 0; i < reader.getSheetCount(); i++) {
+                            addSheetRecord(sheetRecords, file, i, reader.getSheetName(i), reader.getRowCount(i));
+                        }
+                    } finally {
+                        pkg.revert();
+                    }
+                    continue;
                 }
 
+                InputStream is = new FileInputStream(file);
                 try {
-                    Workbook wb = POIXMLDocument.hasOOXMLHeader(is) ?
-                            new XSSFWorkbook(is) :
-                                new HSSFWorkbook(new POIFSFileSystem(is));
+                    Workbook wb = new HSSFWorkbook(new POIFSFileSystem(is));
 
-                            int sheetCount = wb.getNumberOfSheets();
-                            for (int i = 0; i < sheetCount; i++) {
-                                Sheet sheet = wb.getSheetAt(i);
-                                int rows = sheet.getLastRowNum() - sheet.getFirstRowNum() + 1;
+                    int sheetCount = wb.getNumberOfSheets();
+                    for (int i = 0; i < sheetCount; i++) {
+                        Sheet sheet = wb.getSheetAt(i);
+                        int rows = sheet.getLastRowNum() - sheet.getFirstRowNum() + 1;
 
-                                JSONObject sheetRecord = new JSONObject();
-                                JSONUtilities.safePut(sheetRecord, "name",  file.getName() + "#" + sheet.getSheetName());
-                                JSONUtilities.safePut(sheetRecord, "fileNameAndSheetIndex", file.getName() + "#" + i);
-                                JSONUtilities.safePut(sheetRecord, "rows", rows);
-                                if (rows > 1) {
-                                    JSONUtilities.safePut(sheetRecord, "selected", true);
-                                } else {
-                                    JSONUtilities.safePut(sheetRecord, "selected", false);
-                                }
-                                JSONUtilities.append(sheetRecords, sheetRecord);
-                            }
+                        addSheetRecord(sheetRecords, file, i, sheet.getSheetName(), rows);
+                    }
                 } finally {
                     is.close();
                 }
@@ -125,11 +130,85 @@ public class ExcelImporter extends TabularImportingParserBase {
             logger.error("Error generating parser UI initialization data for Excel file (only Excel 97 & later supported)", e);
         } catch (POIXMLException e) {
             logger.error("Error generating parser UI initialization data for Excel file - invalid XML", e);
+        } catch (OpenXML4JException e) {
+            logger.error("Error generating parser UI initialization data for Excel file - invalid package", e);
+        } catch (XMLStreamException e) {
+            logger.error("Error generating parser UI initialization data for Excel file - invalid XML", e);
         }
         
         return options;
     }
     
+    static private void addSheetRecord(JSONArray sheetRecords, File file, int index, String sheetName, int rows) {
+        JSONObject sheetRecord = new JSONObject();
+        JSONUtilities.safePut(sheetRecord, "name",  file.getName() + "#" + sheetName);
+        JSONUtilities.safePut(sheetRecord, "fileNameAndSheetIndex", file.getName() + "#" + index);
+        JSONUtilities.safePut(sheetRecord, "rows", rows);
+        if (rows > 1) {
+            JSONUtilities.safePut(sheetRecord, "selected", true);
+        } else {
+            JSONUtilities.safePut(sheetRecord, "selected", false);
+        }
+        JSONUtilities.append(sheetRecords, sheetRecord);
+    }
+    
+    static private boolean isOOXML(File file) throws IOException {
+        InputStream is = new PushbackInputStream(new FileInputStream(file), 8);
+        try {
+            return POIXMLDocument.hasOOXMLHeader(is);
+        } finally {
+            is.close();
+        }
+    }
+    
+    /**
+     * Opens .xlsx files on the file itself rather than on a stream of it, which would
+     * hold every part of the workbook in memory. Progress is then reported as the
+     * part of the selected sheets parsed.
+     */
+    @Override
+    public void parseOneFile(
+        Project project,
+        ProjectMetadata metadata,
+        ImportingJob job,
+        JSONObject fileRecord,
+        int limit,
+        JSONObject options,
+        List<Exception> exceptions,
+        final MultiFileReadingProgress progress
+    ) throws IOException {
+        final File file = ImportingUtilities.getFile(job, fileRecord);
+        if (!isOOXML(file)) {
+            super.parseOneFile(project, metadata, job, fileRecord, limit, options, exceptions, progress);
+            return;
+        }
+        
+        final String fileSource = ImportingUtilities.getFileSource(fileRecord);
+        progress.startFile(fileSource);
+        try {
+            OPCPackage pkg;
+            try {
+                pkg = OPCPackage.open(file, PackageAccess.READ);
+            } catch (InvalidFormatException e) {
+                exceptions.add(new ImportException(
+                    "Attempted to parse as an Excel file but failed. " +
+                    "Try to use Excel to re-save the file as a different Excel version or as TSV and upload again.",
+                    e
+                ));
+                return;
+            }
+            try {
+                parseXlsx(project, metadata, job, fileSource, pkg, limit, options, exceptions,
+                    progress, file.length());
+            } finally {
+                pkg.revert();
+            }
+            pushImportingOptions(metadata, fileSource, options);
+        } finally {
+            progress.endFile(fileSource, file.length());
+        }
+    }
+    
     @Override
     public void parseOneFile(
         Project project,
@@ -147,9 +226,17 @@ public class ExcelImporter extends TabularImportingParserBase {
         }
         
         try {
-            wb = POIXMLDocument.hasOOXMLHeader(inputStream) ?
-                new XSSFWorkbook(inputStream) :
-                new HSSFWorkbook(new POIFSFileSystem(inputStream));
+            if (POIXMLDocument.hasOOXMLHeader(inputStream)) {
+                OPCPackage pkg = OPCPackage.open(inputStream);
+                try {
+                    parseXlsx(project, metadata, job, fileSource, pkg, limit, options, exceptions, null, 0);
+                } finally {
+                    pkg.revert();
+                }
+                super.parseOneFile(project, metadata, job, fileSource, inputStream, limit, options, exceptions);
+                return;
+            }
+            wb = new HSSFWorkbook(new POIFSFileSystem(inputStream));
         } catch (IOException e) {
             exceptions.add(new ImportException(
                 "Attempted to parse as an Excel file but failed. " +
@@ -157,6 +244,13 @@ public class ExcelImporter extends TabularImportingParserBase {
                 e
             ));
             return;
+        } catch (InvalidFormatException e) {
+            exceptions.add(new ImportException(
+                "Attempted to parse as an Excel file but failed. " +
+                "Try to use Excel to re-save the file as a different Excel version or as TSV and upload again.",
+                e
+            ));
+            return;
         } catch (ArrayIndexOutOfBoundsException e){
             exceptions.add(new ImportException(
                "Attempted to parse file as an Excel file but failed. " +
@@ -185,19 +279,11 @@ public class ExcelImporter extends TabularImportingParserBase {
         JSONArray sheets = JSONUtilities.getArray(options, "sheets");
         
         for(int i=0;i<sheets.length();i++)  {
-            String[] fileNameAndSheetIndex = new String[2];
-            try {
-                JSONObject sheetObj = sheets.getJSONObject(i);
-                // value is fileName#sheetIndex
-                fileNameAndSheetIndex = sheetObj.getString("fileNameAndSheetIndex").split("#");
-            } catch (JSONException e) {
-                logger.error(ExceptionUtils.getStackTrace(e));
-            }
-            
-            if (!fileNameAndSheetIndex[0].equals(fileSource))
+            int sheetIndex = getSheetIndex(sheets, i, fileSource);
+            if (sheetIndex < 0)
                 continue;
             
-            final Sheet sheet = wb.getSheetAt(Integer.parseInt(fileNameAndSheetIndex[1]));
+            final Sheet sheet = wb.getSheetAt(sheetIndex);
             final int lastRow = sheet.getLastRowNum();
             
             TableDataReader dataReader = new TableDataReader() {
@@ -243,6 +329,148 @@ public class ExcelImporter extends TabularImportingParserBase {
         super.parseOneFile(project, metadata, job, fileSource, inputStream, limit, options, exceptions);
     }
     
+    /**
+     * Read the selected sheets of an .xlsx file a row at a time.
+     * 
+     * @param progress if not null, told how much of the file has been read, in
+     *      proportion to its length
+     */
+    protected void parseXlsx(
+        Project project,
+        ProjectMetadata metadata,
+        ImportingJob job,
+        String fileSource,
+        OPCPackage pkg,
+        int limit,
+        JSONObject options,
+        List<Exception> exceptions,
+        MultiFileReadingProgress progress,
+        long fileLength
+    ) {
+        StreamingXlsxReader reader;
+        try {
+            reader = new StreamingXlsxReader(pkg);
+        } catch (Exception e) {
+            exceptions.add(new ImportException(
+                "Attempted to parse as an Excel file but failed. " +
+                "Invalid XML.",
+                e
+            ));
+            return;
+        }
+        
+        JSONArray sheets = JSONUtilities.getArray(options, "sheets");
+        
+        long totalSize = 0; // of the selected sheets, or -1 if not known
+        for (int i = 0; i < sheets.length(); i++) {
+            int sheetIndex = getSheetIndex(sheets, i, fileSource);
+            if (sheetIndex >= 0 && totalSize >= 0) {
+                try {
+                    long size = reader.getSheetSize(sheetIndex);
+                    totalSize = size >= 0 ? totalSize + size : -1;
+                } catch (InvalidFormatException e) {
+                    totalSize = -1;
+                }
+            }
+        }
+        long sizeRead = 0;
+        
+        for(int i=0;i<sheets.length();i++)  {
+            int sheetIndex = getSheetIndex(sheets, i, fileSource);
+            if (sheetIndex < 0)
+                continue;
+            
+            StreamingXlsxReader.SheetReader dataReader;
+            try {
+                dataReader = reader.getSheetReader(sheetIndex);
+            } catch (Exception e) {
+                exceptions.add(new ImportException(
+                    "Attempted to parse as an Excel file but failed. " +
+                    "Invalid XML.",
+                    e
+                ));
+                return;
+            }
+            try {
+                TabularImportingParserBase.readTable(
+                    project,
+                    metadata,
+                    job,
+                    progress != null && totalSize > 0 ?
+                        new ProgressReportingReader(dataReader, progress, fileSource,
+                            fileLength, sizeRead, totalSize) :
+                        dataReader,
+                    fileSource + "#" + reader.getSheetName(sheetIndex),
+                    limit,
+                    options,
+                    exceptions
+                );
+            } finally {
+                sizeRead += dataReader.getBytesRead();
+                try {
+                    dataReader.close();
+                } catch (IOException e) {
+                    // nothing left to read
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reports how much of a file has been read whenever more of a sheet's XML has been
+     * parsed, which happens a buffer at a time.
+     */
+    static protected class ProgressReportingReader implements TableDataReader {
+        final protected StreamingXlsxReader.SheetReader _reader;
+        final protected MultiFileReadingProgress _progress;
+        final protected String _fileSource;
+        final protected long _fileLength;
+        final protected long _sizeBefore; // of the sheets read before this one
+        final protected long _totalSize;
+        protected long _bytesReported;
+        
+        protected ProgressReportingReader(StreamingXlsxReader.SheetReader reader, MultiFileReadingProgress progress,
+                String fileSource, long fileLength, long sizeBefore, long totalSize) {
+            _reader = reader;
+            _progress = progress;
+            _fileSource = fileSource;
+            _fileLength = fileLength;
+            _sizeBefore = sizeBefore;
+            _totalSize = totalSize;
+        }
+        
+        @Override
+        public List<Object> getNextRowOfCells() throws IOException {
+            List<Object> cells = _reader.getNextRowOfCells();
+            long bytesRead = _reader.getBytesRead();
+            if (bytesRead != _bytesReported) {
+                _bytesReported = bytesRead;
+                double read = Math.min(1.0, (double) (_sizeBefore + bytesRead) / _totalSize);
+                _progress.readingFile(_fileSource, (long) (read * _fileLength));
+            }
+            return cells;
+        }
+    }
+    
+    /**
+     * @return the index of the selected sheet if it is in the given file, or -1
+     */
+    static private int getSheetIndex(JSONArray sheets, int i, String fileSource) {
+        String[] fileNameAndSheetIndex = new String[2];
+        try {
+            JSONObject sheetObj = sheets.getJSONObject(i);
+            // value is fileName#sheetIndex
+            fileNameAndSheetIndex = sheetObj.getString("fileNameAndSheetIndex").split("#");
+        } catch (JSONException e) {
+            logger.error(ExceptionUtils.getStackTrace(e));
+        }
+        
+        if (!fileNameAndSheetIndex[0].equals(fileSource))
+            return -1;
+        
+        return Integer.parseInt(fileNameAndSheetIndex[1]);
+    }
+    
     static protected Serializable extractCell(org.apache.poi.ss.usermodel.Cell cell) {
         int cellType = cell.getCellType();
         if (cellType == org.apache.poi.ss.usermodel.Cell.CELL_TYPE_FORMULA) {
@@ -289,44 +517,7 @@ public class ExcelImporter extends TabularImportingParserBase {
             
             Hyperlink hyperlink = cell.getHyperlink();
             if (hyperlink != null) {
-                String url = hyperlink.getAddress();
-                
-                if (url != null && (url.startsWith("http://") ||
-                    url.startsWith("https://"))) {
-                    
-                    final String sig = "freebase.com/view";
-                    
-                    int i = url.indexOf(sig);
-                    if (i > 0) {
-                        String id = url.substring(i + sig.length());
-                        
-                        int q = id.indexOf('?');
-                        if (q > 0) {
-                            id = id.substring(0, q);
-                        }
-                        int h = id.indexOf('#');
-                        if (h > 0) {
-                            id = id.substring(0, h);
-                        }
-                        
-                        if (reconMap.containsKey(id)) {
-                            recon = reconMap.get(id);
-                            recon.judgmentBatchSize++;
-                        } else {
-                            recon = new Recon(0, null, null);
-                            recon.service = "import";
-                            recon.match = new ReconCandidate(id, value.toString(), new String[0], 100);
-                            recon.matchRank = 0;
-                            recon.judgment = Judgment.Matched;
-                            recon.judgmentAction = "auto";
-                            recon.judgmentBatchSize = 1;
-                            recon.addCandidate(recon.match);
-                            
-                            reconMap.put(id, recon);
-                        }
-                        
-                    }
-                }
+                recon = extractRecon(hyperlink.getAddress(), value, reconMap);
             }
             
             return new Cell(value, recon);
@@ -334,4 +525,49 @@ public class ExcelImporter extends TabularImportingParserBase {
             return null;
         }
     }
+    
+    /**
+     * @return the recon matching a cell to the topic its hyperlink points to, or null
+     *      if the hyperlink is not to a topic
+     */
+    static protected Recon extractRecon(String url, Serializable value, Map<String, Recon> reconMap) {
+        Recon recon = null;
+        if (url != null && (url.startsWith("http://") ||
+            url.startsWith("https://"))) {
+            
+            final String sig = "freebase.com/view";
+            
+            int i = url.indexOf(sig);
+            if (i > 0) {
+                String id = url.substring(i + sig.length());
+                
+                int q = id.indexOf('?');
+                if (q > 0) {
+                    id = id.substring(0, q);
+                }
+                int h = id.indexOf('#');
+                if (h > 0) {
+                    id = id.substring(0, h);
+                }
+                
+                if (reconMap.containsKey(id)) {
+                    recon = reconMap.get(id);
+                    recon.judgmentBatchSize++;
+                } else {
+                    recon = new Recon(0, null, null);
+                    recon.service = "import";
+                    recon.match = new ReconCandidate(id, value.toString(), new String[0], 100);
+                    recon.matchRank = 0;
+                    recon.judgment = Judgment.Matched;
+                    recon.judgmentAction = "auto";
+                    recon.judgmentBatchSize = 1;
+                    recon.addCandidate(recon.match);
+                    
+                    reconMap.put(id, recon);
+                }
+                
+            }
+        }
+        return recon;
+    }
 }
@@ -51,6 +51,7 @@ import com.google.refine.model.Column;
 import com.google.refine.model.ModelException;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
+import com.google.refine.util.NumericText;
 import com.google.refine.util.TrackingInputStream;
 
 public class ImporterUtilities {
@@ -59,17 +60,14 @@ public class ImporterUtilities {
         if (text.length() > 0) {
             String text2 = text.trim();
             if (text2.length() > 0) {
-                try {
-                    return Long.parseLong(text2);
-                } catch (NumberFormatException e) {
-                }
-    
-                try {
-                    double d = Double.parseDouble(text2);
+                Number n = NumericText.parseNumber(text2);
+                if (n instanceof Long) {
+                    return n;
+                } else if (n != null) {
+                    double d = n.doubleValue();
                     if (!Double.isInfinite(d) && !Double.isNaN(d)) {
                         return d;
                     }
-                } catch (NumberFormatException e) {
                 }
             }
         }
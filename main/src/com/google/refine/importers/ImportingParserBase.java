@@ -148,7 +148,7 @@ abstract public class ImportingParserBase implements ImportingParser {
         pushImportingOptions(metadata, fileSource, options);
     }
 
-    private void pushImportingOptions(ProjectMetadata metadata, String fileSource, JSONObject options) {
+    protected void pushImportingOptions(ProjectMetadata metadata, String fileSource, JSONObject options) {
         try {
             options.put("fileSource", fileSource);
         } catch (JSONException e) {
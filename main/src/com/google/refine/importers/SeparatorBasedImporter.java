@@ -90,22 +90,28 @@ public class SeparatorBasedImporter extends TabularImportingParserBase {
         JSONObject options,
         List<Exception> exceptions
     ) {
-        String sep = JSONUtilities.getString(options, "separator", "\\t");
-        if (sep == null || "".equals(sep)) {
-            sep = "\\t";
-        }
-        sep = StringEscapeUtils.unescapeJava(sep);
+        String sep = getSeparator(options);
         boolean processQuotes = JSONUtilities.getBoolean(options, "processQuotes", true);
         boolean strictQuotes = JSONUtilities.getBoolean(options, "strictQuotes", false);
         
-        final CSVParser parser = new CSVParser(
-            sep,
-            CSVParser.DEFAULT_QUOTE_CHARACTER,
-            (char) 0, // we don't want escape processing
-            strictQuotes,
-            CSVParser.DEFAULT_IGNORE_LEADING_WHITESPACE,
-            !processQuotes);
+        int parallelism = ChunkedSeparatorReader.getDefaultParallelism();
+        if (parallelism > 1) {
+            // with a limit, as for previews, only the first rows are wanted: read one small chunk at a time
+            boolean limited = limit > 0 || JSONUtilities.getInt(options, "limit", -1) > 0;
+            ChunkedSeparatorReader chunkedReader = new ChunkedSeparatorReader(reader, sep, processQuotes, strictQuotes,
+                limited ? ChunkedSeparatorReader.LIMITED_CHUNK_SIZE : ChunkedSeparatorReader.DEFAULT_CHUNK_SIZE,
+                limited ? 1 : 2 * parallelism);
+            try {
+                TabularImportingParserBase.readTable(
+                    project, metadata, job, chunkedReader, fileSource, limit, options, exceptions);
+            } finally {
+                chunkedReader.close();
+            }
+            super.parseOneFile(project, metadata, job, fileSource, reader, limit, options, exceptions);
+            return;
+        }
         
+        final CSVParser parser = createParser(sep, processQuotes, strictQuotes);
         final LineNumberReader lnReader = new LineNumberReader(reader);
         
         TableDataReader dataReader = new TableDataReader() {
@@ -124,6 +130,24 @@ public class SeparatorBasedImporter extends TabularImportingParserBase {
         super.parseOneFile(project, metadata, job, fileSource, lnReader, limit, options, exceptions);
     }
     
+    static protected String getSeparator(JSONObject options) {
+        String sep = JSONUtilities.getString(options, "separator", "\\t");
+        if (sep == null || "".equals(sep)) {
+            sep = "\\t";
+        }
+        return StringEscapeUtils.unescapeJava(sep);
+    }
+    
+    static protected CSVParser createParser(String sep, boolean processQuotes, boolean strictQuotes) {
+        return new CSVParser(
+            sep,
+            CSVParser.DEFAULT_QUOTE_CHARACTER,
+            (char) 0, // we don't want escape processing
+            strictQuotes,
+            CSVParser.DEFAULT_IGNORE_LEADING_WHITESPACE,
+            !processQuotes);
+    }
+    
     static protected ArrayList<Object> getCells(String line, CSVParser parser, LineNumberReader lnReader)
         throws IOException{
         
@@ -0,0 +1,484 @@
+package com.google.refine.importers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackageRelationshipCollection;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.xml.sax.SAXException;
+
+import com.google.refine.importers.TabularImportingParserBase.TableDataReader;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Recon;
+import com.google.refine.util.TrackingInputStream;
+
+/**
+ * Reads the sheets of an .xlsx workbook as a stream of XML events rather than as a
+ * workbook object, so that the memory needed does not grow with the number of cells.
+ *
+ * Opening the reader only reads the list of sheets from the workbook part. Sheets are
+ * read a row at a time; the strings shared by their cells and the cell styles, needed
+ * to tell dates from other numbers, are read once, when the first sheet is.
+ *
+ * Cell values are those {@link ExcelImporter} extracts from workbook objects: numbers
+ * as doubles, dates, booleans and non-empty strings, with the cached results of
+ * formulas, errors and blanks being null.
+ */
+public class StreamingXlsxReader {
+    static final protected String RELATIONSHIPS_NAMESPACE =
+            "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    static final protected XMLInputFactory s_factory = XMLInputFactory.newInstance();
+    static {
+        s_factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        s_factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        s_factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    final protected OPCPackage      _package;
+    final protected XSSFReader      _xssfReader;
+    final protected List<String>    _sheetNames = new ArrayList<String>();
+    final protected List<String>    _sheetIds = new ArrayList<String>();
+    protected boolean               _date1904;
+
+    protected ReadOnlySharedStringsTable    _sharedStrings;
+    protected boolean[]                     _dateStyles;
+
+    public StreamingXlsxReader(OPCPackage pkg) throws IOException, OpenXML4JException, XMLStreamException {
+        _package = pkg;
+        _xssfReader = new XSSFReader(pkg);
+        readWorkbook();
+    }
+
+    public int getSheetCount() {
+        return _sheetNames.size();
+    }
+
+    public String getSheetName(int sheetIndex) {
+        return _sheetNames.get(sheetIndex);
+    }
+
+    /**
+     * @return the number of rows from the first to the last of the sheet, as told by the
+     *      dimension at the top of the sheet, or else by reading through the sheet
+     */
+    public int getRowCount(int sheetIndex) throws IOException, InvalidFormatException, XMLStreamException {
+        InputStream is = _xssfReader.getSheet(_sheetIds.get(sheetIndex));
+        try {
+            XMLStreamReader parser = s_factory.createXMLStreamReader(is);
+            int firstRow = -1;
+            int lastRow = -1;
+            while (parser.hasNext()) {
+                if (parser.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = parser.getLocalName();
+                if ("dimension".equals(name)) {
+                    String ref = parser.getAttributeValue(null, "ref");
+                    if (ref != null) {
+                        int colon = ref.indexOf(':');
+                        firstRow = getRowIndex(colon < 0 ? ref : ref.substring(0, colon));
+                        lastRow = colon < 0 ? firstRow : getRowIndex(ref.substring(colon + 1));
+                        if (firstRow >= 0 && lastRow >= firstRow) {
+                            break;
+                        }
+                    }
+                    firstRow = lastRow = -1;
+                } else if ("row".equals(name)) {
+                    int row = getRowNumber(parser, lastRow + 1);
+                    if (firstRow < 0) {
+                        firstRow = row;
+                    }
+                    lastRow = row;
+                }
+            }
+            parser.close();
+            return firstRow < 0 ? 1 : lastRow - firstRow + 1;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * @return the size of the sheet's XML, or -1 if it is not known
+     */
+    public long getSheetSize(int sheetIndex) throws InvalidFormatException {
+        return getSheetPart(_sheetIds.get(sheetIndex)).getSize();
+    }
+
+    /**
+     * @return a reader of the sheet's rows, to close once read
+     */
+    public SheetReader getSheetReader(int sheetIndex)
+            throws IOException, OpenXML4JException, XMLStreamException, SAXException {
+        readSharedParts();
+        String sheetId = _sheetIds.get(sheetIndex);
+        Map<String, String> hyperlinks = readHyperlinks(sheetId);
+        return new SheetReader(_xssfReader.getSheet(sheetId), hyperlinks);
+    }
+
+    /**
+     * Rows of a sheet, from the first row of the spreadsheet, missing rows being empty.
+     */
+    public class SheetReader implements TableDataReader {
+        final protected TrackingInputStream _is;
+        final protected XMLStreamReader     _parser;
+        final protected Map<String, String> _hyperlinks;
+        final protected Map<String, Recon>  _reconMap = new HashMap<String, Recon>();
+        protected int                       _nextRow;
+        protected int                       _pendingRow = -1; // index of the row element read next
+        protected boolean                   _done;
+
+        protected SheetReader(InputStream is, Map<String, String> hyperlinks) throws XMLStreamException {
+            _is = new TrackingInputStream(is);
+            _parser = s_factory.createXMLStreamReader(_is);
+            _hyperlinks = hyperlinks;
+        }
+
+        @Override
+        public List<Object> getNextRowOfCells() throws IOException {
+            try {
+                if (_pendingRow < 0 && !_done) {
+                    _pendingRow = nextRowElement();
+                    _done = _pendingRow < 0;
+                }
+                if (_done) {
+                    return null;
+                }
+                if (_nextRow < _pendingRow) {
+                    _nextRow++;
+                    return new ArrayList<Object>();
+                }
+                _nextRow = _pendingRow + 1;
+                _pendingRow = -1;
+                return readRow();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * @return the number of bytes of the sheet's XML parsed so far
+         */
+        public long getBytesRead() {
+            return _is.getBytesRead();
+        }
+
+        public void close() throws IOException {
+            try {
+                _parser.close();
+            } catch (XMLStreamException e) {
+                // the stream is closed anyway
+            }
+            _is.close();
+        }
+
+        /**
+         * @return the index of the next row, positioned on its element, or -1 if there is none
+         */
+        protected int nextRowElement() throws XMLStreamException {
+            while (_parser.hasNext()) {
+                int event = _parser.next();
+                if (event == XMLStreamConstants.START_ELEMENT && "row".equals(_parser.getLocalName())) {
+                    return getRowNumber(_parser, _nextRow);
+                } else if (event == XMLStreamConstants.END_ELEMENT && "sheetData".equals(_parser.getLocalName())) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        protected List<Object> readRow() throws XMLStreamException {
+            List<Object> cells = new ArrayList<Object>();
+            while (_parser.hasNext()) {
+                int event = _parser.next();
+                if (event == XMLStreamConstants.START_ELEMENT && "c".equals(_parser.getLocalName())) {
+                    String ref = _parser.getAttributeValue(null, "r");
+                    int column = ref != null ? getColumnIndex(ref) : -1;
+                    if (column < 0) {
+                        column = cells.size();
+                    }
+                    Cell cell = readCell(ref);
+                    while (cells.size() <= column) {
+                        cells.add(null);
+                    }
+                    cells.set(column, cell);
+                } else if (event == XMLStreamConstants.END_ELEMENT && "row".equals(_parser.getLocalName())) {
+                    break;
+                }
+            }
+            return cells;
+        }
+
+        protected Cell readCell(String ref) throws XMLStreamException {
+            String type = _parser.getAttributeValue(null, "t");
+            String style = _parser.getAttributeValue(null, "s");
+            String text = null;
+            StringBuilder inlineText = null;
+            int depth = 1;
+            boolean inPhonetic = false;
+            while (depth > 0 && _parser.hasNext()) {
+                int event = _parser.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = _parser.getLocalName();
+                    if ("v".equals(name)) {
+                        text = _parser.getElementText();
+                    } else if ("is".equals(name)) {
+                        inlineText = new StringBuilder();
+                        depth++;
+                    } else if ("rPh".equals(name)) {
+                        inPhonetic = true;
+                        depth++;
+                    } else if ("t".equals(name) && inlineText != null) {
+                        String t = _parser.getElementText();
+                        if (!inPhonetic) {
+                            inlineText.append(t);
+                        }
+                    } else {
+                        depth++;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if ("rPh".equals(_parser.getLocalName())) {
+                        inPhonetic = false;
+                    }
+                    depth--;
+                }
+            }
+
+            Serializable value = getValue(type, style, inlineText != null ? inlineText.toString() : text);
+            if (value == null) {
+                return null;
+            }
+            Recon recon = null;
+            String url = ref != null ? _hyperlinks.get(ref) : null;
+            if (url != null) {
+                recon = ExcelImporter.extractRecon(url, value, _reconMap);
+            }
+            return new Cell(value, recon);
+        }
+    }
+
+    protected Serializable getValue(String type, String style, String text) {
+        if (text == null) {
+            return null;
+        }
+        if ("s".equals(type)) {
+            String s = _sharedStrings.getEntryAt(Integer.parseInt(text.trim()));
+            return s != null && s.length() > 0 ? s : null;
+        } else if ("inlineStr".equals(type) || "str".equals(type) || "d".equals(type)) {
+            return text.length() > 0 ? text : null;
+        } else if ("b".equals(type)) {
+            return "1".equals(text) || "true".equals(text);
+        } else if ("e".equals(type) || text.isEmpty()) {
+            return null;
+        }
+
+        double d;
+        try {
+            d = Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return text;
+        }
+        if (isDateStyle(style) && DateUtil.isValidExcelDate(d)) {
+            return DateUtil.getJavaDate(d, _date1904);
+        }
+        return d;
+    }
+
+    protected boolean isDateStyle(String style) {
+        if (style == null) {
+            return false;
+        }
+        try {
+            int index = Integer.parseInt(style);
+            return index >= 0 && index < _dateStyles.length && _dateStyles[index];
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    protected void readWorkbook() throws IOException, InvalidFormatException, XMLStreamException {
+        InputStream is = _xssfReader.getWorkbookData();
+        try {
+            XMLStreamReader parser = s_factory.createXMLStreamReader(is);
+            while (parser.hasNext()) {
+                if (parser.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = parser.getLocalName();
+                if ("workbookPr".equals(name)) {
+                    String date1904 = parser.getAttributeValue(null, "date1904");
+                    _date1904 = "1".equals(date1904) || "true".equals(date1904);
+                } else if ("sheet".equals(name)) {
+                    _sheetNames.add(parser.getAttributeValue(null, "name"));
+                    _sheetIds.add(parser.getAttributeValue(RELATIONSHIPS_NAMESPACE, "id"));
+                }
+            }
+            parser.close();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Read the shared strings, and which cell styles are date formats.
+     */
+    protected void readSharedParts() throws IOException, InvalidFormatException, XMLStreamException, SAXException {
+        if (_sharedStrings != null) {
+            return;
+        }
+        _sharedStrings = new ReadOnlySharedStringsTable(_package);
+
+        Map<Integer, String> formats = new HashMap<Integer, String>();
+        List<Integer> styleFormats = new ArrayList<Integer>();
+        InputStream is;
+        try {
+            is = _xssfReader.getStylesData();
+        } catch (InvalidFormatException e) {
+            is = null; // no styles, so no dates
+        }
+        if (is != null) {
+            try {
+                XMLStreamReader parser = s_factory.createXMLStreamReader(is);
+                boolean inCellFormats = false;
+                while (parser.hasNext()) {
+                    int event = parser.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = parser.getLocalName();
+                        if ("numFmt".equals(name)) {
+                            formats.put(Integer.parseInt(parser.getAttributeValue(null, "numFmtId")),
+                                parser.getAttributeValue(null, "formatCode"));
+                        } else if ("cellXfs".equals(name)) {
+                            inCellFormats = true;
+                        } else if ("xf".equals(name) && inCellFormats) {
+                            String id = parser.getAttributeValue(null, "numFmtId");
+                            styleFormats.add(id != null ? Integer.parseInt(id) : 0);
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && "cellXfs".equals(parser.getLocalName())) {
+                        inCellFormats = false;
+                    }
+                }
+                parser.close();
+            } finally {
+                is.close();
+            }
+        }
+
+        _dateStyles = new boolean[styleFormats.size()];
+        for (int i = 0; i < _dateStyles.length; i++) {
+            int formatIndex = styleFormats.get(i);
+            String format = formats.containsKey(formatIndex) ?
+                    formats.get(formatIndex) : BuiltinFormats.getBuiltinFormat(formatIndex);
+            _dateStyles[i] = format != null && DateUtil.isADateFormat(formatIndex, format);
+        }
+    }
+
+    /**
+     * @return the targets of the sheet's external hyperlinks, by cell reference
+     */
+    protected Map<String, String> readHyperlinks(String sheetId)
+            throws IOException, InvalidFormatException, XMLStreamException {
+        PackagePart sheetPart = getSheetPart(sheetId);
+        PackageRelationshipCollection links =
+                sheetPart.getRelationshipsByType(XSSFRelation.SHEET_HYPERLINKS.getRelation());
+        if (links.size() == 0) {
+            return Collections.emptyMap();
+        }
+
+        // hyperlinks are listed after the rows, so they take a pass over the sheet of their own
+        Map<String, String> hyperlinks = new HashMap<String, String>();
+        InputStream is = sheetPart.getInputStream();
+        try {
+            XMLStreamReader parser = s_factory.createXMLStreamReader(is);
+            while (parser.hasNext()) {
+                if (parser.next() == XMLStreamConstants.START_ELEMENT && "hyperlink".equals(parser.getLocalName())) {
+                    String ref = parser.getAttributeValue(null, "ref");
+                    String id = parser.getAttributeValue(RELATIONSHIPS_NAMESPACE, "id");
+                    PackageRelationship link = id != null ? sheetPart.getRelationship(id) : null;
+                    if (ref != null && link != null) {
+                        hyperlinks.put(ref, link.getTargetURI().toString());
+                    }
+                }
+            }
+            parser.close();
+        } finally {
+            is.close();
+        }
+        return hyperlinks;
+    }
+
+    protected PackagePart getSheetPart(String sheetId) throws InvalidFormatException {
+        PackageRelationshipCollection documents =
+                _package.getRelationshipsByType(PackageRelationshipTypes.CORE_DOCUMENT);
+        PackagePart workbookPart = _package.getPart(documents.getRelationship(0));
+        return workbookPart.getRelatedPart(workbookPart.getRelationship(sheetId));
+    }
+
+    /**
+     * @return the 0-based index of the row element the parser is on, or the given
+     *      default if it has no number
+     */
+    static protected int getRowNumber(XMLStreamReader parser, int defaultIndex) {
+        String r = parser.getAttributeValue(null, "r");
+        if (r != null) {
+            try {
+                return Integer.parseInt(r) - 1;
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        return defaultIndex;
+    }
+
+    /**
+     * @return the 0-based column index of a cell reference like "AB12", or -1
+     */
+    static protected int getColumnIndex(String ref) {
+        int column = 0;
+        int i = 0;
+        for (; i < ref.length(); i++) {
+            char c = Character.toUpperCase(ref.charAt(i));
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return i > 0 ? column - 1 : -1;
+    }
+
+    /**
+     * @return the 0-based row index of a cell reference like "AB12", or -1
+     */
+    static protected int getRowIndex(String ref) {
+        int i = 0;
+        while (i < ref.length() && Character.isLetter(ref.charAt(i))) {
+            i++;
+        }
+        try {
+            return Integer.parseInt(ref.substring(i)) - 1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -48,6 +48,7 @@ import com.google.refine.model.Column;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
 import com.google.refine.model.medadata.ProjectMetadata;
+import com.google.refine.util.CellInterner;
 import com.google.refine.util.JSONUtilities;
 
 abstract public class TabularImportingParserBase extends ImportingParserBase {
@@ -55,6 +56,19 @@ abstract public class TabularImportingParserBase extends ImportingParserBase {
         public List<Object> getNextRowOfCells() throws IOException;
     }
     
+    /**
+     * A reader which can itself turn the values of data rows into cells, as readTable
+     * would, for instance on other threads.
+     */
+    static public interface CellMakingTableDataReader extends TableDataReader {
+        /**
+         * Called by readTable before it reads any row.
+         * 
+         * @param firstDataRow index of the first row which is neither ignored nor a header
+         */
+        public void setCellOptions(int firstDataRow, boolean guessCellValueTypes);
+    }
+    
     @Override
     public JSONObject createParserUIInitializationData(ImportingJob job,
             List<JSONObject> fileRecords, String format) {
@@ -111,11 +125,17 @@ abstract public class TabularImportingParserBase extends ImportingParserBase {
             filenameColumnIndex = addFilenameColumn(project);
         }
         
+        if (reader instanceof CellMakingTableDataReader) {
+            ((CellMakingTableDataReader) reader).setCellOptions(
+                Math.max(0, ignoreLines) + Math.max(0, headerLines), guessCellValueTypes);
+        }
+        
         List<String> columnNames = new ArrayList<String>();
         boolean hasOurOwnColumnNames = headerLines > 0;
         
         List<Object> cells = null;
         int rowsWithData = 0;
+        CellInterner interner = new CellInterner();
         
         try {
             while (!job.canceled && (cells = reader.getNextRowOfCells()) != null) {
@@ -162,7 +182,7 @@ abstract public class TabularImportingParserBase extends ImportingParserBase {
                             
                             Object value = cells.get(c);
                             if (value instanceof Cell) {
-                                row.setCell(column.getCellIndex(), (Cell) value);
+                                row.setCell(column.getCellIndex(), interner.intern(column.getCellIndex(), (Cell) value));
                                 rowHasData = true;
                             } else if (ExpressionUtils.isNonBlankData(value)) {
                                 Serializable storedValue;
@@ -173,10 +193,11 @@ abstract public class TabularImportingParserBase extends ImportingParserBase {
                                     storedValue = ExpressionUtils.wrapStorable(value);
                                 }
                                 
-                                row.setCell(column.getCellIndex(), new Cell(storedValue, null));
+                                row.setCell(column.getCellIndex(),
+                                    interner.getCell(column.getCellIndex(), storedValue, null));
                                 rowHasData = true;
                             } else if (!storeBlankCellsAsNulls) {
-                                row.setCell(column.getCellIndex(), new Cell("", null));
+                                row.setCell(column.getCellIndex(), interner.getCell(column.getCellIndex(), "", null));
                             } else {
                                 row.setCell(column.getCellIndex(), null);
                             }
@@ -186,7 +207,7 @@ abstract public class TabularImportingParserBase extends ImportingParserBase {
                             if (includeFileSources && filenameColumnIndex >= 0) {
                                 row.setCell(
                                     filenameColumnIndex,
-                                    new Cell(fileSource, null));
+                                    interner.getCell(filenameColumnIndex, fileSource, null));
                             }
                             project.rows.add(row);
                         }
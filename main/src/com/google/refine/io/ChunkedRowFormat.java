@@ -0,0 +1,321 @@
+package com.google.refine.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import com.google.refine.browsing.RowVisitor;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.util.BinaryCellInput;
+import com.google.refine.util.BinaryCellOutput;
+import com.google.refine.util.CellInterner;
+import com.google.refine.util.Pool;
+
+/**
+ * Binary storage of a project's rows inside its data.zip file, as an alternative to
+ * writing each row as a line of JSON in data.txt.
+ *
+ * Rows are split into chunks of consecutive rows, each stored in its own zip entry and
+ * so compressed independently, and listed in an index entry. Rows are written with
+ * {@link BinaryCellOutput}, with a dictionary per column and chunk: a string repeated
+ * in a column is written as a reference to its first occurrence in the chunk. Chunks
+ * depend on nothing but the pool of recons, so they are decoded in parallel when loading.
+ *
+ * A file can also hold a delta over a full save (its base), with only the chunks that
+ * changed since: the index identifies the base and tells which chunks are stored in
+ * the delta itself, the others being read from the base.
+ */
+public class ChunkedRowFormat {
+    static final public String INDEX_ENTRY = "rows.idx";
+    static final public String CHUNK_ENTRY_PREFIX = "rows/";
+
+    static final public int FORMAT_VERSION = 2;
+    static final public int DEFAULT_ROWS_PER_CHUNK = 8192;
+
+    static final protected int MAGIC = 0x52524f57; // "RROW"
+
+    /**
+     * Write the given rows as chunks and an index into the zip file being written.
+     * Recons of cells are added to the pool, which must be saved along with the rows.
+     *
+     * @return the number of chunks written
+     */
+    static public int saveRows(List<Row> rows, ZipOutputStream out, Pool pool, int rowsPerChunk)
+            throws IOException {
+        return saveRows(rows, out, pool, rowsPerChunk, 0, 0, null);
+    }
+
+    /**
+     * Write the given rows, or some chunks of them, and an index into the zip file being
+     * written. Recons of cells written are added to the pool, which must be saved along
+     * with the rows.
+     *
+     * @param snapshotId identifies this save, so that deltas can refer to it as their base
+     * @param baseSnapshotId the base of this delta, or 0 if all rows are written
+     * @param chunksToWrite the chunks to write, or null to write all
+     * @return the number of chunks written
+     */
+    static public int saveRows(List<Row> rows, ZipOutputStream out, Pool pool, int rowsPerChunk,
+            long snapshotId, long baseSnapshotId, BitSet chunksToWrite) throws IOException {
+
+        int rowCount = rows.size();
+        Index index = new Index(snapshotId, baseSnapshotId, rowsPerChunk,
+            (rowCount + rowsPerChunk - 1) / rowsPerChunk);
+        int written = 0;
+
+        for (int c = 0; c < index.chunkSizes.length; c++) {
+            int from = c * rowsPerChunk;
+            int to = Math.min(rowCount, from + rowsPerChunk);
+            index.chunkSizes[c] = to - from;
+            index.stored[c] = chunksToWrite == null || chunksToWrite.get(c);
+            if (!index.stored[c]) {
+                continue;
+            }
+
+            out.putNextEntry(new ZipEntry(CHUNK_ENTRY_PREFIX + c));
+            try {
+                BinaryCellOutput writer = new BinaryCellOutput(new BufferedOutputStream(out, 65536), pool);
+                writer.writeVarInt(to - from);
+                for (int r = from; r < to; r++) {
+                    writer.writeRow(rows.get(r));
+                }
+                writer.flush();
+            } finally {
+                out.closeEntry();
+            }
+            written++;
+        }
+
+        out.putNextEntry(new ZipEntry(INDEX_ENTRY));
+        try {
+            index.write(out);
+        } finally {
+            out.closeEntry();
+        }
+
+        return written;
+    }
+
+    /**
+     * @return true if the given project file stores its rows in chunks
+     */
+    static public boolean hasRows(ZipFile zipFile) {
+        return zipFile.getEntry(INDEX_ENTRY) != null;
+    }
+
+    /**
+     * @return the index of the rows stored in the given project file
+     */
+    static public Index getIndex(ZipFile zipFile) throws IOException {
+        InputStream is = zipFile.getInputStream(zipFile.getEntry(INDEX_ENTRY));
+        try {
+            return Index.read(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Read back the rows written by {@link #saveRows(List, ZipOutputStream, Pool, int)},
+     * decoding up to the given number of chunks at once.
+     *
+     * @param pool the pool of recons saved along with the rows, already loaded
+     */
+    static public List<Row> loadRows(ZipFile zipFile, Pool pool, int parallelism) throws IOException {
+        return loadRows(zipFile, null, pool, parallelism);
+    }
+
+    /**
+     * Read back the rows of a full save, updated with those of a delta over it.
+     *
+     * @param deltaFile a delta whose base is the given file, or null
+     * @param pool the pools of recons saved along with the rows of both files, already loaded
+     */
+    static public List<Row> loadRows(final ZipFile zipFile, final ZipFile deltaFile, final Pool pool,
+            int parallelism) throws IOException {
+
+        Index index = getIndex(deltaFile != null ? deltaFile : zipFile);
+        int rowCount = 0;
+        for (int size : index.chunkSizes) {
+            rowCount += size;
+        }
+
+        // shared by all chunks, whose dictionaries only share strings within each
+        final CellInterner interner = new CellInterner();
+        List<Callable<Row[]>> tasks = new ArrayList<Callable<Row[]>>(index.chunkSizes.length);
+        for (int c = 0; c < index.chunkSizes.length; c++) {
+            final ZipFile source = index.stored[c] ? (deltaFile != null ? deltaFile : zipFile) : zipFile;
+            final ZipEntry entry = source.getEntry(CHUNK_ENTRY_PREFIX + c);
+            if (entry == null) {
+                throw new IOException("Missing row chunk " + c);
+            }
+            final int expectedSize = index.chunkSizes[c];
+            tasks.add(new Callable<Row[]>() {
+                @Override
+                public Row[] call() throws Exception {
+                    InputStream is = source.getInputStream(entry);
+                    try {
+                        BinaryCellInput reader = new BinaryCellInput(new BufferedInputStream(is, 65536), pool, interner);
+                        Row[] rows = new Row[reader.readVarInt()];
+                        for (int r = 0; r < rows.length; r++) {
+                            rows[r] = reader.readRow();
+                        }
+                        if (rows.length != expectedSize) {
+                            throw new IOException("Row chunk " + entry.getName() + " holds " +
+                                rows.length + " rows instead of " + expectedSize);
+                        }
+                        return rows;
+                    } finally {
+                        is.close();
+                    }
+                }
+            });
+        }
+
+        List<Row> rows = new ArrayList<Row>(rowCount);
+        if (parallelism <= 1 || tasks.size() <= 1) {
+            for (Callable<Row[]> task : tasks) {
+                rows.addAll(Arrays.asList(callTask(task)));
+            }
+            return rows;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+        try {
+            for (Future<Row[]> future : executor.invokeAll(tasks)) {
+                rows.addAll(Arrays.asList(future.get()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading rows", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        return rows;
+    }
+
+    /**
+     * Read the rows of a full save, updated with those of a delta over it, one chunk
+     * after another, handing each row to the given visitor rather than keeping them.
+     *
+     * @param deltaFile a delta whose base is the given file, or null
+     * @param project the project the rows belong to, passed on to the visitor
+     */
+    static public void scanRows(ZipFile zipFile, ZipFile deltaFile, Pool pool, Project project, RowVisitor visitor)
+            throws IOException {
+
+        Index index = getIndex(deltaFile != null ? deltaFile : zipFile);
+        int rowIndex = 0;
+        for (int c = 0; c < index.chunkSizes.length; c++) {
+            ZipFile source = index.stored[c] ? (deltaFile != null ? deltaFile : zipFile) : zipFile;
+            ZipEntry entry = source.getEntry(CHUNK_ENTRY_PREFIX + c);
+            if (entry == null) {
+                throw new IOException("Missing row chunk " + c);
+            }
+            InputStream is = source.getInputStream(entry);
+            try {
+                BinaryCellInput reader = new BinaryCellInput(new BufferedInputStream(is, 65536), pool);
+                int size = reader.readVarInt();
+                if (size != index.chunkSizes[c]) {
+                    throw new IOException("Row chunk " + entry.getName() + " holds " +
+                        size + " rows instead of " + index.chunkSizes[c]);
+                }
+                for (int r = 0; r < size; r++) {
+                    visitor.visit(project, rowIndex++, reader.readRow());
+                }
+            } finally {
+                is.close();
+            }
+        }
+    }
+
+    static protected Row[] callTask(Callable<Row[]> task) throws IOException {
+        try {
+            return task.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Lists the chunks of a save and tells which of them it stores.
+     */
+    static public class Index {
+        final public long       snapshotId;
+        final public long       baseSnapshotId;
+        final public int        rowsPerChunk;
+        final public int[]      chunkSizes;
+        final public boolean[]  stored;
+
+        Index(long snapshotId, long baseSnapshotId, int rowsPerChunk, int chunkCount) {
+            this.snapshotId = snapshotId;
+            this.baseSnapshotId = baseSnapshotId;
+            this.rowsPerChunk = rowsPerChunk;
+            this.chunkSizes = new int[chunkCount];
+            this.stored = new boolean[chunkCount];
+        }
+
+        public boolean isDelta() {
+            return baseSnapshotId != 0;
+        }
+
+        void write(OutputStream out) throws IOException {
+            DataOutputStream dos = new DataOutputStream(out);
+            dos.writeInt(MAGIC);
+            dos.writeInt(FORMAT_VERSION);
+            dos.writeLong(snapshotId);
+            dos.writeLong(baseSnapshotId);
+            dos.writeInt(rowsPerChunk);
+            dos.writeInt(chunkSizes.length);
+            for (int c = 0; c < chunkSizes.length; c++) {
+                dos.writeInt(chunkSizes[c]);
+                dos.writeBoolean(stored[c]);
+            }
+            dos.flush();
+        }
+
+        static Index read(InputStream in) throws IOException {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("Not a row chunk index");
+            }
+            int version = dis.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Row chunks were saved in format version " + version +
+                    ", not the supported version " + FORMAT_VERSION);
+            }
+
+            long snapshotId = dis.readLong();
+            long baseSnapshotId = dis.readLong();
+            int rowsPerChunk = dis.readInt();
+            Index index = new Index(snapshotId, baseSnapshotId, rowsPerChunk, dis.readInt());
+            for (int c = 0; c < index.chunkSizes.length; c++) {
+                index.chunkSizes[c] = dis.readInt();
+                index.stored[c] = dis.readBoolean();
+            }
+            return index;
+        }
+    }
+}
@@ -46,9 +46,12 @@ import org.json.JSONException;
 import org.json.JSONWriter;
 
 import com.google.refine.ProjectManager;
+import com.google.refine.history.BinaryChange;
+import com.google.refine.history.Change;
 import com.google.refine.history.History;
 import com.google.refine.history.HistoryEntry;
 import com.google.refine.history.HistoryEntryManager;
+import com.google.refine.preference.PreferenceStore;
 import com.google.refine.util.Pool;
 
 
@@ -93,8 +96,14 @@ public class FileHistoryEntryManager implements HistoryEntryManager{
                     zipFile.getInputStream(poolEntry)));
             } // else, it's a legacy project file
 
-            historyEntry.setChange(History.readOneChange(
-                    zipFile.getInputStream(zipFile.getEntry("change.txt")), pool));
+            ZipEntry binaryEntry = zipFile.getEntry("change.bin");
+            if (binaryEntry != null) {
+                historyEntry.setChange(History.readOneBinaryChange(
+                        zipFile.getInputStream(binaryEntry), pool));
+            } else {
+                historyEntry.setChange(History.readOneChange(
+                        zipFile.getInputStream(zipFile.getEntry("change.txt")), pool));
+            }
         } finally {
             zipFile.close();
         }
@@ -113,11 +122,21 @@ public class FileHistoryEntryManager implements HistoryEntryManager{
         try {
             Pool pool = new Pool();
 
-            out.putNextEntry(new ZipEntry("change.txt"));
-            try {
-                History.writeOneChange(out, historyEntry.getChange(), pool);
-            } finally {
-                out.closeEntry();
+            Change change = historyEntry.getChange();
+            if (useBinaryChanges() && History.canWriteBinary(change)) {
+                out.putNextEntry(new ZipEntry("change.bin"));
+                try {
+                    History.writeOneBinaryChange(out, (BinaryChange) change, pool);
+                } finally {
+                    out.closeEntry();
+                }
+            } else {
+                out.putNextEntry(new ZipEntry("change.txt"));
+                try {
+                    History.writeOneChange(out, change, pool);
+                } finally {
+                    out.closeEntry();
+                }
             }
 
             out.putNextEntry(new ZipEntry("pool.txt"));
@@ -131,6 +150,18 @@ public class FileHistoryEntryManager implements HistoryEntryManager{
         }
     }
 
+    /**
+     * Whether changes which can be saved in binary form are, rather than as text.
+     * Controlled by the "history.binaryChanges" preference, on by default. Changes
+     * are loaded from either form regardless.
+     */
+    static protected boolean useBinaryChanges() {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        Object v = ps != null ? ps.get("history.binaryChanges") : null;
+        return v == null || Boolean.parseBoolean(v.toString());
+    }
+
     protected File getChangeFile(HistoryEntry historyEntry) {
         return new File(getHistoryDir(historyEntry), historyEntry.id + ".change.zip");
     }
@@ -57,6 +57,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.refine.ProjectManager;
+import com.google.refine.browsing.RowVisitor;
 import com.google.refine.history.HistoryEntryManager;
 import com.google.refine.model.Project;
 import com.google.refine.model.medadata.DataPackageMetadata;
@@ -258,6 +259,11 @@ public class FileProjectManager extends ProjectManager {
         return ProjectUtilities.load(getProjectDir(id), id);
     }
 
+    @Override
+    public Project scanProject(long id, RowVisitor visitor) {
+        return ProjectUtilities.scan(getProjectDir(id), id, visitor);
+    }
+
 
     /**
      * Save the workspace's data out to file in a safe way: save to a temporary file first
@@ -36,8 +36,13 @@ package com.google.refine.io;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -46,24 +51,59 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.refine.ProjectManager;
+import com.google.refine.browsing.RowVisitor;
+import com.google.refine.model.ModifiedRows;
 import com.google.refine.model.Project;
+import com.google.refine.model.Row;
 import com.google.refine.model.medadata.DataPackageMetadata;
 import com.google.refine.model.medadata.IMetadata;
 import com.google.refine.model.medadata.MetadataFormat;
+import com.google.refine.preference.PreferenceStore;
 import com.google.refine.util.Pool;
 
 
 public class ProjectUtilities {
     final static Logger logger = LoggerFactory.getLogger("project_utilities");
 
-    synchronized public static void save(Project project) throws IOException {
+    static final protected String DATA_FILE = "data.zip";
+    static final protected String DELTA_FILE = "data.inc.zip";
+
+    /*
+     * Once a delta would hold more than this share of a project's row chunks, the
+     * project is saved in full instead, which also discards the delta.
+     */
+    static final protected double MAX_DELTA_RATIO = 0.25;
+
+    public static void save(Project project) throws IOException {
+        save(project, ((FileProjectManager)ProjectManager.singleton).getProjectDir(project.id));
+    }
+
+    /**
+     * Save a project into the given directory: only the rows modified since it was last
+     * saved in full if there are few enough of them, and in full otherwise.
+     */
+    synchronized public static void save(Project project, File dir) throws IOException {
         synchronized (project) {
             long id = project.id;
-            File dir = ((FileProjectManager)ProjectManager.singleton).getProjectDir(id);
+
+            BitSet modifiedChunks = getModifiedChunksToSave(project, dir);
+            if (modifiedChunks != null) {
+                try {
+                    saveDelta(project, dir, modifiedChunks);
+
+                    project.setLastSave();
+
+                    logger.info("Saved changes to project '{}' in {} row chunk(s)", id, modifiedChunks.cardinality());
+                    return;
+                } catch (IOException e) {
+                    logger.warn("Failed to save changes to project {}, saving it in full", id, e);
+                }
+            }
 
             File tempFile = new File(dir, "data.temp.zip");
+            long snapshotId;
             try {
-                saveToFile(project, tempFile);
+                snapshotId = saveToFile(project, tempFile);
             } catch (IOException e) {
                 e.printStackTrace();
                 logger.warn("Failed to save project {}", id);
@@ -75,7 +115,7 @@ public class ProjectUtilities {
                 throw e;
             }
 
-            File file = new File(dir, "data.zip");
+            File file = new File(dir, DATA_FILE);
             File oldFile = new File(dir, "data.old.zip");
 
             if (file.exists()) {
@@ -87,24 +127,128 @@ public class ProjectUtilities {
                 oldFile.delete();
             }
 
+            // the changes it held are in the new data file
+            new File(dir, DELTA_FILE).delete();
+            if (snapshotId != 0) {
+                project.modifiedRows.reset(snapshotId);
+            } else {
+                project.modifiedRows.markAll();
+            }
+
             project.setLastSave();
 
             logger.info("Saved project '{}'",id);
         }
     }
 
-    protected static void saveToFile(Project project, File file) throws IOException  {
+    /**
+     * Whether project rows are saved as chunks of {@link ChunkedRowFormat} rather than
+     * as JSON lines in data.txt. Controlled by the "storage.chunkedRows" preference,
+     * off by default: builds predating the chunked format open such projects without
+     * any rows, so it must only be turned on where the workspace will not be opened
+     * by an older build. Projects are loaded from either format regardless.
+     */
+    static protected boolean useChunkedRows() {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        Object v = ps != null ? ps.get("storage.chunkedRows") : null;
+        return v != null && Boolean.parseBoolean(v.toString());
+    }
+
+    /**
+     * @return the row chunks modified since the project's data file was saved, or null
+     *      if the project should be saved in full
+     */
+    static protected BitSet getModifiedChunksToSave(Project project, File dir) {
+        ModifiedRows modifiedRows = project.modifiedRows;
+        if (!useChunkedRows() || modifiedRows.isAll() || modifiedRows.getBaselineId() == 0) {
+            return null;
+        }
+
+        int rowsPerChunk = ChunkedRowFormat.DEFAULT_ROWS_PER_CHUNK;
+        int chunkCount = (project.rows.size() + rowsPerChunk - 1) / rowsPerChunk;
+        BitSet rows = modifiedRows.getRows();
+        BitSet chunks = new BitSet(chunkCount);
+        for (int r = rows.nextSetBit(0); r >= 0; r = rows.nextSetBit(r + 1)) {
+            chunks.set(r / rowsPerChunk);
+        }
+        if (chunks.cardinality() > chunkCount * MAX_DELTA_RATIO) {
+            return null;
+        }
+
+        // make sure the delta will be read on top of the data file it was computed against
+        try {
+            ZipFile zipFile = new ZipFile(new File(dir, DATA_FILE));
+            try {
+                ChunkedRowFormat.Index index = ChunkedRowFormat.hasRows(zipFile) ?
+                        ChunkedRowFormat.getIndex(zipFile) : null;
+                if (index == null || index.snapshotId != modifiedRows.getBaselineId() ||
+                        index.rowsPerChunk != rowsPerChunk) {
+                    return null;
+                }
+            } finally {
+                zipFile.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return chunks;
+    }
+
+    static protected void saveDelta(Project project, File dir, BitSet modifiedChunks) throws IOException {
+        File tempFile = new File(dir, "data.inc.temp.zip");
+        try {
+            saveToFile(project, tempFile, newSnapshotId(), project.modifiedRows.getBaselineId(), modifiedChunks);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        Files.move(tempFile.toPath(), new File(dir, DELTA_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static protected long newSnapshotId() {
+        long snapshotId;
+        do {
+            snapshotId = ThreadLocalRandom.current().nextLong();
+        } while (snapshotId == 0);
+        return snapshotId;
+    }
+
+    /**
+     * Save a project in full.
+     *
+     * @return the snapshot id of the rows saved, which deltas saved later refer to,
+     *      or 0 if they were not saved as chunks
+     */
+    public static long saveToFile(Project project, File file) throws IOException  {
+        long snapshotId = useChunkedRows() ? newSnapshotId() : 0;
+        saveToFile(project, file, snapshotId, 0, null);
+        return snapshotId;
+    }
+
+    /**
+     * @param snapshotId 0 to save rows as JSON lines rather than as chunks
+     * @param chunksToWrite the row chunks to save, or null to save all
+     */
+    protected static void saveToFile(Project project, File file,
+            long snapshotId, long baseSnapshotId, BitSet chunksToWrite) throws IOException  {
         ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
         try {
             Pool pool = new Pool();
+            boolean chunkedRows = snapshotId != 0;
 
             out.putNextEntry(new ZipEntry("data.txt"));
             try {
-                project.saveToOutputStream(out, pool);
+                project.saveToOutputStream(out, pool, !chunkedRows);
             } finally {
                 out.closeEntry();
             }
 
+            if (chunkedRows) {
+                ChunkedRowFormat.saveRows(project.rows, out, pool, ChunkedRowFormat.DEFAULT_ROWS_PER_CHUNK,
+                    snapshotId, baseSnapshotId, chunksToWrite);
+            }
+
             out.putNextEntry(new ZipEntry("pool.txt"));
             try {
                 pool.save(out);
@@ -117,10 +261,17 @@ public class ProjectUtilities {
     }
     
     static public Project loadDataFile(File dir, String dataFile, long id) {
+        return loadDataFile(dir, dataFile, null, id);
+    }
+    
+    /**
+     * @param deltaFile the name of a file holding changes saved since the data file, or null
+     */
+    static public Project loadDataFile(File dir, String dataFile, String deltaFile, long id) {
         try {
             File file = new File(dir, dataFile);
             if (file.exists()) {
-                return loadFromFile(file, id);
+                return loadFromFile(file, deltaFile != null ? new File(dir, deltaFile) : null, id);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -132,8 +283,12 @@ public class ProjectUtilities {
     static public Project load(File dir, long id) {
         Project project =null;
         
-        if ((project = loadDataFile(dir, "data.zip", id)) == null) {
-            if ((project = loadDataFile(dir, "data.temp.zip", id)) == null) {
+        if ((project = loadDataFile(dir, DATA_FILE, DELTA_FILE, id)) == null) {
+            if (new File(dir, DELTA_FILE).exists()) {
+                logger.warn("Failed to load project {} with its latest changes", id);
+                project = loadDataFile(dir, DATA_FILE, id);
+            }
+            if (project == null && (project = loadDataFile(dir, "data.temp.zip", id)) == null) {
                 project = loadDataFile(dir, "data.old.zip", id);
             }
         }
@@ -172,25 +327,124 @@ public class ProjectUtilities {
         
     }
     
-    static protected Project loadFromFile(
+    static public Project loadFromFile(
             File file,
             long id
+    ) throws Exception {
+        return loadFromFile(file, null, id);
+    }
+    
+    /**
+     * @param deltaFile a file holding changes saved since the given one, or null; it is
+     *      ignored if it is missing or was saved over a different version of the project
+     */
+    static public Project loadFromFile(
+            File file,
+            File deltaFile,
+            long id
+    ) throws Exception {
+        return loadFromFile(file, deltaFile, id, null);
+    }
+    
+    /**
+     * Read a project from its files without keeping its rows, which are handed to the
+     * given visitor as they are read: the project returned has no rows. Unlike
+     * {@link #load(File, long)}, backup files are not tried.
+     *
+     * @return the project, or null if it could not be read
+     */
+    static public Project scan(File dir, long id, RowVisitor visitor) {
+        try {
+            File file = new File(dir, DATA_FILE);
+            if (file.exists()) {
+                return loadFromFile(file, new File(dir, DELTA_FILE), id, visitor);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to read the rows of project " + id, e);
+        }
+        return null;
+    }
+    
+    /**
+     * @param rowVisitor if not null, receives the rows instead of the project
+     */
+    static protected Project loadFromFile(
+            File file,
+            File deltaFile,
+            long id,
+            RowVisitor rowVisitor
     ) throws Exception {
         ZipFile zipFile = new ZipFile(file);
+        ZipFile deltaZipFile = null;
         try {
+            ChunkedRowFormat.Index index = ChunkedRowFormat.hasRows(zipFile) ?
+                    ChunkedRowFormat.getIndex(zipFile) : null;
+            ChunkedRowFormat.Index deltaIndex = null;
+            if (deltaFile != null && deltaFile.exists() && index != null && index.snapshotId != 0) {
+                deltaZipFile = new ZipFile(deltaFile);
+                deltaIndex = ChunkedRowFormat.getIndex(deltaZipFile);
+                if (deltaIndex.baseSnapshotId != index.snapshotId || deltaIndex.rowsPerChunk != index.rowsPerChunk) {
+                    logger.warn("Ignoring changes to project {} saved over another version of it", id);
+                    deltaZipFile.close();
+                    deltaZipFile = null;
+                    deltaIndex = null;
+                }
+            }
+
             Pool pool = new Pool();
             ZipEntry poolEntry = zipFile.getEntry("pool.txt");
             if (poolEntry != null) {
                 pool.load(zipFile.getInputStream(poolEntry));
             } // else, it's a legacy project file
+            if (deltaZipFile != null) {
+                pool.load(deltaZipFile.getInputStream(deltaZipFile.getEntry("pool.txt")));
+            }
+
+            ZipFile headerFile = deltaZipFile != null ? deltaZipFile : zipFile;
+            if (rowVisitor != null) {
+                Project project = Project.loadFromInputStream(
+                        headerFile.getInputStream(headerFile.getEntry("data.txt")),
+                        id,
+                        pool,
+                        rowVisitor
+                );
+                if (index != null) {
+                    ChunkedRowFormat.scanRows(zipFile, deltaZipFile, pool, project, rowVisitor);
+                }
+                return project;
+            }
 
-            return Project.loadFromInputStream(
-                    zipFile.getInputStream(zipFile.getEntry("data.txt")),
+            List<Row> chunkedRows = null;
+            if (index != null) {
+                chunkedRows = ChunkedRowFormat.loadRows(zipFile, deltaZipFile, pool,
+                    Runtime.getRuntime().availableProcessors());
+            }
+
+            Project project = Project.loadFromInputStream(
+                    headerFile.getInputStream(headerFile.getEntry("data.txt")),
                     id,
-                    pool
+                    pool,
+                    chunkedRows
             );
+
+            if (index != null && index.snapshotId != 0) {
+                // rows in the delta must be saved again with the next delta
+                project.modifiedRows.reset(index.snapshotId);
+                if (deltaIndex != null) {
+                    for (int c = 0; c < deltaIndex.stored.length; c++) {
+                        if (deltaIndex.stored[c]) {
+                            int from = c * deltaIndex.rowsPerChunk;
+                            project.modifiedRows.markRange(from, from + deltaIndex.chunkSizes[c]);
+                        }
+                    }
+                }
+            }
+            return project;
         } finally {
             zipFile.close();
+            if (deltaZipFile != null) {
+                deltaZipFile.close();
+            }
         }
     }
 }
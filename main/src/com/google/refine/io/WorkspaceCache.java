@@ -0,0 +1,292 @@
+package com.google.refine.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.preference.PreferenceStore;
+
+/**
+ * A map from strings to strings kept in a file of the workspace, so that results of
+ * requests to remote services can be reused across operations and projects.
+ *
+ * Entries expire after a while, and only the most recently used ones are kept, up to
+ * a number of entries and, optionally, a size in bytes.
+ *
+ * The cache is loaded from its file when first used. New entries are appended to the
+ * file as they come; the file is rewritten with only the live entries once it holds
+ * many more lines than there are entries. Lookups do not touch the file, so after a
+ * reload the entries most recently written count as the most recently used.
+ */
+public class WorkspaceCache {
+    final static Logger logger = LoggerFactory.getLogger("workspace-cache");
+
+    static protected class Entry {
+        final String    value;
+        final long      time;
+        final long      size;
+
+        Entry(String key, String value, long time) {
+            this.value = value;
+            this.time = time;
+            this.size = sizeOf(key, value);
+        }
+    }
+
+    final protected File        _file;
+    final protected int         _maxEntries;
+    final protected long        _maxBytes;
+    final protected long        _ttlMillis;
+    protected Map<String, Entry> _entries;
+    protected long              _bytes;
+    protected int               _fileLines;
+
+    /**
+     * @return the file of the given name in the current workspace, or null if
+     *      projects are not stored in files
+     */
+    static public File getWorkspaceFile(String name) {
+        if (!(ProjectManager.singleton instanceof FileProjectManager)) {
+            return null;
+        }
+        return new File(((FileProjectManager) ProjectManager.singleton).getWorkspaceDir(), name);
+    }
+
+    static public int getPreference(String name, int defaultValue) {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        Object v = ps != null ? ps.get(name) : null;
+        if (v != null) {
+            try {
+                return Integer.parseInt(v.toString());
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        return defaultValue;
+    }
+
+    public WorkspaceCache(File file, int maxEntries, long ttlMillis) {
+        this(file, maxEntries, Long.MAX_VALUE, ttlMillis);
+    }
+
+    /**
+     * @param maxBytes the size of keys and values, as held in memory, beyond which
+     *      the least recently used entries are dropped
+     */
+    public WorkspaceCache(File file, int maxEntries, long maxBytes, long ttlMillis) {
+        _file = file;
+        _maxEntries = maxEntries;
+        _maxBytes = maxBytes;
+        _ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return true if this cache is stored in the given file with the given limits
+     */
+    public boolean isConfiguredAs(File file, int maxEntries, long ttlMillis) {
+        return isConfiguredAs(file, maxEntries, Long.MAX_VALUE, ttlMillis);
+    }
+
+    public boolean isConfiguredAs(File file, int maxEntries, long maxBytes, long ttlMillis) {
+        return _file.equals(file) && _maxEntries == maxEntries && _maxBytes == maxBytes &&
+                _ttlMillis == ttlMillis;
+    }
+
+    /**
+     * @return the size of the entries, as held in memory
+     */
+    public synchronized long getByteCount() {
+        ensureLoaded();
+        return _bytes;
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return _entries.size();
+    }
+
+    /**
+     * @return the value cached for the given key, or null
+     */
+    public synchronized String get(String key) {
+        ensureLoaded();
+        Entry entry = _entries.get(key);
+        if (entry == null) {
+            return null;
+        } else if (isExpired(entry, System.currentTimeMillis())) {
+            _entries.remove(key);
+            _bytes -= entry.size;
+            return null;
+        }
+        return entry.value;
+    }
+
+    public void put(String key, String value) {
+        putAll(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * Cache the given values and write them to the file. Values too large to fit
+     * in the cache at all are left out.
+     */
+    public synchronized void putAll(Map<String, String> values) {
+        ensureLoaded();
+        if (values.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(_file, true), "UTF-8"));
+            try {
+                for (Map.Entry<String, String> e : values.entrySet()) {
+                    Entry entry = new Entry(e.getKey(), e.getValue(), now);
+                    if (entry.size > _maxBytes) {
+                        continue;
+                    }
+                    putEntry(e.getKey(), entry);
+                    writeEntry(writer, e.getKey(), e.getValue(), now);
+                    _fileLines++;
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to write to cache " + _file, e);
+        }
+
+        if (_fileLines > 2 * Math.max(_entries.size(), 1000)) {
+            compact();
+        }
+    }
+
+    protected boolean isExpired(Entry entry, long now) {
+        return now - entry.time > _ttlMillis;
+    }
+
+    /**
+     * Java strings hold two bytes per character.
+     */
+    static protected long sizeOf(String key, String value) {
+        return 2L * (key.length() + value.length());
+    }
+
+    protected void putEntry(String key, Entry entry) {
+        Entry old = _entries.put(key, entry);
+        if (old != null) {
+            _bytes -= old.size;
+        }
+        _bytes += entry.size;
+
+        Iterator<Entry> i = _entries.values().iterator();
+        while (_bytes > _maxBytes && i.hasNext()) {
+            _bytes -= i.next().size;
+            i.remove();
+        }
+    }
+
+    protected void ensureLoaded() {
+        if (_entries != null) {
+            return;
+        }
+        _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 2743658421297215932L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > _maxEntries) {
+                    _bytes -= eldest.getValue().size;
+                    return true;
+                }
+                return false;
+            }
+        };
+        if (!_file.exists()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(_file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    _fileLines++;
+                    try {
+                        JSONObject o = new JSONObject(line);
+                        String key = o.getString("k");
+                        Entry entry = new Entry(key, o.getString("r"), o.getLong("t"));
+                        if (!isExpired(entry, now) && entry.size <= _maxBytes) {
+                            putEntry(key, entry);
+                        }
+                    } catch (JSONException e) {
+                        // a line cut short by a crash: skip it
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to read cache " + _file, e);
+        }
+    }
+
+    /**
+     * Rewrite the file with only the live entries.
+     */
+    protected void compact() {
+        File tempFile = new File(_file.getParentFile(), _file.getName() + ".temp");
+        long now = System.currentTimeMillis();
+        int lines = 0;
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+            try {
+                for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                    if (!isExpired(e.getValue(), now)) {
+                        writeEntry(writer, e.getKey(), e.getValue().value, e.getValue().time);
+                        lines++;
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+            Files.move(tempFile.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            _fileLines = lines;
+        } catch (IOException e) {
+            logger.warn("Failed to compact cache " + _file, e);
+            tempFile.delete();
+        }
+    }
+
+    static protected void writeEntry(Writer writer, String key, String value, long time) throws IOException {
+        try {
+            JSONObject o = new JSONObject();
+            o.put("k", key);
+            o.put("t", time);
+            o.put("r", value);
+            writer.write(o.toString());
+            writer.write('\n');
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -51,6 +51,7 @@ import com.google.refine.expr.EvalError;
 import com.google.refine.expr.ExpressionUtils;
 import com.google.refine.expr.HasFields;
 import com.google.refine.util.ParsingUtilities;
+import com.google.refine.util.CellInterner;
 import com.google.refine.util.Pool;
 import com.google.refine.util.StringUtils;
 
@@ -140,6 +141,14 @@ public class Cell implements HasFields, Jsonizable {
     }
     
     static public Cell loadStreaming(JsonParser jp, Pool pool) throws Exception {
+        return loadStreaming(jp, pool, null, -1);
+    }
+    
+    /**
+     * @param interner shares the cell with others of the same value in its column, or null
+     * @param cellIndex the index of the cell in its row
+     */
+    static public Cell loadStreaming(JsonParser jp, Pool pool, CellInterner interner, int cellIndex) throws Exception {
         JsonToken t = jp.getCurrentToken();
         if (t == JsonToken.VALUE_NULL || t != JsonToken.START_OBJECT) {
             return null;
@@ -187,7 +196,7 @@ public class Cell implements HasFields, Jsonizable {
             if (type != null && "date".equals(type)) {
                 value = ParsingUtilities.stringToDate((String) value); 
             }
-            return new Cell(value, recon);
+            return interner != null ? interner.getCell(cellIndex, value, recon) : new Cell(value, recon);
         } else {
             return null;
         }
@@ -0,0 +1,72 @@
+package com.google.refine.model;
+
+import java.util.BitSet;
+
+import com.google.refine.history.Change;
+import com.google.refine.history.RowScopedChange;
+
+/**
+ * Keeps track of the rows of a project modified since a baseline, the last time the
+ * project was saved in full, so that later saves can rewrite only the parts of the
+ * project file holding those rows. Until a baseline is set, all rows count as modified.
+ */
+public class ModifiedRows {
+    protected long      _baselineId;
+    protected boolean   _all = true;
+    protected BitSet    _rows = new BitSet();
+
+    /**
+     * Record the rows touched by a change that was just applied or reverted.
+     */
+    synchronized public void record(Change change) {
+        if (_all) {
+            return;
+        }
+        int[] rows = change instanceof RowScopedChange ?
+                ((RowScopedChange) change).getModifiedRows() : null;
+        if (rows == null) {
+            markAll();
+        } else {
+            for (int r : rows) {
+                _rows.set(r);
+            }
+        }
+    }
+
+    synchronized public void markRange(int fromRowIndex, int toRowIndex) {
+        if (!_all) {
+            _rows.set(fromRowIndex, toRowIndex);
+        }
+    }
+
+    synchronized public void markAll() {
+        _all = true;
+        _rows.clear();
+    }
+
+    /**
+     * Start tracking modifications from a new baseline, with no rows modified.
+     *
+     * @param baselineId identifies the saved state the modifications are relative to
+     */
+    synchronized public void reset(long baselineId) {
+        _baselineId = baselineId;
+        _all = false;
+        _rows.clear();
+    }
+
+    synchronized public long getBaselineId() {
+        return _baselineId;
+    }
+
+    synchronized public boolean isAll() {
+        return _all;
+    }
+
+    /**
+     * @return a copy of the indices of the modified rows, meaningless if {@link #isAll()}
+     */
+    synchronized public BitSet getRows() {
+        return (BitSet) _rows.clone();
+    }
+}
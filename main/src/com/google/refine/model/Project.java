@@ -42,7 +42,6 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.lang.reflect.Method;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -56,9 +55,13 @@ import org.slf4j.LoggerFactory;
 
 import com.google.refine.ProjectManager;
 import com.google.refine.RefineServlet;
+import com.google.refine.browsing.RowVisitor;
 import com.google.refine.history.History;
+import com.google.refine.model.columnar.ColumnarRowStore;
 import com.google.refine.model.medadata.ProjectMetadata;
+import com.google.refine.preference.PreferenceStore;
 import com.google.refine.process.ProcessManager;
+import com.google.refine.util.CellInterner;
 import com.google.refine.util.ParsingUtilities;
 import com.google.refine.util.Pool;
 
@@ -67,11 +70,12 @@ public class Project {
         s_overlayModelClasses = new HashMap<String, Class<? extends OverlayModel>>();
     
     final public long                       id;
-    final public List<Row>                  rows = new ArrayList<Row>();
+    final public List<Row>                  rows;
     final public ColumnModel                columnModel = new ColumnModel();
     final public RecordModel                recordModel = new RecordModel();
     final public Map<String, OverlayModel>  overlayModels = new HashMap<String, OverlayModel>();
     final public History                    history;
+    final public ModifiedRows               modifiedRows = new ModifiedRows();
     
     transient public ProcessManager processManager = new ProcessManager();
     transient private LocalDateTime _lastSave = LocalDateTime.now();
@@ -88,9 +92,25 @@ public class Project {
 
     protected Project(long id) {
         this.id = id;
+        this.rows = useColumnarStorage() ? new ColumnarRowStore() : new RowBlockList();
         this.history = new History(this);
     }
     
+    /**
+     * Whether new projects should keep their rows in a {@link ColumnarRowStore} rather
+     * than as individual row and cell objects. Controlled by the "storage.columnarRows"
+     * preference.
+     */
+    static protected boolean useColumnarStorage() {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        if (ps == null) {
+            return false;
+        }
+        Object v = ps.get("storage.columnarRows");
+        return v != null && Boolean.parseBoolean(v.toString());
+    }
+    
     static public void registerOverlayModel(String modelName, Class<? extends OverlayModel> klass) {
         s_overlayModelClasses.put(modelName, klass);
     }
@@ -121,6 +141,14 @@ public class Project {
     }
 
     public void saveToOutputStream(OutputStream out, Pool pool) throws IOException {
+        saveToOutputStream(out, pool, true);
+    }
+
+    /**
+     * @param includeRows false if the rows are saved separately, as chunks of
+     *      {@link com.google.refine.io.ChunkedRowFormat}
+     */
+    public void saveToOutputStream(OutputStream out, Pool pool, boolean includeRows) throws IOException {
         for (OverlayModel overlayModel : overlayModels.values()) {
             try {
                 overlayModel.onBeforeSave(this);
@@ -135,7 +163,7 @@ public class Project {
             options.setProperty("mode", "save");
             options.put("pool", pool);
 
-            saveToWriter(writer, options);
+            saveToWriter(writer, options, includeRows);
         } finally {
             writer.flush();
         }
@@ -149,7 +177,7 @@ public class Project {
         }
     }
 
-    protected void saveToWriter(Writer writer, Properties options) throws IOException {
+    protected void saveToWriter(Writer writer, Properties options, boolean includeRows) throws IOException {
         writer.write(RefineServlet.VERSION); writer.write('\n');
         
         writer.write("columnModel=\n"); columnModel.save(writer, options);
@@ -170,20 +198,42 @@ public class Project {
             writer.write('\n');
         }
         
-        writer.write("rowCount="); writer.write(Integer.toString(rows.size())); writer.write('\n');
-        for (Row row : rows) {
-            row.save(writer, options); writer.write('\n');
+        if (includeRows) {
+            writer.write("rowCount="); writer.write(Integer.toString(rows.size())); writer.write('\n');
+            for (Row row : rows) {
+                row.save(writer, options); writer.write('\n');
+            }
+        } else {
+            writer.write("rowStorage=chunked\n");
         }
     }
     
     static public Project loadFromInputStream(InputStream is, long id, Pool pool) throws Exception {
-        return loadFromReader(new LineNumberReader(new InputStreamReader(is, "UTF-8")), id, pool);
+        return loadFromInputStream(is, id, pool, (List<Row>) null);
+    }
+    
+    /**
+     * @param chunkedRows the rows, if they were saved separately as chunks
+     */
+    static public Project loadFromInputStream(InputStream is, long id, Pool pool, List<Row> chunkedRows) throws Exception {
+        return loadFromReader(new LineNumberReader(new InputStreamReader(is, "UTF-8")), id, pool, chunkedRows, null);
+    }
+    
+    /**
+     * Load a project without keeping its rows: they are handed to the given visitor
+     * instead, and the project is left with none. Rows saved separately as chunks are
+     * not read at all.
+     */
+    static public Project loadFromInputStream(InputStream is, long id, Pool pool, RowVisitor rowVisitor) throws Exception {
+        return loadFromReader(new LineNumberReader(new InputStreamReader(is, "UTF-8")), id, pool, null, rowVisitor);
     }
     
     static private Project loadFromReader(
         LineNumberReader reader,
         long id,
-        Pool pool
+        Pool pool,
+        List<Row> chunkedRows,
+        RowVisitor rowVisitor
     ) throws Exception {
         long start = System.currentTimeMillis();
         
@@ -210,15 +260,31 @@ public class Project {
                 project.history.load(project, reader);
             } else if ("rowCount".equals(field)) {
                 int count = Integer.parseInt(value);
+                // rows only visited are not kept, so there is nothing to share among them
+                CellInterner interner = rowVisitor == null ? new CellInterner() : null;
 
                 for (int i = 0; i < count; i++) {
                     line = reader.readLine();
                     if (line != null) {
-                        Row row = Row.load(line, pool);
-                        project.rows.add(row);
+                        Row row = Row.load(line, pool, interner);
+                        if (rowVisitor != null) {
+                            rowVisitor.visit(project, i, row);
+                        } else {
+                            project.rows.add(row);
+                        }
                         maxCellCount = Math.max(maxCellCount, row.cells.size());
                     }
                 }
+            } else if ("rowStorage".equals(field)) {
+                if (rowVisitor != null) {
+                    continue;
+                } else if (chunkedRows == null) {
+                    throw new Exception("The rows of project " + id + " are stored as chunks which were not loaded");
+                }
+                for (Row row : chunkedRows) {
+                    project.rows.add(row);
+                    maxCellCount = Math.max(maxCellCount, row.cells.size());
+                }
             } else if (field.startsWith("overlayModel:")) {
                 String modelName = field.substring("overlayModel:".length());
                 if (s_overlayModelClasses.containsKey(modelName)) {
@@ -254,6 +320,17 @@ public class Project {
         recordModel.update(this);
     }
     
+    /**
+     * Update internal models after cells of some rows have changed, but not the
+     * rows themselves nor the columns.
+     * 
+     * @param modifiedRows indices of the rows changed, or null to update everything
+     */
+    public void update(int[] modifiedRows) {
+        columnModel.update();
+        recordModel.update(this, modifiedRows);
+    }
+    
     //wrapper of processManager variable to allow unit testing
     //TODO make the processManager variable private, and force all calls through this method
     public ProcessManager getProcessManager() {
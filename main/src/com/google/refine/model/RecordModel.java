@@ -48,6 +48,17 @@ import org.slf4j.LoggerFactory;
 import com.google.refine.Jsonizable;
 import com.google.refine.expr.ExpressionUtils;
 
+/**
+ * Splits a project's rows into records and keeps track of which rows depend on
+ * context rows above them.
+ *
+ * Rows are described by primitive arrays: the record index of each row starting a
+ * record (-1 for the others), and for each keyed group the row that was the group's
+ * context when reaching each row. {@link RowDependency} objects are only built when
+ * asked for. When only some cells have changed, {@link #update(Project, int[])}
+ * recomputes the rows from the first changed one until the context is back to what
+ * it was, rather than all rows.
+ */
 public class RecordModel implements Jsonizable {
     final static Logger logger = LoggerFactory.getLogger("RecordModel");
 
@@ -77,32 +88,74 @@ public class RecordModel implements Jsonizable {
         }
     }
 
-    protected List<RowDependency> _rowDependencies;
-    protected List<Record> _records;
+    protected Project       _project;
+    protected KeyedGroup[]  _keyedGroups;
+    protected int           _cellCount;
+    protected int           _rowCount;
+
+    protected int[]         _recordIndices; // row -> index of the record it starts, or -1
+    protected int[][]       _contextRows;   // keyed group -> row -> context row, or -1
+    protected int[]         _recordStarts;  // record -> its first row
+    protected int           _recordCount;
 
     public RowDependency getRowDependency(int rowIndex) {
-        return _rowDependencies != null && rowIndex >= 0 && rowIndex < _rowDependencies.size() ?
-                _rowDependencies.get(rowIndex) : null;
+        int[] recordIndices = _recordIndices;
+        if (recordIndices == null || rowIndex < 0 || rowIndex >= _rowCount) {
+            return null;
+        }
+
+        RowDependency rowDependency = new RowDependency();
+        rowDependency.recordIndex = recordIndices[rowIndex];
+        if (rowDependency.recordIndex < 0) {
+            Row row = _project.rows.get(rowIndex);
+            int rootKeyCellIndex = _keyedGroups[0].keyCellIndex;
+
+            rowDependency.cellDependencies = new CellDependency[_cellCount];
+            for (int g = 0; g < _keyedGroups.length; g++) {
+                KeyedGroup group = _keyedGroups[g];
+                int contextRowIndex = _contextRows[g][rowIndex];
+                if (contextRowIndex >= 0 &&
+                    !ExpressionUtils.isNonBlankData(row.getCellValue(rootKeyCellIndex)) &&
+                    !ExpressionUtils.isNonBlankData(row.getCellValue(group.keyCellIndex))) {
+                    for (int dependentCellIndex : group.cellIndices) {
+                        if (ExpressionUtils.isNonBlankData(row.getCellValue(dependentCellIndex))) {
+                            rowDependency.cellDependencies[dependentCellIndex] =
+                                new CellDependency(contextRowIndex, group.keyCellIndex);
+                        }
+                    }
+                }
+            }
+
+            rowDependency.contextRows = new ArrayList<Integer>();
+            for (CellDependency cd : rowDependency.cellDependencies) {
+                if (cd != null) {
+                    rowDependency.contextRows.add(cd.rowIndex);
+                }
+            }
+            Collections.sort(rowDependency.contextRows);
+        }
+        return rowDependency;
     }
 
     public int getRecordCount() {
-        return _records.size();
+        return _recordCount;
     }
 
     public Record getRecord(int recordIndex) {
-        return _records != null && recordIndex >= 0 && recordIndex < _records.size() ?
-                _records.get(recordIndex) : null;
+        int[] recordStarts = _recordStarts;
+        if (recordStarts == null || recordIndex < 0 || recordIndex >= _recordCount) {
+            return null;
+        }
+        int toRowIndex = recordIndex + 1 < _recordCount ? recordStarts[recordIndex + 1] : _rowCount;
+        return new Record(recordStarts[recordIndex], toRowIndex, recordIndex);
     }
 
     public Record getRecordOfRow(int rowIndex) {
-        RowDependency rd = getRowDependency(rowIndex);
-        if (rd != null) {
-            if (rd.recordIndex < 0) {
-                rd = getRowDependency(rd.contextRows.get(0));
-            }
-            return getRecord(rd.recordIndex);
+        if (_recordStarts == null || rowIndex < 0 || rowIndex >= _rowCount) {
+            return null;
         }
-        return null;
+        int i = Arrays.binarySearch(_recordStarts, 0, _recordCount, rowIndex);
+        return getRecord(i >= 0 ? i : -i - 2);
     }
 
     @Override
@@ -112,8 +165,7 @@ public class RecordModel implements Jsonizable {
         writer.object();
         writer.key("hasRecords");
         writer.value(
-            _records != null && _rowDependencies != null &&
-            _records.size() < _rowDependencies.size());
+            _recordIndices != null && _recordCount < _rowCount);
         writer.endObject();
     }
 
@@ -129,87 +181,171 @@ public class RecordModel implements Jsonizable {
             }
             return "key: " + keyCellIndex + " cells: " + sb.toString();
         }
+        
+        boolean sameAs(KeyedGroup other) {
+            return keyCellIndex == other.keyCellIndex && Arrays.equals(cellIndices, other.cellIndices);
+        }
     }
 
     synchronized public void update(Project project) {
         synchronized (project) {
-            List<Row> rows = project.rows;
-            int rowCount = rows.size();
+            List<KeyedGroup> keyedGroups = computeKeyedGroups(project.columnModel);
+            int rowCount = project.rows.size();
+
+            _project = project;
+            _keyedGroups = keyedGroups.toArray(new KeyedGroup[keyedGroups.size()]);
+            _cellCount = project.columnModel.getMaxCellIndex() + 1;
+            _rowCount = rowCount;
+            _recordIndices = new int[rowCount];
+            _contextRows = new int[_keyedGroups.length][rowCount];
+            _recordStarts = new int[0];
+            _recordCount = 0;
+
+            updateRows(0, -1);
+        }
+    }
 
-            ColumnModel columnModel = project.columnModel;
-            List<KeyedGroup> keyedGroups = computeKeyedGroups(columnModel);
-            int groupCount = keyedGroups.size();
+    /**
+     * Bring the records up to date after cells of the given rows have changed, and
+     * nothing else: neither the rows themselves nor the columns.
+     *
+     * @param modifiedRows indices of the rows changed, or null if unknown
+     */
+    synchronized public void update(Project project, int[] modifiedRows) {
+        synchronized (project) {
+            if (modifiedRows == null || _recordIndices == null || _project != project ||
+                    project.rows.size() != _rowCount ||
+                    project.columnModel.getMaxCellIndex() + 1 != _cellCount ||
+                    !sameKeyedGroups(computeKeyedGroups(project.columnModel))) {
+                update(project);
+                return;
+            }
+            if (modifiedRows.length == 0) {
+                return;
+            }
 
-            int[] lastNonBlankRowsByGroup = new int[keyedGroups.size()];
-            for (int i = 0; i < lastNonBlankRowsByGroup.length; i++) {
-                lastNonBlankRowsByGroup[i] = -1;
+            int from = Integer.MAX_VALUE;
+            int to = -1;
+            for (int r : modifiedRows) {
+                from = Math.min(from, r);
+                to = Math.max(to, r);
             }
+            if (from >= 0 && to < _rowCount) {
+                updateRows(from, to);
+            } else {
+                update(project);
+            }
+        }
+    }
+
+    /**
+     * Recompute the rows from the given one on, stopping past the given last changed
+     * row as soon as the context of all keyed groups is the same as before.
+     *
+     * @param to the last changed row, or -1 to recompute all rows
+     */
+    protected void updateRows(int from, int to) {
+        List<Row> rows = _project.rows;
+        int groupCount = _keyedGroups.length;
+        int rootKeyCellIndex = groupCount > 0 ? _keyedGroups[0].keyCellIndex : -1;
+
+        boolean all = to < 0;
+        int[] lastNonBlankRowsByGroup = new int[groupCount];
+        for (int g = 0; g < groupCount; g++) {
+            lastNonBlankRowsByGroup[g] = all ? -1 : _contextRows[g][from];
+        }
+
+        int recordsBefore = countRecordsBefore(from);
+        int recordIndex = recordsBefore;
+        int oldRecordCount = 0;
+        int[] newRecordStarts = new int[all ? Math.max(16, _rowCount / 8) : 16];
+        int newRecordCount = 0;
 
-            _rowDependencies = new ArrayList<RowDependency>(rowCount);
-
-            int recordIndex = 0;
-            for (int r = 0; r < rowCount; r++) {
-                Row row = rows.get(r);
-                RowDependency rowDependency = new RowDependency();
-
-                for (int g = 0; g < groupCount; g++) {
-                    KeyedGroup group = keyedGroups.get(g);
-
-                    if (!ExpressionUtils.isNonBlankData(row.getCellValue(keyedGroups.get(0).keyCellIndex)) &&
-                        !ExpressionUtils.isNonBlankData(row.getCellValue(group.keyCellIndex))) {
-                        int contextRowIndex = lastNonBlankRowsByGroup[g];
-                        if (contextRowIndex >= 0) {
-                            for (int dependentCellIndex : group.cellIndices) {
-                                if (ExpressionUtils.isNonBlankData(row.getCellValue(dependentCellIndex))) {
-                                    setRowDependency(
-                                            project,
-                                            rowDependency,
-                                            dependentCellIndex,
-                                            contextRowIndex,
-                                            group.keyCellIndex
-                                    );
-                                }
+        int r = from;
+        for (; r < _rowCount; r++) {
+            if (!all && r > to && sameContext(lastNonBlankRowsByGroup, r)) {
+                break;
+            }
+
+            Row row = rows.get(r);
+            boolean dependent = false;
+            for (int g = 0; g < groupCount; g++) {
+                KeyedGroup group = _keyedGroups[g];
+                _contextRows[g][r] = lastNonBlankRowsByGroup[g];
+
+                if (!ExpressionUtils.isNonBlankData(row.getCellValue(rootKeyCellIndex)) &&
+                    !ExpressionUtils.isNonBlankData(row.getCellValue(group.keyCellIndex))) {
+                    if (lastNonBlankRowsByGroup[g] >= 0 && !dependent) {
+                        for (int dependentCellIndex : group.cellIndices) {
+                            if (ExpressionUtils.isNonBlankData(row.getCellValue(dependentCellIndex))) {
+                                dependent = true;
+                                break;
                             }
                         }
-                    } else {
-                        lastNonBlankRowsByGroup[g] = r;
                     }
+                } else {
+                    lastNonBlankRowsByGroup[g] = r;
                 }
+            }
 
-                if (rowDependency.cellDependencies != null && rowDependency.cellDependencies.length > 0) {
-                    rowDependency.recordIndex = -1;
-                    rowDependency.contextRows = new ArrayList<Integer>();
-                    for (CellDependency cd : rowDependency.cellDependencies) {
-                        if (cd != null) {
-                            rowDependency.contextRows.add(cd.rowIndex);
-                        }
-                    }
-                    Collections.sort(rowDependency.contextRows);
-                } else {
-                    rowDependency.recordIndex = recordIndex++;
+            if (!all && _recordIndices[r] >= 0) {
+                oldRecordCount++;
+            }
+            if (dependent) {
+                _recordIndices[r] = -1;
+            } else {
+                _recordIndices[r] = recordIndex++;
+                if (newRecordCount == newRecordStarts.length) {
+                    newRecordStarts = Arrays.copyOf(newRecordStarts, newRecordCount * 2);
                 }
+                newRecordStarts[newRecordCount++] = r;
+            }
+        }
 
-                _rowDependencies.add(rowDependency);
+        int shift = newRecordCount - oldRecordCount;
+        if (shift != 0) {
+            for (int i = r; i < _rowCount; i++) {
+                if (_recordIndices[i] >= 0) {
+                    _recordIndices[i] += shift;
+                }
             }
+        }
 
-            _records = new ArrayList<Record>(recordIndex);
-            if (recordIndex > 0) {
-                recordIndex = 0;
+        int recordsAfter = _recordCount - recordsBefore - oldRecordCount;
+        int[] recordStarts = new int[recordsBefore + newRecordCount + recordsAfter];
+        System.arraycopy(_recordStarts, 0, recordStarts, 0, recordsBefore);
+        System.arraycopy(newRecordStarts, 0, recordStarts, recordsBefore, newRecordCount);
+        System.arraycopy(_recordStarts, recordsBefore + oldRecordCount,
+            recordStarts, recordsBefore + newRecordCount, recordsAfter);
 
-                int recordRowIndex = 0;
-                for (int r = 1; r < rowCount; r++) {
-                    RowDependency rd = _rowDependencies.get(r);
-                    if (rd.recordIndex >= 0) {
-                        _records.add(new Record(recordRowIndex, r, recordIndex++));
+        _recordStarts = recordStarts;
+        _recordCount = recordStarts.length;
+    }
 
-                        recordIndex = rd.recordIndex;
-                        recordRowIndex = r;
-                    }
-                }
+    protected int countRecordsBefore(int rowIndex) {
+        int i = Arrays.binarySearch(_recordStarts, 0, _recordCount, rowIndex);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    protected boolean sameContext(int[] lastNonBlankRowsByGroup, int rowIndex) {
+        for (int g = 0; g < lastNonBlankRowsByGroup.length; g++) {
+            if (_contextRows[g][rowIndex] != lastNonBlankRowsByGroup[g]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-                _records.add(new Record(recordRowIndex, rowCount, recordIndex++));
+    protected boolean sameKeyedGroups(List<KeyedGroup> keyedGroups) {
+        if (keyedGroups.size() != _keyedGroups.length) {
+            return false;
+        }
+        for (int g = 0; g < _keyedGroups.length; g++) {
+            if (!_keyedGroups[g].sameAs(keyedGroups.get(g))) {
+                return false;
             }
         }
+        return true;
     }
 
     protected List<KeyedGroup> computeKeyedGroups(ColumnModel columnModel) {
@@ -283,21 +419,4 @@ public class RecordModel implements Jsonizable {
         }
     }
 
-    protected void setRowDependency(
-            Project project, 
-            RowDependency rowDependency, 
-            int cellIndex, 
-            int contextRowIndex, 
-            int contextCellIndex
-    ) {
-        if (rowDependency.cellDependencies == null) {
-            int count = project.columnModel.getMaxCellIndex() + 1;
-
-            rowDependency.cellDependencies = new CellDependency[count];
-        }
-
-        rowDependency.cellDependencies[cellIndex] = 
-            new CellDependency(contextRowIndex, contextCellIndex);
-    }
-
 }
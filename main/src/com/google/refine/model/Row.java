@@ -48,6 +48,7 @@ import org.json.JSONWriter;
 import com.google.refine.Jsonizable;
 import com.google.refine.expr.CellTuple;
 import com.google.refine.expr.HasFields;
+import com.google.refine.util.CellInterner;
 import com.google.refine.util.Pool;
 
 /**
@@ -85,18 +86,34 @@ public class Row implements HasFields, Jsonizable {
      */
     public Row dup() {
         Row row = new Row(cells.size());
-        row.flagged = flagged;
-        row.starred = starred;
+        row.flagged = isFlagged();
+        row.starred = isStarred();
         row.cells.addAll(cells);
         return row;
     }
     
+    public boolean isFlagged() {
+        return flagged;
+    }
+    
+    public boolean isStarred() {
+        return starred;
+    }
+    
+    public void setFlagged(boolean flagged) {
+        this.flagged = flagged;
+    }
+    
+    public void setStarred(boolean starred) {
+        this.starred = starred;
+    }
+    
     @Override
     public Object getField(String name, Properties bindings) {
         if (FLAGGED.equals(name)) {
-            return flagged;
+            return isFlagged();
         } else if (STARRED.equals(name)) {
-            return starred;
+            return isStarred();
         }
         return null;
     }
@@ -165,8 +182,8 @@ public class Row implements HasFields, Jsonizable {
             throws JSONException {
         
         writer.object();
-        writer.key(FLAGGED); writer.value(flagged);
-        writer.key(STARRED); writer.value(starred);
+        writer.key(FLAGGED); writer.value(isFlagged());
+        writer.key(STARRED); writer.value(isStarred());
         
         writer.key("cells"); writer.array();
         for (Cell cell : cells) {
@@ -214,11 +231,22 @@ public class Row implements HasFields, Jsonizable {
     }
     
     static public Row load(String s, Pool pool) throws Exception {
+        return load(s, pool, null);
+    }
+    
+    /**
+     * @param interner shares cells among rows, or null
+     */
+    static public Row load(String s, Pool pool, CellInterner interner) throws Exception {
         return s.length() == 0 ? null : 
-            loadStreaming(s, pool);
+            loadStreaming(s, pool, interner);
     }
     
     static public Row loadStreaming(String s, Pool pool) throws Exception {
+        return loadStreaming(s, pool, null);
+    }
+    
+    static public Row loadStreaming(String s, Pool pool, CellInterner interner) throws Exception {
         JsonFactory jsonFactory = new JsonFactory(); 
         JsonParser jp = jsonFactory.createJsonParser(s);
         
@@ -244,7 +272,7 @@ public class Row implements HasFields, Jsonizable {
                 }
                 
                 while (jp.nextToken() != JsonToken.END_ARRAY) {
-                    Cell cell = Cell.loadStreaming(jp, pool);
+                    Cell cell = Cell.loadStreaming(jp, pool, interner, cells.size());
                     
                     cells.add(cell);
                 }
@@ -0,0 +1,340 @@
+package com.google.refine.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The list of a project's rows, kept as a sequence of blocks of consecutive rows
+ * rather than as one array, so that copies of it share their blocks.
+ *
+ * {@link #snapshot()} returns a copy of the list in time proportional to its number
+ * of blocks. A block is only written to by the list that owns it: a list that shares
+ * a block with another copies that block before changing it, so keeping a snapshot
+ * of the rows for undo costs nothing but the blocks changed since. Removing many rows
+ * at once with {@link #removeRows(int[])} copies only the blocks holding them.
+ *
+ * Ownership is tracked with a token per list: blocks remember the token of the list
+ * that created them, and a list hands over a fresh token to itself whenever it lets
+ * another list share its blocks.
+ */
+public class RowBlockList extends AbstractList<Row> implements RandomAccess {
+    static final public int BLOCK_SIZE = 1024;
+
+    static final protected class Block {
+        final Row[]     rows;
+        int             size;
+        final Object    owner;
+
+        Block(Row[] rows, int size, Object owner) {
+            this.rows = rows;
+            this.size = size;
+            this.owner = owner;
+        }
+    }
+
+    protected Block[]   _blocks = new Block[8];
+    protected int[]     _starts = new int[8]; // index of the first row of each block
+    protected int       _blockCount;
+    protected int       _size;
+    protected Object    _owner = new Object();
+
+    /*
+     * The block last looked up, as rows are mostly read in order. Only a hint:
+     * it is checked before use, so concurrent readers may overwrite it freely.
+     */
+    protected int       _lastBlock;
+
+    public RowBlockList() {
+    }
+
+    public RowBlockList(Collection<? extends Row> rows) {
+        addAll(rows);
+    }
+
+    /**
+     * @return a copy of the given rows, which shares its blocks with them if they
+     *      are held in a RowBlockList
+     */
+    static public List<Row> snapshotOf(List<Row> rows) {
+        return rows instanceof RowBlockList ? ((RowBlockList) rows).snapshot() : new ArrayList<Row>(rows);
+    }
+
+    /**
+     * @return a copy of this list sharing its blocks
+     */
+    public RowBlockList snapshot() {
+        RowBlockList copy = new RowBlockList();
+        copy.appendBlocksOf(this);
+        return copy;
+    }
+
+    public int getBlockCount() {
+        return _blockCount;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public Row get(int index) {
+        int b = findBlock(index);
+        return _blocks[b].rows[index - _starts[b]];
+    }
+
+    @Override
+    public Row set(int index, Row row) {
+        int b = findBlock(index);
+        Block block = ownBlock(b);
+        int i = index - _starts[b];
+        Row old = block.rows[i];
+        block.rows[i] = row;
+        return old;
+    }
+
+    @Override
+    public boolean add(Row row) {
+        Block last = _blockCount > 0 ? _blocks[_blockCount - 1] : null;
+        if (last == null || last.size == BLOCK_SIZE) {
+            insertBlock(_blockCount, new Block(new Row[BLOCK_SIZE], 0, _owner));
+        }
+        Block block = ownBlock(_blockCount - 1);
+        block.rows[block.size++] = row;
+        _size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void add(int index, Row row) {
+        if (index == _size) {
+            add(row);
+            return;
+        }
+        int b = findBlock(index);
+        Block block = ownBlock(b);
+        if (block.size == block.rows.length) {
+            splitBlock(b);
+            if (index - _starts[b] > _blocks[b].size) {
+                b++;
+            }
+            block = _blocks[b];
+        }
+        int i = index - _starts[b];
+        System.arraycopy(block.rows, i, block.rows, i + 1, block.size - i);
+        block.rows[i] = row;
+        block.size++;
+        updateStarts(b + 1);
+        _size++;
+        modCount++;
+    }
+
+    @Override
+    public Row remove(int index) {
+        int b = findBlock(index);
+        Block block = ownBlock(b);
+        int i = index - _starts[b];
+        Row old = block.rows[i];
+        System.arraycopy(block.rows, i + 1, block.rows, i, block.size - i - 1);
+        block.rows[--block.size] = null;
+        if (block.size == 0) {
+            removeBlock(b);
+        } else {
+            updateStarts(b + 1);
+        }
+        _size--;
+        modCount++;
+        return old;
+    }
+
+    /**
+     * Blocks of another RowBlockList are shared rather than copied when this list
+     * is empty or ends with a full block.
+     */
+    @Override
+    public boolean addAll(Collection<? extends Row> c) {
+        if (c instanceof RowBlockList && c != this &&
+                (_blockCount == 0 || _blocks[_blockCount - 1].size == BLOCK_SIZE)) {
+            appendBlocksOf((RowBlockList) c);
+            return !c.isEmpty();
+        }
+        for (Row row : c) {
+            add(row);
+        }
+        return !c.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        _blocks = new Block[8];
+        _starts = new int[8];
+        _blockCount = 0;
+        _size = 0;
+        _lastBlock = 0;
+        modCount++;
+    }
+
+    /**
+     * Remove the rows at the given indices. Blocks holding none of them are kept
+     * as they are, shared with any snapshot, while consecutive blocks holding some
+     * are rewritten together.
+     *
+     * @param sortedIndices indices of the rows to remove, in increasing order
+     * @return the rows removed, in the same order
+     */
+    public List<Row> removeRows(int[] sortedIndices) {
+        for (int i = 0; i < sortedIndices.length; i++) {
+            if (sortedIndices[i] < (i == 0 ? 0 : sortedIndices[i - 1] + 1) || sortedIndices[i] >= _size) {
+                throw new IllegalArgumentException("Row indices must be increasing and less than " + _size);
+            }
+        }
+        List<Row> removed = new ArrayList<Row>(sortedIndices.length);
+        if (sortedIndices.length == 0) {
+            return removed;
+        }
+
+        Block[] blocks = _blocks;
+        int blockCount = _blockCount;
+        int[] starts = _starts;
+        clear();
+
+        Block pending = null;
+        int next = 0;
+        for (int b = 0; b < blockCount; b++) {
+            Block block = blocks[b];
+            int start = starts[b];
+            if (next >= sortedIndices.length || sortedIndices[next] >= start + block.size) {
+                if (pending != null) {
+                    appendBlock(pending);
+                    pending = null;
+                }
+                appendBlock(block);
+                continue;
+            }
+
+            for (int i = 0; i < block.size; i++) {
+                Row row = block.rows[i];
+                if (next < sortedIndices.length && sortedIndices[next] == start + i) {
+                    removed.add(row);
+                    next++;
+                    continue;
+                }
+                if (pending == null) {
+                    pending = new Block(new Row[BLOCK_SIZE], 0, _owner);
+                }
+                pending.rows[pending.size++] = row;
+                if (pending.size == BLOCK_SIZE) {
+                    appendBlock(pending);
+                    pending = null;
+                }
+            }
+        }
+        if (pending != null) {
+            appendBlock(pending);
+        }
+        return removed;
+    }
+
+    protected void appendBlocksOf(RowBlockList other) {
+        // neither list may write to the shared blocks from now on
+        other._owner = new Object();
+        _owner = new Object();
+        for (int b = 0; b < other._blockCount; b++) {
+            appendBlock(other._blocks[b]);
+        }
+        modCount++;
+    }
+
+    protected void appendBlock(Block block) {
+        if (block.size > 0) {
+            insertBlock(_blockCount, block);
+            _size += block.size;
+        }
+    }
+
+    protected int findBlock(int index) {
+        if (index < 0 || index >= _size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+        }
+        int b = _lastBlock;
+        if (b < _blockCount && index >= _starts[b] && index < _starts[b] + _blocks[b].size) {
+            return b;
+        }
+
+        int low = 0;
+        int high = _blockCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (_starts[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        _lastBlock = low;
+        return low;
+    }
+
+    /**
+     * @return the given block, copied first if this list does not own it
+     */
+    protected Block ownBlock(int b) {
+        Block block = _blocks[b];
+        if (block.owner != _owner) {
+            block = new Block(Arrays.copyOf(block.rows, BLOCK_SIZE), block.size, _owner);
+            _blocks[b] = block;
+        }
+        return block;
+    }
+
+    protected void splitBlock(int b) {
+        Block block = _blocks[b];
+        int half = block.size / 2;
+        Row[] rows = new Row[BLOCK_SIZE];
+        System.arraycopy(block.rows, half, rows, 0, block.size - half);
+        Arrays.fill(block.rows, half, block.size, null);
+
+        Block second = new Block(rows, block.size - half, _owner);
+        block.size = half;
+        insertBlock(b + 1, second);
+    }
+
+    protected void insertBlock(int b, Block block) {
+        if (_blockCount == _blocks.length) {
+            _blocks = Arrays.copyOf(_blocks, _blocks.length * 2);
+            _starts = Arrays.copyOf(_starts, _starts.length * 2);
+        }
+        System.arraycopy(_blocks, b, _blocks, b + 1, _blockCount - b);
+        System.arraycopy(_starts, b, _starts, b + 1, _blockCount - b);
+        _blocks[b] = block;
+        _blockCount++;
+        _starts[b] = b == 0 ? 0 : _starts[b - 1] + _blocks[b - 1].size;
+        if (b + 1 < _blockCount) {
+            updateStarts(b + 1);
+        }
+    }
+
+    protected void removeBlock(int b) {
+        System.arraycopy(_blocks, b + 1, _blocks, b, _blockCount - b - 1);
+        System.arraycopy(_starts, b + 1, _starts, b, _blockCount - b - 1);
+        _blockCount--;
+        _blocks[_blockCount] = null;
+        if (b < _blockCount) {
+            updateStarts(b);
+        }
+    }
+
+    /**
+     * Recompute the start of the blocks from the given one on.
+     */
+    protected void updateStarts(int from) {
+        for (int b = from; b < _blockCount; b++) {
+            _starts[b] = b == 0 ? 0 : _starts[b - 1] + _blocks[b - 1].size;
+        }
+    }
+}
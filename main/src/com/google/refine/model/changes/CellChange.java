@@ -39,13 +39,13 @@ import java.io.Writer;
 import java.util.Properties;
 
 import com.google.refine.ProjectManager;
-import com.google.refine.history.Change;
+import com.google.refine.history.RowScopedChange;
 import com.google.refine.model.Cell;
 import com.google.refine.model.Column;
 import com.google.refine.model.Project;
 import com.google.refine.util.Pool;
 
-public class CellChange implements Change {
+public class CellChange implements RowScopedChange {
     final public int     row;
     final public int     cellIndex;
     final public Cell    oldCell;
@@ -76,6 +76,11 @@ public class CellChange implements Change {
         ProjectManager.singleton.getInterProjectModel().flushJoinsInvolvingProjectColumn(project.id, column.getName());
     }
     
+    @Override
+    public int[] getModifiedRows() {
+        return new int[] { row };
+    }
+
     @Override
     public void save(Writer writer, Properties options) throws IOException {
         writer.write("row="); writer.write(Integer.toString(row)); writer.write('\n');
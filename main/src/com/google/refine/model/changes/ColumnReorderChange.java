@@ -42,12 +42,13 @@ import java.util.List;
 import java.util.Properties;
 
 import com.google.refine.history.Change;
+import com.google.refine.history.RowScopedChange;
 import com.google.refine.model.Column;
 import com.google.refine.model.ColumnGroup;
 import com.google.refine.model.Project;
 import com.google.refine.util.Pool;
 
-public class ColumnReorderChange extends ColumnChange {
+public class ColumnReorderChange extends ColumnChange implements RowScopedChange {
     final protected List<String>    _columnNames;
     protected List<Column>          _oldColumns;
     protected List<Column>          _newColumns;
@@ -100,6 +101,11 @@ public class ColumnReorderChange extends ColumnChange {
         }
     }
 
+    @Override
+    public int[] getModifiedRows() {
+        return new int[0]; // only the column model changes
+    }
+
     @Override
     public void save(Writer writer, Properties options) throws IOException {
         writer.write("columnNameCount="); writer.write(Integer.toString(_columnNames.size())); writer.write('\n');
@@ -60,6 +60,7 @@ import com.google.refine.model.Recon.Judgment;
 import com.google.refine.model.ReconCandidate;
 import com.google.refine.model.ReconStats;
 import com.google.refine.model.Row;
+import com.google.refine.model.RowBlockList;
 import com.google.refine.util.ParsingUtilities;
 import com.google.refine.util.Pool;
 
@@ -150,7 +151,7 @@ public class DataExtensionChange implements Change {
                     project.columnModel.allocateNewCellIndex();
                 }
                 
-                _oldRows = new ArrayList<Row>(project.rows);
+                _oldRows = RowBlockList.snapshotOf(project.rows);
                 
                 _newRows = new ArrayList<Row>(project.rows.size());
                 
@@ -239,6 +240,8 @@ public class DataExtensionChange implements Change {
                 }
             }
             
+            project.columnModel.clearPrecomputes();
+            
             project.update();
         }
     }
@@ -290,6 +293,8 @@ public class DataExtensionChange implements Change {
                 project.columnModel.columns.remove(_columnInsertIndex);
             }
             
+            project.columnModel.clearPrecomputes();
+            
             project.update();
         }
     }
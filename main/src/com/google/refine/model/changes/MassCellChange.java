@@ -36,17 +36,23 @@ package com.google.refine.model.changes;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.Writer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 
 import com.google.refine.ProjectManager;
+import com.google.refine.history.BinaryChange;
 import com.google.refine.history.Change;
+import com.google.refine.history.RowScopedChange;
+import com.google.refine.model.Cell;
 import com.google.refine.model.Column;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
+import com.google.refine.util.BinaryCellInput;
+import com.google.refine.util.BinaryCellOutput;
 import com.google.refine.util.Pool;
 
-public class MassCellChange implements Change {
+public class MassCellChange implements RowScopedChange, BinaryChange {
     final protected CellChange[]  _cellChanges;
     final protected String        _commonColumnName;
     final protected boolean       _updateRowContextDependencies;
@@ -98,7 +104,7 @@ public class MassCellChange implements Change {
             }
             
             if (_updateRowContextDependencies) {
-                project.update();
+                project.update(getModifiedRows());
             }
         }
     }
@@ -119,11 +125,20 @@ public class MassCellChange implements Change {
             }
             
             if (_updateRowContextDependencies) {
-                project.update();
+                project.update(getModifiedRows());
             }
         }
     }
     
+    @Override
+    public int[] getModifiedRows() {
+        int[] rows = new int[_cellChanges.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = _cellChanges[i].row;
+        }
+        return rows;
+    }
+
     @Override
     public void save(Writer writer, Properties options) throws IOException {
         if (_commonColumnName != null) {
@@ -165,4 +180,85 @@ public class MassCellChange implements Change {
         
         return change;
     }
+    
+    @Override
+    public void saveBinary(BinaryCellOutput out) throws IOException {
+        out.writeOptionalUTF8(_commonColumnName);
+        out.writeBoolean(_updateRowContextDependencies);
+        writeCellChanges(out, _cellChanges);
+    }
+    
+    static public Change loadBinary(BinaryCellInput in, Pool pool) throws Exception {
+        String commonColumnName = in.readOptionalUTF8();
+        boolean updateRowContextDependencies = in.readBoolean();
+        
+        return new MassCellChange(readCellChanges(in), commonColumnName, updateRowContextDependencies);
+    }
+    
+    /**
+     * Write cell changes one field at a time: their cell indices, written once if they
+     * share one, their row indices as differences from the previous, then their old
+     * and new cells, through a dictionary per column and side.
+     */
+    static protected void writeCellChanges(BinaryCellOutput out, CellChange[] cellChanges) throws IOException {
+        out.writeVarInt(cellChanges.length);
+        
+        boolean commonCellIndex = true;
+        for (CellChange c : cellChanges) {
+            if (c.cellIndex != cellChanges[0].cellIndex) {
+                commonCellIndex = false;
+                break;
+            }
+        }
+        out.writeBoolean(commonCellIndex);
+        if (commonCellIndex) {
+            out.writeVarInt(cellChanges.length > 0 ? cellChanges[0].cellIndex : 0);
+        } else {
+            for (CellChange c : cellChanges) {
+                out.writeVarInt(c.cellIndex);
+            }
+        }
+        
+        int previousRow = 0;
+        for (CellChange c : cellChanges) {
+            out.writeVarLong((long) c.row - previousRow);
+            previousRow = c.row;
+        }
+        for (CellChange c : cellChanges) {
+            out.writeCell(2 * c.cellIndex, c.oldCell);
+        }
+        for (CellChange c : cellChanges) {
+            out.writeCell(2 * c.cellIndex + 1, c.newCell);
+        }
+    }
+    
+    static protected CellChange[] readCellChanges(BinaryCellInput in) throws IOException {
+        int count = in.readVarInt();
+        
+        int[] cellIndices = new int[count];
+        if (in.readBoolean()) {
+            Arrays.fill(cellIndices, in.readVarInt());
+        } else {
+            for (int i = 0; i < count; i++) {
+                cellIndices[i] = in.readVarInt();
+            }
+        }
+        
+        int[] rows = new int[count];
+        int previousRow = 0;
+        for (int i = 0; i < count; i++) {
+            rows[i] = previousRow + (int) in.readVarLong();
+            previousRow = rows[i];
+        }
+        Cell[] oldCells = new Cell[count];
+        for (int i = 0; i < count; i++) {
+            oldCells[i] = in.readCell(2 * cellIndices[i]);
+        }
+        
+        CellChange[] cellChanges = new CellChange[count];
+        for (int i = 0; i < count; i++) {
+            cellChanges[i] = new CellChange(rows[i], cellIndices[i], oldCells[i], in.readCell(2 * cellIndices[i] + 1));
+        }
+        return cellChanges;
+    }
 }
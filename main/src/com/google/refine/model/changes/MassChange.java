@@ -43,11 +43,12 @@ import java.util.List;
 import java.util.Properties;
 
 import com.google.refine.history.Change;
+import com.google.refine.history.RowScopedChange;
 import com.google.refine.history.History;
 import com.google.refine.model.Project;
 import com.google.refine.util.Pool;
 
-public class MassChange implements Change {
+public class MassChange implements RowScopedChange {
     final protected List<? extends Change> _changes;
     final protected boolean                _updateRowContextDependencies;
     
@@ -64,7 +65,7 @@ public class MassChange implements Change {
             }
             
             if (_updateRowContextDependencies) {
-                project.update();
+                project.update(getModifiedRows());
             }
         }
     }
@@ -77,11 +78,34 @@ public class MassChange implements Change {
             }
             
             if (_updateRowContextDependencies) {
-                project.update();
+                project.update(getModifiedRows());
             }
         }
     }
     
+    @Override
+    public int[] getModifiedRows() {
+        List<int[]> rowLists = new ArrayList<int[]>(_changes.size());
+        int count = 0;
+        for (Change change : _changes) {
+            int[] rows = change instanceof RowScopedChange ?
+                    ((RowScopedChange) change).getModifiedRows() : null;
+            if (rows == null) {
+                return null;
+            }
+            rowLists.add(rows);
+            count += rows.length;
+        }
+
+        int[] rows = new int[count];
+        int i = 0;
+        for (int[] rowList : rowLists) {
+            System.arraycopy(rowList, 0, rows, i, rowList.length);
+            i += rowList.length;
+        }
+        return rows;
+    }
+
     @Override
     public void save(Writer writer, Properties options) throws IOException {
         writer.write("updateRowContextDependencies="); writer.write(Boolean.toString(_updateRowContextDependencies)); writer.write('\n');
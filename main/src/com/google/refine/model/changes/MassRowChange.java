@@ -41,25 +41,41 @@ import java.util.List;
 import java.util.Properties;
 
 import com.google.refine.ProjectManager;
+import com.google.refine.history.BinaryChange;
 import com.google.refine.history.Change;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
+import com.google.refine.model.RowBlockList;
+import com.google.refine.util.BinaryCellInput;
+import com.google.refine.util.BinaryCellOutput;
 import com.google.refine.util.Pool;
 
-public class MassRowChange implements Change {
-    final protected List<Row> _newRows;
+public class MassRowChange implements BinaryChange {
+    protected List<Row>       _newRows;
     protected List<Row>       _oldRows;
     
     public MassRowChange(List<Row> newRows) {
         _newRows = newRows;
     }
     
+    /**
+     * A change already applied, which replaced the given old rows.
+     */
+    public MassRowChange(List<Row> newRows, List<Row> oldRows) {
+        _newRows = newRows;
+        _oldRows = oldRows;
+    }
+    
     @Override
     public void apply(Project project) {
         synchronized (project) {
-            _oldRows = new ArrayList<Row>(project.rows);
+            _oldRows = RowBlockList.snapshotOf(project.rows);
             project.rows.clear();
             project.rows.addAll(_newRows);
+            if (project.rows instanceof RowBlockList) {
+                // keep the new rows in the blocks just filled rather than in a list of their own
+                _newRows = ((RowBlockList) project.rows).snapshot();
+            }
             
             project.columnModel.clearPrecomputes();
             ProjectManager.singleton.getInterProjectModel().flushJoinsInvolvingProject(project.id);
@@ -74,6 +90,8 @@ public class MassRowChange implements Change {
             project.rows.clear();
             project.rows.addAll(_oldRows);
             
+            project.columnModel.clearPrecomputes();
+            
             project.update();
         }
     }
@@ -125,9 +143,43 @@ public class MassRowChange implements Change {
             }
         }
         
-        MassRowChange change = new MassRowChange(newRows);
-        change._oldRows = oldRows;
+        return new MassRowChange(newRows, oldRows);
+    }
+    
+    /**
+     * Old rows which are also at the same position among the new rows, as rows
+     * left untouched are, are written as references to those.
+     */
+    @Override
+    public void saveBinary(BinaryCellOutput out) throws IOException {
+        out.writeVarInt(_newRows.size());
+        for (Row row : _newRows) {
+            out.writeRow(row);
+        }
+        out.writeVarInt(_oldRows.size());
+        for (int i = 0; i < _oldRows.size(); i++) {
+            Row row = _oldRows.get(i);
+            boolean same = i < _newRows.size() && _newRows.get(i) == row;
+            out.writeBoolean(same);
+            if (!same) {
+                out.writeRow(row);
+            }
+        }
+    }
+    
+    static public Change loadBinary(BinaryCellInput in, Pool pool) throws Exception {
+        int count = in.readVarInt();
+        List<Row> newRows = new ArrayList<Row>(count);
+        for (int i = 0; i < count; i++) {
+            newRows.add(in.readRow());
+        }
+        
+        count = in.readVarInt();
+        List<Row> oldRows = new ArrayList<Row>(count);
+        for (int i = 0; i < count; i++) {
+            oldRows.add(in.readBoolean() ? newRows.get(i) : in.readRow());
+        }
         
-        return change;
+        return new MassRowChange(newRows, oldRows);
     }
 }
@@ -47,6 +47,7 @@ import com.google.refine.model.Column;
 import com.google.refine.model.ColumnGroup;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
+import com.google.refine.model.RowBlockList;
 import com.google.refine.util.Pool;
 
 public class MassRowColumnChange implements Change {
@@ -71,7 +72,7 @@ public class MassRowColumnChange implements Change {
                 _oldColumns = new ArrayList<Column>(project.columnModel.columns);
             }
             if (_oldRows == null) {
-                _oldRows = new ArrayList<Row>(project.rows);
+                _oldRows = RowBlockList.snapshotOf(project.rows);
             }
             
             project.columnModel.columns.clear();
@@ -81,6 +82,7 @@ public class MassRowColumnChange implements Change {
             project.rows.clear();
             project.rows.addAll(_newRows);
             
+            project.columnModel.clearPrecomputes();
             ProjectManager.singleton.getInterProjectModel().flushJoinsInvolvingProject(project.id);
             
             project.update();
@@ -99,6 +101,7 @@ public class MassRowColumnChange implements Change {
             project.rows.clear();
             project.rows.addAll(_oldRows);
             
+            project.columnModel.clearPrecomputes();
             ProjectManager.singleton.getInterProjectModel().flushJoinsInvolvingProject(project.id);
             
             project.update();
@@ -38,6 +38,7 @@ package com.google.refine.model.changes;
 
 import java.io.IOException;
 import java.io.LineNumberReader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.List;
 import java.util.Properties;
@@ -48,6 +49,8 @@ import com.google.refine.model.Column;
 import com.google.refine.model.Project;
 import com.google.refine.model.ReconStats;
 import com.google.refine.model.recon.ReconConfig;
+import com.google.refine.util.BinaryCellInput;
+import com.google.refine.util.BinaryCellOutput;
 import com.google.refine.util.ParsingUtilities;
 import com.google.refine.util.Pool;
 
@@ -208,4 +211,59 @@ public class ReconChange extends MassCellChange {
         
         return change;
     }
-}
\ No newline at end of file
+    
+    @Override
+    public void saveBinary(BinaryCellOutput out) throws IOException {
+        StringWriter writer = new StringWriter();
+        if (_newReconConfig != null) {
+            _newReconConfig.save(writer);
+        }
+        out.writeUTF8(writer.toString());
+        
+        writer = new StringWriter();
+        if (_newReconStats != null) {
+            _newReconStats.save(writer);
+        }
+        out.writeUTF8(writer.toString());
+        
+        writer = new StringWriter();
+        if (_oldReconConfig != null) {
+            _oldReconConfig.save(writer);
+        }
+        out.writeUTF8(writer.toString());
+        
+        writer = new StringWriter();
+        if (_oldReconStats != null) {
+            _oldReconStats.save(writer);
+        }
+        out.writeUTF8(writer.toString());
+        
+        super.saveBinary(out);
+    }
+    
+    static public Change loadBinary(BinaryCellInput in, Pool pool) throws Exception {
+        String value = in.readUTF8();
+        ReconConfig newReconConfig = value.length() > 0 ?
+                ReconConfig.reconstruct(ParsingUtilities.evaluateJsonStringToObject(value)) : null;
+        value = in.readUTF8();
+        ReconStats newReconStats = value.length() > 0 ?
+                ReconStats.load(ParsingUtilities.evaluateJsonStringToObject(value)) : null;
+        value = in.readUTF8();
+        ReconConfig oldReconConfig = value.length() > 0 ?
+                ReconConfig.reconstruct(ParsingUtilities.evaluateJsonStringToObject(value)) : null;
+        value = in.readUTF8();
+        ReconStats oldReconStats = value.length() > 0 ?
+                ReconStats.load(ParsingUtilities.evaluateJsonStringToObject(value)) : null;
+        
+        String commonColumnName = in.readOptionalUTF8();
+        /* boolean updateRowContextDependencies = */ in.readBoolean();
+        
+        ReconChange change = new ReconChange(
+                readCellChanges(in), commonColumnName, newReconConfig, newReconStats);
+        
+        change._oldReconConfig = oldReconConfig;
+        change._oldReconStats = oldReconStats;
+        
+        return change;
+    }
+}
@@ -38,12 +38,12 @@ import java.io.LineNumberReader;
 import java.io.Writer;
 import java.util.Properties;
 
-import com.google.refine.history.Change;
+import com.google.refine.history.RowScopedChange;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
 import com.google.refine.util.Pool;
 
-public class RowFlagChange implements Change {
+public class RowFlagChange implements RowScopedChange {
     final int rowIndex;
     final boolean newFlagged;
     Boolean oldFlagged = null;
@@ -57,18 +57,23 @@ public class RowFlagChange implements Change {
     public void apply(Project project) {
         Row row = project.rows.get(rowIndex);
         if (oldFlagged == null) {
-            oldFlagged = row.flagged;
+            oldFlagged = row.isFlagged();
         }
-        row.flagged = newFlagged;
+        row.setFlagged(newFlagged);
     }
 
     @Override
     public void revert(Project project) {
         Row row = project.rows.get(rowIndex);
         
-        row.flagged = oldFlagged;
+        row.setFlagged(oldFlagged);
     }
     
+    @Override
+    public int[] getModifiedRows() {
+        return new int[] { rowIndex };
+    }
+
     @Override
     public void save(Writer writer, Properties options) throws IOException {
         writer.write("row="); writer.write(Integer.toString(rowIndex)); writer.write('\n');
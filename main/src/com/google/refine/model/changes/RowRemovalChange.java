@@ -41,34 +41,56 @@ import java.util.List;
 import java.util.Properties;
 
 import com.google.refine.ProjectManager;
+import com.google.refine.history.BinaryChange;
 import com.google.refine.history.Change;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
+import com.google.refine.model.RowBlockList;
+import com.google.refine.util.BinaryCellInput;
+import com.google.refine.util.BinaryCellOutput;
 import com.google.refine.util.Pool;
 
-public class RowRemovalChange implements Change {
-    final protected List<Integer> _rowIndices;
+public class RowRemovalChange implements BinaryChange {
+    final protected int[] _rowIndices;
     protected List<Row> _rows;
     
     public RowRemovalChange(List<Integer> rowIndices) {
+        _rowIndices = new int[rowIndices.size()];
+        for (int i = 0; i < _rowIndices.length; i++) {
+            _rowIndices[i] = rowIndices.get(i);
+        }
+    }
+    
+    /**
+     * @param rowIndices indices of the rows to remove, in increasing order
+     */
+    public RowRemovalChange(int[] rowIndices) {
         _rowIndices = rowIndices;
     }
     
     @Override
     public void apply(Project project) {
         synchronized (project) {
-            int count = _rowIndices.size();
-            
-            _rows = new ArrayList<Row>(count);
-            
-            int offset = 0;
-            for (int i = 0; i < count; i++) {
-                int index = _rowIndices.get(i);
+            if (project.rows instanceof RowBlockList) {
+                _rows = ((RowBlockList) project.rows).removeRows(_rowIndices);
+            } else {
+                int count = project.rows.size();
+                List<Row> keptRows = new ArrayList<Row>(count - _rowIndices.length);
+                _rows = new ArrayList<Row>(_rowIndices.length);
                 
-                Row row = project.rows.remove(index + offset);
-                _rows.add(row);
+                int next = 0;
+                for (int r = 0; r < count; r++) {
+                    Row row = project.rows.get(r);
+                    if (next < _rowIndices.length && _rowIndices[next] == r) {
+                        _rows.add(row);
+                        next++;
+                    } else {
+                        keptRows.add(row);
+                    }
+                }
                 
-                offset--;
+                project.rows.clear();
+                project.rows.addAll(keptRows);
             }
             
             project.columnModel.clearPrecomputes();
@@ -81,24 +103,33 @@ public class RowRemovalChange implements Change {
     @Override
     public void revert(Project project) {
         synchronized (project) {
-            int count = _rowIndices.size();
+            int count = project.rows.size() + _rowIndices.length;
+            List<Row> rows = new RowBlockList();
             
-            for (int i = 0; i < count; i++) {
-                int index = _rowIndices.get(i);
-                Row row = _rows.get(i);
-                
-                project.rows.add(index, row);
+            int next = 0;
+            int kept = 0;
+            for (int r = 0; r < count; r++) {
+                if (next < _rowIndices.length && _rowIndices[next] == r) {
+                    rows.add(_rows.get(next++));
+                } else {
+                    rows.add(project.rows.get(kept++));
+                }
             }
             
+            project.rows.clear();
+            project.rows.addAll(rows);
+            
+            project.columnModel.clearPrecomputes();
+            
             project.update();
         }
     }
 
     @Override
     public void save(Writer writer, Properties options) throws IOException {
-        writer.write("rowIndexCount="); writer.write(Integer.toString(_rowIndices.size())); writer.write('\n');
-        for (Integer index : _rowIndices) {
-            writer.write(index.toString());
+        writer.write("rowIndexCount="); writer.write(Integer.toString(_rowIndices.length)); writer.write('\n');
+        for (int index : _rowIndices) {
+            writer.write(Integer.toString(index));
             writer.write('\n');
         }
         writer.write("rowCount="); writer.write(Integer.toString(_rows.size())); writer.write('\n');
@@ -110,7 +141,7 @@ public class RowRemovalChange implements Change {
     }
     
     static public Change load(LineNumberReader reader, Pool pool) throws Exception {
-        List<Integer> rowIndices = null;
+        int[] rowIndices = null;
         List<Row> rows = null;
         
         String line;
@@ -121,11 +152,11 @@ public class RowRemovalChange implements Change {
             if ("rowIndexCount".equals(field)) {
                 int count = Integer.parseInt(line.substring(equal + 1));
                 
-                rowIndices = new ArrayList<Integer>(count);
+                rowIndices = new int[count];
                 for (int i = 0; i < count; i++) {
                     line = reader.readLine();
                     if (line != null) {
-                        rowIndices.add(Integer.parseInt(line));
+                        rowIndices[i] = Integer.parseInt(line);
                     }
                 }
             } else if ("rowCount".equals(field)) {
@@ -146,4 +177,38 @@ public class RowRemovalChange implements Change {
         
         return change;
     }
+    
+    /**
+     * Row indices are increasing, so they are written as the gaps between them.
+     */
+    @Override
+    public void saveBinary(BinaryCellOutput out) throws IOException {
+        out.writeVarInt(_rowIndices.length);
+        int previous = -1;
+        for (int index : _rowIndices) {
+            out.writeVarInt(index - previous - 1);
+            previous = index;
+        }
+        for (Row row : _rows) {
+            out.writeRow(row);
+        }
+    }
+    
+    static public Change loadBinary(BinaryCellInput in, Pool pool) throws Exception {
+        int[] rowIndices = new int[in.readVarInt()];
+        int previous = -1;
+        for (int i = 0; i < rowIndices.length; i++) {
+            rowIndices[i] = previous + 1 + in.readVarInt();
+            previous = rowIndices[i];
+        }
+        List<Row> rows = new ArrayList<Row>(rowIndices.length);
+        for (int i = 0; i < rowIndices.length; i++) {
+            rows.add(in.readRow());
+        }
+        
+        RowRemovalChange change = new RowRemovalChange(rowIndices);
+        change._rows = rows;
+        
+        return change;
+    }
 }
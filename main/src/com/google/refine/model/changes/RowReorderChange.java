@@ -36,19 +36,38 @@ package com.google.refine.model.changes;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
+import com.google.refine.history.BinaryChange;
 import com.google.refine.history.Change;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
+import com.google.refine.model.RowBlockList;
+import com.google.refine.util.BinaryCellInput;
+import com.google.refine.util.BinaryCellOutput;
 import com.google.refine.util.Pool;
 
-public class RowReorderChange implements Change {
-    final protected List<Integer> _rowIndices;
+/**
+ * Reorders the rows of a project. Only the new order is kept, as the index each
+ * row had before, rather than copies of the rows. Applying or reverting gathers the
+ * existing row objects in their new order into a fresh {@link RowBlockList}, then
+ * refills the project's rows from it.
+ */
+public class RowReorderChange implements BinaryChange {
+    final protected int[] _rowIndices;
     
     public RowReorderChange(List<Integer> rowIndices) {
+        _rowIndices = new int[rowIndices.size()];
+        for (int i = 0; i < _rowIndices.length; i++) {
+            _rowIndices[i] = rowIndices.get(i);
+        }
+    }
+    
+    /**
+     * @param rowIndices for each new row index, the index of the row to move there
+     */
+    public RowReorderChange(int[] rowIndices) {
         _rowIndices = rowIndices;
     }
     
@@ -56,14 +75,17 @@ public class RowReorderChange implements Change {
     public void apply(Project project) {
         synchronized (project) {
             List<Row> oldRows = project.rows;
-            List<Row> newRows = new ArrayList<Row>(oldRows.size());
+            List<Row> newRows = new RowBlockList();
 
-            for (Integer oldIndex : _rowIndices) {
+            for (int oldIndex : _rowIndices) {
                 newRows.add(oldRows.get(oldIndex));
             }
 
             project.rows.clear();
             project.rows.addAll(newRows);
+
+            project.columnModel.clearPrecomputes();
+
             project.update();
         }
     }
@@ -73,37 +95,38 @@ public class RowReorderChange implements Change {
         synchronized (project) {
             int count = project.rows.size();
 
-            List<Row> newRows = project.rows;
-            List<Row> oldRows = new ArrayList<Row>(count);
-
-            for (int r = 0; r < count; r++) {
-                oldRows.add(null);
+            int[] newIndices = new int[count];
+            for (int newIndex = 0; newIndex < count; newIndex++) {
+                newIndices[_rowIndices[newIndex]] = newIndex;
             }
 
-            for (int newIndex = 0; newIndex < count; newIndex++) {
-                int oldIndex = _rowIndices.get(newIndex);
-                Row row = newRows.get(newIndex);
-                oldRows.set(oldIndex, row);
+            List<Row> newRows = project.rows;
+            List<Row> oldRows = new RowBlockList();
+            for (int oldIndex = 0; oldIndex < count; oldIndex++) {
+                oldRows.add(newRows.get(newIndices[oldIndex]));
             }
 
             project.rows.clear();
             project.rows.addAll(oldRows);
+
+            project.columnModel.clearPrecomputes();
+
             project.update();
         }
     }
 
     @Override
     public void save(Writer writer, Properties options) throws IOException {
-        writer.write("rowIndexCount="); writer.write(Integer.toString(_rowIndices.size())); writer.write('\n');
-        for (Integer index : _rowIndices) {
-            writer.write(index.toString());
+        writer.write("rowIndexCount="); writer.write(Integer.toString(_rowIndices.length)); writer.write('\n');
+        for (int index : _rowIndices) {
+            writer.write(Integer.toString(index));
             writer.write('\n');
         }
         writer.write("/ec/\n"); // end of change marker
     }
     
     static public Change load(LineNumberReader reader, Pool pool) throws Exception {
-        List<Integer> rowIndices = null;
+        int[] rowIndices = null;
         
         String line;
         while ((line = reader.readLine()) != null && !"/ec/".equals(line)) {
@@ -113,11 +136,11 @@ public class RowReorderChange implements Change {
             if ("rowIndexCount".equals(field)) {
                 int count = Integer.parseInt(line.substring(equal + 1));
                 
-                rowIndices = new ArrayList<Integer>(count);
+                rowIndices = new int[count];
                 for (int i = 0; i < count; i++) {
                     line = reader.readLine();
                     if (line != null) {
-                        rowIndices.add(Integer.parseInt(line));
+                        rowIndices[i] = Integer.parseInt(line);
                     }
                 }
             }
@@ -127,4 +150,20 @@ public class RowReorderChange implements Change {
         
         return change;
     }
+    
+    @Override
+    public void saveBinary(BinaryCellOutput out) throws IOException {
+        out.writeVarInt(_rowIndices.length);
+        for (int index : _rowIndices) {
+            out.writeVarInt(index);
+        }
+    }
+    
+    static public Change loadBinary(BinaryCellInput in, Pool pool) throws Exception {
+        int[] rowIndices = new int[in.readVarInt()];
+        for (int i = 0; i < rowIndices.length; i++) {
+            rowIndices[i] = in.readVarInt();
+        }
+        return new RowReorderChange(rowIndices);
+    }
 }
@@ -38,12 +38,12 @@ import java.io.LineNumberReader;
 import java.io.Writer;
 import java.util.Properties;
 
-import com.google.refine.history.Change;
+import com.google.refine.history.RowScopedChange;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
 import com.google.refine.util.Pool;
 
-public class RowStarChange implements Change {
+public class RowStarChange implements RowScopedChange {
     final int rowIndex;
     final boolean newStarred;
     Boolean oldStarred = null;
@@ -57,18 +57,23 @@ public class RowStarChange implements Change {
     public void apply(Project project) {
         Row row = project.rows.get(rowIndex);
         if (oldStarred == null) {
-            oldStarred = row.starred;
+            oldStarred = row.isStarred();
         }
-        row.starred = newStarred;
+        row.setStarred(newStarred);
     }
 
     @Override
     public void revert(Project project) {
         Row row = project.rows.get(rowIndex);
         
-        row.starred = oldStarred;
+        row.setStarred(oldStarred);
     }
     
+    @Override
+    public int[] getModifiedRows() {
+        return new int[] { rowIndex };
+    }
+
     @Override
     public void save(Writer writer, Properties options) throws IOException {
         writer.write("row="); writer.write(Integer.toString(rowIndex)); writer.write('\n');
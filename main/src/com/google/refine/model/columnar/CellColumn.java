@@ -0,0 +1,298 @@
+package com.google.refine.model.columnar;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.refine.model.Cell;
+import com.google.refine.model.Recon;
+
+/**
+ * The values stored at one cell index for every row slot of a {@link ColumnarRowStore}.
+ *
+ * Each slot has a one-byte kind tag. Strings are dictionary-encoded into an int code,
+ * longs and doubles are stored as raw bits in a long array, and recon references are
+ * int ids into the store's recon table. The payload arrays are only allocated once a
+ * value of the corresponding kind is stored, so a purely numeric column never pays
+ * for string codes and vice versa.
+ *
+ * Dictionary codes are counted by the slots using them, and both codes and boxed
+ * objects are freed and reused once no slot holds them any more, so a column which is
+ * edited over and over does not keep every value it ever held. Cells without a recon
+ * are handed out shared: one per distinct string or object, and one for each of the
+ * boolean and null values. Shared cells are made as their values are stored, so that
+ * reading never modifies the column and concurrent scans need no locking.
+ */
+public class CellColumn {
+    static final byte ABSENT = 0;        // no cell at all
+    static final byte NULL_VALUE = 1;    // a cell whose value is null (typically one holding a recon)
+    static final byte STRING = 2;
+    static final byte LONG = 3;
+    static final byte DOUBLE = 4;
+    static final byte TRUE = 5;
+    static final byte FALSE = 6;
+    static final byte OBJECT = 7;        // dates, errors, Integers and anything else kept boxed
+
+    protected byte[]    _kinds;
+    protected int[]     _codes;
+    protected long[]    _numbers;
+    protected int[]     _reconIds;
+
+    final protected List<String>            _dictionary = new ArrayList<String>();
+    final protected Map<String, Integer>    _dictionaryCodes = new HashMap<String, Integer>();
+    final protected List<Serializable>      _objects = new ArrayList<Serializable>();
+
+    static final protected Cell NULL_CELL = new Cell(null, null);
+    static final protected Cell TRUE_CELL = new Cell(Boolean.TRUE, null);
+    static final protected Cell FALSE_CELL = new Cell(Boolean.FALSE, null);
+
+    final protected List<Cell>  _dictionaryCells = new ArrayList<Cell>(); // parallel to _dictionary
+    final protected List<Cell>  _objectCells = new ArrayList<Cell>();     // parallel to _objects
+    protected int[]             _codeRefs = new int[16];  // code -> number of slots holding it
+    protected int               _liveCodes;
+    protected int[]             _freeCodes = new int[0];
+    protected int               _freeCodeCount;
+    protected int[]             _freeObjects = new int[0];
+    protected int               _freeObjectCount;
+
+    public CellColumn(int capacity) {
+        _kinds = new byte[Math.max(capacity, 16)];
+    }
+
+    public int getCapacity() {
+        return _kinds.length;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > _kinds.length) {
+            int newCapacity = Math.max(capacity, _kinds.length + (_kinds.length >> 1));
+            _kinds = Arrays.copyOf(_kinds, newCapacity);
+            if (_codes != null) {
+                _codes = Arrays.copyOf(_codes, newCapacity);
+            }
+            if (_numbers != null) {
+                _numbers = Arrays.copyOf(_numbers, newCapacity);
+            }
+            if (_reconIds != null) {
+                _reconIds = Arrays.copyOf(_reconIds, newCapacity);
+            }
+        }
+    }
+
+    /**
+     * @return number of distinct strings held by the slots of this column
+     */
+    public int getDictionarySize() {
+        return _liveCodes;
+    }
+
+    /**
+     * @return number of boxed objects held by the slots of this column
+     */
+    public int getObjectCount() {
+        return _objects.size() - _freeObjectCount;
+    }
+
+    public boolean hasCell(int slot) {
+        return slot < _kinds.length && _kinds[slot] != ABSENT;
+    }
+
+    public Serializable getValue(int slot) {
+        if (slot >= _kinds.length) {
+            return null;
+        }
+        switch (_kinds[slot]) {
+        case STRING:
+            return _dictionary.get(_codes[slot]);
+        case LONG:
+            return _numbers[slot];
+        case DOUBLE:
+            return Double.longBitsToDouble(_numbers[slot]);
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        case OBJECT:
+            return _objects.get(_codes[slot]);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @param recon the recon of the cell, as looked up by the store from the slot's recon id
+     * @return the cell held in the slot, shared with other slots of the same value
+     *      if it has no recon, or null if the slot has no cell
+     */
+    public Cell getCell(int slot, Recon recon) {
+        if (slot >= _kinds.length || _kinds[slot] == ABSENT) {
+            return null;
+        }
+        if (recon != null) {
+            return new Cell(getValue(slot), recon);
+        }
+        switch (_kinds[slot]) {
+        case NULL_VALUE:
+            return NULL_CELL;
+        case STRING:
+            return _dictionaryCells.get(_codes[slot]);
+        case TRUE:
+            return TRUE_CELL;
+        case FALSE:
+            return FALSE_CELL;
+        case OBJECT:
+            return _objectCells.get(_codes[slot]);
+        default:
+            return new Cell(getValue(slot), null);
+        }
+    }
+
+    /**
+     * @return the recon id stored for this slot, or 0 if the cell has no recon
+     */
+    public int getReconId(int slot) {
+        return _reconIds != null && slot < _reconIds.length ? _reconIds[slot] : 0;
+    }
+
+    /**
+     * Store a cell into a slot.
+     *
+     * @param slot slot to overwrite, must be within capacity
+     * @param cell cell to store, or null to leave the slot without a cell
+     * @param reconId id of the cell's recon in the store's recon table, 0 for none
+     */
+    public void set(int slot, Cell cell, int reconId) {
+        byte oldKind = _kinds[slot];
+        int oldCode = (oldKind == STRING || oldKind == OBJECT) ? _codes[slot] : 0;
+
+        store(slot, cell, reconId);
+
+        // released after storing, so that a string stored again keeps its code
+        if (oldKind == STRING) {
+            releaseString(oldCode);
+        } else if (oldKind == OBJECT) {
+            releaseObject(oldCode);
+        }
+    }
+
+    protected void store(int slot, Cell cell, int reconId) {
+        if (cell == null) {
+            _kinds[slot] = ABSENT;
+            if (_reconIds != null) {
+                _reconIds[slot] = 0;
+            }
+            return;
+        }
+
+        Serializable value = cell.value;
+        if (value == null) {
+            _kinds[slot] = NULL_VALUE;
+        } else if (value instanceof String) {
+            _kinds[slot] = STRING;
+            codes()[slot] = encodeString((String) value);
+        } else if (value instanceof Long) {
+            _kinds[slot] = LONG;
+            numbers()[slot] = (Long) value;
+        } else if (value instanceof Double) {
+            _kinds[slot] = DOUBLE;
+            numbers()[slot] = Double.doubleToRawLongBits((Double) value);
+        } else if (value instanceof Boolean) {
+            _kinds[slot] = ((Boolean) value) ? TRUE : FALSE;
+        } else {
+            storeObject(slot, value);
+        }
+
+        if (reconId != 0) {
+            reconIds()[slot] = reconId;
+        } else if (_reconIds != null) {
+            _reconIds[slot] = 0;
+        }
+    }
+
+    protected void storeObject(int slot, Serializable value) {
+        int index;
+        if (_freeObjectCount > 0) {
+            index = _freeObjects[--_freeObjectCount];
+            _objects.set(index, value);
+            _objectCells.set(index, new Cell(value, null));
+        } else {
+            index = _objects.size();
+            _objects.add(value);
+            _objectCells.add(new Cell(value, null));
+        }
+        _kinds[slot] = OBJECT;
+        codes()[slot] = index;
+    }
+
+    protected void releaseObject(int index) {
+        _objects.set(index, null);
+        _objectCells.set(index, null);
+        if (_freeObjectCount == _freeObjects.length) {
+            _freeObjects = Arrays.copyOf(_freeObjects, Math.max(16, _freeObjectCount * 2));
+        }
+        _freeObjects[_freeObjectCount++] = index;
+    }
+
+    /**
+     * @return the code of the string, counted as held by one more slot
+     */
+    protected int encodeString(String s) {
+        Integer code = _dictionaryCodes.get(s);
+        if (code == null) {
+            if (_freeCodeCount > 0) {
+                code = _freeCodes[--_freeCodeCount];
+                _dictionary.set(code, s);
+                _dictionaryCells.set(code, new Cell(s, null));
+            } else {
+                code = _dictionary.size();
+                _dictionary.add(s);
+                _dictionaryCells.add(new Cell(s, null));
+                if (code == _codeRefs.length) {
+                    _codeRefs = Arrays.copyOf(_codeRefs, code + (code >> 1));
+                }
+            }
+            _dictionaryCodes.put(s, code);
+            _liveCodes++;
+        }
+        _codeRefs[code]++;
+        return code;
+    }
+
+    protected void releaseString(int code) {
+        if (--_codeRefs[code] > 0) {
+            return;
+        }
+        _dictionaryCodes.remove(_dictionary.get(code));
+        _dictionary.set(code, null);
+        _dictionaryCells.set(code, null);
+        if (_freeCodeCount == _freeCodes.length) {
+            _freeCodes = Arrays.copyOf(_freeCodes, Math.max(16, _freeCodeCount * 2));
+        }
+        _freeCodes[_freeCodeCount++] = code;
+        _liveCodes--;
+    }
+
+    protected int[] codes() {
+        if (_codes == null) {
+            _codes = new int[_kinds.length];
+        }
+        return _codes;
+    }
+
+    protected long[] numbers() {
+        if (_numbers == null) {
+            _numbers = new long[_kinds.length];
+        }
+        return _numbers;
+    }
+
+    protected int[] reconIds() {
+        if (_reconIds == null) {
+            _reconIds = new int[_kinds.length];
+        }
+        return _reconIds;
+    }
+}
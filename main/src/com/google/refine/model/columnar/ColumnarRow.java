@@ -0,0 +1,110 @@
+package com.google.refine.model.columnar;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import com.google.refine.model.Cell;
+import com.google.refine.model.Row;
+
+/**
+ * A {@link Row} view onto one slot of a {@link ColumnarRowStore}. Cells are decoded
+ * on access and writes go through to the store, so the view can be handed to any code
+ * written against plain rows. The flag and star are read from the store too; the
+ * inherited fields only mirror them for code still reading the fields directly.
+ */
+public class ColumnarRow extends Row {
+    final ColumnarRowStore  store;
+    final int               slot;
+
+    ColumnarRow(ColumnarRowStore store, int slot) {
+        super(new CellList(store, slot), store.isSlotFlagged(slot), store.isSlotStarred(slot));
+        this.store = store;
+        this.slot = slot;
+    }
+
+    @Override
+    public Cell getCell(int cellIndex) {
+        return store.getSlotCell(slot, cellIndex);
+    }
+
+    @Override
+    public Object getCellValue(int cellIndex) {
+        return store.getSlotCellValue(slot, cellIndex);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        int count = store.getSlotCellCount(slot);
+        for (int c = 0; c < count; c++) {
+            if (!isValueBlank(store.getSlotCellValue(slot, c))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isFlagged() {
+        return store.isSlotFlagged(slot);
+    }
+
+    @Override
+    public boolean isStarred() {
+        return store.isSlotStarred(slot);
+    }
+
+    @Override
+    public void setFlagged(boolean flagged) {
+        super.setFlagged(flagged);
+        store.setSlotFlagged(slot, flagged);
+    }
+
+    @Override
+    public void setStarred(boolean starred) {
+        super.setStarred(starred);
+        store.setSlotStarred(slot, starred);
+    }
+
+    static protected class CellList extends AbstractList<Cell> implements RandomAccess {
+        final ColumnarRowStore  store;
+        final int               slot;
+
+        CellList(ColumnarRowStore store, int slot) {
+            this.store = store;
+            this.slot = slot;
+        }
+
+        @Override
+        public int size() {
+            return store.getSlotCellCount(slot);
+        }
+
+        @Override
+        public Cell get(int index) {
+            checkIndex(index);
+            return store.getSlotCell(slot, index);
+        }
+
+        @Override
+        public Cell set(int index, Cell cell) {
+            Cell old = get(index);
+            store.setSlotCell(slot, index, cell);
+            return old;
+        }
+
+        @Override
+        public void add(int index, Cell cell) {
+            if (index != size()) {
+                throw new UnsupportedOperationException("Cells can only be appended to a columnar row");
+            }
+            store.appendSlotCell(slot, cell);
+            modCount++;
+        }
+
+        protected void checkIndex(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+        }
+    }
+}
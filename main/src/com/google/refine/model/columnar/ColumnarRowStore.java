@@ -0,0 +1,403 @@
+package com.google.refine.model.columnar;
+
+import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.refine.model.Cell;
+import com.google.refine.model.Recon;
+import com.google.refine.model.Row;
+
+/**
+ * A column-oriented alternative to the plain {@code ArrayList<Row>} holding a project's rows.
+ *
+ * Row contents are kept in one {@link CellColumn} per cell index, addressed by a row
+ * slot. The list itself is only an {@code int[]} mapping each row index to its slot, so
+ * reordering, removing and re-adding rows never copies cell data. {@link #get(int)}
+ * returns the {@link ColumnarRow} view bound to the row's slot; reads and writes through
+ * that view (cells, flag, star) go straight to the columns, which are the only record
+ * of a row's contents. Each slot has at most one view at a time, so views are not made
+ * again on every access, and {@link #scanColumn} reads a column without any view.
+ *
+ * Views of removed rows are retained by history entries and must stay valid for undo,
+ * so a slot is only reused once it is out of the list and its view, if one was made,
+ * has been garbage collected. Views are tracked through weak references for that.
+ *
+ * Recons are stored as ids into a table counting the cells holding each of them, so
+ * a recon no cell holds any more is dropped from the table. Reading rows never
+ * modifies the store other than to set a slot's view atomically, so rows can be read
+ * from several threads at once as long as nothing writes to the store meanwhile.
+ */
+public class ColumnarRowStore extends AbstractList<Row> implements RandomAccess {
+    protected int[]         _order = new int[16];  // row index -> slot
+    protected int           _size;
+
+    protected int           _slotCount;
+    protected int[]         _cellCounts = new int[16]; // slot -> size of the row's cell list
+    protected CellColumn[]  _columns = new CellColumn[0];
+    final protected BitSet  _flagged = new BitSet();
+    final protected BitSet  _starred = new BitSet();
+
+    protected int[]         _slotRefs = new int[16];  // slot -> number of row indices holding it
+    protected AtomicReferenceArray<ViewReference> _views = new AtomicReferenceArray<ViewReference>(16);
+    protected int[]         _freeSlots = new int[0];
+    protected int           _freeSlotCount;
+    final protected ReferenceQueue<ColumnarRow> _collectedViews = new ReferenceQueue<ColumnarRow>();
+
+    final protected List<Recon>                 _recons = new ArrayList<Recon>();
+    final protected Map<Recon, Integer>         _reconIds = new IdentityHashMap<Recon, Integer>();
+    protected int[]                             _reconRefs = new int[16]; // recon id -> number of cells holding it
+    protected int[]                             _freeReconIds = new int[0];
+    protected int                               _freeReconIdCount;
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Receives the values of a column, in row order.
+     */
+    public interface CellValueVisitor {
+        /**
+         * @param rowIndex zero-based row index
+         * @param value value of the row's cell, or null if it has none
+         * @return true to abort the scan early
+         */
+        public boolean visit(int rowIndex, Serializable value);
+    }
+
+    static protected class ViewReference extends WeakReference<ColumnarRow> {
+        final int slot;
+
+        ViewReference(ColumnarRow view, ReferenceQueue<ColumnarRow> queue) {
+            super(view, queue);
+            this.slot = view.slot;
+        }
+    }
+
+    @Override
+    public Row get(int index) {
+        return getView(_order[checkIndex(index)]);
+    }
+
+    @Override
+    public Row set(int index, Row row) {
+        Row old = get(index);
+        int slot = slotOf(row);
+        _slotRefs[slot]++;
+        releaseRef(_order[index]);
+        _order[index] = slot;
+        return old;
+    }
+
+    @Override
+    public void add(int index, Row row) {
+        if (index < 0 || index > _size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+        }
+        int slot = slotOf(row);
+        _slotRefs[slot]++;
+        if (_size == _order.length) {
+            _order = Arrays.copyOf(_order, _order.length + (_order.length >> 1));
+        }
+        System.arraycopy(_order, index, _order, index + 1, _size - index);
+        _order[index] = slot;
+        _size++;
+        modCount++;
+    }
+
+    @Override
+    public Row remove(int index) {
+        Row old = get(index);
+        int slot = _order[index];
+        System.arraycopy(_order, index + 1, _order, index, _size - index - 1);
+        _size--;
+        releaseRef(slot);
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < _size; i++) {
+            releaseRef(_order[i]);
+        }
+        _size = 0;
+        modCount++;
+    }
+
+    /**
+     * @return number of row slots allocated so far, including those of rows
+     *         no longer in the list
+     */
+    public int getSlotCount() {
+        return _slotCount;
+    }
+
+    /**
+     * @return number of allocated slots free to be reused
+     */
+    public int getFreeSlotCount() {
+        pollCollectedViews();
+        return _freeSlotCount;
+    }
+
+    /**
+     * Visit the values of one column in row order, without making any row or cell.
+     */
+    public void scanColumn(int cellIndex, CellValueVisitor visitor) {
+        CellColumn column = getColumn(cellIndex);
+        for (int r = 0; r < _size; r++) {
+            int slot = _order[r];
+            Serializable value = column != null && cellIndex < _cellCounts[slot] ? column.getValue(slot) : null;
+            if (visitor.visit(r, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param cellIndex cell index of a column
+     * @return the column storage for that cell index, or null if no cell was ever stored there
+     */
+    public CellColumn getColumn(int cellIndex) {
+        return cellIndex >= 0 && cellIndex < _columns.length ? _columns[cellIndex] : null;
+    }
+
+    /**
+     * Read a cell value without materializing the row or the cell.
+     */
+    public Serializable getCellValue(int rowIndex, int cellIndex) {
+        return getSlotCellValue(_order[checkIndex(rowIndex)], cellIndex);
+    }
+
+    protected int checkIndex(int index) {
+        if (index < 0 || index >= _size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+        }
+        return index;
+    }
+
+    protected ColumnarRow getView(int slot) {
+        AtomicReferenceArray<ViewReference> views = _views;
+        while (true) {
+            ViewReference ref = views.get(slot);
+            ColumnarRow view = ref != null ? ref.get() : null;
+            if (view != null) {
+                return view;
+            }
+            // another thread may be making the same view: keep whichever is set first
+            view = new ColumnarRow(this, slot);
+            if (views.compareAndSet(slot, ref, new ViewReference(view, _collectedViews))) {
+                return view;
+            }
+        }
+    }
+
+    /**
+     * @return number of distinct recons held by the cells of the store, including
+     *         those of rows out of the list but still retained
+     */
+    public int getReconCount() {
+        return _reconIds.size();
+    }
+
+    protected int slotOf(Row row) {
+        if (row instanceof ColumnarRow && ((ColumnarRow) row).store == this) {
+            return ((ColumnarRow) row).slot;
+        }
+
+        int slot = allocateSlot();
+        int cellCount = row.cells.size();
+        for (int c = 0; c < cellCount; c++) {
+            Cell cell = row.cells.get(c);
+            if (cell != null) {
+                setSlotCell(slot, c, cell);
+            }
+        }
+        _cellCounts[slot] = cellCount;
+        _flagged.set(slot, row.isFlagged());
+        _starred.set(slot, row.isStarred());
+        return slot;
+    }
+
+    protected int allocateSlot() {
+        pollCollectedViews();
+        if (_freeSlotCount > 0) {
+            return _freeSlots[--_freeSlotCount];
+        }
+        int slot = _slotCount++;
+        if (slot == _cellCounts.length) {
+            int capacity = _cellCounts.length + (_cellCounts.length >> 1);
+            _cellCounts = Arrays.copyOf(_cellCounts, capacity);
+            _slotRefs = Arrays.copyOf(_slotRefs, capacity);
+            AtomicReferenceArray<ViewReference> views = new AtomicReferenceArray<ViewReference>(capacity);
+            for (int i = 0; i < slot; i++) {
+                views.set(i, _views.get(i));
+            }
+            _views = views;
+        }
+        return slot;
+    }
+
+    protected void releaseRef(int slot) {
+        if (--_slotRefs[slot] == 0) {
+            ViewReference ref = _views.get(slot);
+            if (ref == null || ref.get() == null) {
+                freeSlot(slot);
+            }
+        }
+    }
+
+    /**
+     * Free the slots of rows out of the list whose views have been collected since.
+     */
+    protected void pollCollectedViews() {
+        ViewReference ref;
+        while ((ref = (ViewReference) _collectedViews.poll()) != null) {
+            // the slot may have been freed and given another view already
+            if (_views.get(ref.slot) == ref) {
+                _views.set(ref.slot, null);
+                if (_slotRefs[ref.slot] == 0) {
+                    freeSlot(ref.slot);
+                }
+            }
+        }
+    }
+
+    protected void freeSlot(int slot) {
+        int cellCount = Math.min(_cellCounts[slot], _columns.length);
+        for (int c = 0; c < cellCount; c++) {
+            if (_columns[c] != null) {
+                setSlotCell(slot, c, null);
+            }
+        }
+        _cellCounts[slot] = 0;
+        _flagged.clear(slot);
+        _starred.clear(slot);
+        _views.set(slot, null);
+
+        if (_freeSlotCount == _freeSlots.length) {
+            _freeSlots = Arrays.copyOf(_freeSlots, Math.max(16, _freeSlotCount * 2));
+        }
+        _freeSlots[_freeSlotCount++] = slot;
+    }
+
+    /*
+     * Slot-level accessors used by ColumnarRow views.
+     */
+
+    int getSlotCellCount(int slot) {
+        return _cellCounts[slot];
+    }
+
+    boolean isSlotFlagged(int slot) {
+        return _flagged.get(slot);
+    }
+
+    boolean isSlotStarred(int slot) {
+        return _starred.get(slot);
+    }
+
+    void setSlotFlagged(int slot, boolean flagged) {
+        _flagged.set(slot, flagged);
+    }
+
+    void setSlotStarred(int slot, boolean starred) {
+        _starred.set(slot, starred);
+    }
+
+    Serializable getSlotCellValue(int slot, int cellIndex) {
+        if (cellIndex < 0 || cellIndex >= _cellCounts[slot] || cellIndex >= _columns.length) {
+            return null;
+        }
+        CellColumn column = _columns[cellIndex];
+        return column == null ? null : column.getValue(slot);
+    }
+
+    Cell getSlotCell(int slot, int cellIndex) {
+        if (cellIndex < 0 || cellIndex >= _cellCounts[slot] || cellIndex >= _columns.length) {
+            return null;
+        }
+        CellColumn column = _columns[cellIndex];
+        if (column == null || !column.hasCell(slot)) {
+            return null;
+        }
+        int reconId = column.getReconId(slot);
+        return column.getCell(slot, reconId == 0 ? null : _recons.get(reconId - 1));
+    }
+
+    void setSlotCell(int slot, int cellIndex, Cell cell) {
+        CellColumn column = cellIndex < _columns.length ? _columns[cellIndex] : null;
+        if (column == null) {
+            if (cell == null) {
+                return;
+            }
+            if (cellIndex >= _columns.length) {
+                _columns = Arrays.copyOf(_columns, cellIndex + 1);
+            }
+            column = new CellColumn(_cellCounts.length);
+            _columns[cellIndex] = column;
+        }
+        column.ensureCapacity(_cellCounts.length);
+        int oldReconId = column.getReconId(slot);
+        column.set(slot, cell, cell == null ? 0 : reconIdOf(cell.recon));
+        // released after storing, so that a recon stored again keeps its id
+        if (oldReconId != 0) {
+            releaseRecon(oldReconId);
+        }
+    }
+
+    void appendSlotCell(int slot, Cell cell) {
+        int cellIndex = _cellCounts[slot];
+        _cellCounts[slot] = cellIndex + 1;
+        setSlotCell(slot, cellIndex, cell);
+    }
+
+    /**
+     * @return the id of the recon, counted as held by one more cell
+     */
+    protected int reconIdOf(Recon recon) {
+        if (recon == null) {
+            return 0;
+        }
+        Integer id = _reconIds.get(recon);
+        if (id == null) {
+            if (_freeReconIdCount > 0) {
+                id = _freeReconIds[--_freeReconIdCount];
+                _recons.set(id - 1, recon);
+            } else {
+                _recons.add(recon);
+                id = _recons.size();
+                if (id == _reconRefs.length) {
+                    _reconRefs = Arrays.copyOf(_reconRefs, id + (id >> 1));
+                }
+            }
+            _reconIds.put(recon, id);
+        }
+        _reconRefs[id]++;
+        return id;
+    }
+
+    protected void releaseRecon(int id) {
+        if (--_reconRefs[id] > 0) {
+            return;
+        }
+        _reconIds.remove(_recons.get(id - 1));
+        _recons.set(id - 1, null);
+        if (_freeReconIdCount == _freeReconIds.length) {
+            _freeReconIds = Arrays.copyOf(_freeReconIds, Math.max(16, _freeReconIdCount * 2));
+        }
+        _freeReconIds[_freeReconIdCount++] = id;
+    }
+}
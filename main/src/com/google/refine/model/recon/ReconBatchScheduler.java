@@ -0,0 +1,290 @@
+package com.google.refine.model.recon;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.model.Recon;
+import com.google.refine.preference.PreferenceStore;
+
+/**
+ * Sends reconciliation jobs to a {@link ReconConfig} in batches. When the config
+ * allows it and the "recon.concurrency" preference asks for it, several batches are
+ * kept in flight at once rather than waiting for each batch before sending the next.
+ *
+ * Batches start at the config's batch size. They grow while complete batches come
+ * back in less than half of {@link #TARGET_BATCH_MILLIS}, up to the config's maximum
+ * batch size, and shrink when a batch is slower than that target or fails. Jobs that
+ * get no recon are sent again in a later batch, up to {@link #MAX_TRIALS} times. After
+ * a batch fails as a whole, nothing is sent for a delay which doubles with each
+ * failure in a row, so that a failing service is not flooded with retries, and after
+ * {@link #MAX_FAILURES_IN_A_ROW} such failures the remaining jobs are given up on.
+ * Recons are returned in the order of the jobs, whatever order the batches complete in.
+ */
+public class ReconBatchScheduler {
+    final static Logger logger = LoggerFactory.getLogger("recon-batch-scheduler");
+
+    /**
+     * Preference holding the number of batches sent at once to services that
+     * allow it.
+     */
+    static final public String CONCURRENCY_PREFERENCE = "recon.concurrency";
+    static final public int DEFAULT_CONCURRENCY = 1;
+
+    static final public long TARGET_BATCH_MILLIS = 2000;
+    static final public int MAX_TRIALS = 3;
+
+    static final public long BACKOFF_MILLIS = 1000;
+    static final public long MAX_BACKOFF_MILLIS = 30000;
+    static final public int MAX_FAILURES_IN_A_ROW = 5;
+
+    // how long to wait at most before checking whether the listener canceled
+    static final protected long POLL_MILLIS = 200;
+
+    static private ExecutorService s_executor;
+
+    /**
+     * Lets the caller follow progress and stop the scheduler.
+     */
+    public interface Listener {
+        public void onProgress(int done, int total);
+
+        public boolean isCanceled();
+    }
+
+    static protected class Batch {
+        final int[]     jobIndices;
+        List<Recon>     recons;
+        long            elapsedMillis;
+        boolean         failed;     // no job got a recon
+        boolean         incomplete; // some job got no recon
+
+        Batch(int[] jobIndices) {
+            this.jobIndices = jobIndices;
+        }
+    }
+
+    final protected ReconConfig _config;
+    final protected long        _historyEntryID;
+    final protected int         _concurrency;
+    final protected int         _maxBatchSize;
+    protected int               _batchSize;
+    protected long              _backoffMillis = BACKOFF_MILLIS;
+    protected int               _failuresInARow;
+    protected long              _resumeAt;
+
+    public ReconBatchScheduler(ReconConfig config, long historyEntryID) {
+        this(config, historyEntryID, config.isBatchReconConcurrent() ? getDefaultConcurrency() : 1);
+    }
+
+    public ReconBatchScheduler(ReconConfig config, long historyEntryID, int concurrency) {
+        _config = config;
+        _historyEntryID = historyEntryID;
+        _concurrency = Math.max(1, concurrency);
+        _batchSize = Math.max(1, config.getBatchSize());
+        _maxBatchSize = Math.max(_batchSize, config.getMaxBatchSize());
+    }
+
+    static public int getDefaultConcurrency() {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        Object v = ps != null ? ps.get(CONCURRENCY_PREFERENCE) : null;
+        if (v != null) {
+            try {
+                return Math.max(1, Integer.parseInt(v.toString()));
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        return DEFAULT_CONCURRENCY;
+    }
+
+    /**
+     * Set the delay to wait after a first failed batch, doubled after each further one.
+     */
+    public void setBackoffMillis(long backoffMillis) {
+        _backoffMillis = backoffMillis;
+    }
+
+    /**
+     * @return the current batch size, which adapts to how fast batches come back
+     */
+    public int getBatchSize() {
+        return _batchSize;
+    }
+
+    /**
+     * Reconcile the given jobs.
+     *
+     * @return the recon of each job, null for jobs which got none after all trials or
+     *      were given up on, or null if the listener canceled the scheduler
+     */
+    public Recon[] reconcile(List<ReconJob> jobs, Listener listener) throws InterruptedException {
+        int total = jobs.size();
+        Recon[] recons = new Recon[total];
+        int[] trials = new int[total];
+
+        Deque<Integer> pending = new ArrayDeque<Integer>(total);
+        for (int i = 0; i < total; i++) {
+            pending.add(i);
+        }
+
+        CompletionService<Batch> completion = new ExecutorCompletionService<Batch>(getExecutor());
+        List<Future<Batch>> inFlight = new ArrayList<Future<Batch>>(_concurrency);
+        int done = 0;
+        try {
+            while (!pending.isEmpty() || !inFlight.isEmpty()) {
+                if (listener.isCanceled()) {
+                    return null;
+                }
+
+                long wait = _resumeAt - System.currentTimeMillis();
+                if (wait <= 0) {
+                    while (inFlight.size() < _concurrency && !pending.isEmpty()) {
+                        int[] jobIndices = new int[Math.min(_batchSize, pending.size())];
+                        for (int i = 0; i < jobIndices.length; i++) {
+                            jobIndices[i] = pending.poll();
+                        }
+                        inFlight.add(completion.submit(createTask(jobs, new Batch(jobIndices))));
+                    }
+                }
+
+                Future<Batch> future = completion.poll(
+                        wait > 0 ? Math.min(wait, POLL_MILLIS) : POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    continue;
+                }
+                inFlight.remove(future);
+                Batch batch = getBatch(future);
+
+                adaptBatchSize(batch);
+                backOff(batch);
+                if (_failuresInARow >= MAX_FAILURES_IN_A_ROW) {
+                    logger.error("Giving up after " + _failuresInARow + " failed batches in a row, "
+                            + (total - done) + " of " + total + " jobs are left without a recon");
+                    listener.onProgress(total, total);
+                    return recons;
+                }
+                for (int j = 0; j < batch.jobIndices.length; j++) {
+                    int index = batch.jobIndices[j];
+                    Recon recon = batch.recons != null && j < batch.recons.size() ? batch.recons.get(j) : null;
+                    if (recon == null) {
+                        trials[index]++;
+                        if (trials[index] < MAX_TRIALS) {
+                            logger.warn("Re-trying job " + index + " of " + total);
+                            pending.add(index);
+                            continue;
+                        }
+                        logger.warn("Failed after " + MAX_TRIALS + " trials for job " + index + " of " + total);
+                    }
+                    recons[index] = recon;
+                    done++;
+                }
+                listener.onProgress(done, total);
+            }
+        } finally {
+            for (Future<Batch> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+        return recons;
+    }
+
+    protected Callable<Batch> createTask(final List<ReconJob> jobs, final Batch batch) {
+        return new Callable<Batch>() {
+            @Override
+            public Batch call() throws Exception {
+                List<ReconJob> batchJobs = new ArrayList<ReconJob>(batch.jobIndices.length);
+                for (int index : batch.jobIndices) {
+                    batchJobs.add(jobs.get(index));
+                }
+
+                long start = System.currentTimeMillis();
+                try {
+                    batch.recons = _config.batchRecon(batchJobs, _historyEntryID);
+                } catch (RuntimeException e) {
+                    logger.error("Failed to reconcile a batch of " + batchJobs.size() + " jobs", e);
+                }
+                batch.elapsedMillis = System.currentTimeMillis() - start;
+
+                int answered = 0;
+                for (int j = 0; batch.recons != null && j < batch.recons.size() && j < batchJobs.size(); j++) {
+                    if (batch.recons.get(j) != null) {
+                        answered++;
+                    }
+                }
+                batch.failed = answered == 0;
+                batch.incomplete = answered < batchJobs.size();
+                return batch;
+            }
+        };
+    }
+
+    protected Batch getBatch(Future<Batch> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // the task catches what batchRecon throws, so this is unexpected
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Grow batches by a quarter while they are answered in full in less than half the
+     * target time, and halve them when they take longer than the target or fail.
+     */
+    protected void adaptBatchSize(Batch batch) {
+        if (batch.failed || batch.elapsedMillis > TARGET_BATCH_MILLIS) {
+            _batchSize = Math.max(1, _batchSize / 2);
+        } else if (!batch.incomplete && batch.elapsedMillis < TARGET_BATCH_MILLIS / 2 &&
+                batch.jobIndices.length >= _batchSize) {
+            _batchSize = Math.min(_maxBatchSize, _batchSize + Math.max(1, _batchSize / 4));
+        }
+    }
+
+    /**
+     * Hold back further batches after a failed one, for twice as long after each
+     * failure in a row.
+     */
+    protected void backOff(Batch batch) {
+        if (!batch.failed) {
+            _failuresInARow = 0;
+            return;
+        }
+        _failuresInARow++;
+        long delay = Math.min(MAX_BACKOFF_MILLIS, _backoffMillis << Math.min(_failuresInARow - 1, 16));
+        logger.warn("Batch of " + batch.jobIndices.length + " jobs failed, waiting " + delay + " ms");
+        _resumeAt = System.currentTimeMillis() + delay;
+    }
+
+    static synchronized protected ExecutorService getExecutor() {
+        if (s_executor == null) {
+            s_executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                final AtomicInteger _count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "recon-batch-" + _count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return s_executor;
+    }
+}
@@ -0,0 +1,57 @@
+package com.google.refine.model.recon;
+
+import java.io.File;
+
+import com.google.refine.io.WorkspaceCache;
+
+/**
+ * Results of reconciliation queries, kept in the workspace so that reconciling the
+ * same values against the same service again, in any project, does not query the
+ * service.
+ *
+ * Entries map a query, qualified by the service and its identifier and schema spaces,
+ * to the candidates the service returned for it, as a JSON array.
+ */
+public class ReconCache extends WorkspaceCache {
+    static final public String FILE_NAME = "recon-cache.txt";
+
+    /**
+     * Preference holding the number of entries kept; 0 turns the cache off.
+     */
+    static final public String MAX_ENTRIES_PREFERENCE = "recon.cache.maxEntries";
+    static final public int DEFAULT_MAX_ENTRIES = 200000;
+
+    /**
+     * Preference holding the number of hours after which entries expire.
+     */
+    static final public String TTL_PREFERENCE = "recon.cache.ttlHours";
+    static final public int DEFAULT_TTL_HOURS = 24 * 7;
+
+    static private ReconCache s_instance;
+
+    /**
+     * @return the cache of the current workspace, or null if there is none or the
+     *      cache is turned off
+     */
+    static synchronized public ReconCache getInstance() {
+        File file = getWorkspaceFile(FILE_NAME);
+        int maxEntries = getPreference(MAX_ENTRIES_PREFERENCE, DEFAULT_MAX_ENTRIES);
+        if (file == null || maxEntries <= 0) {
+            return null;
+        }
+
+        long ttlMillis = getPreference(TTL_PREFERENCE, DEFAULT_TTL_HOURS) * 3600L * 1000L;
+        if (s_instance == null || !s_instance.isConfiguredAs(file, maxEntries, ttlMillis)) {
+            s_instance = new ReconCache(file, maxEntries, ttlMillis);
+        }
+        return s_instance;
+    }
+
+    static public String makeKey(String service, String identifierSpace, String schemaSpace, String query) {
+        return service + " " + identifierSpace + " " + schemaSpace + " " + query;
+    }
+
+    public ReconCache(File file, int maxEntries, long ttlMillis) {
+        super(file, maxEntries, ttlMillis);
+    }
+}
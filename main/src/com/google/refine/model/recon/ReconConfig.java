@@ -108,6 +108,22 @@ abstract public class ReconConfig implements Jsonizable {
     
     abstract public int getBatchSize();
     
+    /**
+     * Batches start at {@link #getBatchSize()} jobs and grow while the service
+     * answers quickly, up to this size.
+     */
+    public int getMaxBatchSize() {
+        return getBatchSize();
+    }
+    
+    /**
+     * @return true if {@link #batchRecon(List, long)} may be called for several
+     *      batches at once, from different threads
+     */
+    public boolean isBatchReconConcurrent() {
+        return false;
+    }
+    
     abstract public String getBriefDescription(Project project, String columnName);
     
     abstract public ReconJob createJob(
@@ -118,6 +134,11 @@ abstract public class ReconConfig implements Jsonizable {
         Cell        cell
     );
     
+    /**
+     * @return the recon of each job, in the order of the jobs, with null for jobs
+     *      which failed, for instance because the service could not be reached or
+     *      answered with an error, so that callers can retry them
+     */
     abstract public List<Recon> batchRecon(List<ReconJob> jobs, long historyEntryID);
     
     abstract public Recon createNewRecon(long historyEntryID);
@@ -41,10 +41,13 @@ import java.net.URL;
 import java.time.ZoneId;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -56,6 +59,7 @@ import org.json.JSONWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.refine.ProjectManager;
 import com.google.refine.expr.ExpressionUtils;
 import com.google.refine.model.Cell;
 import com.google.refine.model.Project;
@@ -64,10 +68,14 @@ import com.google.refine.model.Recon.Judgment;
 import com.google.refine.model.ReconCandidate;
 import com.google.refine.model.RecordModel.RowDependency;
 import com.google.refine.model.Row;
+import com.google.refine.preference.PreferenceStore;
 import com.google.refine.util.ParsingUtilities;
 
 public class StandardReconConfig extends ReconConfig {
     final static Logger logger = LoggerFactory.getLogger("refine-standard-recon");
+
+    static final public String MAX_BATCH_SIZE_PREFERENCE = "recon.maxBatchSize";
+    static final public int DEFAULT_MAX_BATCH_SIZE = 10; // batches only grow if raised
     
     static public class ColumnDetail {
         final public String columnName;
@@ -230,6 +238,30 @@ public class StandardReconConfig extends ReconConfig {
         return 10;
     }
 
+    /**
+     * Controlled by the "recon.maxBatchSize" preference. By default batches keep
+     * their initial size, so the traffic sent to services only changes when asked.
+     */
+    @Override
+    public int getMaxBatchSize() {
+        PreferenceStore ps = ProjectManager.singleton != null ?
+                ProjectManager.singleton.getPreferenceStore() : null;
+        Object v = ps != null ? ps.get(MAX_BATCH_SIZE_PREFERENCE) : null;
+        if (v != null) {
+            try {
+                return Math.max(getBatchSize(), Integer.parseInt(v.toString()));
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        return DEFAULT_MAX_BATCH_SIZE;
+    }
+
+    @Override
+    public boolean isBatchReconConcurrent() {
+        return true;
+    }
+
     @Override
     public String getBriefDescription(Project project, String columnName) {
         return "Reconcile cells in column " + columnName + " to type " + typeID;
@@ -341,24 +373,53 @@ public class StandardReconConfig extends ReconConfig {
         return job;
     }
     
+    /**
+     * @return the cache of query results consulted before querying the service, or null
+     */
+    protected ReconCache getCache() {
+        return ReconCache.getInstance();
+    }
+    
     @Override
     public List<Recon> batchRecon(List<ReconJob> jobs, long historyEntryID) {
-        List<Recon> recons = new ArrayList<Recon>(jobs.size());
+        Recon[] recons = new Recon[jobs.size()];
+        
+        ReconCache cache = getCache();
+        List<Integer> queried = new ArrayList<Integer>(jobs.size());
+        for (int i = 0; i < jobs.size(); i++) {
+            StandardReconJob job = (StandardReconJob) jobs.get(i);
+            String cached = cache != null ?
+                    cache.get(ReconCache.makeKey(service, identifierSpace, schemaSpace, job.code)) : null;
+            if (cached != null) {
+                try {
+                    recons[i] = createReconServiceResults(job.text, new JSONArray(cached), historyEntryID);
+                    recons[i].service = service;
+                    continue;
+                } catch (JSONException e) {
+                    // query the service instead
+                }
+            }
+            queried.add(i);
+        }
+        if (queried.isEmpty()) {
+            return Arrays.asList(recons);
+        }
         
         StringWriter stringWriter = new StringWriter();
         
         stringWriter.write("{");
-        for (int i = 0; i < jobs.size(); i++) {
-            StandardReconJob job = (StandardReconJob) jobs.get(i);
-            if (i > 0) {
+        for (int q = 0; q < queried.size(); q++) {
+            StandardReconJob job = (StandardReconJob) jobs.get(queried.get(q));
+            if (q > 0) {
                 stringWriter.write(",");
             }
-            stringWriter.write("\"q" + i + "\":");
+            stringWriter.write("\"q" + q + "\":");
             stringWriter.write(job.code);
         }
         stringWriter.write("}");
         String queriesString = stringWriter.toString();
         
+        Map<String, String> newResults = new HashMap<String, String>();
         try {
             URL url = new URL(service);
             HttpURLConnection connection = (HttpURLConnection) url.openConnection();
@@ -381,29 +442,41 @@ public class StandardReconConfig extends ReconConfig {
             }
             
             if (connection.getResponseCode() >= 400) {
+                // reading the error fully lets the connection be kept alive for the next batch
                 InputStream is = connection.getErrorStream();
+                String message = "";
+                if (is != null) {
+                    try {
+                        message = ParsingUtilities.inputStreamToString(is);
+                    } finally {
+                        is.close();
+                    }
+                }
                 logger.error("Failed  - code:" 
                         + Integer.toString(connection.getResponseCode()) 
-                        + " message: " + is == null ? ""
-                                : ParsingUtilities.inputStreamToString(is));
+                        + " message: " + message);
             } else {
                 InputStream is = connection.getInputStream();
                 try {
                     String s = ParsingUtilities.inputStreamToString(is);
                     JSONObject o = ParsingUtilities.evaluateJsonStringToObject(s);
 
-                    for (int i = 0; i < jobs.size(); i++) {
+                    for (int q = 0; q < queried.size(); q++) {
+                        int i = queried.get(q);
                         StandardReconJob job = (StandardReconJob) jobs.get(i);
                         Recon recon = null;
 
                         String text = job.text;
-                        String key = "q" + i;
+                        String key = "q" + q;
                         if (o.has(key)) {
                             JSONObject o2 = o.getJSONObject(key);
                             if (o2.has("result")) {
                                 JSONArray results = o2.getJSONArray("result");
 
                                 recon = createReconServiceResults(text, results, historyEntryID);
+                                newResults.put(
+                                    ReconCache.makeKey(service, identifierSpace, schemaSpace, job.code),
+                                    results.toString());
                             } else {
                                 logger.warn("Service error for text: " + text + "\n  Job code: " + job.code + "\n  Response: " + o2.toString());
                             }
@@ -414,7 +487,7 @@ public class StandardReconConfig extends ReconConfig {
                         if (recon != null) {
                             recon.service = service;
                         }
-                        recons.add(recon);
+                        recons[i] = recon;
                     }
                 } finally {
                     is.close();
@@ -423,17 +496,13 @@ public class StandardReconConfig extends ReconConfig {
         } catch (Exception e) {
             logger.error("Failed to batch recon with load:\n" + queriesString, e);
         }
-
-        while (recons.size() < jobs.size()) {
-            Recon recon = new Recon(historyEntryID, identifierSpace, schemaSpace);
-            recon.service = service;
-            recon.identifierSpace = identifierSpace;
-            recon.schemaSpace = schemaSpace;
-
-            recons.add(recon);
-        }
         
-        return recons;
+        if (cache != null) {
+            cache.putAll(newResults);
+        }
+
+        // jobs left without a recon failed, and are retried by the caller
+        return Arrays.asList(recons);
     }
     
     @Override
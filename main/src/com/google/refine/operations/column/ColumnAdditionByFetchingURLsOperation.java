@@ -33,20 +33,12 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.google.refine.operations.column;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.io.Serializable;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Properties;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.ExecutionException;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -77,10 +69,6 @@ import com.google.refine.operations.OperationRegistry;
 import com.google.refine.operations.cell.TextTransformOperation;
 import com.google.refine.process.LongRunningProcess;
 import com.google.refine.process.Process;
-import com.google.refine.util.ParsingUtilities;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.LoadingCache;
-import com.google.common.cache.CacheLoader;
 
 
 public class ColumnAdditionByFetchingURLsOperation extends EngineDependentOperation {
@@ -92,6 +80,7 @@ public class ColumnAdditionByFetchingURLsOperation extends EngineDependentOperat
     final protected int        _columnInsertIndex;
     final protected int        _delay;
     final protected boolean    _cacheResponses;
+    final protected boolean    _persistResponses;
     final protected JSONArray  _httpHeadersJson;
 
     static public AbstractOperation reconstruct(Project project, JSONObject obj) throws Exception {
@@ -106,6 +95,7 @@ public class ColumnAdditionByFetchingURLsOperation extends EngineDependentOperat
             obj.getInt("columnInsertIndex"),
             obj.getInt("delay"),
             obj.optBoolean("cacheResponses", false), // false for retro-compatibility
+            obj.optBoolean("persistResponses", false),
             obj.optJSONArray("httpHeadersJson") // will be null if it doesn't exist for retro-compatibility
         );
     }
@@ -120,6 +110,28 @@ public class ColumnAdditionByFetchingURLsOperation extends EngineDependentOperat
         int            delay,
         boolean        cacheResponses,
         JSONArray      httpHeadersJson
+    ) {
+        this(engineConfig, baseColumnName, urlExpression, onError, newColumnName,
+            columnInsertIndex, delay, cacheResponses, false, httpHeadersJson);
+    }
+
+    /**
+     * @param cacheResponses whether each distinct URL is fetched only once
+     * @param persistResponses whether responses are also kept in the workspace's
+     *      {@link UrlResponseCache}, for later operations to reuse
+     */
+
+    public ColumnAdditionByFetchingURLsOperation(
+        JSONObject     engineConfig,
+        String         baseColumnName,
+        String         urlExpression,
+        OnError        onError,
+        String         newColumnName,
+        int            columnInsertIndex,
+        int            delay,
+        boolean        cacheResponses,
+        boolean        persistResponses,
+        JSONArray      httpHeadersJson
     ) {
         super(engineConfig);
 
@@ -132,6 +144,7 @@ public class ColumnAdditionByFetchingURLsOperation extends EngineDependentOperat
 
         _delay = delay;
         _cacheResponses = cacheResponses;
+        _persistResponses = persistResponses;
         _httpHeadersJson = httpHeadersJson;
     }
 
@@ -150,6 +163,7 @@ public class ColumnAdditionByFetchingURLsOperation extends EngineDependentOperat
         writer.key("onError"); writer.value(TextTransformOperation.onErrorToString(_onError));
         writer.key("delay"); writer.value(_delay);
         writer.key("cacheResponses"); writer.value(_cacheResponses);
+        writer.key("persistResponses"); writer.value(_persistResponses);
         writer.key("httpHeadersJson"); writer.value(_httpHeadersJson);
         writer.endObject();
     }
@@ -182,7 +196,8 @@ public class ColumnAdditionByFetchingURLsOperation extends EngineDependentOperat
             engine,
             eval,
             getBriefDescription(null),
-            _cacheResponses,
+            _cacheResponses || _persistResponses,
+            _persistResponses,
             _httpHeadersJson
         );
     }
@@ -193,7 +208,10 @@ public class ColumnAdditionByFetchingURLsOperation extends EngineDependentOperat
         final protected Evaluable     _eval;
         final protected long          _historyEntryID;
         protected int                 _cellIndex;
-        protected LoadingCache<String, Serializable> _urlCache;
+        final protected boolean       _cacheResponses;
+        final protected boolean       _persistResponses;
+        final protected Map<String, String> _httpHeaders;
+        protected volatile int        _doneCount;
 
         public ColumnAdditionByFetchingURLsProcess(
             Project project,
@@ -201,6 +219,7 @@ public class ColumnAdditionByFetchingURLsOperation extends EngineDependentOperat
             Evaluable eval,
             String description,
             boolean cacheResponses,
+            boolean persistResponses,
             JSONArray httpHeadersJson
         ) throws JSONException {
             super(description);
@@ -208,35 +227,21 @@ public class ColumnAdditionByFetchingURLsOperation extends EngineDependentOperat
             _engine = engine;
             _eval = eval;
             _historyEntryID = HistoryEntry.allocateID();
-            _urlCache = null;
-            if (cacheResponses) {
-                _urlCache = CacheBuilder.newBuilder()
-                .maximumSize(2048)
-                .expireAfterWrite(10, TimeUnit.MINUTES)
-                .build(
-                     new CacheLoader<String, Serializable>() {
-                        public Serializable load(String urlString) throws Exception {
-                            Serializable result = fetch(urlString);
-                            try {
-                                // Always sleep for the delay, no matter how long the
-                                // request took. This is more responsible than substracting
-                                // the time spend requesting the URL, because it naturally
-                                // slows us down if the server is busy and takes a long time
-                                // to reply.
-                                if (_delay > 0) {
-                                    Thread.sleep(_delay);
-                                }
-                            } catch (InterruptedException e) {
-                                result = null;
-                            }
+            _cacheResponses = cacheResponses;
+            _persistResponses = persistResponses;
+            _httpHeaders = new HashMap<>();
+            if (httpHeadersJson != null) {
+                Map<String, String> httpHeaders = new HashMap<>();
+                for (int i = 0; i < httpHeadersJson.length(); i++) {
+                    String headerLabel = httpHeadersJson.getJSONObject(i).getString("name");
+                    String headerValue = httpHeadersJson.getJSONObject(i).getString("value");
+                    httpHeaders.put(headerLabel, headerValue);
+                }
+                for (String headerLabel : HttpHeadersSupport.getHttpHeaderLabels()) {
+                    HttpHeaderInfo info = HttpHeadersSupport.getHttpHeaderInfo(headerLabel);
 
-                            if (result == null) {
-                                // the load method should not return any null value
-                                throw new Exception("null result returned by fetch");
-                            }
-                            return result;
-                        }
-                        });
+                    _httpHeaders.put(info.header, httpHeaders.get(headerLabel));
+                }
             }
         }
 
@@ -275,38 +280,75 @@ public class ColumnAdditionByFetchingURLsOperation extends EngineDependentOperat
             FilteredRows filteredRows = _engine.getAllFilteredRows();
             filteredRows.accept(_project, createRowVisitor(urls));
 
-            List<CellAtRow> responseBodies = new ArrayList<CellAtRow>(urls.size());
+            // with caching on, each distinct URL is fetched once
+            final List<String> urlStrings = new ArrayList<String>(urls.size());
+            int[] urlOfRow = new int[urls.size()];
+            Map<String, Integer> urlIndices = new HashMap<String, Integer>();
             for (int i = 0; i < urls.size(); i++) {
-                CellAtRow urlData = urls.get(i);
-                String urlString = urlData.cell.value.toString();
+                String urlString = urls.get(i).cell.value.toString();
+                Integer index = _cacheResponses ? urlIndices.get(urlString) : null;
+                if (index == null) {
+                    index = urlStrings.size();
+                    urlStrings.add(urlString);
+                    urlIndices.put(urlString, index);
+                }
+                urlOfRow[i] = index;
+            }
 
-                Serializable response = null;
-                if (_urlCache != null) {
-                    response = cachedFetch(urlString);
+            final Serializable[] responses = new Serializable[urlStrings.size()];
+            final UrlResponseCache cache = _persistResponses ? getCache() : null;
+            final List<String> toFetch = new ArrayList<String>(urlStrings.size());
+            final List<Integer> toFetchIndices = new ArrayList<Integer>(urlStrings.size());
+            for (int i = 0; i < urlStrings.size(); i++) {
+                String body = cache != null && UrlResponseCache.isCacheable(urlStrings.get(i), _httpHeaders) ?
+                        cache.get(UrlResponseCache.makeKey(urlStrings.get(i), _httpHeaders)) : null;
+                if (body != null) {
+                    responses[i] = body;
                 } else {
-                    response = fetch(urlString);
+                    toFetch.add(urlStrings.get(i));
+                    toFetchIndices.add(i);
                 }
+            }
 
-                if (response != null) {
-                    CellAtRow cellAtRow = new CellAtRow(
-                            urlData.row,
-                            new Cell(response, null));
-
-                    responseBodies.add(cellAtRow);
-                }
+            try {
+                createScheduler().fetchAll(toFetch, new UrlFetchScheduler.Listener() {
+                    int done = urlStrings.size() - toFetch.size();
+
+                    @Override
+                    public void onResponse(int index, UrlFetchScheduler.Response response) {
+                        responses[toFetchIndices.get(index)] = toCellValue(response);
+                        if (cache != null && response != null && response.error == null &&
+                                UrlResponseCache.isCacheable(toFetch.get(index), _httpHeaders)) {
+                            cache.put(UrlResponseCache.makeKey(toFetch.get(index), _httpHeaders), response.body);
+                        }
+                        _progress = ++done * 100 / urlStrings.size();
+                        _doneCount = done;
+                    }
 
-                _progress = i * 100 / urls.size();
+                    @Override
+                    public boolean isCanceled() {
+                        return _canceled;
+                    }
+                });
+            } catch (InterruptedException e) {
+                _canceled = true;
+            }
 
-                if (_canceled) {
-                    break;
+            List<CellAtRow> responseBodies = new ArrayList<CellAtRow>(urls.size());
+            for (int i = 0; i < urls.size(); i++) {
+                Serializable response = responses[urlOfRow[i]];
+                if (response != null) {
+                    responseBodies.add(new CellAtRow(urls.get(i).row, new Cell(response, null)));
                 }
             }
 
-            if (!_canceled) {
+            // a canceled fetch keeps what it got so far, unless that is nothing
+            if (!_canceled || !responseBodies.isEmpty()) {
                 HistoryEntry historyEntry = new HistoryEntry(
                     _historyEntryID,
                     _project,
-                    _description,
+                    _canceled ? _description + " (canceled after " + _doneCount + " of " + urlStrings.size() + " URLs)" :
+                        _description,
                     ColumnAdditionByFetchingURLsOperation.this,
                     new ColumnAdditionChange(
                         _newColumnName,
@@ -319,80 +361,25 @@ public class ColumnAdditionByFetchingURLsOperation extends EngineDependentOperat
             }
         }
 
-        Serializable cachedFetch(String urlString) {
-            try {
-                return  _urlCache.get(urlString);
-            } catch(Exception e) {
-                return null;
-            }
+        protected UrlFetchScheduler createScheduler() {
+            return new UrlFetchScheduler(_httpHeaders, _delay);
         }
 
-        Serializable fetch(String urlString) {
-            URL url = null;
-            try {
-                url = new URL(urlString);
-            } catch (MalformedURLException e) {
-                return null;
-            }
-
-            try {
-                URLConnection urlConnection = url.openConnection();
-                if (_httpHeadersJson != null) {
-                    Map<String, String> httpHeaders = new HashMap<>();
-                    for (int i = 0; i < _httpHeadersJson.length(); i++) {            
-                        String headerLabel = _httpHeadersJson.getJSONObject(i).getString("name");
-                        String headerValue = _httpHeadersJson.getJSONObject(i).getString("value");
-                        httpHeaders.put(headerLabel, headerValue);
-                    }
-                    for (String headerLabel : HttpHeadersSupport.getHttpHeaderLabels()) {
-                        HttpHeaderInfo info = HttpHeadersSupport.getHttpHeaderInfo(headerLabel);
-
-                        urlConnection.setRequestProperty(info.header, httpHeaders.get(headerLabel));
-                    }
-                }
-
-                try {
-                    InputStream is = urlConnection.getInputStream();
-                    try {
-                        String encoding = urlConnection.getContentEncoding();
-                        if (encoding == null) {
-                            String contentType = urlConnection.getContentType();
-                            if (contentType != null) {
-                                final String charsetEqual = "charset=";
-                                int c = contentType.lastIndexOf(charsetEqual);
-                                if (c > 0) {
-                                    encoding = contentType.substring(c + charsetEqual.length());
-                                }
-                            }
-                        }
-                        return ParsingUtilities.inputStreamToString(
-                                                is, (encoding == null) || ( encoding.equalsIgnoreCase("\"UTF-8\"")) ? "UTF-8" : encoding);
+        protected UrlResponseCache getCache() {
+            return UrlResponseCache.getInstance();
+        }
 
-                    } finally {
-                        is.close();
-                    }
-                } catch (IOException e) {
-                    String message;
-                    if (urlConnection instanceof HttpURLConnection) {
-                        int status = ((HttpURLConnection)urlConnection).getResponseCode();
-                        String errorString = "";
-                        InputStream errorStream = ((HttpURLConnection)urlConnection).getErrorStream();
-                        if (errorStream != null) {
-                            errorString = ParsingUtilities.inputStreamToString(errorStream);
-                        }
-                        message = String.format("HTTP error %d : %s | %s",status,
-                                ((HttpURLConnection)urlConnection).getResponseMessage(),
-                                errorString);
-                    } else {
-                        message = e.toString();
-                    }
-                    return _onError == OnError.StoreError ?
-                            new EvalError(message) : null;
-                }
-            } catch (Exception e) {
-                return _onError == OnError.StoreError ?
-                        new EvalError(e.getMessage()) : null;
+        /**
+         * @return the body of the response, the error if errors are to be stored,
+         *      or else null
+         */
+        protected Serializable toCellValue(UrlFetchScheduler.Response response) {
+            if (response == null) {
+                return null;
+            } else if (response.error == null) {
+                return response.body;
             }
+            return _onError == OnError.StoreError ? new EvalError(response.error) : null;
         }
 
         RowVisitor createRowVisitor(List<CellAtRow> cellsAtRows) {
@@ -0,0 +1,387 @@
+package com.google.refine.operations.column;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.refine.io.WorkspaceCache;
+import com.google.refine.util.ParsingUtilities;
+
+/**
+ * Fetches a list of URLs with a pool of workers, rather than one URL after another.
+ *
+ * Requests to each host are limited in two ways: no more than a given number are in
+ * flight at once, and they are started at the pace of a token bucket refilled once
+ * per delay, so that a host sees no more requests than it would have with the delay
+ * waited between them. Requests answered with 429 or a 5xx status are sent again a
+ * few times; the host is left alone meanwhile for the time it asked for in its
+ * Retry-After header, or else for a time doubling with each trial.
+ *
+ * Responses are handed to a listener on the calling thread as they come, in no
+ * particular order.
+ */
+public class UrlFetchScheduler {
+    final static Logger logger = LoggerFactory.getLogger("url-fetch-scheduler");
+
+    /**
+     * Preference holding the number of requests in flight at once, over all hosts.
+     */
+    static final public String CONCURRENCY_PREFERENCE = "urlFetching.concurrency";
+    static final public int DEFAULT_CONCURRENCY = 8;
+
+    /**
+     * Preference holding the number of requests in flight at once to the same host.
+     */
+    static final public String HOST_CONCURRENCY_PREFERENCE = "urlFetching.hostConcurrency";
+    static final public int DEFAULT_HOST_CONCURRENCY = 4;
+
+    static final public int MAX_RETRIES = 3;
+    static final public long DEFAULT_BACKOFF_MILLIS = 1000;
+    static final public long MAX_BACKOFF_MILLIS = 60000;
+
+    static private ExecutorService s_executor;
+
+    /**
+     * Lets the caller receive responses and stop the scheduler.
+     */
+    public interface Listener {
+        /**
+         * @param response the response to the URL at the given index, or null if
+         *      the URL is malformed
+         */
+        public void onResponse(int index, Response response);
+
+        public boolean isCanceled();
+    }
+
+    static public class Response {
+        /**
+         * The HTTP status, or 0 if the request got no response.
+         */
+        final public int    status;
+        /**
+         * The body of a successful response, or null.
+         */
+        final public String body;
+        /**
+         * Why the request failed, or null if it succeeded.
+         */
+        final public String error;
+        /**
+         * How long the host asked to be left alone, or -1.
+         */
+        final long          retryAfterMillis;
+
+        public Response(int status, String body, String error, long retryAfterMillis) {
+            this.status = status;
+            this.body = body;
+            this.error = error;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        public boolean isRetryable() {
+            return status == 429 || (status >= 500 && status < 600);
+        }
+    }
+
+    /**
+     * Starts requests at a steady rate: one token is added per interval, up to a
+     * capacity of one, and each request takes one. Tokens can be borrowed ahead of
+     * time, the borrower then waiting for them to be added.
+     */
+    static protected class TokenBucket {
+        final long  _intervalMillis;
+        double      _tokens = 1;
+        long        _lastRefill = System.currentTimeMillis();
+
+        TokenBucket(long intervalMillis) {
+            _intervalMillis = intervalMillis;
+        }
+
+        /**
+         * Take a token.
+         *
+         * @return how long to wait before using it
+         */
+        synchronized long take(long now) {
+            _tokens = Math.min(1, _tokens + (double) (now - _lastRefill) / _intervalMillis);
+            _lastRefill = now;
+            _tokens -= 1;
+            return _tokens >= 0 ? 0 : (long) Math.ceil(-_tokens * _intervalMillis);
+        }
+    }
+
+    static protected class Host {
+        final Semaphore     permits;
+        final TokenBucket   bucket;
+        long                pausedUntil;
+
+        Host(int concurrency, long delayMillis) {
+            permits = new Semaphore(concurrency);
+            bucket = delayMillis > 0 ? new TokenBucket(delayMillis) : null;
+        }
+
+        /**
+         * Wait until a request can be started to this host.
+         */
+        void awaitTurn() throws InterruptedException {
+            long now = System.currentTimeMillis();
+            long wait;
+            synchronized (this) {
+                wait = Math.max(0, pausedUntil - now);
+            }
+            if (bucket != null) {
+                wait = Math.max(wait, bucket.take(now));
+            }
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+        }
+
+        synchronized void pauseFor(long millis) {
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + millis);
+        }
+    }
+
+    static protected class Result {
+        final int       index;
+        final Response  response;
+
+        Result(int index, Response response) {
+            this.index = index;
+            this.response = response;
+        }
+    }
+
+    final protected Map<String, String>     _headers;
+    final protected long                    _delayMillis;
+    final protected int                     _concurrency;
+    final protected int                     _hostConcurrency;
+    final protected long                    _backoffMillis;
+    final protected ConcurrentHashMap<String, Host> _hosts = new ConcurrentHashMap<String, Host>();
+
+    /**
+     * @param headers request headers to send with every request
+     * @param delayMillis the interval at which requests are started to each host
+     */
+    public UrlFetchScheduler(Map<String, String> headers, long delayMillis) {
+        this(headers, delayMillis,
+            WorkspaceCache.getPreference(CONCURRENCY_PREFERENCE, DEFAULT_CONCURRENCY),
+            WorkspaceCache.getPreference(HOST_CONCURRENCY_PREFERENCE, DEFAULT_HOST_CONCURRENCY),
+            DEFAULT_BACKOFF_MILLIS);
+    }
+
+    public UrlFetchScheduler(Map<String, String> headers, long delayMillis,
+            int concurrency, int hostConcurrency, long backoffMillis) {
+        _headers = headers;
+        _delayMillis = delayMillis;
+        _concurrency = Math.max(1, concurrency);
+        _hostConcurrency = Math.max(1, hostConcurrency);
+        _backoffMillis = backoffMillis;
+    }
+
+    /**
+     * Fetch the given URLs, handing each response to the listener.
+     *
+     * @return false if the listener canceled the scheduler
+     */
+    public boolean fetchAll(final List<String> urls, Listener listener) throws InterruptedException {
+        final BlockingQueue<Result> results = new LinkedBlockingQueue<Result>();
+        final AtomicInteger next = new AtomicInteger();
+
+        int workers = Math.min(_concurrency, urls.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+        for (int w = 0; w < workers; w++) {
+            futures.add(getExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    int index;
+                    while ((index = next.getAndIncrement()) < urls.size()) {
+                        try {
+                            results.add(new Result(index, fetchWithRetries(urls.get(index))));
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }));
+        }
+
+        try {
+            int done = 0;
+            while (done < urls.size()) {
+                if (listener.isCanceled()) {
+                    return false;
+                }
+                Result result = results.poll(100, TimeUnit.MILLISECONDS);
+                if (result != null) {
+                    listener.onResponse(result.index, result.response);
+                    done++;
+                }
+            }
+            return true;
+        } finally {
+            // stop workers that are still going when canceled
+            next.set(urls.size());
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return the response to the given URL, after retrying a few times if the host
+     *      asked to, or null if the URL is malformed
+     */
+    public Response fetchWithRetries(String urlString) throws InterruptedException {
+        URL url;
+        try {
+            url = new URL(urlString);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+
+        Host host = getHost(url);
+        for (int trial = 0; ; trial++) {
+            Response response;
+            host.permits.acquire();
+            try {
+                host.awaitTurn();
+                response = fetch(url);
+            } finally {
+                host.permits.release();
+            }
+
+            if (!response.isRetryable() || trial >= MAX_RETRIES) {
+                return response;
+            }
+
+            long backoff = response.retryAfterMillis >= 0 ?
+                    response.retryAfterMillis :
+                    (_backoffMillis << trial) + (long) (Math.random() * _backoffMillis);
+            logger.warn("HTTP " + response.status + " from " + url.getHost() +
+                ", retrying in " + Math.min(backoff, MAX_BACKOFF_MILLIS) + "ms");
+            host.pauseFor(Math.min(backoff, MAX_BACKOFF_MILLIS));
+        }
+    }
+
+    protected Host getHost(URL url) {
+        String key = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+        Host host = _hosts.get(key);
+        if (host == null) {
+            host = new Host(_hostConcurrency, _delayMillis);
+            Host previous = _hosts.putIfAbsent(key, host);
+            if (previous != null) {
+                host = previous;
+            }
+        }
+        return host;
+    }
+
+    protected Response fetch(URL url) {
+        try {
+            URLConnection urlConnection = url.openConnection();
+            if (_headers != null) {
+                for (Map.Entry<String, String> e : _headers.entrySet()) {
+                    urlConnection.setRequestProperty(e.getKey(), e.getValue());
+                }
+            }
+
+            try {
+                InputStream is = urlConnection.getInputStream();
+                try {
+                    String encoding = urlConnection.getContentEncoding();
+                    if (encoding == null) {
+                        String contentType = urlConnection.getContentType();
+                        if (contentType != null) {
+                            final String charsetEqual = "charset=";
+                            int c = contentType.lastIndexOf(charsetEqual);
+                            if (c > 0) {
+                                encoding = contentType.substring(c + charsetEqual.length());
+                            }
+                        }
+                    }
+                    String body = ParsingUtilities.inputStreamToString(
+                            is, (encoding == null) || ( encoding.equalsIgnoreCase("\"UTF-8\"")) ? "UTF-8" : encoding);
+                    int status = urlConnection instanceof HttpURLConnection ?
+                            ((HttpURLConnection) urlConnection).getResponseCode() : 200;
+                    return new Response(status, body, null, -1);
+                } finally {
+                    is.close();
+                }
+            } catch (IOException e) {
+                if (!(urlConnection instanceof HttpURLConnection)) {
+                    return new Response(0, null, e.toString(), -1);
+                }
+                HttpURLConnection httpConnection = (HttpURLConnection) urlConnection;
+                int status = httpConnection.getResponseCode();
+                String errorString = "";
+                InputStream errorStream = httpConnection.getErrorStream();
+                if (errorStream != null) {
+                    try {
+                        errorString = ParsingUtilities.inputStreamToString(errorStream);
+                    } finally {
+                        errorStream.close();
+                    }
+                }
+                String message = String.format("HTTP error %d : %s | %s", status,
+                        httpConnection.getResponseMessage(),
+                        errorString);
+                return new Response(status, null, message,
+                    parseRetryAfter(httpConnection.getHeaderField("Retry-After")));
+            }
+        } catch (Exception e) {
+            return new Response(0, null, e.getMessage(), -1);
+        }
+    }
+
+    /**
+     * @return the delay given in seconds by a Retry-After header, in milliseconds,
+     *      or -1 if there is none (dates are not supported)
+     */
+    static protected long parseRetryAfter(String value) {
+        if (value != null) {
+            try {
+                return Math.max(0, Long.parseLong(value.trim())) * 1000L;
+            } catch (NumberFormatException e) {
+                // an HTTP date
+            }
+        }
+        return -1;
+    }
+
+    static synchronized protected ExecutorService getExecutor() {
+        if (s_executor == null) {
+            s_executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                final AtomicInteger _count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "url-fetch-" + _count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return s_executor;
+    }
+}
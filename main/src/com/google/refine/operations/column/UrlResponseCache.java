@@ -0,0 +1,119 @@
+package com.google.refine.operations.column;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.refine.io.WorkspaceCache;
+
+/**
+ * Bodies of successful responses to URLs fetched with persistent caching on, kept in
+ * the workspace so that fetching the same URLs again, in a later operation or another
+ * project, does not request them again.
+ *
+ * Entries map a hash of a URL, qualified by the request headers sent, to the body of
+ * its response. Requests carrying credentials are never cached, since the file is
+ * stored in plain text.
+ */
+public class UrlResponseCache extends WorkspaceCache {
+    static final public String FILE_NAME = "url-cache.txt";
+
+    /**
+     * Preference holding the number of entries kept; 0 turns the cache off.
+     */
+    static final public String MAX_ENTRIES_PREFERENCE = "urlFetching.cache.maxEntries";
+    static final public int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * Preference holding the number of hours after which entries expire.
+     */
+    static final public String TTL_PREFERENCE = "urlFetching.cache.ttlHours";
+    static final public int DEFAULT_TTL_HOURS = 1;
+
+    /**
+     * Preference holding the size of the entries kept, in megabytes.
+     */
+    static final public String MAX_MEGABYTES_PREFERENCE = "urlFetching.cache.maxMegabytes";
+    static final public int DEFAULT_MAX_MEGABYTES = 64;
+
+    static final protected List<String> CREDENTIAL_HEADERS =
+            Arrays.asList("authorization", "proxy-authorization", "cookie");
+
+    static private UrlResponseCache s_instance;
+
+    /**
+     * @return the cache of the current workspace, or null if there is none or the
+     *      cache is turned off
+     */
+    static synchronized public UrlResponseCache getInstance() {
+        File file = getWorkspaceFile(FILE_NAME);
+        int maxEntries = getPreference(MAX_ENTRIES_PREFERENCE, DEFAULT_MAX_ENTRIES);
+        if (file == null || maxEntries <= 0) {
+            return null;
+        }
+
+        long maxBytes = getPreference(MAX_MEGABYTES_PREFERENCE, DEFAULT_MAX_MEGABYTES) * 1024L * 1024L;
+        long ttlMillis = getPreference(TTL_PREFERENCE, DEFAULT_TTL_HOURS) * 3600L * 1000L;
+        if (s_instance == null || !s_instance.isConfiguredAs(file, maxEntries, maxBytes, ttlMillis)) {
+            s_instance = new UrlResponseCache(file, maxEntries, maxBytes, ttlMillis);
+        }
+        return s_instance;
+    }
+
+    /**
+     * @return false if the request carries credentials, in its headers or its URL,
+     *      so that its response must not be written to the workspace
+     */
+    static public boolean isCacheable(String url, Map<String, String> headers) {
+        if (headers != null) {
+            for (Map.Entry<String, String> e : headers.entrySet()) {
+                if (e.getValue() != null && !e.getValue().isEmpty() &&
+                        CREDENTIAL_HEADERS.contains(e.getKey().toLowerCase())) {
+                    return false;
+                }
+            }
+        }
+        try {
+            return new URL(url).getUserInfo() == null;
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return a hash of the URL and the headers sent with it, so that neither is
+     *      written to the workspace
+     */
+    static public String makeKey(String url, Map<String, String> headers) {
+        StringBuffer sb = new StringBuffer(url);
+        if (headers != null) {
+            for (Map.Entry<String, String> e : new TreeMap<String, String>(headers).entrySet()) {
+                if (e.getValue() != null) {
+                    sb.append(' ').append(e.getKey()).append(':').append(e.getValue());
+                }
+            }
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes("UTF-8"));
+            StringBuffer hex = new StringBuffer(2 * digest.length);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // both are required of every Java platform
+            throw new RuntimeException(e);
+        }
+    }
+
+    public UrlResponseCache(File file, int maxEntries, long maxBytes, long ttlMillis) {
+        super(file, maxEntries, maxBytes, ttlMillis);
+    }
+}
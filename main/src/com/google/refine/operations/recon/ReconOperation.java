@@ -59,6 +59,7 @@ import com.google.refine.model.Recon;
 import com.google.refine.model.Row;
 import com.google.refine.model.changes.CellChange;
 import com.google.refine.model.changes.ReconChange;
+import com.google.refine.model.recon.ReconBatchScheduler;
 import com.google.refine.model.recon.ReconConfig;
 import com.google.refine.model.recon.ReconJob;
 import com.google.refine.model.recon.StandardReconConfig;
@@ -132,7 +133,6 @@ public class ReconOperation extends EngineDependentOperation {
     static protected class JobGroup {
         final public ReconJob job;
         final public List<ReconEntry> entries = new ArrayList<ReconEntry>();
-        public int trials = 0;
         
         public JobGroup(ReconJob job) {
             this.job = job;
@@ -272,69 +272,56 @@ public class ReconOperation extends EngineDependentOperation {
                 group.entries.add(entry);
             }
             
-            int batchSize = _reconConfig.getBatchSize();
-            int done = 0;
-            
             List<CellChange> cellChanges = new ArrayList<CellChange>(_entries.size());
             List<JobGroup> groups = new ArrayList<JobGroup>(jobKeyToGroup.values());
             
-            List<ReconJob> jobs = new ArrayList<ReconJob>(batchSize);
-            Map<ReconJob, JobGroup> jobToGroup = new HashMap<ReconJob, ReconOperation.JobGroup>();
+            List<ReconJob> jobs = new ArrayList<ReconJob>(groups.size());
+            for (JobGroup group : groups) {
+                jobs.add(group.job);
+            }
             
-            for (int i = 0; i < groups.size(); /* don't increment here */) {
-                while (jobs.size() < batchSize && i < groups.size()) {
-                    JobGroup group = groups.get(i++);
-                    
-                    jobs.add(group.job);
-                    jobToGroup.put(group.job, group);
-                }
-                
-                List<Recon> recons = _reconConfig.batchRecon(jobs, _historyEntryID);
-                for (int j = jobs.size() - 1; j >= 0; j--) {
-                    ReconJob job = jobs.get(j);
-                    Recon    recon = j < recons.size() ? recons.get(j) : null;
-                    JobGroup group = jobToGroup.get(job);
-                    List<ReconEntry> entries = group.entries;
-                    
-                    if (recon == null) {
-                        group.trials++;
-                        if (group.trials < 3) {
-                            logger.warn("Re-trying job including cell containing: " + entries.get(0).cell.value);
-                            continue; // try again next time
+            Recon[] recons = null;
+            try {
+                recons = new ReconBatchScheduler(_reconConfig, _historyEntryID).reconcile(
+                    jobs,
+                    new ReconBatchScheduler.Listener() {
+                        @Override
+                        public void onProgress(int done, int total) {
+                            _progress = done * 100 / total;
                         }
-                        logger.warn("Failed after 3 trials for job including cell containing: " + entries.get(0).cell.value);
-                    }
-                    
-                    jobToGroup.remove(job);
-                    jobs.remove(j);
-                    done++;
-                    
-                    if (recon == null) {
-                        recon = _reconConfig.createNewRecon(_historyEntryID);
-                    }
-                    recon.judgmentBatchSize = entries.size();
-                    
-                    for (ReconEntry entry : entries) {
-                        Cell oldCell = entry.cell;
-                        Cell newCell = new Cell(oldCell.value, recon);
                         
-                        CellChange cellChange = new CellChange(
-                            entry.rowIndex, 
-                            _cellIndex, 
-                            oldCell, 
-                            newCell
-                        );
-                        cellChanges.add(cellChange);
+                        @Override
+                        public boolean isCanceled() {
+                            return _canceled;
+                        }
                     }
+                );
+            } catch (InterruptedException e) {
+                // canceled
+            }
+            if (recons == null) {
+                return;
+            }
+            
+            for (int i = 0; i < groups.size(); i++) {
+                List<ReconEntry> entries = groups.get(i).entries;
+                Recon recon = recons[i];
+                if (recon == null) {
+                    recon = _reconConfig.createNewRecon(_historyEntryID);
                 }
+                recon.judgmentBatchSize = entries.size();
                 
-                _progress = done * 100 / groups.size();
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    if (_canceled) {
-                        break;
-                    }
+                for (ReconEntry entry : entries) {
+                    Cell oldCell = entry.cell;
+                    Cell newCell = new Cell(oldCell.value, recon);
+                    
+                    CellChange cellChange = new CellChange(
+                        entry.rowIndex, 
+                        _cellIndex, 
+                        oldCell, 
+                        newCell
+                    );
+                    cellChanges.add(cellChange);
                 }
             }
             
@@ -128,7 +128,7 @@ protected HistoryEntry createHistoryEntry(Project project, long historyEntryID)
             
             @Override
             public boolean visit(Project project, int rowIndex, Row row) {
-                if (row.flagged != _flagged) {
+                if (row.isFlagged() != _flagged) {
                     RowFlagChange change = new RowFlagChange(rowIndex, _flagged);
                     
                     changes.add(change);
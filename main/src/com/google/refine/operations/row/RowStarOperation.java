@@ -128,7 +128,7 @@ protected HistoryEntry createHistoryEntry(Project project, long historyEntryID)
             
             @Override
             public boolean visit(Project project, int rowIndex, Row row) {
-                if (row.starred != _starred) {
+                if (row.isStarred() != _starred) {
                     RowStarChange change = new RowStarChange(rowIndex, _starred);
                     
                     changes.add(change);
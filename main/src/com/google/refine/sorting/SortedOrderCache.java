@@ -0,0 +1,154 @@
+package com.google.refine.sorting;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.refine.browsing.Engine;
+import com.google.refine.browsing.Engine.Mode;
+import com.google.refine.browsing.RecordVisitor;
+import com.google.refine.browsing.RowVisitor;
+import com.google.refine.model.Project;
+import com.google.refine.model.Record;
+import com.google.refine.model.Row;
+
+/**
+ * The sorted order of the rows or records that pass an engine's filters, kept so
+ * that paging through a sorted view sorts the project once rather than on every page.
+ *
+ * Orders are looked up by project, engine configuration and sorting criteria, and
+ * are discarded once the project's history has changed since they were computed.
+ * Only the few most recently used orders are kept.
+ */
+public class SortedOrderCache {
+    static final protected int MAX_ENTRIES = 8;
+
+    static protected class Entry {
+        final WeakReference<Project>    project;
+        final long                      version;
+        final int                       count;
+        final int[]                     order;
+
+        Entry(Project project, long version, int count, int[] order) {
+            this.project = new WeakReference<Project>(project);
+            this.version = version;
+            this.count = count;
+            this.order = order;
+        }
+    }
+
+    static final protected Map<String, Entry> s_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 6310264937112380459L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Retrieve the sorted order of the rows (in row mode) or records (in record mode)
+     * passing the engine's filters, computing it if it is not cached or out of date.
+     *
+     * @param engineConfig the configuration the engine was initialized from, as sent by the client
+     * @param sortingJson the sorting criteria
+     * @return the indices of the rows or records in sorted order, or null if there are no criteria
+     */
+    static public int[] getOrder(Project project, Engine engine, String engineConfig, JSONObject sortingJson)
+            throws JSONException {
+
+        Mode mode = engine.getMode();
+        String key = project.id + "|" + mode + "|" + engineConfig + "|" + sortingJson.toString();
+        long version = project.history.getVersion();
+        int count = mode == Mode.RowBased ? project.rows.size() : project.recordModel.getRecordCount();
+
+        synchronized (s_entries) {
+            Entry entry = s_entries.get(key);
+            if (entry != null && entry.project.get() == project &&
+                    entry.version == version && entry.count == count) {
+                return entry.order;
+            }
+        }
+
+        int[] order = computeOrder(project, engine, sortingJson);
+        if (order != null) {
+            synchronized (s_entries) {
+                s_entries.put(key, new Entry(project, version, count, order));
+            }
+        }
+        return order;
+    }
+
+    static public void clear() {
+        synchronized (s_entries) {
+            s_entries.clear();
+        }
+    }
+
+    static protected int[] computeOrder(Project project, Engine engine, JSONObject sortingJson)
+            throws JSONException {
+
+        IndexCollector collector = new IndexCollector();
+        if (engine.getMode() == Mode.RowBased) {
+            SortingRowVisitor srv = new SortingRowVisitor(collector);
+            srv.initializeFromJSON(project, sortingJson);
+            if (!srv.hasCriteria()) {
+                return null;
+            }
+            engine.getAllFilteredRows().accept(project, srv);
+        } else {
+            SortingRecordVisitor srv = new SortingRecordVisitor(collector);
+            srv.initializeFromJSON(project, sortingJson);
+            if (!srv.hasCriteria()) {
+                return null;
+            }
+            engine.getFilteredRecords().accept(project, srv);
+        }
+        return collector.toArray();
+    }
+
+    static protected class IndexCollector implements RowVisitor, RecordVisitor {
+        int[]   indices = new int[16];
+        int     size;
+
+        @Override
+        public void start(Project project) {
+            size = 0;
+        }
+
+        @Override
+        public void end(Project project) {
+            // nothing to do
+        }
+
+        @Override
+        public boolean visit(Project project, int rowIndex, Row row) {
+            add(rowIndex);
+            return false;
+        }
+
+        @Override
+        public boolean visit(Project project, Record record) {
+            add(record.recordIndex);
+            return false;
+        }
+
+        void add(int index) {
+            if (size == indices.length) {
+                int[] a = new int[size * 2];
+                System.arraycopy(indices, 0, a, 0, size);
+                indices = a;
+            }
+            indices[size++] = index;
+        }
+
+        int[] toArray() {
+            int[] a = new int[size];
+            System.arraycopy(indices, 0, a, 0, size);
+            return a;
+        }
+    }
+}
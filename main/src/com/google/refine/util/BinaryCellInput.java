@@ -0,0 +1,159 @@
+package com.google.refine.util;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.refine.expr.EvalError;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Recon;
+import com.google.refine.model.Row;
+
+/**
+ * Reads back cells and rows written by {@link BinaryCellOutput}, reading them through
+ * the same dictionaries they were written through.
+ */
+public class BinaryCellInput {
+    final protected DataInputStream     _in;
+    final protected Pool                _pool;
+    final protected CellInterner        _interner;
+    final protected List<List<String>>  _dictionaries = new ArrayList<List<String>>();
+    protected byte[]                    _buffer = new byte[256];
+
+    /**
+     * @param pool the pool saved along with the input, already loaded
+     */
+    public BinaryCellInput(InputStream in, Pool pool) {
+        this(in, pool, null);
+    }
+
+    /**
+     * @param interner shares the cells read with others of the same value in their
+     *      dictionary's column, or null
+     */
+    public BinaryCellInput(InputStream in, Pool pool, CellInterner interner) {
+        _in = new DataInputStream(in);
+        _pool = pool;
+        _interner = interner;
+    }
+
+    public Row readRow() throws IOException {
+        int flags = _in.readUnsignedByte();
+        int cellCount = readVarInt();
+
+        Row row = new Row(cellCount);
+        row.flagged = (flags & BinaryCellOutput.FLAGGED) != 0;
+        row.starred = (flags & BinaryCellOutput.STARRED) != 0;
+        for (int c = 0; c < cellCount; c++) {
+            row.cells.add(readCell(c));
+        }
+        return row;
+    }
+
+    public Cell readCell(int dictionary) throws IOException {
+        int tag = _in.readUnsignedByte();
+        if (tag == BinaryCellOutput.NULL_CELL) {
+            return null;
+        }
+
+        Serializable value;
+        switch (tag & ~BinaryCellOutput.HAS_RECON) {
+        case BinaryCellOutput.NULL_VALUE:
+            value = null;
+            break;
+        case BinaryCellOutput.STRING_LITERAL:
+            value = readUTF8();
+            break;
+        case BinaryCellOutput.STRING_NEW:
+            value = readUTF8();
+            getDictionary(dictionary).add((String) value);
+            break;
+        case BinaryCellOutput.STRING_REF:
+            value = getDictionary(dictionary).get(readVarInt());
+            break;
+        case BinaryCellOutput.LONG:
+            value = readVarLong();
+            break;
+        case BinaryCellOutput.DOUBLE:
+            value = _in.readDouble();
+            break;
+        case BinaryCellOutput.TRUE:
+            value = Boolean.TRUE;
+            break;
+        case BinaryCellOutput.FALSE:
+            value = Boolean.FALSE;
+            break;
+        case BinaryCellOutput.DATE:
+            value = ParsingUtilities.stringToDate(readUTF8());
+            break;
+        case BinaryCellOutput.LOCAL_DATE:
+            value = ParsingUtilities.stringToLocalDate(readUTF8());
+            break;
+        case BinaryCellOutput.ERROR:
+            value = new EvalError(readUTF8());
+            break;
+        default:
+            throw new IOException("Unknown cell tag " + tag);
+        }
+
+        Recon recon = null;
+        if ((tag & BinaryCellOutput.HAS_RECON) != 0) {
+            recon = _pool.getRecon(Long.toString(readVarLong()));
+        }
+        return _interner != null ? _interner.getCell(dictionary, value, recon) : new Cell(value, recon);
+    }
+
+    protected List<String> getDictionary(int dictionary) {
+        while (_dictionaries.size() <= dictionary) {
+            _dictionaries.add(new ArrayList<String>());
+        }
+        return _dictionaries.get(dictionary);
+    }
+
+    public String readUTF8() throws IOException {
+        int length = readVarInt();
+        if (length > _buffer.length) {
+            _buffer = new byte[Math.max(length, _buffer.length * 2)];
+        }
+        _in.readFully(_buffer, 0, length);
+        return new String(_buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    public String readOptionalUTF8() throws IOException {
+        return _in.readBoolean() ? readUTF8() : null;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return _in.readBoolean();
+    }
+
+    public int readInt() throws IOException {
+        return _in.readInt();
+    }
+
+    public int readVarInt() throws IOException {
+        int n = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = _in.readUnsignedByte();
+            n |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+    }
+
+    public long readVarLong() throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = _in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.google.refine.util;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.refine.expr.EvalError;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Row;
+
+/**
+ * Writes cells and rows in a compact binary form, read back by {@link BinaryCellInput}.
+ *
+ * Strings are written through dictionaries: the first occurrence of a string in a
+ * dictionary is written in full and later ones as references to it. Callers choose
+ * which dictionary each cell goes through, typically one per column, since values
+ * repeat within columns. Recons are not written, only their ids: they are added to
+ * the pool, which must be saved along with the output.
+ */
+public class BinaryCellOutput {
+    /*
+     * Only this many distinct strings per dictionary are remembered, so that
+     * columns of unique values do not fill the dictionary for nothing.
+     */
+    static final protected int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    static final byte NULL_CELL = 0;
+    static final byte NULL_VALUE = 1;
+    static final byte STRING_LITERAL = 2;   // not added to the dictionary
+    static final byte STRING_NEW = 3;       // added to the dictionary
+    static final byte STRING_REF = 4;
+    static final byte LONG = 5;
+    static final byte DOUBLE = 6;
+    static final byte TRUE = 7;
+    static final byte FALSE = 8;
+    static final byte DATE = 9;
+    static final byte LOCAL_DATE = 10;
+    static final byte ERROR = 11;
+
+    static final int HAS_RECON = 0x80;
+
+    static final int FLAGGED = 1;
+    static final int STARRED = 2;
+
+    final protected DataOutputStream            _out;
+    final protected Pool                        _pool;
+    final protected List<Map<String, Integer>>  _dictionaries = new ArrayList<Map<String, Integer>>();
+
+    public BinaryCellOutput(OutputStream out, Pool pool) {
+        _out = new DataOutputStream(out);
+        _pool = pool;
+    }
+
+    /**
+     * Write a row, using the dictionary of each cell's index.
+     */
+    public void writeRow(Row row) throws IOException {
+        _out.writeByte((row.isFlagged() ? FLAGGED : 0) | (row.isStarred() ? STARRED : 0));
+
+        List<Cell> cells = row.cells;
+        int cellCount = cells.size();
+        writeVarInt(cellCount);
+        for (int c = 0; c < cellCount; c++) {
+            writeCell(c, cells.get(c));
+        }
+    }
+
+    /**
+     * @param dictionary the dictionary to write a string value through
+     * @param cell the cell, possibly null
+     */
+    public void writeCell(int dictionary, Cell cell) throws IOException {
+        if (cell == null) {
+            _out.writeByte(NULL_CELL);
+            return;
+        }
+
+        int reconFlag = 0;
+        if (cell.recon != null) {
+            reconFlag = HAS_RECON;
+            _pool.pool(cell.recon);
+        }
+
+        Serializable value = cell.value;
+        if (value == null) {
+            _out.writeByte(NULL_VALUE | reconFlag);
+        } else if (value instanceof String) {
+            writeString(dictionary, (String) value, reconFlag);
+        } else if (value instanceof Long || value instanceof Integer ||
+                value instanceof Short || value instanceof Byte) {
+            _out.writeByte(LONG | reconFlag);
+            writeVarLong(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            _out.writeByte(DOUBLE | reconFlag);
+            _out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            _out.writeByte(((Boolean) value ? TRUE : FALSE) | reconFlag);
+        } else if (value instanceof OffsetDateTime) {
+            _out.writeByte(DATE | reconFlag);
+            writeUTF8(ParsingUtilities.dateToString((OffsetDateTime) value));
+        } else if (value instanceof LocalDateTime) {
+            _out.writeByte(LOCAL_DATE | reconFlag);
+            writeUTF8(ParsingUtilities.localDateToString((LocalDateTime) value));
+        } else if (value instanceof EvalError) {
+            _out.writeByte(ERROR | reconFlag);
+            writeUTF8(((EvalError) value).message);
+        } else {
+            writeString(dictionary, value.toString(), reconFlag);
+        }
+
+        if (cell.recon != null) {
+            writeVarLong(cell.recon.id);
+        }
+    }
+
+    protected void writeString(int dictionary, String s, int reconFlag) throws IOException {
+        while (_dictionaries.size() <= dictionary) {
+            _dictionaries.add(new HashMap<String, Integer>());
+        }
+        Map<String, Integer> strings = _dictionaries.get(dictionary);
+
+        Integer ref = strings.get(s);
+        if (ref != null) {
+            _out.writeByte(STRING_REF | reconFlag);
+            writeVarInt(ref);
+        } else if (strings.size() < MAX_DICTIONARY_SIZE) {
+            strings.put(s, strings.size());
+            _out.writeByte(STRING_NEW | reconFlag);
+            writeUTF8(s);
+        } else {
+            _out.writeByte(STRING_LITERAL | reconFlag);
+            writeUTF8(s);
+        }
+    }
+
+    public void writeUTF8(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        _out.write(bytes);
+    }
+
+    /**
+     * Write a string that may be null.
+     */
+    public void writeOptionalUTF8(String s) throws IOException {
+        _out.writeBoolean(s != null);
+        if (s != null) {
+            writeUTF8(s);
+        }
+    }
+
+    public void writeBoolean(boolean b) throws IOException {
+        _out.writeBoolean(b);
+    }
+
+    public void writeInt(int n) throws IOException {
+        _out.writeInt(n);
+    }
+
+    /**
+     * Write a non-negative int in as few bytes as needed.
+     */
+    public void writeVarInt(int n) throws IOException {
+        while ((n & ~0x7f) != 0) {
+            _out.writeByte((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        _out.writeByte(n);
+    }
+
+    /**
+     * Write a long in as few bytes as needed, small negative numbers included.
+     */
+    public void writeVarLong(long n) throws IOException {
+        long zigzag = (n << 1) ^ (n >> 63);
+        while ((zigzag & ~0x7fL) != 0) {
+            _out.writeByte((int) (zigzag & 0x7f) | 0x80);
+            zigzag >>>= 7;
+        }
+        _out.writeByte((int) zigzag);
+    }
+
+    public void flush() throws IOException {
+        _out.flush();
+    }
+}
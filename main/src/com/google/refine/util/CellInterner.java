@@ -0,0 +1,167 @@
+package com.google.refine.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.refine.model.Cell;
+import com.google.refine.model.Recon;
+
+/**
+ * Shares the cells made while importing or loading rows among the cells of a column
+ * which have the same value, so that a column of few distinct values holds as many
+ * strings and cells, not one of each per row.
+ *
+ * Cells are immutable, so a cell without a recon stands for all the cells of the same
+ * value in its column. Cells with a recon are not shared, but their string values are.
+ * Only strings, longs, doubles and booleans are shared: other values are either rare
+ * or not immutable.
+ *
+ * Each column keeps a table of up to a maximum number of distinct values. A column
+ * whose values turn out to be mostly distinct, or which has more distinct values than
+ * the maximum, drops its table and no longer shares anything, since it would only
+ * cost memory. Interners can be used from several threads at once.
+ */
+public class CellInterner {
+    static final public int DEFAULT_MAX_VALUES = 10000;
+
+    /**
+     * Number of distinct values after which a column is checked for sharing enough.
+     */
+    static final protected int SAMPLE_SIZE = 1024;
+
+    static protected class ColumnTable {
+        final ConcurrentMap<Serializable, Cell> cells = new ConcurrentHashMap<Serializable, Cell>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile boolean disabled;
+    }
+
+    final protected int _maxValues;
+    protected volatile ColumnTable[] _columns = new ColumnTable[0];
+
+    public CellInterner() {
+        this(DEFAULT_MAX_VALUES);
+    }
+
+    /**
+     * @param maxValues the number of distinct values of a column beyond which its
+     *      values are no longer shared
+     */
+    public CellInterner(int maxValues) {
+        _maxValues = maxValues;
+    }
+
+    /**
+     * @return a cell of the given value and recon, shared with the column's other cells
+     *      of the same value if possible
+     */
+    public Cell getCell(int cellIndex, Serializable value, Recon recon) {
+        ColumnTable table = getTable(cellIndex, value);
+        if (table == null) {
+            return new Cell(value, recon);
+        }
+        Cell cell = table.cells.get(value);
+        if (cell == null) {
+            cell = add(table, new Cell(value, null));
+        }
+        if (recon != null) {
+            return new Cell(cell.value, recon);
+        }
+        return cell;
+    }
+
+    /**
+     * @return a cell equal to the given one, shared with the column's other cells of the
+     *      same value if possible
+     */
+    public Cell intern(int cellIndex, Cell cell) {
+        if (cell == null) {
+            return null;
+        }
+        ColumnTable table = getTable(cellIndex, cell.value);
+        if (table == null) {
+            return cell;
+        }
+        Cell shared = table.cells.get(cell.value);
+        if (shared == null) {
+            shared = add(table, cell.recon == null ? cell : new Cell(cell.value, null));
+        }
+        if (cell.recon != null) {
+            return shared.value == cell.value ? cell : new Cell(shared.value, cell.recon);
+        }
+        return shared;
+    }
+
+    /**
+     * @return false if the values of the column are no longer shared
+     */
+    public boolean isEnabled(int cellIndex) {
+        ColumnTable[] columns = _columns;
+        return cellIndex >= columns.length || columns[cellIndex] == null || !columns[cellIndex].disabled;
+    }
+
+    /**
+     * @return the number of distinct values the column shares
+     */
+    public int getValueCount(int cellIndex) {
+        ColumnTable[] columns = _columns;
+        return cellIndex < columns.length && columns[cellIndex] != null ? columns[cellIndex].cells.size() : 0;
+    }
+
+    /**
+     * @return the table of the column, or null if the value cannot be shared in it
+     */
+    protected ColumnTable getTable(int cellIndex, Serializable value) {
+        if (cellIndex < 0 || !(value instanceof String || value instanceof Long ||
+                value instanceof Double || value instanceof Boolean)) {
+            return null;
+        }
+        ColumnTable[] columns = _columns;
+        ColumnTable table = cellIndex < columns.length ? columns[cellIndex] : null;
+        if (table == null) {
+            table = createTable(cellIndex);
+        }
+        if (table.disabled) {
+            return null;
+        }
+        if (table.size.get() < SAMPLE_SIZE) {
+            table.lookups.incrementAndGet();
+        }
+        return table;
+    }
+
+    synchronized protected ColumnTable createTable(int cellIndex) {
+        ColumnTable[] columns = _columns;
+        if (cellIndex >= columns.length) {
+            columns = Arrays.copyOf(columns, Math.max(cellIndex + 1, columns.length * 2));
+        }
+        if (columns[cellIndex] == null) {
+            columns[cellIndex] = new ColumnTable();
+        }
+        _columns = columns;
+        return columns[cellIndex];
+    }
+
+    /**
+     * Add a cell of a value not in the table yet, unless another thread just did.
+     *
+     * @return the cell shared for the value
+     */
+    protected Cell add(ColumnTable table, Cell cell) {
+        Cell existing = table.cells.putIfAbsent(cell.value, cell);
+        if (existing != null) {
+            return existing;
+        }
+        int size = table.size.incrementAndGet();
+        if (size > _maxValues ||
+                // fewer than one value in two seen again
+                (size == SAMPLE_SIZE && table.lookups.get() < 2 * SAMPLE_SIZE)) {
+            table.disabled = true;
+            table.cells.clear();
+        }
+        return cell;
+    }
+}
@@ -0,0 +1,177 @@
+package com.google.refine.util;
+
+/**
+ * Tells whether a string is a number in one pass over its characters, so that numbers
+ * can be parsed without trying parsers which throw on most strings.
+ *
+ * The syntax recognized is that of {@link Long#parseLong(String)} and
+ * {@link Double#parseDouble(String)}: {@link #parseNumber(String)} returns what trying
+ * the one and then the other would. Strings are expected to be trimmed already, since
+ * Double.parseDouble trims them but Long.parseLong does not.
+ */
+public class NumericText {
+    static final public int NOT_A_NUMBER = 0;
+    /** Digits, with an optional sign. */
+    static final public int INTEGER = 1;
+    /** Digits with a decimal point, or a floating-point type suffix. */
+    static final public int DECIMAL = 2;
+    /** A decimal number with an exponent, or a hexadecimal floating-point number. */
+    static final public int SCIENTIFIC = 3;
+    /** NaN or Infinity, with an optional sign. */
+    static final public int NON_FINITE = 4;
+
+    /**
+     * Integers of up to this many digits fit in a long.
+     */
+    static final protected int SAFE_LONG_DIGITS = 18;
+
+    /**
+     * @return the kind of number the string is, or {@link #NOT_A_NUMBER}
+     */
+    static public int classify(String s) {
+        int length = s.length();
+        int i = 0;
+        if (length > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            i++;
+        }
+        if (i == length) {
+            return NOT_A_NUMBER;
+        }
+
+        char c = s.charAt(i);
+        if (c == 'N' || c == 'I') {
+            return s.startsWith(c == 'N' ? "NaN" : "Infinity", i) &&
+                length - i == (c == 'N' ? 3 : 8) ? NON_FINITE : NOT_A_NUMBER;
+        }
+        if (c == '0' && i + 1 < length && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X')) {
+            return classifyHexadecimal(s, i + 2);
+        }
+
+        int start = i;
+        while (i < length && isAsciiDigit(s.charAt(i))) {
+            i++;
+        }
+        int digits = i - start;
+        if (i == length) {
+            return digits > 0 ? INTEGER : NOT_A_NUMBER;
+        }
+
+        if (Character.digit(s.charAt(i), 10) >= 0) {
+            // Long.parseLong takes any Unicode decimal digits
+            return isUnicodeInteger(s, i) ? INTEGER : NOT_A_NUMBER;
+        }
+
+        int kind = DECIMAL;
+        if (s.charAt(i) == '.') {
+            i++;
+            int fractionStart = i;
+            while (i < length && isAsciiDigit(s.charAt(i))) {
+                i++;
+            }
+            digits += i - fractionStart;
+        }
+        if (digits == 0) {
+            return NOT_A_NUMBER;
+        }
+
+        if (i < length && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i = skipExponent(s, i + 1);
+            if (i < 0) {
+                return NOT_A_NUMBER;
+            }
+            kind = SCIENTIFIC;
+        }
+        return isEndOfFloat(s, i) ? kind : NOT_A_NUMBER;
+    }
+
+    /**
+     * @return the number the string is, as a Long if it is an integer which fits in one
+     *      and as a Double otherwise, or null if it is not a number
+     */
+    static public Number parseNumber(String s) {
+        switch (classify(s)) {
+        case INTEGER:
+            if (s.length() <= SAFE_LONG_DIGITS) {
+                return Long.parseLong(s);
+            }
+            try {
+                return Long.parseLong(s);
+            } catch (NumberFormatException e) {
+                // too large for a long, or Unicode digits Double does not take
+            }
+            try {
+                return Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        case DECIMAL:
+        case SCIENTIFIC:
+        case NON_FINITE:
+            return Double.parseDouble(s);
+        default:
+            return null;
+        }
+    }
+
+    static protected int classifyHexadecimal(String s, int i) {
+        int length = s.length();
+        int digits = 0;
+        while (i < length && Character.digit(s.charAt(i), 16) >= 0 && s.charAt(i) < 128) {
+            i++;
+            digits++;
+        }
+        if (i < length && s.charAt(i) == '.') {
+            i++;
+            while (i < length && Character.digit(s.charAt(i), 16) >= 0 && s.charAt(i) < 128) {
+                i++;
+                digits++;
+            }
+        }
+        // the binary exponent is required
+        if (digits == 0 || i == length || (s.charAt(i) != 'p' && s.charAt(i) != 'P')) {
+            return NOT_A_NUMBER;
+        }
+        i = skipExponent(s, i + 1);
+        return i >= 0 && isEndOfFloat(s, i) ? SCIENTIFIC : NOT_A_NUMBER;
+    }
+
+    /**
+     * @return the index after the exponent's sign and digits, or -1 if there are no digits
+     */
+    static protected int skipExponent(String s, int i) {
+        int length = s.length();
+        if (i < length && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            i++;
+        }
+        int start = i;
+        while (i < length && isAsciiDigit(s.charAt(i))) {
+            i++;
+        }
+        return i > start ? i : -1;
+    }
+
+    /**
+     * @return true if the string ends at the given index, but for a type suffix
+     */
+    static protected boolean isEndOfFloat(String s, int i) {
+        int length = s.length();
+        if (i == length) {
+            return true;
+        }
+        char c = s.charAt(i);
+        return i + 1 == length && (c == 'f' || c == 'F' || c == 'd' || c == 'D');
+    }
+
+    static protected boolean isUnicodeInteger(String s, int i) {
+        for (; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 10) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static protected boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -37,6 +37,9 @@ import java.io.File;
 import java.io.Writer;
 import java.util.Properties;
 
+import org.json.JSONException;
+import org.json.JSONWriter;
+
 import com.google.refine.ProjectManager;
 import com.google.refine.history.HistoryEntry;
 import com.google.refine.history.HistoryEntryManager;
@@ -51,6 +54,12 @@ public class HistoryEntryManagerStub implements HistoryEntryManager{
 
     @Override
     public void save(HistoryEntry historyEntry, Writer writer, Properties options) {
+        JSONWriter jsonWriter = new JSONWriter(writer);
+        try {
+            historyEntry.write(jsonWriter, options);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
     }
 
     @Override
@@ -0,0 +1,206 @@
+package com.google.refine.tests;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.InterProjectModel;
+import com.google.refine.InterProjectModel.ProjectJoin;
+import com.google.refine.ProjectManager;
+import com.google.refine.browsing.RowVisitor;
+import com.google.refine.expr.ExpressionUtils;
+import com.google.refine.expr.HasFields;
+import com.google.refine.expr.HasFieldsListImpl;
+import com.google.refine.expr.WrappedRow;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
+import com.google.refine.model.ModelException;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.preference.PreferenceStore;
+
+public class InterProjectModelTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    static final int ROW_COUNT = 10000;
+
+    InterProjectModel model;
+    Project people;
+    Project orders;
+
+    @BeforeMethod
+    public void SetUp() throws IOException, ModelException {
+        model = new InterProjectModel();
+
+        people = createProjectWithColumns("InterProjectModelTests people", "name");
+        for (String name : new String[] { "anne", "bob", "carl", "anne" }) {
+            addRow(people, name, null);
+        }
+
+        orders = createProjectWithColumns("InterProjectModelTests orders", "customer", "item");
+        for (int i = 0; i < ROW_COUNT; i++) {
+            addRow(orders, i % 100 == 0 ? "anne" : "other" + (i % 7), "item" + i);
+        }
+        addRow(orders, "bob", "last");
+        orders.update();
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        ProjectManager.singleton.getPreferenceStore().put(InterProjectModel.CACHE_MEGABYTES_PREFERENCE, null);
+    }
+
+    private void addRow(Project project, String first, String second) {
+        Row row = new Row(2);
+        row.setCell(0, new Cell(first, null));
+        if (second != null) {
+            row.setCell(1, new Cell(second, null));
+        }
+        project.rows.add(row);
+    }
+
+    private ProjectJoin join() {
+        return model.getJoin("InterProjectModelTests people", "name", "InterProjectModelTests orders", "customer");
+    }
+
+    @Test
+    public void joinListsMatchingRowsInOrder() {
+        ProjectJoin join = join();
+        Assert.assertFalse(join.isDetached());
+
+        int[] rowIndices = join.getRowIndices("anne");
+        Assert.assertEquals(rowIndices.length, ROW_COUNT / 100);
+        for (int k = 0; k < rowIndices.length; k++) {
+            Assert.assertEquals(rowIndices[k], k * 100);
+        }
+        Assert.assertEquals(join.getRowIndices("bob"), new int[] { ROW_COUNT });
+        Assert.assertEquals(join.getRowIndices("carl").length, 0);
+        Assert.assertNull(join.getRowIndices("other1"));
+
+        HasFieldsListImpl rows = join.getRows("bob");
+        Assert.assertEquals(rows.size(), 1);
+        Assert.assertEquals(((WrappedRow) rows.get(0)).row.getCellValue(1), "last");
+        Assert.assertEquals(join.getRows("carl").size(), 0);
+        Assert.assertNull(join.getRows(""));
+
+        @SuppressWarnings("deprecation")
+        Map<Object, List<Integer>> valueToRowIndices = join.valueToRowIndices;
+        Assert.assertEquals(valueToRowIndices.size(), 3);
+        Assert.assertEquals(valueToRowIndices.get("bob"), Arrays.asList(ROW_COUNT));
+        Assert.assertTrue(valueToRowIndices.get("carl").isEmpty());
+        Assert.assertFalse(valueToRowIndices.containsKey("other1"));
+    }
+
+    @Test
+    public void rowsReadFromDiskHaveRecords() throws Exception {
+        final Project items = createProjectWithColumns("InterProjectModelTests items", "customer", "item");
+        addRow(items, "carl", "hat");
+        addRow(items, "bob", "pen");
+        addRow(items, "", "ink");
+        addRow(items, "anne", "cup");
+        items.update();
+
+        // a workspace where the items project is not loaded but can be read from disk
+        final ProjectManager previous = ProjectManager.singleton;
+        ProjectManager.singleton = new ProjectManagerStub() {
+            @Override
+            public long getProjectID(String name) {
+                return previous.getProjectID(name);
+            }
+
+            @Override
+            public Project getProject(long id) {
+                return previous.getProject(id);
+            }
+
+            @Override
+            public boolean isProjectLoaded(long id) {
+                return id != items.id && previous.isProjectLoaded(id);
+            }
+
+            @Override
+            public Project scanProject(long id, RowVisitor visitor) {
+                Project detached = new Project();
+                for (Column column : items.columnModel.columns) {
+                    try {
+                        detached.columnModel.addColumn(-1, new Column(column.getCellIndex(), column.getName()), false);
+                    } catch (ModelException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                visitor.start(detached);
+                for (int r = 0; r < items.rows.size(); r++) {
+                    visitor.visit(detached, r, items.rows.get(r));
+                }
+                visitor.end(detached);
+                return detached;
+            }
+
+            @Override
+            public PreferenceStore getPreferenceStore() {
+                return previous.getPreferenceStore();
+            }
+        };
+        try {
+            ProjectJoin join = model.getJoin("InterProjectModelTests people", "name", "InterProjectModelTests items", "customer");
+            Assert.assertTrue(join.isDetached());
+            Assert.assertEquals(join.getRowIndices("bob"), new int[] { 1 });
+
+            WrappedRow row = (WrappedRow) join.getRows("bob").get(0);
+            Assert.assertEquals(row.row.getCellValue(1), "pen");
+
+            Properties bindings = ExpressionUtils.createBindings(people);
+            bindings.put("rowIndex", 0);
+            HasFields record = (HasFields) row.getField("record", bindings);
+            Assert.assertEquals(record.getField("fromRowIndex", bindings), 1);
+            Assert.assertEquals(record.getField("toRowIndex", bindings), 3);
+            HasFields cells = (HasFields) record.getField("cells", bindings);
+            Assert.assertEquals(((HasFieldsListImpl) cells.getField("item", bindings)).size(), 2);
+        } finally {
+            ProjectManager.singleton = previous;
+        }
+    }
+
+    @Test
+    public void joinsAreCachedAndFlushed() {
+        ProjectJoin join = join();
+        Assert.assertSame(join(), join);
+        Assert.assertEquals(model.getMissCount(), 1);
+        Assert.assertEquals(model.getHitCount(), 1);
+        Assert.assertTrue(join.getMemorySize() > 0);
+        Assert.assertEquals(model.getCachedBytes(), join.getMemorySize());
+
+        model.flushJoinsInvolvingProjectColumn(orders.id, "customer");
+        Assert.assertEquals(model.getCachedJoinCount(), 0);
+        Assert.assertEquals(model.getCachedBytes(), 0);
+        Assert.assertNotSame(join(), join);
+    }
+
+    @Test
+    public void leastRecentlyUsedJoinsAreEvicted() {
+        ProjectManager.singleton.getPreferenceStore().put(InterProjectModel.CACHE_MEGABYTES_PREFERENCE, "0");
+
+        ProjectJoin join = join();
+        Assert.assertEquals(model.getCachedJoinCount(), 1);
+
+        ProjectJoin other = model.getJoin("InterProjectModelTests orders", "customer", "InterProjectModelTests people", "name");
+        Assert.assertEquals(model.getCachedJoinCount(), 1);
+        Assert.assertEquals(model.getEvictionCount(), 1);
+        Assert.assertEquals(model.getCachedBytes(), other.getMemorySize());
+        Assert.assertNotSame(join(), join);
+    }
+}
@@ -0,0 +1,225 @@
+package com.google.refine.tests.browsing;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.json.JSONObject;
+import org.json.JSONWriter;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.browsing.Engine;
+import com.google.refine.browsing.RowVisitor;
+import com.google.refine.browsing.util.ExpressionValueCache;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.model.changes.CellChange;
+import com.google.refine.tests.RefineTest;
+
+public class EngineTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    static final String ENGINE_CONFIG = "{\"mode\":\"row-based\",\"facets\":["
+            + "{\"type\":\"list\",\"name\":\"category\",\"columnName\":\"category\",\"expression\":\"value\","
+            + "\"omitBlank\":false,\"omitError\":false,\"selectBlank\":false,\"selectError\":false,\"invert\":false,"
+            + "\"selection\":[{\"v\":{\"v\":\"c1\",\"l\":\"c1\"}},{\"v\":{\"v\":\"c3\",\"l\":\"c3\"}}]},"
+            + "{\"type\":\"range\",\"name\":\"amount\",\"columnName\":\"amount\",\"expression\":\"value\","
+            + "\"from\":100,\"to\":700,\"selectNumeric\":true,\"selectNonNumeric\":true,\"selectBlank\":true,\"selectError\":true},"
+            + "{\"type\":\"list\",\"name\":\"parity\",\"columnName\":\"amount\",\"expression\":\"value % 2\","
+            + "\"omitBlank\":false,\"omitError\":false,\"selectBlank\":false,\"selectError\":false,\"invert\":false,"
+            + "\"selection\":[]}]}";
+
+    Project project;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        project = createProjectWithColumns("EngineTests", "category", "amount");
+        for (int i = 0; i < 20000; i++) {
+            Row row = new Row(2);
+            row.setCell(0, new Cell("c" + (i % 7), null));
+            if (i % 13 != 0) {
+                row.setCell(1, new Cell((long) (i % 1000), null));
+            }
+            project.rows.add(row);
+        }
+        project.update();
+    }
+
+    private String computeFacets(int parallelism) throws Exception {
+        return computeFacets(parallelism, true);
+    }
+
+    private String computeFacets(int parallelism, boolean singlePass) throws Exception {
+        Engine engine = new Engine(project);
+        engine.initializeFromJSON(new JSONObject(ENGINE_CONFIG));
+        engine.setParallelism(parallelism);
+        engine.setSinglePassFilters(singlePass);
+        engine.computeFacets();
+
+        StringWriter writer = new StringWriter();
+        engine.write(new JSONWriter(writer), new Properties());
+        return writer.toString();
+    }
+
+    @Test
+    public void parallelFacetsMatchSequential() throws Exception {
+        String sequential = computeFacets(1);
+        Assert.assertEquals(computeFacets(4), sequential);
+        Assert.assertEquals(computeFacets(3), sequential);
+    }
+
+    @Test
+    public void singlePassFacetsMatchPerFacetScans() throws Exception {
+        String perFacet = computeFacets(1, false);
+        Assert.assertTrue(perFacet.contains("\"choices\""));
+        Assert.assertEquals(computeFacets(1, true), perFacet);
+        Assert.assertEquals(computeFacets(4, true), perFacet);
+        Assert.assertEquals(computeFacets(4, false), perFacet);
+    }
+
+    @Test
+    public void repeatedFacetsReuseCachedValues() throws Exception {
+        String first = computeFacets(1);
+        ExpressionValueCache cache = ExpressionValueCache.getCache(project, 1, "value");
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+
+        Assert.assertEquals(computeFacets(4), first);
+        Assert.assertEquals(cache.getMissCount(), misses);
+        Assert.assertTrue(cache.getHitCount() > hits);
+
+        new CellChange(1, 1, project.rows.get(1).getCell(1), new Cell(500L, null)).apply(project);
+        Assert.assertNotEquals(computeFacets(1), first);
+        ExpressionValueCache updated = ExpressionValueCache.getCache(project, 1, "value");
+        Assert.assertNotSame(updated, cache);
+        Assert.assertTrue(updated.getMissCount() > 0);
+    }
+
+    @Test
+    public void scatterplotFacetsReuseCachedValues() throws Exception {
+        String config = "{\"mode\":\"row-based\",\"facets\":["
+                + "{\"type\":\"scatterplot\",\"name\":\"amounts\",\"l\":150,"
+                + "\"cx\":\"amount\",\"ex\":\"value\",\"cy\":\"amount\",\"ey\":\"value * 2\","
+                + "\"from_x\":0.2,\"to_x\":0.8,\"from_y\":0.2,\"to_y\":0.8}]}";
+        Engine engine = new Engine(project);
+        engine.initializeFromJSON(new JSONObject(config));
+        final int[] counts = new int[2];
+        engine.getAllFilteredRows().accept(project, new CountingVisitor(counts, 0));
+
+        ExpressionValueCache y = ExpressionValueCache.getCache(project, 1, "value * 2");
+        long misses = y.getMissCount();
+        long hits = y.getHitCount();
+        Assert.assertTrue(hits > 0);
+
+        engine = new Engine(project);
+        engine.initializeFromJSON(new JSONObject(config));
+        engine.getAllFilteredRows().accept(project, new CountingVisitor(counts, 1));
+        Assert.assertEquals(counts[1], counts[0]);
+        Assert.assertTrue(counts[0] > 0 && counts[0] < project.rows.size());
+        Assert.assertEquals(y.getMissCount(), misses);
+        Assert.assertTrue(y.getHitCount() >= hits + project.rows.size());
+    }
+
+    static private class CountingVisitor implements RowVisitor {
+        final int[] counts;
+        final int index;
+
+        CountingVisitor(int[] counts, int index) {
+            this.counts = counts;
+            this.index = index;
+        }
+
+        @Override
+        public void start(Project project) {
+        }
+
+        @Override
+        public boolean visit(Project project, int rowIndex, Row row) {
+            counts[index]++;
+            return false;
+        }
+
+        @Override
+        public void end(Project project) {
+        }
+    }
+
+    @Test
+    public void cachesStayWithinTheirBudget() throws Exception {
+        String unbounded = computeFacets(1);
+        ProjectManager.singleton.getPreferenceStore().put(ExpressionValueCache.MAX_ENTRIES_PREFERENCE, 30000);
+        try {
+            project.columnModel.clearPrecomputes();
+            Assert.assertEquals(computeFacets(1), unbounded);
+            Assert.assertTrue(ExpressionValueCache.getCachedEntryCount() <= 30000);
+
+            ExpressionValueCache amounts = ExpressionValueCache.getCache(project, 1, "value");
+            ExpressionValueCache categories = ExpressionValueCache.getCache(project, 0, "value");
+            Assert.assertTrue(amounts.isEvicted());
+            Assert.assertFalse(categories.isEvicted());
+            Assert.assertEquals(amounts.get(0), ExpressionValueCache.NOT_CACHED);
+
+            ProjectManager.singleton.getPreferenceStore().put(ExpressionValueCache.MAX_ENTRIES_PREFERENCE, 10000);
+            // a cache larger than the whole budget only holds the first rows
+            ExpressionValueCache capped = ExpressionValueCache.getCache(project, 1, "value % 3");
+            Assert.assertEquals(capped.size(), 20000);
+            Assert.assertEquals(capped.getCapacity(), 10000);
+            Assert.assertTrue(ExpressionValueCache.getCachedEntryCount() <= 10000);
+            capped.put(9999, 1L);
+            capped.put(10000, 1L);
+            Assert.assertEquals(capped.get(9999), 1L);
+            Assert.assertEquals(capped.get(10000), ExpressionValueCache.NOT_CACHED);
+        } finally {
+            ProjectManager.singleton.getPreferenceStore().put(ExpressionValueCache.MAX_ENTRIES_PREFERENCE, null);
+        }
+    }
+
+    @Test
+    public void parallelFilteringVisitsRowsInOrder() throws Exception {
+        final List<Integer> sequential = new ArrayList<Integer>();
+        final List<Integer> parallel = new ArrayList<Integer>();
+
+        Engine engine = new Engine(project);
+        engine.initializeFromJSON(new JSONObject(ENGINE_CONFIG));
+        engine.getAllFilteredRows().accept(project, new CollectingVisitor(sequential));
+        engine.setParallelism(4);
+        engine.getAllFilteredRows().accept(project, new CollectingVisitor(parallel));
+
+        Assert.assertFalse(sequential.isEmpty());
+        Assert.assertEquals(parallel, sequential);
+    }
+
+    static class CollectingVisitor implements RowVisitor {
+        final List<Integer> rowIndices;
+
+        CollectingVisitor(List<Integer> rowIndices) {
+            this.rowIndices = rowIndices;
+        }
+
+        @Override
+        public void start(Project project) {
+        }
+
+        @Override
+        public boolean visit(Project project, int rowIndex, Row row) {
+            rowIndices.add(rowIndex);
+            return false;
+        }
+
+        @Override
+        public void end(Project project) {
+        }
+    }
+}
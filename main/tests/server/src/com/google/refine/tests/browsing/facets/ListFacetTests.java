@@ -0,0 +1,247 @@
+package com.google.refine.tests.browsing.facets;
+
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.browsing.Engine;
+import com.google.refine.browsing.RowFilter;
+import com.google.refine.browsing.facets.ListFacet;
+import com.google.refine.browsing.facets.NominalFacetChoice;
+import com.google.refine.browsing.filters.ExpressionEqualRowFilter;
+import com.google.refine.browsing.util.ExpressionNominalValueGrouper;
+import com.google.refine.browsing.util.NominalValueRowIndex;
+import com.google.refine.expr.EvalError;
+import com.google.refine.expr.MetaParser;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.model.changes.CellChange;
+import com.google.refine.model.changes.RowReorderChange;
+import com.google.refine.model.columnar.ColumnarRowStore;
+import com.google.refine.tests.RefineTest;
+
+public class ListFacetTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    Project project;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        project = createProjectWithColumns("ListFacetTests", "A", "B");
+        addRows(project);
+    }
+
+    private void addRows(Project project) {
+        Serializable[] values = { "a", "b,c", 1L, 1.0, 2.5, "", null, new EvalError("boom"), "c", 0L, -0.0 };
+        for (int i = 0; i < 500; i++) {
+            Row row = new Row(2);
+            Serializable value = values[i % values.length];
+            if (value != null) {
+                row.setCell(0, new Cell(value, null));
+            }
+            row.setCell(1, new Cell("b" + (i % 3), null));
+            project.rows.add(row);
+        }
+        project.update();
+    }
+
+    private JSONObject facetConfig(String expression, boolean selectBlank, boolean selectError,
+            boolean invert, Object... selection) throws Exception {
+        JSONArray choices = new JSONArray();
+        for (Object v : selection) {
+            choices.put(new JSONObject().put("v", new JSONObject().put("v", v).put("l", v.toString())));
+        }
+        return new JSONObject()
+            .put("type", "list").put("name", "A").put("columnName", "A").put("expression", expression)
+            .put("omitBlank", false).put("omitError", false)
+            .put("selectBlank", selectBlank).put("selectError", selectError).put("invert", invert)
+            .put("selection", choices);
+    }
+
+    private RowFilter createFilter(JSONObject config) throws Exception {
+        ListFacet facet = new ListFacet();
+        facet.initializeFromJSON(project, config);
+        return facet.getRowFilter(project);
+    }
+
+    private void assertMatchesEvaluation(JSONObject config) throws Exception {
+        RowFilter indexed = createFilter(config);
+
+        List<Object> matches = new ArrayList<Object>();
+        JSONArray selection = config.getJSONArray("selection");
+        for (int i = 0; i < selection.length(); i++) {
+            matches.add(selection.getJSONObject(i).getJSONObject("v").get("v"));
+        }
+        RowFilter evaluated = new ExpressionEqualRowFilter(
+            MetaParser.parse(config.getString("expression")), "A", 0, matches.toArray(),
+            config.getBoolean("selectBlank"), config.getBoolean("selectError"), config.getBoolean("invert"));
+
+        for (int r = 0; r < project.rows.size(); r++) {
+            Row row = project.rows.get(r);
+            Assert.assertEquals(indexed.filterRow(project, r, row), evaluated.filterRow(project, r, row),
+                "row " + r + " of " + config);
+        }
+    }
+
+    @Test
+    public void indexedFilterMatchesEvaluation() throws Exception {
+        assertMatchesEvaluation(facetConfig("value", false, false, false, "a", "c"));
+        assertMatchesEvaluation(facetConfig("value", false, false, true, "a", "c"));
+        assertMatchesEvaluation(facetConfig("value", false, false, false, 1, 0));
+        assertMatchesEvaluation(facetConfig("value", true, true, false, 2.5));
+        assertMatchesEvaluation(facetConfig("value", true, false, true, "1"));
+        assertMatchesEvaluation(facetConfig("grel:value.split(',')", false, true, false, "c"));
+        assertMatchesEvaluation(facetConfig("value.split(',')", false, false, true, "b", "a"));
+
+        Column column = project.columnModel.getColumnByName("A");
+        Assert.assertTrue(column.getPrecompute(NominalValueRowIndex.PRECOMPUTE_KEY_PREFIX + "value") != null);
+    }
+
+    @Test
+    public void tooManyValuesAreNotIndexed() throws Exception {
+        ProjectManager.singleton.getPreferenceStore().put(NominalValueRowIndex.MAX_VALUES_PREFERENCE, 3);
+        try {
+            assertMatchesEvaluation(facetConfig("value", false, false, false, "a", "c"));
+            assertMatchesEvaluation(facetConfig("value.toString()[0]", true, false, false, "a"));
+        } finally {
+            ProjectManager.singleton.getPreferenceStore().put(NominalValueRowIndex.MAX_VALUES_PREFERENCE, null);
+        }
+
+        Column column = project.columnModel.getColumnByName("A");
+        NominalValueRowIndex index = (NominalValueRowIndex) column.getPrecompute(
+            NominalValueRowIndex.PRECOMPUTE_KEY_PREFIX + "value");
+        Assert.assertTrue(index.isOverflowed());
+        Assert.assertEquals(index.getValueCount(), 0);
+        Assert.assertNull(NominalValueRowIndex.getIndex(project, column, "value", MetaParser.parse("value")));
+    }
+
+    @Test
+    public void columnScanMatchesEvaluation() throws Exception {
+        ProjectManager.singleton.getPreferenceStore().put("storage.columnarRows", true);
+        try {
+            project = createProjectWithColumns("ListFacetTests columnar", "A", "B");
+            addRows(project);
+        } finally {
+            ProjectManager.singleton.getPreferenceStore().put("storage.columnarRows", null);
+        }
+        Assert.assertTrue(project.rows instanceof ColumnarRowStore);
+
+        assertMatchesEvaluation(facetConfig("value", false, false, false, "a", "c"));
+        assertMatchesEvaluation(facetConfig("grel:value", true, true, true, 1, 2.5));
+        assertMatchesEvaluation(facetConfig("value.split(',')", false, false, false, "c"));
+        Column column = project.columnModel.getColumnByName("A");
+        Assert.assertEquals(((NominalValueRowIndex) column.getPrecompute(
+            NominalValueRowIndex.PRECOMPUTE_KEY_PREFIX + "value")).getRowCount(), 500);
+    }
+
+    @Test
+    public void indexIsSharedAndInvalidated() throws Exception {
+        JSONObject config = facetConfig("value", false, false, false, "a");
+        Column column = project.columnModel.getColumnByName("A");
+        String key = NominalValueRowIndex.PRECOMPUTE_KEY_PREFIX + "value";
+
+        Assert.assertTrue(createFilter(config).filterRow(project, 0, project.rows.get(0)));
+        Object index = column.getPrecompute(key);
+        Assert.assertNotNull(index);
+        createFilter(facetConfig("value", false, false, false, "c"));
+        Assert.assertSame(column.getPrecompute(key), index);
+
+        new CellChange(1, 0, project.rows.get(1).getCell(0), new Cell("a", null)).apply(project);
+        Assert.assertNull(column.getPrecompute(key));
+        Assert.assertTrue(createFilter(config).filterRow(project, 1, project.rows.get(1)));
+
+        List<Integer> reversed = new ArrayList<Integer>();
+        for (int r = project.rows.size() - 1; r >= 0; r--) {
+            reversed.add(r);
+        }
+        new RowReorderChange(reversed).apply(project);
+        Assert.assertNull(column.getPrecompute(key));
+        int last = project.rows.size() - 1;
+        Assert.assertTrue(createFilter(config).filterRow(project, last, project.rows.get(last)));
+    }
+
+    @Test
+    public void expressionsDependingOnTheRowAreNotIndexed() throws Exception {
+        for (String expression : Arrays.asList("row.starred", "cells['B'].value", "rowIndex % 2", "columnName + value",
+                "value.reinterpret('utf-8')", "jython:return value")) {
+            Assert.assertFalse(NominalValueRowIndex.isIndexable(expression, 0), expression);
+        }
+        Assert.assertTrue(NominalValueRowIndex.isIndexable("value.toLowercase()", 0));
+        Assert.assertFalse(NominalValueRowIndex.isIndexable("value", -1));
+
+        createFilter(facetConfig("row.starred", false, false, false, true));
+        Column column = project.columnModel.getColumnByName("A");
+        Assert.assertNull(column.getPrecompute(NominalValueRowIndex.PRECOMPUTE_KEY_PREFIX + "row.starred"));
+    }
+
+    private JSONObject computeFacet(JSONObject config) throws Exception {
+        ListFacet facet = new ListFacet();
+        facet.initializeFromJSON(project, config);
+        facet.computeChoices(project, new Engine(project).getAllRows());
+        StringWriter out = new StringWriter();
+        facet.write(new JSONWriter(out), new Properties());
+        return new JSONObject(out.toString());
+    }
+
+    @Test
+    public void groupedChoicesAreCountedOncePerRow() throws Exception {
+        ExpressionNominalValueGrouper grouper = new ExpressionNominalValueGrouper(
+            MetaParser.parse("value.split(',')"), "A", 0);
+        new Engine(project).getAllRows().accept(project, grouper);
+
+        Map<String, NominalFacetChoice> choices = grouper.getChoices();
+        Assert.assertEquals(choices.get("a").count, 46);
+        Assert.assertEquals(choices.get("c").count, 91);
+        Assert.assertEquals(choices.get("1").count, 46);
+        Assert.assertEquals((int) grouper.getChoiceValueCount("c"), 91);
+        Assert.assertEquals((int) grouper.getChoiceValueCount("missing"), 0);
+        Assert.assertEquals(grouper.errorCount, 90);
+        Assert.assertFalse(grouper.hasTooManyChoices());
+        Assert.assertEquals(grouper.getChoiceCount(), choices.size());
+    }
+
+    @Test
+    public void groupingStopsBeyondTheChoiceLimit() throws Exception {
+        ExpressionNominalValueGrouper grouper = new ExpressionNominalValueGrouper(
+            MetaParser.parse("rowIndex"), "A", 0, null, 10);
+        new Engine(project).getAllRows().accept(project, grouper);
+        Assert.assertTrue(grouper.hasTooManyChoices());
+        Assert.assertEquals(grouper.getChoiceCount(), 11);
+
+        ProjectManager.singleton.getPreferenceStore().put("ui.browsing.listFacet.limit", 100);
+        try {
+            JSONObject o = computeFacet(facetConfig("rowIndex", false, false, false));
+            Assert.assertEquals(o.getString("error"), "Too many choices");
+            Assert.assertEquals(o.getInt("choiceCountLimit"), 100);
+            Assert.assertTrue(o.getBoolean("moreThanLimit"));
+            Assert.assertFalse(o.has("choiceCount"));
+
+            o = computeFacet(facetConfig("value", false, false, false, "a"));
+            Assert.assertFalse(o.has("error"));
+            Assert.assertEquals(o.getJSONArray("choices").length(), 8);
+        } finally {
+            ProjectManager.singleton.getPreferenceStore().put("ui.browsing.listFacet.limit", null);
+        }
+    }
+}
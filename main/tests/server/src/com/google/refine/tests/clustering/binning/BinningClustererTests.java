@@ -0,0 +1,95 @@
+package com.google.refine.tests.clustering.binning;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Properties;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.browsing.Engine;
+import com.google.refine.clustering.binning.BinningClusterer;
+import com.google.refine.model.Cell;
+import com.google.refine.model.ModelException;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.tests.RefineTest;
+
+public class BinningClustererTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        ProjectManager.singleton.getPreferenceStore().put(BinningClusterer.PARALLELISM_PREFERENCE, null);
+    }
+
+    private JSONArray cluster(Project project, String function) throws Exception {
+        BinningClusterer clusterer = new BinningClusterer();
+        clusterer.initializeFromJSON(project, new JSONObject(
+            "{\"type\":\"binning\",\"function\":\"" + function + "\",\"column\":\"name\",\"params\":{}}"));
+        clusterer.computeClusters(new Engine(project));
+
+        StringWriter sw = new StringWriter();
+        clusterer.write(new JSONWriter(sw), new Properties());
+        return new JSONArray(sw.toString());
+    }
+
+    private Project createProject(String... values) throws IOException, ModelException {
+        Project project = createProjectWithColumns("BinningClustererTests", "name");
+        for (String value : values) {
+            Row row = new Row(1);
+            row.setCell(0, value == null ? null : new Cell(value, null));
+            project.rows.add(row);
+        }
+        return project;
+    }
+
+    @Test
+    public void valuesAreCountedAndClustered() throws Exception {
+        Project project = createProject(
+            "Ada Lovelace", "lovelace, ada", "Ada Lovelace", null, "Alan Turing", "Turing Alan", "Grace Hopper");
+
+        JSONArray clusters = cluster(project, "fingerprint");
+
+        Assert.assertEquals(clusters.length(), 2);
+        // larger clusters first, then values by decreasing count
+        JSONArray first = clusters.getJSONArray(0);
+        Assert.assertEquals(first.length(), 2);
+        Assert.assertEquals(first.getJSONObject(0).getString("v"), "Ada Lovelace");
+        Assert.assertEquals(first.getJSONObject(0).getInt("c"), 2);
+        Assert.assertEquals(first.getJSONObject(1).getString("v"), "lovelace, ada");
+        Assert.assertEquals(first.getJSONObject(1).getInt("c"), 1);
+        Assert.assertEquals(clusters.getJSONArray(1).length(), 2);
+    }
+
+    @Test
+    public void parallelKeyingGivesTheSameClusters() throws Exception {
+        String[] values = new String[40000];
+        for (int i = 0; i < values.length; i++) {
+            // every group of four distinct values shares a fingerprint
+            int n = i / 8;
+            values[i] = (i % 8) < 4 ? "name" + n + " x" + (i % 4) : "x" + (i % 4) + " NAME" + n;
+        }
+        Project project = createProject(values);
+
+        ProjectManager.singleton.getPreferenceStore().put(BinningClusterer.PARALLELISM_PREFERENCE, 1);
+        JSONArray serial = cluster(project, "fingerprint");
+        ProjectManager.singleton.getPreferenceStore().put(BinningClusterer.PARALLELISM_PREFERENCE, 4);
+        JSONArray parallel = cluster(project, "fingerprint");
+
+        Assert.assertEquals(serial.length(), 20000);
+        Assert.assertEquals(parallel.toString(), serial.toString());
+    }
+}
@@ -0,0 +1,170 @@
+package com.google.refine.tests.clustering.knn;
+
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.browsing.Engine;
+import com.google.refine.clustering.ClusteringProcess;
+import com.google.refine.clustering.knn.NeighborSearch;
+import com.google.refine.clustering.knn.kNNClusterer;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.tests.RefineTest;
+
+import edu.mit.simile.vicino.distances.Distance;
+import edu.mit.simile.vicino.distances.LevenshteinDistance;
+
+public class NeighborSearchTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    static class Listener implements NeighborSearch.Listener {
+        int cancelAfter = Integer.MAX_VALUE;
+        volatile int done;
+
+        @Override
+        public void onProgress(int done, int total) {
+            this.done = done;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return done >= cancelAfter;
+        }
+    }
+
+    private String[] makeValues(int count) {
+        Random random = new Random(42);
+        String[] words = { "smith", "johnson", "williams", "brown", "jones", "garcia", "miller", "davis" };
+        Set<String> values = new HashSet<String>();
+        while (values.size() < count) {
+            StringBuffer sb = new StringBuffer(words[random.nextInt(words.length)]);
+            sb.append(' ').append(words[random.nextInt(words.length)]);
+            // a few typos
+            for (int t = random.nextInt(3); t > 0; t--) {
+                int p = random.nextInt(sb.length());
+                sb.setCharAt(p, (char) ('a' + random.nextInt(26)));
+            }
+            sb.append(random.nextInt(count / 4));
+            values.add(sb.toString());
+        }
+        return values.toArray(new String[values.size()]);
+    }
+
+    /**
+     * Compare every pair sharing an n-gram, as vicino does.
+     */
+    private Set<Set<Serializable>> bruteForce(NeighborSearch search, Distance distance, double radius, String[] values) {
+        List<Set<String>> ngrams = new ArrayList<Set<String>>();
+        for (String value : values) {
+            ngrams.add(new HashSet<String>(Arrays.asList(search.getNgrams(value))));
+        }
+        Set<Set<Serializable>> clusters = new HashSet<Set<Serializable>>();
+        for (int i = 0; i < values.length; i++) {
+            Set<Serializable> cluster = new TreeSet<Serializable>();
+            cluster.add(values[i]);
+            for (int j = 0; j < values.length; j++) {
+                if (i != j && !Collections.disjoint(ngrams.get(i), ngrams.get(j)) &&
+                        distance.d(values[i], values[j]) <= radius) {
+                    cluster.add(values[j]);
+                }
+            }
+            if (cluster.size() > 1) {
+                clusters.add(cluster);
+            }
+        }
+        return clusters;
+    }
+
+    @Test
+    public void filtersKeepAllNeighbors() {
+        String[] values = makeValues(1500);
+        Distance distance = new LevenshteinDistance();
+        for (double radius : new double[] { 1, 2, 3 }) {
+            for (int ngramSize : new int[] { 2, 4 }) {
+                NeighborSearch search = new NeighborSearch(distance, radius, ngramSize, 1);
+                List<Set<Serializable>> clusters = search.findClusters(values, new Listener());
+                Assert.assertEquals(new HashSet<Set<Serializable>>(clusters),
+                    bruteForce(search, distance, radius, values));
+            }
+        }
+    }
+
+    @Test
+    public void parallelSearchFindsTheSameClusters() {
+        String[] values = makeValues(20000);
+        NeighborSearch serial = new NeighborSearch(new LevenshteinDistance(), 1, 3, 1);
+        NeighborSearch parallel = new NeighborSearch(new LevenshteinDistance(), 1, 3, 4);
+
+        List<Set<Serializable>> expected = serial.findClusters(values, new Listener());
+        Listener listener = new Listener();
+        List<Set<Serializable>> actual = parallel.findClusters(values, listener);
+
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(actual, expected);
+        Assert.assertEquals(listener.done, values.length);
+    }
+
+    @Test
+    public void searchCanBeCanceled() {
+        String[] values = makeValues(5000);
+        Listener listener = new Listener();
+        listener.cancelAfter = 100;
+
+        Assert.assertNull(new NeighborSearch(new LevenshteinDistance(), 2, 2, 1).findClusters(values, listener));
+        Assert.assertTrue(listener.done < values.length);
+    }
+
+    @Test
+    public void clustererRunsAsAProcess() throws Exception {
+        Project project = createProjectWithColumns("NeighborSearchTests", "name");
+        for (String value : new String[] { "Jonathan", "Jonathon", "Jonathan", "Maria", "Marie", "Zebediah" }) {
+            Row row = new Row(1);
+            row.setCell(0, new Cell(value, null));
+            project.rows.add(row);
+        }
+
+        kNNClusterer clusterer = new kNNClusterer();
+        clusterer.initializeFromJSON(project, new JSONObject(
+            "{\"type\":\"knn\",\"function\":\"levenshtein\",\"column\":\"name\"," +
+            "\"params\":{\"radius\":1,\"blocking-ngram-size\":2}}"));
+        ClusteringProcess process = ClusteringProcess.start(clusterer, new Engine(project));
+        Assert.assertTrue(process.await(10000));
+        Assert.assertNull(process.getException());
+        Assert.assertNull(ClusteringProcess.get(process.getId()));
+
+        StringWriter sw = new StringWriter();
+        clusterer.write(new JSONWriter(sw), new Properties());
+        JSONArray clusters = new JSONArray(sw.toString());
+        Assert.assertEquals(clusters.length(), 2);
+        // both clusters have two values, so they may come in either order
+        JSONArray jonathans = clusters.getJSONArray(0).getJSONObject(0).getString("v").startsWith("Jonath") ?
+                        clusters.getJSONArray(0) : clusters.getJSONArray(1);
+        Assert.assertEquals(jonathans.getJSONObject(0).getString("v"), "Jonathan");
+        Assert.assertEquals(jonathans.getJSONObject(0).getInt("c"), 2);
+        Assert.assertEquals(jonathans.getJSONObject(1).getString("v"), "Jonathon");
+        Assert.assertEquals(clusterer.getProgress(), 100);
+    }
+}
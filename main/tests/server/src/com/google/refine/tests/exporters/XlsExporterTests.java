@@ -121,6 +121,24 @@ public class XlsExporterTests extends RefineTest {
 
     }
 
+    @Test
+    public void exportXlsWithTooManyRows() throws IOException {
+        // with the header row, one more row than an .xls file holds
+        CreateGrid(65536, 1);
+
+        try {
+            SUT.export(project, options, engine, stream);
+            Assert.fail("Exported more rows than an .xls file holds");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("more than 65536 rows"), e.getMessage());
+        }
+        Assert.assertEquals(stream.size(), 0);
+
+        project.rows.remove(project.rows.size() - 1);
+        SUT.export(project, options, engine, stream);
+        Assert.assertTrue(stream.size() > 0);
+    }
+
     @Test(enabled=false)
     public void exportSimpleXlsNoHeader(){
         CreateGrid(2, 2);
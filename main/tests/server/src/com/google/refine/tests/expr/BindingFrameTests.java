@@ -0,0 +1,121 @@
+package com.google.refine.tests.expr;
+
+import java.util.Properties;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.expr.BindingFrame;
+import com.google.refine.expr.Evaluable;
+import com.google.refine.expr.ExpressionUtils;
+import com.google.refine.expr.MetaParser;
+import com.google.refine.expr.WrappedCell;
+import com.google.refine.expr.WrappedRow;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Recon;
+import com.google.refine.model.Row;
+import com.google.refine.tests.RefineTest;
+
+public class BindingFrameTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    Project project;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        project = createProjectWithColumns("BindingFrameTests", "A", "B");
+        Row row = new Row(2);
+        row.setCell(0, new Cell("a", new Recon(1L, null, null)));
+        row.setCell(1, new Cell(2L, null));
+        project.rows.add(row);
+        project.rows.add(new Row(2));
+        project.update();
+    }
+
+    @Test
+    public void standardVariables() {
+        Properties bindings = ExpressionUtils.createBindings(project);
+        Assert.assertTrue(bindings instanceof BindingFrame);
+        Assert.assertSame(bindings.get("project"), project);
+        Assert.assertEquals(bindings.get("PI"), Math.PI);
+
+        Row row = project.rows.get(0);
+        ExpressionUtils.bind(bindings, row, 0, "A", row.getCell(0));
+        Assert.assertEquals(bindings.get("value"), "a");
+        Assert.assertEquals(bindings.get("rowIndex"), 0);
+        Assert.assertEquals(bindings.get("columnName"), "A");
+        Assert.assertSame(bindings.get("recon"), row.getCell(0).recon);
+        Assert.assertSame(((WrappedCell) bindings.get("cell")).cell, row.getCell(0));
+
+        Object wrappedRow = bindings.get("row");
+        Assert.assertSame(((WrappedRow) wrappedRow).row, row);
+        Assert.assertSame(bindings.get("row"), wrappedRow); // created once per row
+
+        ExpressionUtils.bind(bindings, project.rows.get(1), 1, null, null);
+        Assert.assertNull(bindings.get("value"));
+        Assert.assertNull(bindings.get("cell"));
+        Assert.assertNull(bindings.get("recon"));
+        Assert.assertEquals(bindings.get("columnName"), "A");
+        Assert.assertNotSame(bindings.get("row"), wrappedRow);
+        Assert.assertEquals(((WrappedRow) bindings.get("row")).rowIndex, 1);
+    }
+
+    @Test
+    public void putAndRemove() {
+        Properties bindings = ExpressionUtils.createBindings(project);
+        Row row = project.rows.get(0);
+        ExpressionUtils.bind(bindings, row, 0, "A", row.getCell(0));
+
+        bindings.put("value", "b");
+        Assert.assertEquals(bindings.get("value"), "b");
+        bindings.remove("value");
+        Assert.assertNull(bindings.get("value"));
+
+        bindings.put("v", 1);
+        Assert.assertEquals(bindings.get("v"), 1);
+        Assert.assertTrue(bindings.keySet().contains("v"));
+        Assert.assertTrue(bindings.keySet().contains("cells"));
+        bindings.remove("v");
+        Assert.assertFalse(bindings.containsKey("v"));
+
+        int slot = BindingFrame.registerSlot("bindingFrameTestsExtra");
+        Assert.assertEquals(BindingFrame.registerSlot("bindingFrameTestsExtra"), slot);
+        bindings.put("bindingFrameTestsExtra", "x");
+        Assert.assertEquals(((BindingFrame) bindings).getSlotValue(slot), "x");
+    }
+
+    @Test
+    public void expressionsMatchPlainBindings() throws Exception {
+        String[] expressions = {
+            "value + '-' + cells['B'].value",
+            "row.index + rowIndex",
+            "cell.recon.id",
+            "if(isBlank(value), columnName, value.length())",
+            "forEach([1, 2], value, value * 2).join(',')",
+        };
+        for (String expression : expressions) {
+            Evaluable evaluable = MetaParser.parse(expression);
+            for (int r = 0; r < project.rows.size(); r++) {
+                Row row = project.rows.get(r);
+
+                Properties plain = new Properties();
+                plain.put("project", project);
+                ExpressionUtils.bind(plain, row, r, "A", row.getCell(0));
+                Properties frame = ExpressionUtils.createBindings(project);
+                ExpressionUtils.bind(frame, row, r, "A", row.getCell(0));
+
+                Assert.assertEquals(String.valueOf(evaluable.evaluate(frame)),
+                    String.valueOf(evaluable.evaluate(plain)), expression);
+            }
+        }
+    }
+}
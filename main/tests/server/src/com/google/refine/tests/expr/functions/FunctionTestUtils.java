@@ -0,0 +1,104 @@
+package com.google.refine.tests.expr.functions;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+
+import org.testng.Assert;
+
+import com.google.refine.expr.BindingFrame;
+import com.google.refine.expr.EvalError;
+import com.google.refine.expr.Evaluable;
+import com.google.refine.expr.ParsingException;
+import com.google.refine.expr.WrappedRow;
+import com.google.refine.grel.ControlFunctionRegistry;
+import com.google.refine.grel.GrelCompiler;
+import com.google.refine.grel.Parser;
+import com.google.refine.model.Project;
+
+/**
+ * Calls GREL functions the way expressions do, both on the parsed expression tree and
+ * on its compiled form, so that every function test checks both ways of evaluating.
+ * The compiled form is evaluated on a {@link BindingFrame}, as it is on rows, with the
+ * first argument passed as the value so that it is read from its slot.
+ */
+public class FunctionTestUtils {
+
+    /**
+     * Lookup a control function by name and invoke it with a variable number of args,
+     * through an expression calling it on variables bound to the args. The expression
+     * is evaluated interpreted and compiled, and both results must be the same.
+     *
+     * @return the result of the compiled expression
+     */
+    static public Object invoke(Properties bindings, String name, Object... args) {
+        // registry uses static initializer, so no need to set it up
+        if (ControlFunctionRegistry.getFunction(name) == null) {
+            throw new IllegalArgumentException("Unknown function " + name);
+        }
+
+        Properties callBindings = new Properties();
+        if (bindings != null) {
+            callBindings.putAll(bindings);
+        }
+        StringBuffer sb = new StringBuffer(name).append('(');
+        int argCount = args == null ? 0 : args.length;
+        for (int i = 0; i < argCount; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            String variable = i == 0 ? "value" : "arg" + i;
+            sb.append(variable);
+            if (args[i] != null) { // unbound variables evaluate to null
+                callBindings.put(variable, args[i]);
+            }
+        }
+        String expression = sb.append(')').toString();
+
+        Evaluable interpreted;
+        try {
+            interpreted = new Parser(expression).getExpression();
+        } catch (ParsingException e) {
+            throw new IllegalArgumentException("Could not parse " + expression, e);
+        }
+        Evaluable compiled = GrelCompiler.compile(interpreted);
+        BindingFrame frame = new BindingFrame((Project) callBindings.get("project"));
+        frame.putAll(callBindings);
+
+        Object interpretedResult = interpreted.evaluate(callBindings);
+        Object compiledResult = compiled.evaluate(frame);
+        Assert.assertTrue(sameResult(interpretedResult, compiledResult),
+                expression + " evaluated to " + interpretedResult + " interpreted but to " +
+                compiledResult + " compiled");
+        return compiledResult;
+    }
+
+    static protected boolean sameResult(Object a, Object b) {
+        if (a == b) {
+            return true;
+        } else if (a == null || b == null) {
+            return false;
+        } else if (a instanceof EvalError && b instanceof EvalError) {
+            return Objects.equals(((EvalError) a).message, ((EvalError) b).message);
+        } else if (a instanceof Object[] && b instanceof Object[]) {
+            Object[] arrayA = (Object[]) a;
+            Object[] arrayB = (Object[]) b;
+            if (arrayA.length != arrayB.length) {
+                return false;
+            }
+            for (int i = 0; i < arrayA.length; i++) {
+                if (!sameResult(arrayA[i], arrayB[i])) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (a instanceof List && b instanceof List) {
+            return sameResult(((List<?>) a).toArray(), ((List<?>) b).toArray());
+        } else if (a instanceof WrappedRow && b instanceof WrappedRow) {
+            // a new wrapper is made on each evaluation
+            return ((WrappedRow) a).row == ((WrappedRow) b).row &&
+                    ((WrappedRow) a).rowIndex == ((WrappedRow) b).rowIndex;
+        }
+        return a.equals(b);
+    }
+}
@@ -44,14 +44,13 @@ import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
 import com.google.refine.expr.EvalError;
-import com.google.refine.grel.ControlFunctionRegistry;
-import com.google.refine.grel.Function;
 import com.google.refine.model.Cell;
 import com.google.refine.model.ModelException;
 import com.google.refine.model.Project;
 import com.google.refine.model.Row;
 import com.google.refine.model.medadata.ProjectMetadata;
 import com.google.refine.tests.RefineTest;
+import com.google.refine.tests.expr.functions.FunctionTestUtils;
 
 
 public class BooleanTests extends RefineTest {
@@ -106,19 +105,11 @@ public class BooleanTests extends RefineTest {
     }
 
     /**
-     * Lookup a control function by name and invoke it with a variable number of args
+     * Lookup a control function by name and invoke it with a variable number of args,
+     * both interpreted and compiled
      */
     private static Object invoke(String name,Object... args) {
-        // registry uses static initializer, so no need to set it up
-        Function function = ControlFunctionRegistry.getFunction(name);
-        if (function == null) {
-            throw new IllegalArgumentException("Unknown function "+name);
-        }
-        if (args == null) {
-            return function.call(bindings,new Object[0]);
-        } else {
-            return function.call(bindings,args);
-        }
+        return FunctionTestUtils.invoke(bindings, name, args);
     }
 
     @Test
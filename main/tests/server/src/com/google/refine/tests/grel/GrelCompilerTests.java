@@ -0,0 +1,130 @@
+package com.google.refine.tests.grel;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.expr.EvalError;
+import com.google.refine.expr.Evaluable;
+import com.google.refine.expr.ExpressionUtils;
+import com.google.refine.expr.MetaParser;
+import com.google.refine.grel.GrelCompiler;
+import com.google.refine.grel.ast.BinaryOperatorCallExpr;
+import com.google.refine.grel.ast.ControlCallExpr;
+import com.google.refine.grel.ast.LiteralExpr;
+import com.google.refine.grel.ast.OperatorCallExpr;
+import com.google.refine.grel.ast.VariableExpr;
+import com.google.refine.model.Project;
+import com.google.refine.tests.RefineTest;
+
+public class GrelCompilerTests extends RefineTest {
+
+    Properties bindings;
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    @BeforeMethod
+    public void SetUp() {
+        bindings = ExpressionUtils.createBindings(new Project());
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        ProjectManager.singleton.getPreferenceStore().put(GrelCompiler.COMPILE_PREFERENCE, null);
+    }
+
+    private Object evaluateOrThrowable(Evaluable evaluable) {
+        try {
+            Object result = evaluable.evaluate(bindings);
+            return result != null && result.getClass().isArray() ? Arrays.asList((Object[]) result) : result;
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+
+    @Test
+    public void operatorsMatchInterpreter() {
+        Object[] values = { null, 0L, 3L, 7, -2.5, 2.0, Double.NaN, "a", "3", true, new EvalError("boom") };
+        String[] operators = { "+", "-", "*", "/", "%", ">", ">=", "<", "<=", "==", "!=", "&&" };
+
+        for (String op : operators) {
+            for (Object a : values) {
+                for (Object b : values) {
+                    OperatorCallExpr interpreted = new OperatorCallExpr(
+                        new Evaluable[] { new LiteralExpr(a), new LiteralExpr(b) }, op);
+                    Evaluable compiled = GrelCompiler.compile(interpreted);
+                    Assert.assertTrue(compiled instanceof BinaryOperatorCallExpr);
+                    Assert.assertEquals(evaluateOrThrowable(compiled), evaluateOrThrowable(interpreted),
+                        a + " " + op + " " + b);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void expressionsMatchInterpreter() throws Exception {
+        String[] expressions = {
+            "value + 1",
+            "value * 2 - 1 == value + value - 1",
+            "if(value > 2, 'big', 'small')",
+            "value.toString().length() % 2",
+            "forEach(value.toString().split(''), v, v + '!').join('|')",
+            "with(value, x, x == 'abc')",
+            "(value / 2).toString() + '.' + value",
+        };
+        Object[] values = { null, 0L, 5L, 2.5, "abc", new EvalError("boom") };
+
+        for (String expression : expressions) {
+            ProjectManager.singleton.getPreferenceStore().put(GrelCompiler.COMPILE_PREFERENCE, false);
+            Evaluable interpreted = MetaParser.parse(expression);
+            ProjectManager.singleton.getPreferenceStore().put(GrelCompiler.COMPILE_PREFERENCE, true);
+            Evaluable compiled = MetaParser.parse(expression);
+            Assert.assertEquals(compiled.toString(), interpreted.toString());
+
+            for (Object value : values) {
+                bindings.put("value", value == null ? "" : value);
+                if (value == null) {
+                    bindings.remove("value");
+                }
+                Object expected = evaluateOrThrowable(interpreted);
+                Object actual = evaluateOrThrowable(compiled);
+                if (expected instanceof EvalError) {
+                    Assert.assertTrue(actual instanceof EvalError, expression);
+                    Assert.assertEquals(((EvalError) actual).message, ((EvalError) expected).message);
+                } else {
+                    Assert.assertEquals(actual, expected, expression + " on " + value);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void controlVariablesAreKept() throws Exception {
+        Evaluable compiled = GrelCompiler.compile(MetaParser.parse("forEach([1, 2], v, v * 2)"));
+        Assert.assertTrue(compiled instanceof ControlCallExpr);
+        Evaluable[] args = ((ControlCallExpr) compiled).getArgs();
+        Assert.assertTrue(args[1] instanceof VariableExpr);
+        Assert.assertTrue(args[2] instanceof BinaryOperatorCallExpr);
+        Assert.assertEquals(evaluateOrThrowable(compiled), Arrays.asList(2L, 4L));
+    }
+
+    @Test
+    public void compilationCanBeDisabled() throws Exception {
+        Assert.assertTrue(MetaParser.parse("1 + value") instanceof BinaryOperatorCallExpr);
+        ProjectManager.singleton.getPreferenceStore().put(GrelCompiler.COMPILE_PREFERENCE, false);
+        Evaluable evaluable = MetaParser.parse("1 + value");
+        Assert.assertFalse(evaluable instanceof BinaryOperatorCallExpr);
+        Assert.assertTrue(evaluable instanceof OperatorCallExpr);
+    }
+}
@@ -0,0 +1,24 @@
+package com.google.refine.tests.grel;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.grel.GrelCompiler;
+
+/**
+ * Runs the GREL tests against parsed expression trees as they are, without
+ * compiling them.
+ */
+public class InterpretedGrelTests extends GrelTests {
+
+    @BeforeMethod
+    public void disableCompiler() {
+        ProjectManager.singleton.getPreferenceStore().put(GrelCompiler.COMPILE_PREFERENCE, false);
+    }
+
+    @AfterMethod
+    public void enableCompiler() {
+        ProjectManager.singleton.getPreferenceStore().put(GrelCompiler.COMPILE_PREFERENCE, null);
+    }
+}
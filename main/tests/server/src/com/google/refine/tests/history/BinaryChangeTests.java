@@ -0,0 +1,174 @@
+package com.google.refine.tests.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.history.BinaryChange;
+import com.google.refine.history.Change;
+import com.google.refine.history.History;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Recon;
+import com.google.refine.model.ReconStats;
+import com.google.refine.model.Row;
+import com.google.refine.model.changes.CellChange;
+import com.google.refine.model.changes.MassCellChange;
+import com.google.refine.model.changes.MassRowChange;
+import com.google.refine.model.changes.ReconChange;
+import com.google.refine.model.changes.RowRemovalChange;
+import com.google.refine.model.changes.RowReorderChange;
+import com.google.refine.tests.RefineTest;
+import com.google.refine.util.Pool;
+
+public class BinaryChangeTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    private String toText(Change change) throws Exception {
+        StringWriter writer = new StringWriter();
+        History.writeOneChange(writer, change, new Pool());
+        return writer.toString();
+    }
+
+    private byte[] toBinary(Change change, Pool pool) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        History.writeOneBinaryChange(out, (BinaryChange) change, pool);
+        return out.toByteArray();
+    }
+
+    private Change roundTrip(Change change) throws Exception {
+        Assert.assertTrue(History.canWriteBinary(change));
+        Pool pool = new Pool();
+        byte[] bytes = toBinary(change, pool);
+
+        // the pool is saved and loaded separately
+        StringWriter poolWriter = new StringWriter();
+        pool.save(poolWriter);
+        Pool loadedPool = new Pool();
+        loadedPool.load(new StringReader(poolWriter.toString()));
+
+        Change loaded = History.readOneBinaryChange(new ByteArrayInputStream(bytes), loadedPool);
+        Assert.assertEquals(loaded.getClass(), change.getClass());
+        return loaded;
+    }
+
+    private CellChange[] createCellChanges(int count, int cellIndex) {
+        Recon recon = new Recon(5678L, "http://example.com/id", "http://example.com/schema");
+        CellChange[] cellChanges = new CellChange[count];
+        for (int i = 0; i < count; i++) {
+            Cell oldCell = i % 9 == 0 ? null : new Cell("value " + (i % 100), null);
+            Cell newCell = new Cell(i % 4 == 0 ? (Serializable) (long) i : "VALUE " + (i % 100),
+                i % 5 == 0 ? recon : null);
+            cellChanges[i] = new CellChange(i * 3 + (i % 2), cellIndex, oldCell, newCell);
+        }
+        return cellChanges;
+    }
+
+    @Test
+    public void roundTripMassCellChange() throws Exception {
+        MassCellChange change = new MassCellChange(createCellChanges(1000, 2), "column", true);
+        Assert.assertEquals(toText(roundTrip(change)), toText(change));
+    }
+
+    @Test
+    public void roundTripCellChangesOfSeveralColumns() throws Exception {
+        CellChange[] cellChanges = createCellChanges(100, 0);
+        for (int i = 0; i < cellChanges.length; i += 3) {
+            CellChange c = cellChanges[i];
+            cellChanges[i] = new CellChange(c.row, 1, c.oldCell, c.newCell);
+        }
+        MassCellChange change = new MassCellChange(cellChanges, null, false);
+        Assert.assertEquals(toText(roundTrip(change)), toText(change));
+    }
+
+    @Test
+    public void roundTripReconChange() throws Exception {
+        ReconChange change = new ReconChange(createCellChanges(50, 1), "column", null, new ReconStats(50, 10, 20));
+        Assert.assertEquals(toText(roundTrip(change)), toText(change));
+    }
+
+    @Test
+    public void roundTripMassRowChange() throws Exception {
+        List<Row> oldRows = new ArrayList<Row>();
+        List<Row> newRows = new ArrayList<Row>();
+        for (int i = 0; i < 200; i++) {
+            Row row = new Row(2);
+            row.setCell(0, new Cell("a" + (i % 10), null));
+            row.setCell(1, new Cell((long) i, null));
+            row.starred = i % 7 == 0;
+            oldRows.add(row);
+            newRows.add(i % 3 == 0 ? row.dup() : row);
+        }
+        MassRowChange change = new MassRowChange(newRows, oldRows);
+
+        Assert.assertEquals(toText(roundTrip(change)), toText(change));
+    }
+
+    @Test
+    public void roundTripRowReorderAndRemoval() throws Exception {
+        Project project = createProjectWithColumns("BinaryChangeTests", "a");
+        for (int i = 0; i < 300; i++) {
+            Row row = new Row(1);
+            row.setCell(0, new Cell("v" + i, null));
+            project.rows.add(row);
+        }
+
+        int[] order = new int[300];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = order.length - 1 - i;
+        }
+        RowReorderChange reorder = new RowReorderChange(order);
+        Assert.assertEquals(toText(roundTrip(reorder)), toText(reorder));
+
+        RowRemovalChange removal = new RowRemovalChange(new int[] { 0, 5, 6, 299 });
+        removal.apply(project);
+        Assert.assertEquals(toText(roundTrip(removal)), toText(removal));
+    }
+
+    @Test
+    public void subclassesWithoutBinaryFormAreSavedAsText() {
+        MassCellChange change = new MassCellChange(createCellChanges(10, 0), "column", false) {
+        };
+        Assert.assertFalse(History.canWriteBinary(change));
+    }
+
+    @Test
+    public void binaryFormIsSmallerAndRevertsTheSame() throws Exception {
+        CellChange[] cellChanges = createCellChanges(5000, 0);
+        Project project = createProjectWithColumns("BinaryChangeTests", "a");
+        for (int i = 0; i < cellChanges.length * 3; i++) {
+            project.rows.add(new Row(1));
+        }
+        MassCellChange change = new MassCellChange(cellChanges, "a", false);
+        change.apply(project);
+
+        String text = toText(change);
+        Pool pool = new Pool();
+        byte[] bytes = toBinary(change, pool);
+        Assert.assertTrue(bytes.length < text.length() / 4, bytes.length + " >= " + text.length() / 4);
+
+        History.readOneBinaryChange(new ByteArrayInputStream(bytes), pool).revert(project);
+        for (CellChange cellChange : cellChanges) {
+            Cell cell = project.rows.get(cellChange.row).getCell(0);
+            if (cellChange.oldCell == null) {
+                Assert.assertNull(cell);
+            } else {
+                Assert.assertEquals(cell.value, cellChange.oldCell.value);
+            }
+        }
+    }
+}
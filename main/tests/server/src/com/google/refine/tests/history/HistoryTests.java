@@ -38,6 +38,8 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.concurrent.CountDownLatch;
+
 import org.mockito.Mockito;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
@@ -99,4 +101,32 @@ public class HistoryTests extends RefineTest {
         verify(projectMetadata, times(1)).updateModified();
         Assert.assertEquals(SUT.getLastPastEntries(1).get(0), entry);
     }
+
+    @Test(timeOut = 10000)
+    public void versionIsReadWhileHistoryIsLocked() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread saver = new Thread() {
+            @Override
+            public void run() {
+                // as a save does, for as long as it takes
+                synchronized (SUT) {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // done
+                    }
+                }
+            }
+        };
+        saver.start();
+        try {
+            locked.await();
+            Assert.assertEquals(SUT.getVersion(), 0L);
+        } finally {
+            release.countDown();
+            saver.join();
+        }
+    }
 }
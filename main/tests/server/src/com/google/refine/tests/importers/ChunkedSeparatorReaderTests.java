@@ -0,0 +1,182 @@
+package com.google.refine.tests.importers;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.importers.ChunkedSeparatorReader;
+import com.google.refine.importers.SeparatorBasedImporter;
+import com.google.refine.importers.TabularImportingParserBase;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.model.medadata.ProjectMetadata;
+
+public class ChunkedSeparatorReaderTests extends ImporterTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    static final String[] VALUES = {
+        "plain", "12", "3.5", "", "\"quoted, with comma\"", "\"escaped \"\"quote\"\"\"",
+        "\"two\nlines\"", "\"crlf\r\nlines\"", "\"\"", "  spaced  ", "x\"y\"z"
+    };
+
+    @Override
+    @BeforeMethod
+    public void setUp() {
+        super.setUp();
+        options = new JSONObject();
+        try {
+            options.put("separator", ",");
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    @AfterMethod
+    public void tearDown() {
+        ProjectManager.singleton.getPreferenceStore().put(ChunkedSeparatorReader.PARALLELISM_PREFERENCE, null);
+        super.tearDown();
+    }
+
+    private String generate(int rows, String lineEnd, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder("a,b,c\n");
+        for (int r = 0; r < rows; r++) {
+            int cellCount = 1 + random.nextInt(4);
+            for (int c = 0; c < cellCount; c++) {
+                if (c > 0) {
+                    sb.append(',');
+                }
+                sb.append(VALUES[random.nextInt(VALUES.length)]);
+            }
+            sb.append(lineEnd);
+        }
+        return sb.toString();
+    }
+
+    private Project parseSequentially(String input) {
+        ProjectManager.singleton.getPreferenceStore().put(ChunkedSeparatorReader.PARALLELISM_PREFERENCE, "1");
+        Project sequential = new Project();
+        new SeparatorBasedImporter().parseOneFile(sequential, new ProjectMetadata(), job, "file-source",
+            new StringReader(input), -1, options, new ArrayList<Exception>());
+        sequential.update();
+        return sequential;
+    }
+
+    private Project parseInChunks(String input, int chunkSize) throws Exception {
+        Project chunked = new Project();
+        ChunkedSeparatorReader reader = new ChunkedSeparatorReader(
+            new StringReader(input), ",", options.optBoolean("processQuotes", true), false, chunkSize, 8);
+        try {
+            TabularImportingParserBase.readTable(chunked, new ProjectMetadata(), job, reader,
+                "file-source", -1, options, new ArrayList<Exception>());
+        } finally {
+            reader.close();
+        }
+        chunked.update();
+        return chunked;
+    }
+
+    private void assertSameProjects(Project actual, Project expected) {
+        Assert.assertEquals(actual.columnModel.getColumnNames(), expected.columnModel.getColumnNames());
+        Assert.assertEquals(actual.rows.size(), expected.rows.size());
+        for (int r = 0; r < expected.rows.size(); r++) {
+            Row expectedRow = expected.rows.get(r);
+            Row actualRow = actual.rows.get(r);
+            Assert.assertEquals(actualRow.cells.size(), expectedRow.cells.size(), "row " + r);
+            for (int c = 0; c < expectedRow.cells.size(); c++) {
+                Cell expectedCell = expectedRow.getCell(c);
+                Cell actualCell = actualRow.getCell(c);
+                Assert.assertEquals(actualCell == null ? null : actualCell.value,
+                    expectedCell == null ? null : expectedCell.value, "row " + r + ", cell " + c);
+            }
+        }
+    }
+
+    @Test
+    public void chunksMatchLineByLineParsing() throws Exception {
+        for (String lineEnd : new String[] { "\n", "\r\n", "\r" }) {
+            String input = generate(2000, lineEnd, lineEnd.hashCode());
+            Project expected = parseSequentially(input);
+            Assert.assertTrue(expected.rows.size() > 500);
+            for (int chunkSize : new int[] { 16, 100, 4096 }) {
+                assertSameProjects(parseInChunks(input, chunkSize), expected);
+            }
+        }
+    }
+
+    @Test
+    public void optionsApplyAcrossChunks() throws Exception {
+        options.put("ignoreLines", 2);
+        options.put("headerLines", 1);
+        options.put("skipDataLines", 3);
+        options.put("limit", 700);
+        options.put("guessCellValueTypes", true);
+        String input = "ignored\n\"also\nignored\"\n" + generate(1500, "\n", 7);
+
+        Project expected = parseSequentially(input);
+        Assert.assertEquals(expected.rows.size(), 700);
+        assertSameProjects(parseInChunks(input, 64), expected);
+    }
+
+    @Test
+    public void quotesAreIgnoredWhenNotProcessed() throws Exception {
+        options.put("processQuotes", false);
+        String input = generate(1000, "\n", 11);
+
+        assertSameProjects(parseInChunks(input, 32), parseSequentially(input));
+    }
+
+    @Test
+    public void parsingIsSequentialByDefault() {
+        Assert.assertEquals(ChunkedSeparatorReader.getDefaultParallelism(), 1);
+        ProjectManager.singleton.getPreferenceStore().put(ChunkedSeparatorReader.PARALLELISM_PREFERENCE, "4");
+        Assert.assertEquals(ChunkedSeparatorReader.getDefaultParallelism(), 4);
+    }
+
+    @Test
+    public void limitedReadsStopEarly() throws Exception {
+        options.put("limit", 10);
+        String input = generate(2000, "\n", 13);
+        final int[] read = new int[1];
+        StringReader counting = new StringReader(input) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                int n = super.read(cbuf, off, len);
+                read[0] += Math.max(0, n);
+                return n;
+            }
+        };
+
+        Project limited = new Project();
+        ChunkedSeparatorReader reader = new ChunkedSeparatorReader(counting, ",", true, false, 256, 1);
+        try {
+            TabularImportingParserBase.readTable(limited, new ProjectMetadata(), job, reader,
+                "file-source", -1, options, new ArrayList<Exception>());
+        } finally {
+            reader.close();
+        }
+        limited.update();
+
+        assertSameProjects(limited, parseSequentially(input));
+        Assert.assertEquals(limited.rows.size(), 10);
+        Assert.assertTrue(read[0] <= 4 * 256, "read " + read[0] + " characters");
+    }
+}
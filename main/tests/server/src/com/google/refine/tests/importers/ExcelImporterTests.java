@@ -44,10 +44,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
@@ -64,6 +71,10 @@ import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
 import com.google.refine.importers.ExcelImporter;
+import com.google.refine.importers.ImporterUtilities.MultiFileReadingProgress;
+import com.google.refine.importers.StreamingXlsxReader;
+import com.google.refine.importing.ImportingJob;
+import com.google.refine.tests.util.TestUtils;
 import com.google.refine.util.JSONUtilities;
 
 public class ExcelImporterTests extends ImporterTest {
@@ -144,6 +155,196 @@ public class ExcelImporterTests extends ImporterTest {
         }
     }
     
+    @Test
+    public void readXlsxAsStream() throws Exception {
+        File xlsxFile = File.createTempFile("openrefine-importer-test", ".xlsx");
+        xlsxFile.deleteOnExit();
+        createXlsx(xlsxFile);
+        JSONArray sheets = new JSONArray();
+        JSONUtilities.append(sheets,
+                new JSONObject("{name: \"file-source#Data\", fileNameAndSheetIndex: \"file-source#1\", rows: 4, selected: true}"));
+        whenGetArrayOption("sheets", options, sheets);
+        whenGetIntegerOption("ignoreLines", options, 0);
+        whenGetIntegerOption("headerLines", options, 1);
+        whenGetIntegerOption("skipDataLines", options, 0);
+        whenGetIntegerOption("limit", options, -1);
+        whenGetBooleanOption("storeBlankCellsAsNulls", options, true);
+        whenGetBooleanOption("storeBlankRows", options, true);
+
+        InputStream stream = new FileInputStream(xlsxFile);
+        try {
+            parseOneFile(SUT, stream);
+        } finally {
+            stream.close();
+        }
+        assertXlsxRows();
+    }
+
+    @Test
+    public void readXlsxFromFileRecordReportsProgress() throws Exception {
+        // the stub servlet's temp dir is a file, so the job gets a directory of its own
+        File dir = TestUtils.createTempDirectory("openrefine-importer-test");
+        ImportingJob fileJob = new ImportingJob(job.id, dir);
+        File xlsxFile = new File(fileJob.getRawDataDir(), "data.xlsx");
+        createXlsx(xlsxFile);
+        long length = xlsxFile.length();
+        JSONObject fileRecord = new JSONObject("{location: \"data.xlsx\", fileName: \"file-source\"}");
+        JSONArray sheets = new JSONArray();
+        JSONUtilities.append(sheets,
+                new JSONObject("{name: \"file-source#Data\", fileNameAndSheetIndex: \"file-source#1\", rows: 4, selected: true}"));
+        whenGetArrayOption("sheets", options, sheets);
+        whenGetIntegerOption("ignoreLines", options, 0);
+        whenGetIntegerOption("headerLines", options, 1);
+        whenGetIntegerOption("skipDataLines", options, 0);
+        whenGetIntegerOption("limit", options, -1);
+        whenGetBooleanOption("storeBlankCellsAsNulls", options, true);
+        whenGetBooleanOption("storeBlankRows", options, true);
+
+        final List<Long> bytesRead = new ArrayList<Long>();
+        final long[] bytesAtEnd = { -1 };
+        MultiFileReadingProgress progress = new MultiFileReadingProgress() {
+            @Override
+            public void startFile(String fileSource) {
+            }
+            @Override
+            public void readingFile(String fileSource, long bytes) {
+                bytesRead.add(bytes);
+            }
+            @Override
+            public void endFile(String fileSource, long bytes) {
+                bytesAtEnd[0] = bytes;
+            }
+        };
+        List<Exception> exceptions = new ArrayList<Exception>();
+        try {
+            SUT.parseOneFile(project, metadata, fileJob, fileRecord, -1, options, exceptions, progress);
+        } finally {
+            fileJob.dispose();
+        }
+        project.update();
+
+        Assert.assertEquals(exceptions.size(), 0);
+        assertXlsxRows();
+        Assert.assertFalse(bytesRead.isEmpty());
+        for (long bytes : bytesRead) {
+            Assert.assertTrue(bytes > 0 && bytes <= length);
+        }
+        Assert.assertEquals(bytesAtEnd[0], length);
+    }
+
+    @Test
+    public void listXlsxSheetsFromWorkbookPart() throws Exception {
+        File xlsxFile = File.createTempFile("openrefine-importer-test", ".xlsx");
+        xlsxFile.deleteOnExit();
+        createXlsx(xlsxFile);
+
+        OPCPackage pkg = OPCPackage.open(xlsxFile, PackageAccess.READ);
+        try {
+            StreamingXlsxReader reader = new StreamingXlsxReader(pkg);
+            Assert.assertEquals(reader.getSheetCount(), 2);
+            Assert.assertEquals(reader.getSheetName(0), "Empty");
+            Assert.assertEquals(reader.getRowCount(0), 1);
+            Assert.assertEquals(reader.getSheetName(1), "Data");
+            Assert.assertEquals(reader.getRowCount(1), 4);
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    private void assertXlsxRows() {
+        Assert.assertEquals(project.columnModel.getColumnNames(),
+                Arrays.asList("name", "amount", "when", "ok", "note"));
+        Assert.assertEquals(project.rows.size(), 3);
+
+        com.google.refine.model.Row row = project.rows.get(0);
+        Assert.assertEquals(row.getCellValue(0), "alpha");
+        Assert.assertEquals(((Number) row.getCellValue(1)).doubleValue(), 1.5, EPSILON);
+        Assert.assertTrue(row.getCellValue(2) instanceof Date);
+        Assert.assertEquals(row.getCellValue(3), true);
+        Assert.assertEquals(row.getCellValue(4), "inline text");
+        Assert.assertNotNull(row.getCell(0).recon);
+        Assert.assertEquals(row.getCell(0).recon.match.id, "/en/alpha");
+
+        // a missing row, then a row of sparse cells with an error and a formula
+        Assert.assertEquals(project.rows.get(1).cells.size(), 0);
+        row = project.rows.get(2);
+        Assert.assertNull(row.getCell(0));
+        Assert.assertNull(row.getCellValue(1));
+        Assert.assertEquals(((Number) row.getCellValue(2)).doubleValue(), 42.0, EPSILON);
+        Assert.assertEquals(row.getCellValue(4), "formula result");
+    }
+
+    /**
+     * Write a workbook part by part, as no workbook object can be written without the
+     * OOXML schemas, which are not needed for reading it as a stream.
+     */
+    private static void createXlsx(File file) throws IOException {
+        String main = "xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" " +
+                "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"";
+        String rels = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/";
+        String contentTypes = "application/vnd.openxmlformats-officedocument.spreadsheetml.";
+
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            writeEntry(out, "[Content_Types].xml",
+                "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">" +
+                "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>" +
+                "<Default Extension=\"xml\" ContentType=\"application/xml\"/>" +
+                "<Override PartName=\"/xl/workbook.xml\" ContentType=\"" + contentTypes + "sheet.main+xml\"/>" +
+                "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"" + contentTypes + "worksheet+xml\"/>" +
+                "<Override PartName=\"/xl/worksheets/sheet2.xml\" ContentType=\"" + contentTypes + "worksheet+xml\"/>" +
+                "<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"" + contentTypes + "sharedStrings+xml\"/>" +
+                "<Override PartName=\"/xl/styles.xml\" ContentType=\"" + contentTypes + "styles+xml\"/>" +
+                "</Types>");
+            writeEntry(out, "_rels/.rels",
+                "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+                "<Relationship Id=\"rId1\" Type=\"" + rels + "officeDocument\" Target=\"xl/workbook.xml\"/>" +
+                "</Relationships>");
+            writeEntry(out, "xl/workbook.xml",
+                "<workbook " + main + "><sheets>" +
+                "<sheet name=\"Empty\" sheetId=\"1\" r:id=\"rId1\"/>" +
+                "<sheet name=\"Data\" sheetId=\"2\" r:id=\"rId2\"/>" +
+                "</sheets></workbook>");
+            writeEntry(out, "xl/_rels/workbook.xml.rels",
+                "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+                "<Relationship Id=\"rId1\" Type=\"" + rels + "worksheet\" Target=\"worksheets/sheet1.xml\"/>" +
+                "<Relationship Id=\"rId2\" Type=\"" + rels + "worksheet\" Target=\"worksheets/sheet2.xml\"/>" +
+                "<Relationship Id=\"rId3\" Type=\"" + rels + "sharedStrings\" Target=\"sharedStrings.xml\"/>" +
+                "<Relationship Id=\"rId4\" Type=\"" + rels + "styles\" Target=\"styles.xml\"/>" +
+                "</Relationships>");
+            writeEntry(out, "xl/sharedStrings.xml",
+                "<sst " + main + "><si><t>name</t></si><si><t>amount</t></si><si><t>when</t></si>" +
+                "<si><t>ok</t></si><si><t>note</t></si><si><r><t>al</t></r><r><t>pha</t></r></si></sst>");
+            writeEntry(out, "xl/styles.xml",
+                "<styleSheet " + main + "><cellXfs count=\"2\"><xf numFmtId=\"0\"/><xf numFmtId=\"14\"/></cellXfs></styleSheet>");
+            writeEntry(out, "xl/worksheets/sheet1.xml",
+                "<worksheet " + main + "><dimension ref=\"A1\"/><sheetData/></worksheet>");
+            writeEntry(out, "xl/worksheets/sheet2.xml",
+                "<worksheet " + main + "><dimension ref=\"A1:E4\"/><sheetData>" +
+                "<row r=\"1\"><c r=\"A1\" t=\"s\"><v>0</v></c><c r=\"B1\" t=\"s\"><v>1</v></c>" +
+                "<c r=\"C1\" t=\"s\"><v>2</v></c><c r=\"D1\" t=\"s\"><v>3</v></c><c r=\"E1\" t=\"s\"><v>4</v></c></row>" +
+                "<row r=\"2\"><c r=\"A2\" t=\"s\"><v>5</v></c><c r=\"B2\"><v>1.5</v></c>" +
+                "<c r=\"C2\" s=\"1\"><v>42000</v></c><c r=\"D2\" t=\"b\"><v>1</v></c>" +
+                "<c r=\"E2\" t=\"inlineStr\"><is><t>inline text</t></is></c></row>" +
+                "<row r=\"4\"><c r=\"B4\" t=\"e\"><f>1/0</f><v>#DIV/0!</v></c><c r=\"C4\"><v>42</v></c>" +
+                "<c r=\"E4\" t=\"str\"><f>\"formula \"&amp;\"result\"</f><v>formula result</v></c></row>" +
+                "</sheetData><hyperlinks><hyperlink ref=\"A2\" r:id=\"rId1\"/></hyperlinks></worksheet>");
+            writeEntry(out, "xl/worksheets/_rels/sheet2.xml.rels",
+                "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+                "<Relationship Id=\"rId1\" Type=\"" + rels + "hyperlink\" " +
+                "Target=\"http://www.freebase.com/view/en/alpha\" TargetMode=\"External\"/>" +
+                "</Relationships>");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeEntry(ZipOutputStream out, String name, String xml) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" + xml).getBytes("UTF-8"));
+        out.closeEntry();
+    }
+    
     private static File createSpreadsheet(boolean xml) {
 
         final Workbook wb = xml ? new XSSFWorkbook() : new HSSFWorkbook();
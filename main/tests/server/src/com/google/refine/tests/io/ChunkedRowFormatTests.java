@@ -0,0 +1,155 @@
+package com.google.refine.tests.io;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.expr.EvalError;
+import com.google.refine.io.ChunkedRowFormat;
+import com.google.refine.io.ProjectUtilities;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Recon;
+import com.google.refine.model.Row;
+import com.google.refine.tests.RefineTest;
+
+public class ChunkedRowFormatTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    File file;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        file = File.createTempFile("chunked-rows", ".zip");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        ProjectManager.singleton.getPreferenceStore().put("storage.chunkedRows", null);
+        file.delete();
+    }
+
+    private Project createProject(int rowCount) throws Exception {
+        Project project = createProjectWithColumns("ChunkedRowFormatTests", "name", "amount", "misc");
+        Recon recon = new Recon(1234L, "http://example.com/id", "http://example.com/schema");
+        OffsetDateTime date = OffsetDateTime.of(2017, 3, 4, 5, 6, 7, 0, ZoneOffset.UTC);
+        for (int i = 0; i < rowCount; i++) {
+            Row row = new Row(3);
+            row.setCell(0, new Cell("name " + (i % 50), i % 7 == 0 ? recon : null));
+            if (i % 11 != 0) {
+                row.setCell(1, new Cell(i % 3 == 0 ? (Serializable) (i * 1.5d + 0.25d) : (Serializable) (long) (i - 5000), null));
+            }
+            switch (i % 5) {
+            case 0: row.setCell(2, new Cell(true, null)); break;
+            case 1: row.setCell(2, new Cell(date, null)); break;
+            case 2: row.setCell(2, new Cell(new EvalError("oops"), null)); break;
+            case 3: row.setCell(2, new Cell("unique " + i + " é中", null)); break;
+            default: break;
+            }
+            row.flagged = i % 13 == 0;
+            row.starred = i % 17 == 0;
+            project.rows.add(row);
+        }
+        project.update();
+        return project;
+    }
+
+    private void assertSameRows(Project loaded, Project project) {
+        Assert.assertEquals(loaded.rows.size(), project.rows.size());
+        for (int i = 0; i < project.rows.size(); i++) {
+            Row expected = project.rows.get(i);
+            Row actual = loaded.rows.get(i);
+            Assert.assertEquals(actual.flagged, expected.flagged);
+            Assert.assertEquals(actual.starred, expected.starred);
+            for (int c = 0; c < 3; c++) {
+                Cell expectedCell = expected.getCell(c);
+                Cell actualCell = actual.getCell(c);
+                if (expectedCell == null) {
+                    Assert.assertNull(actualCell);
+                } else if (expectedCell.value instanceof EvalError) {
+                    Assert.assertEquals(((EvalError) actualCell.value).message, ((EvalError) expectedCell.value).message);
+                } else {
+                    Assert.assertEquals(actualCell.value, expectedCell.value);
+                    Assert.assertEquals(actualCell.recon == null, expectedCell.recon == null);
+                    if (expectedCell.recon != null) {
+                        Assert.assertEquals(actualCell.recon.id, expectedCell.recon.id);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void roundTripChunkedRows() throws Exception {
+        Project project = createProject(3 * ChunkedRowFormat.DEFAULT_ROWS_PER_CHUNK + 100);
+        ProjectManager.singleton.getPreferenceStore().put("storage.chunkedRows", true);
+        ProjectUtilities.saveToFile(project, file);
+
+        Project loaded = ProjectUtilities.loadFromFile(file, project.id);
+        assertSameRows(loaded, project);
+        Assert.assertEquals(loaded.columnModel.columns.size(), 3);
+        Assert.assertEquals(loaded.recordModel.getRecordCount(), project.recordModel.getRecordCount());
+    }
+
+    @Test
+    public void loadLegacyRows() throws Exception {
+        Project project = createProject(500);
+        ProjectUtilities.saveToFile(project, file);
+
+        assertSameRows(ProjectUtilities.loadFromFile(file, project.id), project);
+    }
+
+    @Test
+    public void chunkedRowsTakeLessSpace() throws Exception {
+        Project project = createProject(20000);
+        ProjectUtilities.saveToFile(project, file);
+        long legacySize = file.length();
+
+        ProjectManager.singleton.getPreferenceStore().put("storage.chunkedRows", true);
+        ProjectUtilities.saveToFile(project, file);
+        Assert.assertTrue(file.length() < legacySize, file.length() + " >= " + legacySize);
+    }
+
+    @Test
+    public void otherFormatVersionsAreRejected() throws Exception {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        out.putNextEntry(new ZipEntry(ChunkedRowFormat.INDEX_ENTRY));
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(0x52524f57); // "RROW"
+        dos.writeInt(1);
+        dos.writeInt(0);
+        dos.flush();
+        out.closeEntry();
+        out.close();
+
+        ZipFile zipFile = new ZipFile(file);
+        try {
+            ChunkedRowFormat.getIndex(zipFile);
+            Assert.fail("a version 1 index was read");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("version 1"), e.getMessage());
+        } finally {
+            zipFile.close();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.google.refine.tests.io;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.browsing.RowVisitor;
+import com.google.refine.history.Change;
+import com.google.refine.history.HistoryEntry;
+import com.google.refine.io.ChunkedRowFormat;
+import com.google.refine.io.ProjectUtilities;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.model.changes.CellChange;
+import com.google.refine.model.changes.RowReorderChange;
+import com.google.refine.tests.RefineTest;
+
+public class ProjectUtilitiesTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    static final int CHUNK_COUNT = 8;
+
+    File dir;
+    File dataFile;
+    File deltaFile;
+    Project project;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("project-utilities").toFile();
+        dataFile = new File(dir, "data.zip");
+        deltaFile = new File(dir, "data.inc.zip");
+        // only chunked rows are saved incrementally
+        ProjectManager.singleton.getPreferenceStore().put("storage.chunkedRows", true);
+
+        project = createProjectWithColumns("ProjectUtilitiesTests", "value");
+        for (int i = 0; i < CHUNK_COUNT * ChunkedRowFormat.DEFAULT_ROWS_PER_CHUNK; i++) {
+            Row row = new Row(1);
+            row.setCell(0, new Cell("v" + i, null));
+            project.rows.add(row);
+        }
+        project.update();
+        ProjectUtilities.save(project, dir);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        ProjectManager.singleton.getPreferenceStore().put("storage.chunkedRows", null);
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private void apply(Change change) {
+        project.history.addEntry(new HistoryEntry(HistoryEntry.allocateID(), project, "change", null, change));
+    }
+
+    private void setValue(int rowIndex, String value) {
+        apply(new CellChange(rowIndex, 0, project.rows.get(rowIndex).getCell(0), new Cell(value, null)));
+    }
+
+    private Object loadValue(int rowIndex) {
+        Project loaded = ProjectUtilities.load(dir, project.id);
+        Assert.assertEquals(loaded.rows.size(), project.rows.size());
+        return loaded.rows.get(rowIndex).getCellValue(0);
+    }
+
+    @Test
+    public void saveOnlyModifiedChunks() throws Exception {
+        long dataFileLength = dataFile.length();
+        Assert.assertFalse(deltaFile.exists());
+
+        setValue(10, "changed");
+        ProjectUtilities.save(project, dir);
+        Assert.assertTrue(deltaFile.exists());
+        Assert.assertTrue(deltaFile.length() < dataFileLength / 2);
+        Assert.assertEquals(loadValue(10), "changed");
+
+        int otherRow = 3 * ChunkedRowFormat.DEFAULT_ROWS_PER_CHUNK + 5;
+        setValue(otherRow, "changed too");
+        ProjectUtilities.save(project, dir);
+        Assert.assertEquals(loadValue(10), "changed");
+        Assert.assertEquals(loadValue(otherRow), "changed too");
+        Assert.assertEquals(loadValue(11), "v11");
+        Assert.assertEquals(dataFile.length(), dataFileLength);
+    }
+
+    @Test
+    public void undoIsSavedIncrementally() throws Exception {
+        setValue(10, "changed");
+        long entryID = project.history.getLastPastEntries(1).get(0).id;
+        setValue(20, "changed again");
+        ProjectUtilities.save(project, dir);
+
+        project.history.undoRedo(entryID);
+        ProjectUtilities.save(project, dir);
+        Assert.assertEquals(loadValue(10), "changed");
+        Assert.assertEquals(loadValue(20), "v20");
+    }
+
+    @Test
+    public void scanReadsRowsWithoutKeepingThem() throws Exception {
+        setValue(10, "changed");
+        ProjectUtilities.save(project, dir);
+
+        final Object[] values = new Object[project.rows.size()];
+        Project scanned = ProjectUtilities.scan(dir, project.id, new RowVisitor() {
+            @Override
+            public void start(Project project) {
+            }
+
+            @Override
+            public boolean visit(Project project, int rowIndex, Row row) {
+                values[rowIndex] = row.getCellValue(0);
+                return false;
+            }
+
+            @Override
+            public void end(Project project) {
+            }
+        });
+        Assert.assertEquals(scanned.rows.size(), 0);
+        Assert.assertNotNull(scanned.columnModel.getColumnByName("value"));
+        Assert.assertEquals(values[10], "changed");
+        Assert.assertEquals(values[values.length - 1], "v" + (values.length - 1));
+    }
+
+    @Test
+    public void loadedDeltaIsKept() throws Exception {
+        setValue(10, "changed");
+        ProjectUtilities.save(project, dir);
+
+        project = ProjectUtilities.load(dir, project.id);
+        Assert.assertFalse(project.modifiedRows.isAll());
+        Assert.assertTrue(project.modifiedRows.getRows().get(10));
+
+        // a later delta still holds the rows of the loaded one
+        int otherRow = 2 * ChunkedRowFormat.DEFAULT_ROWS_PER_CHUNK;
+        project.rows.get(otherRow).setCell(0, new Cell("direct", null));
+        project.modifiedRows.markRange(otherRow, otherRow + 1);
+        ProjectUtilities.save(project, dir);
+        Assert.assertEquals(loadValue(10), "changed");
+        Assert.assertEquals(loadValue(otherRow), "direct");
+    }
+
+    @Test
+    public void compactWhenManyChunksAreModified() throws Exception {
+        for (int c = 0; c < CHUNK_COUNT / 2; c++) {
+            setValue(c * ChunkedRowFormat.DEFAULT_ROWS_PER_CHUNK, "changed " + c);
+        }
+        ProjectUtilities.save(project, dir);
+        Assert.assertFalse(deltaFile.exists());
+        Assert.assertEquals(loadValue(ChunkedRowFormat.DEFAULT_ROWS_PER_CHUNK), "changed 1");
+    }
+
+    @Test
+    public void saveInFullAfterRowChanges() throws Exception {
+        setValue(10, "changed");
+        ProjectUtilities.save(project, dir);
+        Assert.assertTrue(deltaFile.exists());
+
+        int[] rowIndices = new int[project.rows.size()];
+        for (int i = 0; i < rowIndices.length; i++) {
+            rowIndices[i] = rowIndices.length - 1 - i;
+        }
+        apply(new RowReorderChange(Arrays.asList(toIntegers(rowIndices))));
+        ProjectUtilities.save(project, dir);
+        Assert.assertFalse(deltaFile.exists());
+        Assert.assertEquals(loadValue(rowIndices.length - 11), "changed");
+    }
+
+    @Test
+    public void ignoreDeltaOfOtherDataFile() throws Exception {
+        setValue(10, "changed");
+        ProjectUtilities.save(project, dir);
+        File staleDelta = new File(dir, "stale.zip");
+        Files.copy(deltaFile.toPath(), staleDelta.toPath());
+
+        for (int c = 0; c < CHUNK_COUNT; c++) {
+            setValue(c * ChunkedRowFormat.DEFAULT_ROWS_PER_CHUNK + 10, "compacted");
+        }
+        ProjectUtilities.save(project, dir);
+        Files.move(staleDelta.toPath(), deltaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        Assert.assertEquals(loadValue(10), "compacted");
+    }
+
+    static private Integer[] toIntegers(int[] a) {
+        Integer[] integers = new Integer[a.length];
+        for (int i = 0; i < a.length; i++) {
+            integers[i] = a[i];
+        }
+        return integers;
+    }
+}
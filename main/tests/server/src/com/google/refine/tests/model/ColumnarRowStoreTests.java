@@ -0,0 +1,315 @@
+package com.google.refine.tests.model;
+
+import static org.mockito.Mockito.mock;
+
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.expr.EvalError;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Recon;
+import com.google.refine.model.Row;
+import com.google.refine.model.changes.CellChange;
+import com.google.refine.model.changes.RowFlagChange;
+import com.google.refine.model.columnar.ColumnarRowStore;
+import com.google.refine.tests.RefineTest;
+
+public class ColumnarRowStoreTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    ColumnarRowStore store;
+
+    @BeforeMethod
+    public void SetUp() {
+        store = new ColumnarRowStore();
+    }
+
+    private Row row(Object... values) {
+        Row row = new Row(values.length);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof Cell) {
+                row.setCell(i, (Cell) values[i]);
+            } else if (values[i] != null) {
+                row.setCell(i, new Cell((Serializable) values[i], null));
+            }
+        }
+        return row;
+    }
+
+    @Test
+    public void storeAndReadValues() {
+        OffsetDateTime date = OffsetDateTime.now();
+        store.add(row("a", 12L, 3.5, true, date, new EvalError("boom")));
+        store.add(row(null, "a", false));
+
+        Assert.assertEquals(store.size(), 2);
+        Row row = store.get(0);
+        Assert.assertEquals(row.cells.size(), 6);
+        Assert.assertEquals(row.getCellValue(0), "a");
+        Assert.assertEquals(row.getCellValue(1), 12L);
+        Assert.assertEquals(row.getCellValue(2), 3.5);
+        Assert.assertEquals(row.getCellValue(3), true);
+        Assert.assertEquals(row.getCellValue(4), date);
+        Assert.assertTrue(row.getCellValue(5) instanceof EvalError);
+        Assert.assertNull(row.getCell(6));
+
+        Row second = store.get(1);
+        Assert.assertEquals(second.cells.size(), 3);
+        Assert.assertNull(second.getCell(0));
+        Assert.assertEquals(store.getCellValue(1, 1), "a");
+        Assert.assertEquals(second.getCellValue(2), false);
+        Assert.assertEquals(store.getColumn(0).getDictionarySize(), 1);
+    }
+
+    @Test
+    public void reconsAreShared() {
+        Recon recon = new Recon(1L, null, null);
+        store.add(row(new Cell("x", recon)));
+        store.add(row(new Cell(null, recon)));
+
+        Assert.assertSame(store.get(0).getCell(0).recon, recon);
+        Assert.assertSame(store.get(1).getCell(0).recon, recon);
+        Assert.assertNull(store.get(1).getCellValue(0));
+    }
+
+    @Test
+    public void writeThroughViews() {
+        store.add(row("a"));
+        Row row = store.get(0);
+        row.setCell(0, new Cell("b", null));
+        row.setCell(3, new Cell(4L, null));
+        row.setFlagged(true);
+
+        Row again = store.get(0);
+        Assert.assertEquals(again.getCellValue(0), "b");
+        Assert.assertEquals(again.cells.size(), 4);
+        Assert.assertNull(again.getCell(2));
+        Assert.assertEquals(again.getCellValue(3), 4L);
+        Assert.assertTrue(again.isFlagged());
+        Assert.assertFalse(again.isEmpty());
+    }
+
+    @Test
+    public void viewsAndCellsAreReused() {
+        Recon recon = new Recon(1L, null, null);
+        store.add(row("a", true, null, OffsetDateTime.now()));
+        store.add(row("a", true, new Cell("a", recon)));
+
+        Row row = store.get(0);
+        Assert.assertSame(store.get(0), row);
+        Assert.assertSame(row.getCell(0), store.get(1).getCell(0));
+        Assert.assertSame(row.getCell(1), store.get(1).getCell(1));
+        Assert.assertSame(row.getCell(3), row.getCell(3));
+        Assert.assertSame(store.get(1).getCell(2).recon, recon);
+
+        // the store is the only record of the flag
+        row.setFlagged(true);
+        Assert.assertTrue(store.get(0).isFlagged());
+        Assert.assertTrue((Boolean) store.get(0).getField("flagged", null));
+    }
+
+    @Test
+    public void overwrittenValuesAreReleased() {
+        store.add(row("a", OffsetDateTime.now()));
+        Row row = store.get(0);
+        for (int i = 0; i < 10; i++) {
+            row.setCell(0, new Cell("value " + i, null));
+            row.setCell(1, new Cell(OffsetDateTime.now(), null));
+        }
+        Assert.assertEquals(store.getColumn(0).getDictionarySize(), 1);
+        Assert.assertEquals(store.getColumn(1).getObjectCount(), 1);
+        Assert.assertEquals(row.getCellValue(0), "value 9");
+    }
+
+    @Test
+    public void replacedReconsAreReleased() {
+        Recon shared = new Recon(1L, null, null);
+        store.add(row(new Cell("a", shared)));
+        store.add(row(new Cell("b", shared)));
+        Row row = store.get(0);
+        for (int i = 0; i < 10; i++) {
+            row.setCell(0, new Cell("a", new Recon(i, null, null)));
+        }
+        Assert.assertEquals(store.getReconCount(), 2);
+        Assert.assertSame(store.get(1).getCell(0).recon, shared);
+
+        store.get(1).setCell(0, new Cell("b", null));
+        Assert.assertEquals(store.getReconCount(), 1);
+
+        // rows without views release their recons with their slots
+        ColumnarRowStore other = new ColumnarRowStore();
+        other.add(row(new Cell("c", shared)));
+        other.clear();
+        Assert.assertEquals(other.getReconCount(), 0);
+    }
+
+    @Test
+    public void concurrentReadsShareViewsAndCells() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            store.add(row("value " + (i % 10), OffsetDateTime.now()));
+        }
+        final List<List<Row>> read = new ArrayList<List<Row>>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final List<Row> rows = new ArrayList<Row>();
+            read.add(rows);
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < store.size(); i++) {
+                        Row row = store.get(i);
+                        row.getCell(0);
+                        row.getCell(1);
+                        rows.add(row);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (List<Row> rows : read) {
+            Assert.assertEquals(rows.size(), 1000);
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertSame(rows.get(i), store.get(i));
+                Assert.assertSame(rows.get(i).getCell(0), store.get(i % 10).getCell(0));
+            }
+        }
+    }
+
+    @Test
+    public void slotsAreReused() {
+        store.add(row("a"));
+        store.add(row("b"));
+        store.add(row("c"));
+
+        // no view of these rows was made, so nothing can refer to their slots any more
+        store.clear();
+        Assert.assertEquals(store.getFreeSlotCount(), 3);
+        Assert.assertEquals(store.getColumn(0).getDictionarySize(), 0);
+
+        store.add(row("d"));
+        store.add(row("e"));
+        Assert.assertEquals(store.getSlotCount(), 3);
+        Assert.assertEquals(store.getFreeSlotCount(), 1);
+
+        // a removed row whose view is held keeps its slot
+        Row removed = store.remove(0);
+        store.add(row("f"));
+        store.add(row("g"));
+        Assert.assertEquals(store.getSlotCount(), 4);
+        Assert.assertEquals(removed.getCellValue(0), "d");
+        store.add(0, removed);
+        Assert.assertEquals(store.get(0).getCellValue(0), "d");
+    }
+
+    @Test
+    public void scanColumnInRowOrder() {
+        store.add(row("a", 1L));
+        store.add(row("b"));
+        store.add(row(null, 3L));
+        store.add(0, store.remove(2));
+
+        final List<Object> values = new ArrayList<Object>();
+        store.scanColumn(1, new ColumnarRowStore.CellValueVisitor() {
+            @Override
+            public boolean visit(int rowIndex, Serializable value) {
+                Assert.assertEquals(rowIndex, values.size());
+                values.add(value);
+                return false;
+            }
+        });
+        Assert.assertEquals(values, Arrays.asList(3L, 1L, null));
+    }
+
+    @Test
+    public void viewsSurviveReordering() {
+        store.add(row("a"));
+        store.add(row("b"));
+        store.add(row("c"));
+
+        List<Row> oldRows = new ArrayList<Row>(store);
+        List<Row> newRows = new ArrayList<Row>();
+        newRows.add(oldRows.get(2));
+        newRows.add(row("d"));
+        newRows.add(oldRows.get(0));
+
+        store.clear();
+        store.addAll(newRows);
+        Assert.assertEquals(store.size(), 3);
+        Assert.assertEquals(store.get(0).getCellValue(0), "c");
+        Assert.assertEquals(store.get(1).getCellValue(0), "d");
+        Assert.assertEquals(store.get(2).getCellValue(0), "a");
+
+        store.clear();
+        store.addAll(oldRows);
+        Assert.assertEquals(store.get(1).getCellValue(0), "b");
+
+        Row removed = store.remove(0);
+        Assert.assertEquals(store.get(0).getCellValue(0), "b");
+        store.add(0, removed);
+        Assert.assertEquals(store.get(0).getCellValue(0), "a");
+        Assert.assertEquals(store.getSlotCount(), 4);
+    }
+
+    @Test
+    public void saveMatchesPlainRows() {
+        Properties options = mock(Properties.class);
+        Row plain = row("a", 1L, null, 2.5);
+        plain.starred = true;
+        store.add(plain);
+
+        StringWriter expected = new StringWriter();
+        plain.save(expected, options);
+        StringWriter actual = new StringWriter();
+        store.get(0).save(actual, options);
+        Assert.assertEquals(actual.toString(), expected.toString());
+    }
+
+    @Test
+    public void changesApplyToColumnarProject() throws Exception {
+        ProjectManager.singleton.getPreferenceStore().put("storage.columnarRows", true);
+        try {
+            Project project = createProjectWithColumns("columnar project", "A", "B");
+            Assert.assertTrue(project.rows instanceof ColumnarRowStore);
+            project.rows.add(row("a", "b"));
+            project.update();
+
+            CellChange cellChange = new CellChange(0, 1, project.rows.get(0).getCell(1), new Cell("c", null));
+            cellChange.apply(project);
+            RowFlagChange flagChange = new RowFlagChange(0, true);
+            flagChange.apply(project);
+            Assert.assertEquals(project.rows.get(0).getCellValue(1), "c");
+            Assert.assertTrue(project.rows.get(0).isFlagged());
+
+            flagChange.revert(project);
+            cellChange.revert(project);
+            Assert.assertEquals(project.rows.get(0).getCellValue(1), "b");
+            Assert.assertFalse(project.rows.get(0).isFlagged());
+        } finally {
+            ProjectManager.singleton.getPreferenceStore().put("storage.columnarRows", null);
+        }
+    }
+}
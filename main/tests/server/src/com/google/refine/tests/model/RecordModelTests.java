@@ -0,0 +1,122 @@
+package com.google.refine.tests.model;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.model.Cell;
+import com.google.refine.model.ColumnGroup;
+import com.google.refine.model.Project;
+import com.google.refine.model.Record;
+import com.google.refine.model.RecordModel;
+import com.google.refine.model.RecordModel.RowDependency;
+import com.google.refine.model.Row;
+import com.google.refine.model.changes.CellChange;
+import com.google.refine.model.changes.MassCellChange;
+import com.google.refine.tests.RefineTest;
+
+public class RecordModelTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    Project project;
+    Random random;
+
+    @BeforeMethod
+    public void SetUp() throws Exception {
+        project = createProjectWithColumns("RecordModelTests", "key", "a", "subkey", "b", "c");
+        project.columnModel.columnGroups.add(new ColumnGroup(2, 3, 2));
+        random = new Random(17);
+        for (int r = 0; r < 2000; r++) {
+            Row row = new Row(5);
+            for (int c = 0; c < 5; c++) {
+                row.setCell(c, randomCell(c));
+            }
+            project.rows.add(row);
+        }
+        project.update();
+    }
+
+    private Cell randomCell(int cellIndex) {
+        // keys are mostly blank so that records span several rows
+        boolean present = random.nextInt(cellIndex == 0 ? 8 : (cellIndex == 2 ? 3 : 2)) == 0;
+        return present ? new Cell("v" + random.nextInt(5), null) : null;
+    }
+
+    private void assertSameAsRebuilt() {
+        RecordModel rebuilt = new RecordModel();
+        rebuilt.update(project);
+        RecordModel model = project.recordModel;
+
+        Assert.assertEquals(model.getRecordCount(), rebuilt.getRecordCount());
+        for (int i = 0; i < rebuilt.getRecordCount(); i++) {
+            Record expected = rebuilt.getRecord(i);
+            Record actual = model.getRecord(i);
+            Assert.assertEquals(actual.fromRowIndex, expected.fromRowIndex, "record " + i);
+            Assert.assertEquals(actual.toRowIndex, expected.toRowIndex, "record " + i);
+        }
+        for (int r = 0; r < project.rows.size(); r++) {
+            Assert.assertEquals(model.getRowDependency(r).toString(), rebuilt.getRowDependency(r).toString(), "row " + r);
+            Assert.assertEquals(model.getRecordOfRow(r).recordIndex, rebuilt.getRecordOfRow(r).recordIndex, "row " + r);
+        }
+    }
+
+    private Object getRecordIndices() throws Exception {
+        Field field = RecordModel.class.getDeclaredField("_recordIndices");
+        field.setAccessible(true);
+        return field.get(project.recordModel);
+    }
+
+    @Test
+    public void recordsSpanRowsWithBlankKeys() {
+        RecordModel model = project.recordModel;
+        Assert.assertTrue(model.getRecordCount() > 1);
+        Assert.assertTrue(model.getRecordCount() < project.rows.size());
+        for (int i = 0; i < model.getRecordCount(); i++) {
+            Record record = model.getRecord(i);
+            Assert.assertEquals(model.getRowDependency(record.fromRowIndex).recordIndex, i);
+            for (int r = record.fromRowIndex + 1; r < record.toRowIndex; r++) {
+                RowDependency rd = model.getRowDependency(r);
+                Assert.assertEquals(rd.recordIndex, -1);
+                Assert.assertTrue(rd.contextRows.get(0) < r);
+            }
+        }
+        Assert.assertEquals(model.getRecord(model.getRecordCount() - 1).toRowIndex, project.rows.size());
+    }
+
+    @Test
+    public void incrementalUpdatesMatchFullRebuild() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            int count = 1 + random.nextInt(4);
+            List<CellChange> cellChanges = new ArrayList<CellChange>();
+            int start = random.nextInt(project.rows.size() - 10);
+            for (int i = 0; i < count; i++) {
+                int r = start + random.nextInt(10);
+                int c = random.nextInt(5);
+                Cell newCell = random.nextBoolean() ? null : new Cell("w", null);
+                cellChanges.add(new CellChange(r, c, project.rows.get(r).getCell(c), newCell));
+            }
+
+            Object recordIndices = getRecordIndices();
+            MassCellChange change = new MassCellChange(cellChanges, null, true);
+            change.apply(project);
+            Assert.assertSame(getRecordIndices(), recordIndices, "rows were all recomputed");
+            assertSameAsRebuilt();
+            if (round % 3 == 0) {
+                change.revert(project);
+                assertSameAsRebuilt();
+            }
+        }
+    }
+}
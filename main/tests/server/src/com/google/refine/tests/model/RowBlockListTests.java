@@ -0,0 +1,161 @@
+package com.google.refine.tests.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.model.RowBlockList;
+import com.google.refine.model.changes.MassRowChange;
+import com.google.refine.model.changes.RowRemovalChange;
+import com.google.refine.model.changes.RowReorderChange;
+import com.google.refine.tests.RefineTest;
+
+public class RowBlockListTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    RowBlockList list;
+    List<Row> expected;
+
+    @BeforeMethod
+    public void SetUp() {
+        list = new RowBlockList();
+        expected = new ArrayList<Row>();
+    }
+
+    private Row row(int i) {
+        Row row = new Row(1);
+        row.setCell(0, new Cell(i, null));
+        return row;
+    }
+
+    private void fill(int count) {
+        for (int i = 0; i < count; i++) {
+            Row row = row(i);
+            list.add(row);
+            expected.add(row);
+        }
+    }
+
+    private static void assertSameRows(List<Row> actual, List<Row> expected) {
+        Assert.assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertSame(actual.get(i), expected.get(i), "row " + i);
+        }
+    }
+
+    @Test
+    public void behavesLikeAList() {
+        fill(5000);
+        Random random = new Random(42);
+        for (int i = 0; i < 3000; i++) {
+            int op = random.nextInt(3);
+            if (op == 0) {
+                int index = random.nextInt(expected.size() + 1);
+                Row row = row(-i);
+                list.add(index, row);
+                expected.add(index, row);
+            } else if (op == 1) {
+                int index = random.nextInt(expected.size());
+                Assert.assertSame(list.remove(index), expected.remove(index));
+            } else {
+                int index = random.nextInt(expected.size());
+                Row row = row(i);
+                Assert.assertSame(list.set(index, row), expected.set(index, row));
+            }
+        }
+        assertSameRows(list, expected);
+        assertSameRows(new ArrayList<Row>(list), expected);
+    }
+
+    @Test
+    public void snapshotsAreNotAffectedByChanges() {
+        fill(3000);
+        List<Row> before = new ArrayList<Row>(expected);
+        RowBlockList snapshot = list.snapshot();
+
+        list.set(10, row(-1));
+        list.remove(2000);
+        list.add(0, row(-2));
+        list.add(row(-3));
+        snapshot.set(2500, row(-4));
+
+        Assert.assertNotSame(list.get(11), before.get(10));
+        Assert.assertSame(list.get(2000), before.get(1999));
+        Assert.assertEquals(list.size(), 3001);
+        Assert.assertEquals(snapshot.size(), 3000);
+        Assert.assertNotSame(snapshot.get(2500), before.get(2500));
+        snapshot.set(2500, before.get(2500));
+        assertSameRows(snapshot, before);
+    }
+
+    @Test
+    public void removeRowsKeepsUntouchedBlocks() {
+        fill(RowBlockList.BLOCK_SIZE * 10);
+        RowBlockList snapshot = list.snapshot();
+
+        int[] indices = { 3, 4, RowBlockList.BLOCK_SIZE * 5 + 1, list.size() - 1 };
+        List<Row> removed = list.removeRows(indices);
+
+        Assert.assertEquals(removed.size(), indices.length);
+        for (int i = indices.length - 1; i >= 0; i--) {
+            Assert.assertSame(removed.get(i), expected.remove(indices[i]));
+        }
+        assertSameRows(list, expected);
+        Assert.assertEquals(list.getBlockCount(), 10);
+        Assert.assertEquals(snapshot.size(), RowBlockList.BLOCK_SIZE * 10);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void removeRowsRejectsUnsortedIndices() {
+        fill(10);
+        list.removeRows(new int[] { 5, 2 });
+    }
+
+    @Test
+    public void applyAndRevertRowChanges() throws Exception {
+        Project project = createProjectWithColumns("RowBlockListTests", "a");
+        Assert.assertTrue(project.rows instanceof RowBlockList);
+        for (int i = 0; i < 5000; i++) {
+            project.rows.add(row(i));
+        }
+        List<Row> original = new ArrayList<Row>(project.rows);
+
+        int[] order = new int[original.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (i * 7919) % order.length;
+        }
+        RowReorderChange reorder = new RowReorderChange(order);
+        reorder.apply(project);
+        Assert.assertSame(project.rows.get(1), original.get(7919 % order.length));
+        reorder.revert(project);
+        assertSameRows(project.rows, original);
+
+        RowRemovalChange removal = new RowRemovalChange(new int[] { 0, 1, 2000, 4999 });
+        removal.apply(project);
+        Assert.assertEquals(project.rows.size(), 4996);
+        Assert.assertSame(project.rows.get(0), original.get(2));
+        removal.revert(project);
+        assertSameRows(project.rows, original);
+
+        List<Row> newRows = new ArrayList<Row>(original.subList(100, 200));
+        MassRowChange mass = new MassRowChange(newRows);
+        mass.apply(project);
+        assertSameRows(project.rows, newRows);
+        mass.revert(project);
+        assertSameRows(project.rows, original);
+    }
+}
@@ -0,0 +1,276 @@
+package com.google.refine.tests.operations.column;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.operations.OnError;
+import com.google.refine.operations.column.ColumnAdditionByFetchingURLsOperation;
+import com.google.refine.operations.column.UrlFetchScheduler;
+import com.google.refine.process.Process;
+import com.google.refine.tests.RefineTest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class UrlFetchSchedulerTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * A service answering each path with its own name, slowly, and answering paths
+     * starting with "/busy" with 503, or 429 for "/busy429", the first time.
+     */
+    static class StubService implements HttpHandler {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final Set<String> failedOnce = ConcurrentHashMap.newKeySet();
+        volatile long delayMillis = 50;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(delayMillis);
+                String path = exchange.getRequestURI().getPath();
+                if (path.startsWith("/busy") && failedOnce.add(path)) {
+                    boolean tooMany = path.startsWith("/busy429");
+                    if (tooMany) {
+                        exchange.getResponseHeaders().add("Retry-After", "0");
+                    }
+                    send(exchange, tooMany ? 429 : 503, "busy");
+                } else {
+                    send(exchange, 200, path.substring(1));
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        void send(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(bytes);
+            os.close();
+        }
+    }
+
+    static class Collector implements UrlFetchScheduler.Listener {
+        final List<String> bodies;
+        int responses;
+        int cancelAfter = Integer.MAX_VALUE;
+
+        Collector(int size) {
+            bodies = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                bodies.add(null);
+            }
+        }
+
+        @Override
+        public void onResponse(int index, UrlFetchScheduler.Response response) {
+            bodies.set(index, response == null ? null : response.error == null ? response.body : response.error);
+            responses++;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return responses >= cancelAfter;
+        }
+    }
+
+    private StubService service;
+    private HttpServer server;
+    private String base;
+
+    @BeforeMethod
+    public void SetUp() throws IOException {
+        service = new StubService();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", service);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        server.stop(0);
+    }
+
+    private List<String> urls(int count, String prefix) {
+        List<String> urls = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            urls.add(base + prefix + i);
+        }
+        return urls;
+    }
+
+    @Test
+    public void requestsToAHostAreLimited() throws Exception {
+        List<String> urls = urls(20, "v");
+        UrlFetchScheduler scheduler = new UrlFetchScheduler(null, 0, 8, 3, 10);
+        Collector collector = new Collector(urls.size());
+
+        Assert.assertTrue(scheduler.fetchAll(urls, collector));
+
+        for (int i = 0; i < urls.size(); i++) {
+            Assert.assertEquals(collector.bodies.get(i), "v" + i);
+        }
+        Assert.assertTrue(service.maxInFlight.get() <= 3);
+        Assert.assertTrue(service.maxInFlight.get() > 1);
+    }
+
+    @Test
+    public void requestsAreStartedAtTheDelay() throws Exception {
+        service.delayMillis = 0;
+        List<String> urls = urls(5, "v");
+        UrlFetchScheduler scheduler = new UrlFetchScheduler(null, 100, 8, 4, 10);
+
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(scheduler.fetchAll(urls, new Collector(urls.size())));
+
+        // the first request goes right away, each other one waits for its token
+        Assert.assertTrue(System.currentTimeMillis() - start >= 390);
+        Assert.assertEquals(service.requests.get(), 5);
+    }
+
+    @Test
+    public void busyResponsesAreRetried() throws Exception {
+        List<String> urls = new ArrayList<String>();
+        urls.add(base + "busy503");
+        urls.add(base + "busy429");
+        urls.add(base + "fine");
+        urls.add("not a url");
+        UrlFetchScheduler scheduler = new UrlFetchScheduler(null, 0, 4, 4, 10);
+        Collector collector = new Collector(urls.size());
+
+        Assert.assertTrue(scheduler.fetchAll(urls, collector));
+
+        Assert.assertEquals(collector.bodies.get(0), "busy503");
+        Assert.assertEquals(collector.bodies.get(1), "busy429");
+        Assert.assertEquals(collector.bodies.get(2), "fine");
+        Assert.assertNull(collector.bodies.get(3));
+        Assert.assertEquals(service.requests.get(), 5);
+    }
+
+    @Test
+    public void cancelingStopsFetching() throws Exception {
+        List<String> urls = urls(50, "v");
+        UrlFetchScheduler scheduler = new UrlFetchScheduler(null, 0, 2, 2, 10);
+        Collector collector = new Collector(urls.size());
+        collector.cancelAfter = 3;
+
+        Assert.assertFalse(scheduler.fetchAll(urls, collector));
+        Thread.sleep(200);
+        Assert.assertTrue(service.requests.get() < 10);
+    }
+
+    @Test
+    public void operationFetchesEachDistinctUrlOnce() throws Exception {
+        Project project = createProjectWithColumns("UrlFetchSchedulerTests", "path");
+        for (int i = 0; i < 30; i++) {
+            Row row = new Row(2);
+            row.setCell(0, new Cell("p" + (i % 10), null));
+            project.rows.add(row);
+        }
+
+        ColumnAdditionByFetchingURLsOperation op = new ColumnAdditionByFetchingURLsOperation(
+            new JSONObject("{\"mode\":\"row-based\"}"),
+            "path",
+            "\"" + base + "\" + value",
+            OnError.StoreError,
+            "body",
+            1,
+            0,
+            true,
+            null);
+        Process process = op.createProcess(project, null);
+        process.startPerforming(project.getProcessManager());
+        for (int i = 0; i < 100 && !process.isDone(); i++) {
+            Thread.sleep(50);
+        }
+
+        Assert.assertTrue(process.isDone());
+        int cellIndex = project.columnModel.getColumnByName("body").getCellIndex();
+        for (int i = 0; i < 30; i++) {
+            Assert.assertEquals(project.rows.get(i).getCellValue(cellIndex), "p" + (i % 10));
+        }
+        Assert.assertEquals(service.requests.get(), 10);
+    }
+
+    @Test
+    public void canceledOperationKeepsWhatWasFetched() throws Exception {
+        service.delayMillis = 100;
+        Project project = createProjectWithColumns("UrlFetchSchedulerTests", "path");
+        for (int i = 0; i < 50; i++) {
+            Row row = new Row(2);
+            row.setCell(0, new Cell("p" + i, null));
+            project.rows.add(row);
+        }
+
+        ColumnAdditionByFetchingURLsOperation op = new ColumnAdditionByFetchingURLsOperation(
+            new JSONObject("{\"mode\":\"row-based\"}"),
+            "path",
+            "\"" + base + "\" + value",
+            OnError.StoreError,
+            "body",
+            1,
+            0,
+            false,
+            null);
+        Process process = op.createProcess(project, null);
+        process.startPerforming(project.getProcessManager());
+        for (int i = 0; i < 100 && service.requests.get() < 5; i++) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(150);
+        process.cancel();
+        for (int i = 0; i < 100 && !process.isDone(); i++) {
+            Thread.sleep(50);
+        }
+
+        Assert.assertTrue(process.isDone());
+        Assert.assertEquals(project.history.getLastPastEntries(1).size(), 1);
+        Assert.assertTrue(project.history.getLastPastEntries(1).get(0).description.contains("canceled"));
+        int cellIndex = project.columnModel.getColumnByName("body").getCellIndex();
+        int fetched = 0;
+        for (int i = 0; i < 50; i++) {
+            Object value = project.rows.get(i).getCellValue(cellIndex);
+            if (value != null) {
+                Assert.assertEquals(value, "p" + i);
+                fetched++;
+            }
+        }
+        Assert.assertTrue(fetched > 0);
+        Assert.assertTrue(fetched < 50);
+    }
+}
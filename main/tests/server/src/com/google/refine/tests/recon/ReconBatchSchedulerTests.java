@@ -0,0 +1,245 @@
+package com.google.refine.tests.recon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.ProjectManager;
+import com.google.refine.model.Recon;
+import com.google.refine.model.recon.ReconBatchScheduler;
+import com.google.refine.model.recon.ReconJob;
+import com.google.refine.model.recon.StandardReconConfig;
+import com.google.refine.model.recon.StandardReconConfig.ColumnDetail;
+import com.google.refine.tests.RefineTest;
+import com.google.refine.util.ParsingUtilities;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ReconBatchSchedulerTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * A reconciliation service answering each query with a single candidate named
+     * after it, slowly, and failing queries for "flaky" values the first time. The
+     * first requests can be made to fail with a server error.
+     */
+    static class StubService implements HttpHandler {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final Set<String> failedOnce = ConcurrentHashMap.newKeySet();
+        final AtomicInteger failingRequests = new AtomicInteger();
+        volatile long delayMillis = 50;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            requests.incrementAndGet();
+            try {
+                if (failingRequests.getAndDecrement() > 0) {
+                    exchange.sendResponseHeaders(500, -1);
+                    return;
+                }
+                InputStream is = exchange.getRequestBody();
+                String body = ParsingUtilities.inputStreamToString(is);
+                JSONObject queries = new JSONObject(URLDecoder.decode(body.substring("queries=".length()), "UTF-8"));
+
+                Thread.sleep(delayMillis);
+
+                JSONObject response = new JSONObject();
+                Iterator<String> keys = queries.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    String query = queries.getJSONObject(key).getString("query");
+                    if (query.startsWith("flaky") && failedOnce.add(query)) {
+                        continue;
+                    }
+                    JSONObject candidate = new JSONObject();
+                    candidate.put("id", "id-" + query);
+                    candidate.put("name", query);
+                    candidate.put("score", 100);
+                    candidate.put("match", true);
+                    candidate.put("type", new String[] { "T" });
+                    response.put(key, new JSONObject().put("result", new Object[] { candidate }));
+                }
+
+                byte[] bytes = response.toString().getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(bytes);
+                os.close();
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                inFlight.decrementAndGet();
+                exchange.close();
+            }
+        }
+    }
+
+    HttpServer server;
+    StubService service;
+    StandardReconConfig config;
+
+    @BeforeMethod
+    public void SetUp() throws IOException {
+        service = new StubService();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/reconcile", service);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        config = new StandardReconConfig(
+            "http://127.0.0.1:" + server.getAddress().getPort() + "/reconcile",
+            "http://example.com/id", "http://example.com/schema",
+            "T", "Type", true, new ArrayList<ColumnDetail>());
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        server.stop(0);
+    }
+
+    private List<ReconJob> createJobs(int count) {
+        List<ReconJob> jobs = new ArrayList<ReconJob>(count);
+        for (int i = 0; i < count; i++) {
+            jobs.add(config.createSimpleJob((i % 10 == 3 ? "flaky " : "value ") + i));
+        }
+        return jobs;
+    }
+
+    static class ProgressListener implements ReconBatchScheduler.Listener {
+        int lastDone;
+        boolean canceled;
+
+        @Override
+        public void onProgress(int done, int total) {
+            Assert.assertTrue(done >= lastDone);
+            lastDone = done;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+    }
+
+    @Test
+    public void reconcilesInJobOrderWithBatchesInFlight() throws Exception {
+        List<ReconJob> jobs = createJobs(300);
+        ProgressListener listener = new ProgressListener();
+
+        Recon[] recons = new ReconBatchScheduler(config, 1234L, 4).reconcile(jobs, listener);
+
+        Assert.assertEquals(recons.length, jobs.size());
+        for (int i = 0; i < recons.length; i++) {
+            String text = (i % 10 == 3 ? "flaky " : "value ") + i;
+            Assert.assertNotNull(recons[i], text);
+            Assert.assertEquals(recons[i].match.name, text);
+        }
+        Assert.assertEquals(listener.lastDone, jobs.size());
+        Assert.assertTrue(service.maxInFlight.get() > 1, "batches were sent one at a time");
+        Assert.assertTrue(service.maxInFlight.get() <= 4);
+    }
+
+    @Test
+    public void batchesOnlyGrowWhenAllowed() throws Exception {
+        service.delayMillis = 0;
+        ReconBatchScheduler scheduler = new ReconBatchScheduler(config, 1234L, 1);
+        scheduler.reconcile(createJobs(100), new ProgressListener());
+        Assert.assertEquals(scheduler.getBatchSize(), config.getBatchSize());
+
+        ProjectManager.singleton.getPreferenceStore().put(StandardReconConfig.MAX_BATCH_SIZE_PREFERENCE, 50);
+        try {
+            service.requests.set(0);
+            scheduler = new ReconBatchScheduler(config, 1234L, 1);
+            scheduler.reconcile(createJobs(500), new ProgressListener());
+
+            Assert.assertTrue(scheduler.getBatchSize() > config.getBatchSize());
+            Assert.assertTrue(scheduler.getBatchSize() <= 50);
+            // fewer requests than with fixed batches of 10, flaky retries included
+            Assert.assertTrue(service.requests.get() < 50 + 5, "requests: " + service.requests.get());
+        } finally {
+            ProjectManager.singleton.getPreferenceStore().put(StandardReconConfig.MAX_BATCH_SIZE_PREFERENCE, null);
+        }
+    }
+
+    @Test
+    public void stopsWhenCanceled() throws Exception {
+        ProgressListener listener = new ProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+                super.onProgress(done, total);
+                canceled = true;
+            }
+        };
+
+        Assert.assertNull(new ReconBatchScheduler(config, 1234L, 2).reconcile(createJobs(200), listener));
+        Assert.assertTrue(service.requests.get() < 20);
+    }
+
+    @Test
+    public void failedBatchesAreRetriedAfterABackoff() throws Exception {
+        service.delayMillis = 0;
+        service.failingRequests.set(1);
+        List<ReconJob> jobs = createJobs(20);
+        List<Recon> failed = config.batchRecon(jobs.subList(0, 5), 1234L);
+        for (Recon recon : failed) {
+            Assert.assertNull(recon);
+        }
+
+        service.failingRequests.set(2);
+        ReconBatchScheduler scheduler = new ReconBatchScheduler(config, 1234L, 1);
+        scheduler.setBackoffMillis(100);
+        long start = System.currentTimeMillis();
+        Recon[] recons = scheduler.reconcile(jobs, new ProgressListener());
+
+        // waited once, then twice as long after the second failure in a row
+        Assert.assertTrue(System.currentTimeMillis() - start >= 300);
+        for (int i = 0; i < recons.length; i++) {
+            Assert.assertNotNull(recons[i], "job " + i);
+        }
+    }
+
+    @Test
+    public void givesUpWhenTheServiceKeepsFailing() throws Exception {
+        service.delayMillis = 0;
+        service.failingRequests.set(Integer.MAX_VALUE);
+        ReconBatchScheduler scheduler = new ReconBatchScheduler(config, 1234L, 1);
+        scheduler.setBackoffMillis(1);
+        ProgressListener listener = new ProgressListener();
+        Recon[] recons = scheduler.reconcile(createJobs(200), listener);
+
+        for (Recon recon : recons) {
+            Assert.assertNull(recon);
+        }
+        Assert.assertEquals(service.requests.get(), ReconBatchScheduler.MAX_FAILURES_IN_A_ROW);
+        Assert.assertTrue(scheduler.getBatchSize() < config.getBatchSize());
+        Assert.assertEquals(listener.lastDone, 200);
+    }
+}
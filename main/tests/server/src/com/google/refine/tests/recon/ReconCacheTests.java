@@ -0,0 +1,152 @@
+package com.google.refine.tests.recon;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.model.Recon;
+import com.google.refine.model.recon.ReconCache;
+import com.google.refine.model.recon.ReconJob;
+import com.google.refine.model.recon.StandardReconConfig;
+import com.google.refine.model.recon.StandardReconConfig.ColumnDetail;
+import com.google.refine.tests.RefineTest;
+import com.google.refine.tests.util.TestUtils;
+import com.sun.net.httpserver.HttpServer;
+
+public class ReconCacheTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    File dir;
+    File file;
+
+    @BeforeMethod
+    public void SetUp() throws IOException {
+        dir = TestUtils.createTempDirectory("recon-cache-test");
+        file = new File(dir, ReconCache.FILE_NAME);
+    }
+
+    @AfterMethod
+    public void TearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void entriesSurviveReload() {
+        ReconCache cache = new ReconCache(file, 100, 3600000L);
+        Assert.assertNull(cache.get("a"));
+        cache.putAll(Collections.singletonMap("a", "[1]"));
+        cache.putAll(Collections.singletonMap("b", "[2]"));
+        cache.putAll(Collections.singletonMap("a", "[3]"));
+        Assert.assertEquals(cache.get("a"), "[3]");
+
+        ReconCache reloaded = new ReconCache(file, 100, 3600000L);
+        Assert.assertEquals(reloaded.size(), 2);
+        Assert.assertEquals(reloaded.get("a"), "[3]");
+        Assert.assertEquals(reloaded.get("b"), "[2]");
+    }
+
+    @Test
+    public void entriesExpire() {
+        ReconCache cache = new ReconCache(file, 100, -1);
+        cache.putAll(Collections.singletonMap("a", "[1]"));
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(new ReconCache(file, 100, -1).size(), 0);
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() {
+        ReconCache cache = new ReconCache(file, 3, 3600000L);
+        for (String key : new String[] { "a", "b", "c" }) {
+            cache.putAll(Collections.singletonMap(key, "[]"));
+        }
+        cache.get("a");
+        cache.putAll(Collections.singletonMap("d", "[]"));
+
+        Assert.assertEquals(cache.size(), 3);
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void fileIsCompacted() throws IOException {
+        ReconCache cache = new ReconCache(file, 10, 3600000L);
+        for (int i = 0; i < 3000; i++) {
+            cache.putAll(Collections.singletonMap("k" + i, "[" + i + "]"));
+        }
+        Assert.assertTrue(Files.readAllLines(file.toPath()).size() <= 2000);
+
+        ReconCache reloaded = new ReconCache(file, 10, 3600000L);
+        Assert.assertEquals(reloaded.size(), 10);
+        Assert.assertEquals(reloaded.get("k2999"), "[2999]");
+    }
+
+    @Test
+    public void cachedResultsSpareTheService() throws Exception {
+        ReconBatchSchedulerTests.StubService service = new ReconBatchSchedulerTests.StubService();
+        service.delayMillis = 0;
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/reconcile", service);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        try {
+            final ReconCache cache = new ReconCache(file, 100, 3600000L);
+            StandardReconConfig config = new StandardReconConfig(
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/reconcile",
+                    "http://example.com/id", "http://example.com/schema",
+                    "T", "Type", true, new ArrayList<ColumnDetail>()) {
+                @Override
+                protected ReconCache getCache() {
+                    return cache;
+                }
+            };
+
+            List<ReconJob> jobs = new ArrayList<ReconJob>();
+            for (String text : new String[] { "one", "two", "flaky three" }) {
+                jobs.add(config.createSimpleJob(text));
+            }
+
+            List<Recon> first = config.batchRecon(jobs, 1L);
+            Assert.assertEquals(service.requests.get(), 1);
+            Assert.assertNull(first.get(2)); // the service failed this one
+            Assert.assertEquals(cache.size(), 2);
+
+            List<Recon> second = config.batchRecon(jobs, 2L);
+            Assert.assertEquals(service.requests.get(), 2); // only for the failed job
+            Map<String, Long> ids = new HashMap<String, Long>();
+            for (int i = 0; i < jobs.size(); i++) {
+                Recon recon = second.get(i);
+                Assert.assertEquals(recon.judgmentHistoryEntry, 2L);
+                Assert.assertEquals(recon.match.name, i == 2 ? "flaky three" : first.get(i).match.name);
+                ids.put(recon.match.id, recon.id);
+            }
+            Assert.assertEquals(ids.size(), 3);
+
+            config.batchRecon(jobs, 3L);
+            Assert.assertEquals(service.requests.get(), 2);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
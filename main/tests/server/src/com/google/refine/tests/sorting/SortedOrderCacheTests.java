@@ -0,0 +1,117 @@
+package com.google.refine.tests.sorting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.browsing.Engine;
+import com.google.refine.browsing.RowVisitor;
+import com.google.refine.history.HistoryEntry;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.model.changes.CellChange;
+import com.google.refine.sorting.SortedOrderCache;
+import com.google.refine.sorting.SortingRowVisitor;
+import com.google.refine.tests.RefineTest;
+
+public class SortedOrderCacheTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    static final String ENGINE_CONFIG = "{\"mode\":\"row-based\",\"facets\":["
+            + "{\"type\":\"range\",\"name\":\"amount\",\"columnName\":\"amount\",\"expression\":\"value\","
+            + "\"from\":100,\"to\":900,\"selectNumeric\":true,\"selectNonNumeric\":true,\"selectBlank\":true,\"selectError\":true}]}";
+
+    static final String SORTING = "{\"criteria\":[{\"column\":\"amount\",\"valueType\":\"number\","
+            + "\"reverse\":true,\"blankPosition\":2,\"errorPosition\":1}]}";
+
+    Project project;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        SortedOrderCache.clear();
+        project = createProjectWithColumns("SortedOrderCacheTests", "amount");
+        for (int i = 0; i < 1000; i++) {
+            Row row = new Row(1);
+            if (i % 17 != 0) {
+                row.setCell(0, new Cell((long) ((i * 37) % 1000), null));
+            }
+            project.rows.add(row);
+        }
+        project.update();
+    }
+
+    private Engine createEngine() throws Exception {
+        Engine engine = new Engine(project);
+        engine.initializeFromJSON(new JSONObject(ENGINE_CONFIG));
+        return engine;
+    }
+
+    private List<Integer> sortWithoutCache() throws Exception {
+        final List<Integer> rowIndices = new ArrayList<Integer>();
+        SortingRowVisitor srv = new SortingRowVisitor(new RowVisitor() {
+            @Override
+            public void start(Project project) {
+            }
+
+            @Override
+            public boolean visit(Project project, int rowIndex, Row row) {
+                rowIndices.add(rowIndex);
+                return false;
+            }
+
+            @Override
+            public void end(Project project) {
+            }
+        });
+        srv.initializeFromJSON(project, new JSONObject(SORTING));
+        createEngine().getAllFilteredRows().accept(project, srv);
+        return rowIndices;
+    }
+
+    private List<Integer> toList(int[] order) {
+        List<Integer> list = new ArrayList<Integer>(order.length);
+        for (int i : order) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    @Test
+    public void cachedOrderMatchesSorting() throws Exception {
+        int[] order = SortedOrderCache.getOrder(project, createEngine(), ENGINE_CONFIG, new JSONObject(SORTING));
+        Assert.assertEquals(toList(order), sortWithoutCache());
+        Assert.assertSame(
+            SortedOrderCache.getOrder(project, createEngine(), ENGINE_CONFIG, new JSONObject(SORTING)), order);
+    }
+
+    @Test
+    public void historyChangeInvalidatesOrder() throws Exception {
+        int[] order = SortedOrderCache.getOrder(project, createEngine(), ENGINE_CONFIG, new JSONObject(SORTING));
+        int last = order[order.length - 1];
+
+        CellChange change = new CellChange(last, 0, project.rows.get(last).getCell(0), new Cell(899L, null));
+        project.history.addEntry(new HistoryEntry(HistoryEntry.allocateID(), project, "edit", null, change));
+
+        int[] newOrder = SortedOrderCache.getOrder(project, createEngine(), ENGINE_CONFIG, new JSONObject(SORTING));
+        Assert.assertNotSame(newOrder, order);
+        Assert.assertNotEquals(toList(newOrder), toList(order));
+        Assert.assertEquals(toList(newOrder), sortWithoutCache());
+    }
+
+    @Test
+    public void noCriteriaGivesNoOrder() throws Exception {
+        Assert.assertNull(SortedOrderCache.getOrder(project, createEngine(), ENGINE_CONFIG, new JSONObject("{\"criteria\":[]}")));
+    }
+}
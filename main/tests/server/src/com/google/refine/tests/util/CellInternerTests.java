@@ -0,0 +1,78 @@
+package com.google.refine.tests.util;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.model.Cell;
+import com.google.refine.model.Recon;
+import com.google.refine.model.Row;
+import com.google.refine.tests.RefineTest;
+import com.google.refine.util.CellInterner;
+import com.google.refine.util.Pool;
+
+public class CellInternerTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    @Test
+    public void cellsOfSameValueAreSharedPerColumn() {
+        CellInterner interner = new CellInterner();
+        Cell first = interner.getCell(0, new String("a"), null);
+        Cell second = interner.getCell(0, new String("a"), null);
+        Assert.assertSame(second, first);
+        Assert.assertSame(interner.intern(0, new Cell(new String("a"), null)), first);
+
+        Assert.assertNotSame(interner.getCell(1, "a", null), first);
+        Assert.assertNotSame(interner.getCell(0, 1L, null), interner.getCell(0, 1.0, null));
+        Assert.assertEquals(interner.getValueCount(0), 3);
+
+        // cells with recons are not shared, but their strings are
+        Recon recon = new Recon(1, null, null);
+        Cell reconciled = interner.getCell(0, new String("a"), recon);
+        Assert.assertNotSame(reconciled, first);
+        Assert.assertSame(reconciled.recon, recon);
+        Assert.assertSame(reconciled.value, first.value);
+        Cell unreconciled = interner.getCell(0, new String("b"), null);
+        Assert.assertNull(unreconciled.recon);
+    }
+
+    @Test
+    public void highCardinalityColumnsAreNotShared() {
+        CellInterner interner = new CellInterner(100);
+        for (int i = 0; i < 1000; i++) {
+            interner.getCell(0, "category " + (i % 10), null);
+            interner.getCell(1, "id " + i, null);
+        }
+        Assert.assertTrue(interner.isEnabled(0));
+        Assert.assertEquals(interner.getValueCount(0), 10);
+        Assert.assertFalse(interner.isEnabled(1));
+        Assert.assertEquals(interner.getValueCount(1), 0);
+        Assert.assertNotSame(interner.getCell(1, "id 1", null), interner.getCell(1, "id 1", null));
+
+        // mostly distinct values are given up on before the maximum
+        interner = new CellInterner();
+        for (int i = 0; i < 5000; i++) {
+            interner.getCell(0, "id " + i, null);
+        }
+        Assert.assertFalse(interner.isEnabled(0));
+    }
+
+    @Test
+    public void loadedRowsShareCells() throws Exception {
+        CellInterner interner = new CellInterner();
+        String line = "{\"flagged\":false,\"starred\":false,\"cells\":[{\"v\":\"x\"},null,{\"v\":12}]}";
+        Row first = Row.load(line, new Pool(), interner);
+        Row second = Row.load(line, new Pool(), interner);
+
+        Assert.assertSame(second.getCell(0), first.getCell(0));
+        Assert.assertSame(second.getCell(2), first.getCell(2));
+        Assert.assertNull(second.getCell(1));
+        Assert.assertNotSame(Row.load(line, new Pool()).getCell(0), first.getCell(0));
+    }
+}
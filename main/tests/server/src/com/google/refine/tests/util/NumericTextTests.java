@@ -0,0 +1,81 @@
+package com.google.refine.tests.util;
+
+import java.util.Random;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.google.refine.tests.RefineTest;
+import com.google.refine.util.NumericText;
+
+public class NumericTextTests extends RefineTest {
+
+    @Override
+    @BeforeTest
+    public void init() {
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * What parsing numbers used to be: trying the parsers in turn.
+     */
+    private Number parseByTrying(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+        }
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void assertParsedAsBefore(String s) {
+        Assert.assertEquals(NumericText.parseNumber(s), parseByTrying(s), "\"" + s + "\"");
+    }
+
+    @Test
+    public void classifyNumbers() {
+        Assert.assertEquals(NumericText.classify("-42"), NumericText.INTEGER);
+        Assert.assertEquals(NumericText.classify("+0.5"), NumericText.DECIMAL);
+        Assert.assertEquals(NumericText.classify("3."), NumericText.DECIMAL);
+        Assert.assertEquals(NumericText.classify("12d"), NumericText.DECIMAL);
+        Assert.assertEquals(NumericText.classify("6.02e23"), NumericText.SCIENTIFIC);
+        Assert.assertEquals(NumericText.classify("0x1.8p1"), NumericText.SCIENTIFIC);
+        Assert.assertEquals(NumericText.classify("-Infinity"), NumericText.NON_FINITE);
+        for (String s : new String[] { "", "-", ".", "e5", "1e", "1e+", "0x10", "1.2.3", "12 ", "NaNa", "abc", "1,000" }) {
+            Assert.assertEquals(NumericText.classify(s), NumericText.NOT_A_NUMBER, s);
+        }
+    }
+
+    @Test
+    public void parseLikeLongThenDouble() {
+        String[] samples = {
+            "0", "-0", "+7", "007", "9223372036854775807", "9223372036854775808", "-9223372036854775808",
+            "123456789012345678901234567890", "1.5", "-.5", "5.", ".", "1e10", "1E-3", "1e+2", "2.5e", "1f",
+            "1.0D", "1x", "NaN", "-NaN", "Infinity", "+Infinity", "Inf", "0x1p3", "0X1.8P-1", "0x1.p1f",
+            "0xp1", "0x1", "١٢", "1٣", "１２", "1٣.5", "1 2", "--1", "+-1",
+            "1e1.5", "12ff", "1d5"
+        };
+        for (String s : samples) {
+            assertParsedAsBefore(s);
+        }
+    }
+
+    @Test
+    public void parseRandomStringsLikeLongThenDouble() {
+        Random random = new Random(42);
+        String alphabet = "0123456789+-.eExXpPfFdDaNIny ١";
+        for (int n = 0; n < 200000; n++) {
+            int length = random.nextInt(8);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertParsedAsBefore(sb.toString().trim());
+        }
+    }
+}
@@ -257,10 +257,37 @@ ClusteringDialog.prototype._cluster = function() {
     var self = this;
 
     var container = this._elmts.tableContainer.html(
-        '<div style="margin: 1em; font-size: 130%; color: #888;">'+$.i18n._('core-dialogs')["clustering"]+'<img src="images/small-spinner.gif"></div>'
+        '<div style="margin: 1em; font-size: 130%; color: #888;">'+$.i18n._('core-dialogs')["clustering"]+'<span class="clustering-progress"></span><img src="images/small-spinner.gif"></div>'
     );
 
     this._elmts.resultSummary.empty();
+    this._cancelClustering();
+
+    // responses to a clustering since canceled or superseded are ignored
+    var run = this._run = (this._run || 0) + 1;
+    var onResponse = function(data) {
+        if (run != self._run) {
+            return;
+        }
+        if (data.code == "pending") {
+            // slow clusterers keep running on the server: follow their progress
+            self._processId = data.processId;
+            container.find(".clustering-progress").text(data.progress + "% ");
+            $.post(
+                "command/core/compute-clusters?" + $.param({ project: theProject.id }),
+                { processId: data.processId },
+                onResponse,
+                "json"
+            );
+        } else if (data.code == "error") {
+            self._processId = null;
+            container.empty().append(
+                $('<div>').css({ margin: "1em", color: "#888" }).text(data.message));
+        } else {
+            self._processId = null;
+            self._updateData(data);
+        }
+    };
 
     $.post(
         "command/core/compute-clusters?" + $.param({ project: theProject.id }),
@@ -273,13 +300,22 @@ ClusteringDialog.prototype._cluster = function() {
                 'params' : this._params
             })
         },
-        function(data) {
-            self._updateData(data);
-        },
+        onResponse,
         "json"
     );
 };
 
+ClusteringDialog.prototype._cancelClustering = function() {
+    if (this._processId) {
+        $.post(
+            "command/core/compute-clusters?" + $.param({ project: theProject.id }),
+            { processId: this._processId, cancel: true }
+        );
+        this._processId = null;
+    }
+    this._run = (this._run || 0) + 1;
+};
+
 ClusteringDialog.prototype._updateData = function(data) {
     var clusters = [];
     $.each(data, function() {
@@ -403,6 +439,7 @@ ClusteringDialog.prototype._export = function() {
 };
 
 ClusteringDialog.prototype._dismiss = function() {
+    this._cancelClustering();
     DialogSystem.dismissUntil(this._level - 1);
 };
 
@@ -283,7 +283,9 @@ ListFacet.prototype._update = function(resetScroll) {
       this._elmts.bodyInnerDiv.empty();
       
       var messageDiv = $('<div>')
-        .text(this._data.choiceCount + " "+$.i18n._('core-facets')["too-many-choices"])
+        .text(this._data.moreThanLimit ?
+            $.i18n._('core-facets')["more-than"] + " " + this._data.choiceCountLimit + " " + $.i18n._('core-facets')["too-many-choices"] :
+            this._data.choiceCount + " " + $.i18n._('core-facets')["too-many-choices"])
         .addClass("facet-body-message")
         .appendTo(this._elmts.bodyInnerDiv);
       $('<br>').appendTo(messageDiv);
@@ -294,7 +296,7 @@ ListFacet.prototype._update = function(resetScroll) {
       .addClass("secondary")
       .appendTo(messageDiv)
       .click(function() {
-        self._setChoiceCountLimit(self._data.choiceCount);
+        self._setChoiceCountLimit(self._data);
       });
       
       this._renderBodyControls();
@@ -713,7 +715,9 @@ ListFacet.prototype._editExpression = function() {
   );
 };
 
-ListFacet.prototype._setChoiceCountLimit = function(choiceCount) {
+ListFacet.prototype._setChoiceCountLimit = function(data) {
+  // past the limit the number of choices is unknown: suggest twice the limit
+  var choiceCount = data.moreThanLimit ? 2 * data.choiceCountLimit : data.choiceCount;
   var limit = Math.ceil(choiceCount / 1000) * 1000;
   var s = window.prompt($.i18n._('core-facets')["set-max-choices"], limit);
   if (s) {
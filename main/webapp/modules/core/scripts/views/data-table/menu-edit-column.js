@@ -105,6 +105,7 @@ DataTableColumnHeaderUI.extendMenu(function(column, columnHeaderUI, menu) {
     elmts.or_views_setBlank.text($.i18n._('core-views')["set-blank"]);
     elmts.or_views_storeErr.text($.i18n._('core-views')["store-err"]);
     elmts.or_views_cacheResponses.text($.i18n._('core-views')["cache-responses"]);
+    elmts.or_views_persistResponses.text($.i18n._('core-views')["persist-responses"]);
     elmts.or_views_httpHeaders.text($.i18n._('core-views')["http-headers"]);
     elmts.or_views_httpHeadersShowHide.text($.i18n._('core-views')["show"]);
     elmts.or_views_httpHeadersShowHide.click(function() {
@@ -151,6 +152,7 @@ DataTableColumnHeaderUI.extendMenu(function(column, columnHeaderUI, menu) {
           delay: elmts.throttleDelayInput[0].value,
           onError: $('input[name="dialog-onerror-choice"]:checked')[0].value,
           cacheResponses: $('input[name="dialog-cache-responses"]')[0].checked,
+          persistResponses: $('input[name="dialog-persist-responses"]')[0].checked,
           httpHeaders: JSON.stringify(elmts.setHttpHeadersContainer.find("input").serializeArray())
         },
         null,